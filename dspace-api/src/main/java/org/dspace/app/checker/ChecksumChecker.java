@@ -33,6 +33,7 @@ import org.dspace.checker.ListDispatcher;
 import org.dspace.checker.ResultsLogger;
 import org.dspace.checker.ResultsPruner;
 import org.dspace.checker.SimpleDispatcher;
+import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Context;
 import org.dspace.core.Utils;
 
@@ -96,6 +97,8 @@ public final class ChecksumChecker
         options.addOption("c", "count", true, "Check count");
         options.addOption("a", "handle", true, "Specify a handle to check");
         options.addOption("v", "verbose", false, "Report all processing");
+        options.addOption("t", "threads", true,
+                "Number of threads checking the bitstreams concurrently");
 
         OptionBuilder.withArgName("bitstream-ids").hasArgs().withDescription(
                 "Space separated list of bitstream ids");
@@ -150,17 +153,34 @@ public final class ChecksumChecker
 
         Date processStart = Calendar.getInstance().getTime();
 
+        int threads = ConfigurationManager.getIntProperty("checker.threads", 1);
+        if (line.hasOption('t'))
+        {
+            try
+            {
+                threads = Integer.parseInt(line.getOptionValue('t'));
+            }
+            catch (NumberFormatException nfe)
+            {
+                System.err.println("The number of threads " + line.getOptionValue('t')
+                        + " is not an integer");
+                System.exit(1);
+            }
+        }
+        // with several threads the bitstreams are claimed in batches
+        int batchSize = threads > 1 ? ConfigurationManager.getIntProperty("checker.batch-size", 100) : 1;
+
         BitstreamDispatcher dispatcher = null;
         
         // process should loop infinitely through
         // most_recent_checksum table
         if (line.hasOption('l'))
         {
-            dispatcher = new SimpleDispatcher(new BitstreamInfoDAO(), processStart, false); 
+            dispatcher = new SimpleDispatcher(new BitstreamInfoDAO(), processStart, false, batchSize); 
         }
         else if (line.hasOption('L'))
         {
-            dispatcher = new SimpleDispatcher(new BitstreamInfoDAO(), processStart, true);
+            dispatcher = new SimpleDispatcher(new BitstreamInfoDAO(), processStart, true, batchSize);
         }
         else if (line.hasOption('b'))
         {
@@ -194,7 +214,7 @@ public final class ChecksumChecker
             try
             {
                 dispatcher = new LimitedDurationDispatcher(
-                        new SimpleDispatcher(new BitstreamInfoDAO(), processStart, true), new Date(
+                        new SimpleDispatcher(new BitstreamInfoDAO(), processStart, true, batchSize), new Date(
                                 System.currentTimeMillis()
                                         + Utils.parseDuration(line
                                                 .getOptionValue('d'))));
@@ -210,9 +230,10 @@ public final class ChecksumChecker
         {
         	int count = Integer.valueOf(line.getOptionValue('c')).intValue();
             
-        	// run checker process for specified number of bitstreams
+        	// run checker process for specified number of bitstreams,
+        	// claiming no more than that
             dispatcher = new LimitedCountDispatcher(new SimpleDispatcher(
-                    new BitstreamInfoDAO(), processStart, false), count);
+                    new BitstreamInfoDAO(), processStart, false, Math.min(count, batchSize)), count);
         }
         else
         {
@@ -228,6 +249,10 @@ public final class ChecksumChecker
             checker.setReportVerbose(true);
         }
 
+        checker.setThreads(threads);
+        checker.setBatchSize(batchSize);
+        // in MB per second
+        checker.setMaxBandwidth(ConfigurationManager.getLongProperty("checker.max-bandwidth", 0) * 1024 * 1024);
         checker.setProcessStartDate(processStart);
         checker.setDispatcher(dispatcher);
         checker.setCollector(logger);
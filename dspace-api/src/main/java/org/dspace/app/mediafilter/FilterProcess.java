@@ -0,0 +1,95 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.mediafilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+
+/**
+ * Runs the external programs of the filters with a time limit
+ * ("filter.process.timeout" seconds, default 300). The output of the program
+ * goes to a file rather than a pipe, so that a program writing more than the
+ * pipe holds never blocks. A program still running at the time limit, or when
+ * the filtering thread is interrupted, is killed.
+ */
+final class FilterProcess
+{
+    private static final Logger log = Logger.getLogger(FilterProcess.class);
+
+    /** interval between the checks of the program exit */
+    private static final long POLL_INTERVAL = 50;
+
+    private FilterProcess()
+    {
+    }
+
+    /**
+     * Run a program until it exits.
+     *
+     * @param command
+     *            the program and its arguments
+     * @param stdout
+     *            file receiving the standard output, or null to discard it
+     * @return the exit status of the program
+     * @throws IOException
+     *             if the program can't be started, or is killed at the time
+     *             limit
+     * @throws InterruptedException
+     *             if the thread is interrupted, the program being killed
+     */
+    static int run(String[] command, File stdout) throws IOException, InterruptedException
+    {
+        long timeout = ConfigurationManager.getLongProperty("filter.process.timeout", 300) * 1000;
+
+        File discarded = File.createTempFile("DSfiltout", ".log");
+        try
+        {
+            ProcessBuilder builder = new ProcessBuilder(command);
+            builder.redirectOutput(stdout != null ? stdout : discarded);
+            builder.redirectError(discarded);
+            log.debug("Running command: " + Arrays.deepToString(command));
+            Process process = builder.start();
+            try
+            {
+                long deadline = System.currentTimeMillis() + timeout;
+                while (true)
+                {
+                    try
+                    {
+                        return process.exitValue();
+                    }
+                    catch (IllegalThreadStateException e)
+                    {
+                        // still running
+                    }
+                    if (timeout > 0 && System.currentTimeMillis() > deadline)
+                    {
+                        throw new IOException("Killed " + command[0] + " after " + (timeout / 1000) + " s");
+                    }
+                    Thread.sleep(POLL_INTERVAL);
+                }
+            }
+            finally
+            {
+                // no-op if the program exited
+                process.destroy();
+            }
+        }
+        finally
+        {
+            if (!discarded.delete())
+            {
+                log.error("Unable to delete temporary file " + discarded);
+            }
+        }
+    }
+}
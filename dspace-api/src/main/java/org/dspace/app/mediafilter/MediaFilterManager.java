@@ -7,6 +7,8 @@
  */
 package org.dspace.app.mediafilter;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -24,6 +26,7 @@ import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.PosixParser;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.log4j.Logger;
 import org.dspace.authorize.AuthorizeManager;
@@ -44,6 +47,8 @@ import org.dspace.core.SelfNamedPlugin;
 import org.dspace.eperson.Group;
 import org.dspace.handle.HandleManager;
 import org.dspace.search.DSIndexer;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRowIterator;
 
 /**
  * MediaFilterManager is the class that invokes the media/format filters over the
@@ -51,8 +56,10 @@ import org.dspace.search.DSIndexer;
  * MFM: -v verbose outputs all extracted text to STDOUT; -f force forces all
  * bitstreams to be processed, even if they have been before; -n noindex does not
  * recreate index after processing bitstreams; -i [identifier] limits processing 
- * scope to a community, collection or item; and -m [max] limits processing to a
- * maximum number of items.
+ * scope to a community, collection or item; -m [max] limits processing to a
+ * maximum number of items; -P pipeline runs the filters concurrently (see
+ * {@link MediaFilterPipeline}); and -r resume restarts an interrupted run over
+ * all the items after the last item it completed (not with -i or -s).
  */
 public class MediaFilterManager
 {
@@ -79,7 +86,12 @@ public class MediaFilterManager
     
     static int processed = 0;   // number items processed
     
-    private static Item currentItem = null;   // current item being processed
+    // current item being processed, by the thread filtering it
+    private static final ThreadLocal<Item> currentItem = new ThreadLocal<Item>();
+
+    private static MediaFilterPipeline pipeline = null; // set in pipeline mode
+
+    private static File checkpoint = null; // last completed item, when processing all items
     
     private static FormatFilter[] filterClasses = null;
     
@@ -194,6 +206,10 @@ public class MediaFilterManager
         		"ONLY process bitstreams belonging to identifier");
         options.addOption("m", "maximum", true,
 				"process no more than maximum items");
+        options.addOption("P", "pipeline", false,
+                "filter concurrently, with the worker threads of each filter set by filter.<class-name>.threads");
+        options.addOption("r", "resume", false,
+                "resume processing all items after the last item completed by an interrupted run");
         options.addOption("h", "help", false, "help");
 
         //create a "plugin" option (to specify specific MediaFilter plugins to run)
@@ -327,6 +343,14 @@ public class MediaFilterManager
             //save to a global skip list
             skipList = Arrays.asList(skipIds);
         }
+
+        if (line.hasOption('r') && (skipList != null || identifier != null))
+        {   //display error, a resumed run goes through all the items in order of ID
+            System.err.println("\nERROR: -r (-resume) option can't be used with -s (-skip) or -i (-identifier).\n");
+            HelpFormatter myhelp = new HelpFormatter();
+            myhelp.printHelp("MediaFilterManager\n", options);
+            System.exit(1);
+        }
         
         Context c = null;
 
@@ -337,10 +361,22 @@ public class MediaFilterManager
             // have to be super-user to do the filtering
             c.turnOffAuthorisationSystem();
 
+            if (line.hasOption('P'))
+            {
+                pipeline = new MediaFilterPipeline(filterClasses);
+            }
+
             // now apply the filters
             if (identifier == null)
             {
-            	applyFiltersAllItems(c);
+                if (skipList == null)
+                {
+                    applyFiltersAllItems(c, line.hasOption('r'));
+                }
+                else
+                {
+                    applyFiltersAllItems(c);
+                }
             }
             else  // restrict application scope to identifier
             {
@@ -364,6 +400,10 @@ public class MediaFilterManager
             						break;
             	}
             }
+            if (pipeline != null)
+            {
+                pipeline.finish(c);
+            }
 
             c.complete();
             c = null;
@@ -374,6 +414,10 @@ public class MediaFilterManager
         }
         finally
         {
+            if (pipeline != null)
+            {
+                pipeline.shutdown();
+            }
             if (c != null)
             {
                 c.abort();
@@ -401,7 +445,7 @@ public class MediaFilterManager
             ItemIterator i = Item.findAll(c);
             try
             {
-                while (i.hasNext() && processed < max2Process)
+                while (i.hasNext() && belowMaximum())
                 {
                     applyFiltersItem(c, i.next());
                 }
@@ -415,6 +459,57 @@ public class MediaFilterManager
             }
         }
     }
+
+    /**
+     * Apply the filters to all the items in order of ID, saving the ID of the
+     * last completed item in [log.dir]/filter-media.checkpoint so that an
+     * interrupted run can be resumed. The checkpoint is removed once all the
+     * items are processed.
+     *
+     * @param resume
+     *            true to start after the item saved by the previous run
+     */
+    public static void applyFiltersAllItems(Context c, boolean resume) throws Exception
+    {
+        checkpoint = new File(ConfigurationManager.getProperty("log.dir"), "filter-media.checkpoint");
+        int lastID = 0;
+        if (resume && checkpoint.exists())
+        {
+            lastID = Integer.parseInt(FileUtils.readFileToString(checkpoint, "UTF-8").trim());
+            if (!isQuiet)
+            {
+                System.out.println("Resuming after item " + lastID);
+            }
+        }
+
+        TableRowIterator rows = DatabaseManager.queryTable(c, "item",
+                "SELECT * FROM item WHERE in_archive='1' AND item_id > ? ORDER BY item_id", lastID);
+        ItemIterator i = new ItemIterator(c, rows);
+        try
+        {
+            while (i.hasNext() && belowMaximum())
+            {
+                applyFiltersItem(c, i.next());
+            }
+            // complete the pending items while the checkpoint is kept
+            if (pipeline != null)
+            {
+                pipeline.finish(c);
+            }
+            if (!i.hasNext())
+            {
+                if (!checkpoint.delete())
+                {
+                    log.warn("Unable to delete " + checkpoint);
+                }
+            }
+        }
+        finally
+        {
+            i.close();
+            checkpoint = null;
+        }
+    }
     
     public static void applyFiltersCommunity(Context c, Community community)
                                              throws Exception
@@ -444,7 +539,7 @@ public class MediaFilterManager
             ItemIterator i = collection.getItems();
             try
             {
-                while (i.hasNext() && processed < max2Process)
+                while (i.hasNext() && belowMaximum())
                 {
                     applyFiltersItem(c, i.next());
                 }
@@ -464,23 +559,56 @@ public class MediaFilterManager
         //only apply filters if item not in skip-list
         if(!inSkipList(item.getHandle()))
         {
+            if (pipeline != null)
+            {
+                pipeline.submit(c, item);
+                return;
+            }
+
     	  //cache this item in MediaFilterManager
     	  //so it can be accessed by MediaFilters as necessary
-    	  currentItem = item;
+    	  setCurrentItem(item);
     	
-          if (filterItem(c, item))
-          {
-        	  // commit changes after each filtered item
-        	  c.commit();
-              // increment processed count
-              ++processed;
-          }
-          // clear item objects from context cache and internal cache
-          item.decache();
-          currentItem = null;
+          boolean filtered = filterItem(c, item);
+          setCurrentItem(null);
+          completeItem(c, item, filtered);
         }  
     }
 
+    /**
+     * Finish with an item once all its bitstreams are filtered: commit its
+     * changes, release it from the caches and record it in the checkpoint.
+     *
+     * @param filtered
+     *            true if new renditions were created
+     */
+    static void completeItem(Context c, Item item, boolean filtered) throws Exception
+    {
+        if (filtered)
+        {
+            // commit changes after each filtered item
+            c.commit();
+            // increment processed count
+            ++processed;
+        }
+        // clear item objects from context cache and internal cache
+        item.decache();
+
+        if (checkpoint != null)
+        {
+            FileUtils.writeStringToFile(checkpoint, String.valueOf(item.getID()), "UTF-8");
+        }
+    }
+
+    /**
+     * @return true unless the maximum number of items is reached, counting
+     *         the items still in the pipeline
+     */
+    private static boolean belowMaximum()
+    {
+        return processed + (pipeline != null ? pipeline.getPendingCount() : 0) < max2Process;
+    }
+
     /**
      * Iterate through the item's bitstreams in the ORIGINAL bundle, applying
      * filters if possible.
@@ -523,138 +651,143 @@ public class MediaFilterManager
     	
     	// iterate through filter classes. A single format may be actioned
     	// by more than one filter
-    	for (int i = 0; i < filterClasses.length; i++)
+    	for (FormatFilter filter : getApplicableFilters(myBitstream))
     	{
-    		//List fmts = (List)filterFormats.get(filterClasses[i].getClass().getName());
-    	    String pluginName = null;
-    	               
-    	    //if this filter class is a SelfNamedPlugin,
-    	    //its list of supported formats is different for
-    	    //differently named "plugin"
-    	    if( SelfNamedPlugin.class.isAssignableFrom(filterClasses[i].getClass()) )
-    	    {
-    	        //get plugin instance name for this media filter
-    	        pluginName = ((SelfNamedPlugin)filterClasses[i]).getPluginInstanceName();
-    	    }
-    	               
-    	    //Get list of supported formats for the filter (and possibly named plugin)
-    	    //For SelfNamedPlugins, map key is:  
-    	    //  <class-name><separator><plugin-name>
-    	    //For other MediaFilters, map key is just:
-    	    //  <class-name>
-    	    List<String> fmts = filterFormats.get(filterClasses[i].getClass().getName() +
-    	                       (pluginName!=null ? FILTER_PLUGIN_SEPARATOR + pluginName : ""));
-    	   
-    	    if (fmts.contains(myBitstream.getFormat().getShortDescription()))
-    		{
-            	try
-            	{
-		            // only update item if bitstream not skipped
-		            if (processBitstream(c, myItem, myBitstream, filterClasses[i]))
-            	    {
-		           		myItem.update(); // Make sure new bitstream has a sequence
-		                                 	// number
-		           		filtered = true;
-		            }
-            	}
-                catch (Exception e)
-                {
-                	String handle = myItem.getHandle();
-                	Bundle[] bundles = myBitstream.getBundles();
-                	long size = myBitstream.getSize();
-                	String checksum = myBitstream.getChecksum() + " ("+myBitstream.getChecksumAlgorithm()+")";
-                	int assetstore = myBitstream.getStoreNumber();
-   
-                	// Printout helpful information to find the errored bitstream.
-                	System.out.println("ERROR filtering, skipping bitstream:\n");
-                	System.out.println("\tItem Handle: "+ handle);
-                	for (Bundle bundle : bundles)
-                	{
-                		System.out.println("\tBundle Name: " + bundle.getName());
-                	}
-                	System.out.println("\tFile Size: " + size);
-                	System.out.println("\tChecksum: " + checksum);
-                	System.out.println("\tAsset Store: " + assetstore);
-                	System.out.println(e);
-                    e.printStackTrace();
-                }
-    		}
-            else if (filterClasses[i] instanceof SelfRegisterInputFormats)
+            try
             {
-                // Filter implements self registration, so check to see if it should be applied
-                // given the formats it claims to support
-                SelfRegisterInputFormats srif = (SelfRegisterInputFormats)filterClasses[i];
-                boolean applyFilter = false;
-
-                // Check MIME type
-                String[] mimeTypes = srif.getInputMIMETypes();
-                if (mimeTypes != null)
+                // only update item if bitstream not skipped
+                if (processBitstream(c, myItem, myBitstream, filter))
                 {
-                    for (String mimeType : mimeTypes)
-                    {
-                        if (mimeType.equalsIgnoreCase(myBitstream.getFormat().getMIMEType()))
-                        {
-                            applyFilter = true;
-                        }
-                    }
+                    myItem.update(); // Make sure new bitstream has a sequence
+                                     // number
+                    filtered = true;
                 }
+            }
+            catch (Exception e)
+            {
+                printError(myItem, myBitstream, e);
+            }
+    	}
+        return filtered;
+    }
+
+    /**
+     * @return the enabled filters which accept the format of the bitstream, in
+     *         the order they are configured
+     */
+    static List<FormatFilter> getApplicableFilters(Bitstream myBitstream)
+    {
+        List<FormatFilter> applicable = new ArrayList<FormatFilter>();
+        for (int i = 0; i < filterClasses.length; i++)
+        {
+            if (isApplicable(filterClasses[i], myBitstream))
+            {
+                applicable.add(filterClasses[i]);
+            }
+        }
+        return applicable;
+    }
+
+    private static boolean isApplicable(FormatFilter filter, Bitstream myBitstream)
+    {
+        String pluginName = null;
+
+        //if this filter class is a SelfNamedPlugin,
+        //its list of supported formats is different for
+        //differently named "plugin"
+        if( SelfNamedPlugin.class.isAssignableFrom(filter.getClass()) )
+        {
+            //get plugin instance name for this media filter
+            pluginName = ((SelfNamedPlugin)filter).getPluginInstanceName();
+        }
+
+        //Get list of supported formats for the filter (and possibly named plugin)
+        //For SelfNamedPlugins, map key is:
+        //  <class-name><separator><plugin-name>
+        //For other MediaFilters, map key is just:
+        //  <class-name>
+        List<String> fmts = filterFormats.get(filter.getClass().getName() +
+                           (pluginName!=null ? FILTER_PLUGIN_SEPARATOR + pluginName : ""));
+
+        if (fmts.contains(myBitstream.getFormat().getShortDescription()))
+        {
+            return true;
+        }
+        else if (filter instanceof SelfRegisterInputFormats)
+        {
+            // Filter implements self registration, so check to see if it should be applied
+            // given the formats it claims to support
+            SelfRegisterInputFormats srif = (SelfRegisterInputFormats)filter;
 
-                // Check description
-                if (!applyFilter)
+            // Check MIME type
+            String[] mimeTypes = srif.getInputMIMETypes();
+            if (mimeTypes != null)
+            {
+                for (String mimeType : mimeTypes)
                 {
-                    String[] descriptions = srif.getInputDescriptions();
-                    if (descriptions != null)
+                    if (mimeType.equalsIgnoreCase(myBitstream.getFormat().getMIMEType()))
                     {
-                        for (String desc : descriptions)
-                        {
-                            if (desc.equalsIgnoreCase(myBitstream.getFormat().getShortDescription()))
-                            {
-                                applyFilter = true;
-                            }
-                        }
+                        return true;
                     }
                 }
+            }
 
-                // Check extensions
-                if (!applyFilter)
+            // Check description
+            String[] descriptions = srif.getInputDescriptions();
+            if (descriptions != null)
+            {
+                for (String desc : descriptions)
                 {
-                    String[] extensions = srif.getInputExtensions();
-                    if (extensions != null)
+                    if (desc.equalsIgnoreCase(myBitstream.getFormat().getShortDescription()))
                     {
-                        for (String ext : extensions)
-                        {
-                            String[] formatExtensions = myBitstream.getFormat().getExtensions();
-                            if (formatExtensions != null && ArrayUtils.contains(formatExtensions, ext))
-                            {
-                                applyFilter = true;
-                            }
-                        }
+                        return true;
                     }
                 }
+            }
 
-                // Filter claims to handle this type of file, so attempt to apply it
-                if (applyFilter)
+            // Check extensions
+            String[] extensions = srif.getInputExtensions();
+            if (extensions != null)
+            {
+                String[] formatExtensions = myBitstream.getFormat().getExtensions();
+                for (String ext : extensions)
                 {
-                    try
+                    if (formatExtensions != null && ArrayUtils.contains(formatExtensions, ext))
                     {
-                        // only update item if bitstream not skipped
-                        if (processBitstream(c, myItem, myBitstream, filterClasses[i]))
-                        {
-                               myItem.update(); // Make sure new bitstream has a sequence
-                                                 // number
-                               filtered = true;
-                        }
-                    }
-                    catch (Exception e)
-                    {
-                        System.out.println("ERROR filtering, skipping bitstream #"
-                                + myBitstream.getID() + " " + e);
-                        e.printStackTrace();
+                        return true;
                     }
                 }
             }
-    	}
-        return filtered;
+        }
+        return false;
+    }
+
+    /**
+     * Print helpful information to find a bitstream which failed filtering.
+     */
+    static void printError(Item myItem, Bitstream myBitstream, Exception e)
+    {
+        try
+        {
+            String checksum = myBitstream.getChecksum() + " ("+myBitstream.getChecksumAlgorithm()+")";
+
+            System.out.println("ERROR filtering, skipping bitstream:\n");
+            System.out.println("\tItem Handle: "+ myItem.getHandle());
+            System.out.println("\tBitstream ID: " + myBitstream.getID());
+            for (Bundle bundle : myBitstream.getBundles())
+            {
+                System.out.println("\tBundle Name: " + bundle.getName());
+            }
+            System.out.println("\tFile Size: " + myBitstream.getSize());
+            System.out.println("\tChecksum: " + checksum);
+            System.out.println("\tAsset Store: " + myBitstream.getStoreNumber());
+        }
+        catch (Exception e2)
+        {
+            System.out.println("ERROR filtering, skipping bitstream #" + myBitstream.getID());
+        }
+        System.out.println(e);
+        e.printStackTrace();
     }
     
     /**
@@ -679,10 +812,64 @@ public class MediaFilterManager
     public static boolean processBitstream(Context c, Item item, Bitstream source, FormatFilter formatFilter)
             throws Exception
     {
+        Rendition rendition = prepare(c, item, source, formatFilter);
+        if (rendition == null)
+        {
+            return false;
+        }
+
+        InputStream destStream;
+        try {
+            System.out.println("File: " + rendition.name);
+            destStream = formatFilter.getDestinationStream(source.retrieve());
+            if (destStream == null)
+            {
+                if (!isQuiet)
+                {
+                    System.out.println("SKIPPED: bitstream " + source.getID()
+                        + " (item: " + item.getHandle() + ") because filtering was unsuccessful");
+                }
+
+                return false;
+            }
+        }
+        catch (OutOfMemoryError oome)
+        {
+            System.out.println("!!! OutOfMemoryError !!!");
+            return false;
+        }
+
+        store(c, item, source, formatFilter, rendition, destStream);
+        return true;
+    }
+
+    /**
+     * Decide whether a bitstream is to be filtered: the filter pre-processing
+     * must succeed, the bitstream must not be larger than
+     * filter.max-input-size megabytes (if set), and the rendition must not
+     * exist yet unless overWrite is set.
+     *
+     * @return the rendition to create, or null to skip the bitstream
+     */
+    static Rendition prepare(Context c, Item item, Bitstream source, FormatFilter formatFilter)
+            throws Exception
+    {
+        long maxSize = ConfigurationManager.getLongProperty("filter.max-input-size", 0) * 1024 * 1024;
+        if (maxSize > 0 && source.getSize() > maxSize)
+        {
+            if (!isQuiet)
+            {
+                System.out.println("SKIPPED: bitstream " + source.getID()
+                        + " (item: " + item.getHandle() + ") because it is larger than "
+                        + (maxSize / 1024 / 1024) + " MB");
+            }
+            return null;
+        }
+
         //do pre-processing of this bitstream, and if it fails, skip this bitstream!
     	if(!formatFilter.preProcessBitstream(c, item, source))
         {
-            return false;
+            return null;
         }
         	
     	boolean overWrite = MediaFilterManager.isForce;
@@ -691,7 +878,6 @@ public class MediaFilterManager
         String newName = formatFilter.getFilteredName(source.getName());
 
         Bitstream existingBitstream = null; // is there an existing rendition?
-        Bundle targetBundle = null; // bundle we're modifying
 
         Bundle[] bundles = item.getBundles(formatFilter.getBundleName());
 
@@ -707,7 +893,6 @@ public class MediaFilterManager
                 {
                     if (bitstreams[j].getName().equals(newName))
                     {
-                        targetBundle = bundles[i];
                         existingBitstream = bitstreams[j];
                     }
                 }
@@ -723,7 +908,7 @@ public class MediaFilterManager
                         + " (item: " + item.getHandle() + ") because '" + newName + "' already exists");
             }
 
-            return false;
+            return null;
         }
         
         if(isVerbose) {
@@ -731,26 +916,19 @@ public class MediaFilterManager
                 + " (item: " + item.getHandle() + ")");
         }
 
-        InputStream destStream;
-        try {
-            System.out.println("File: " + newName);
-            destStream = formatFilter.getDestinationStream(source.retrieve());
-            if (destStream == null)
-            {
-                if (!isQuiet)
-                {
-                    System.out.println("SKIPPED: bitstream " + source.getID()
-                        + " (item: " + item.getHandle() + ") because filtering was unsuccessful");
-                }
+        return new Rendition(newName, existingBitstream);
+    }
 
-                return false;
-            }
-        }
-        catch (OutOfMemoryError oome)
-        {
-            System.out.println("!!! OutOfMemoryError !!!");
-            return false;
-        }
+    /**
+     * Store the output of a filter as the rendition of the source bitstream,
+     * replacing the existing rendition if any. The output stream is closed.
+     */
+    static void store(Context c, Item item, Bitstream source, FormatFilter formatFilter,
+            Rendition rendition, InputStream destStream) throws Exception
+    {
+        Bundle targetBundle = null; // bundle we're modifying
+
+        Bundle[] bundles = item.getBundles(formatFilter.getBundleName());
 
         // create new bundle if needed
         if (bundles.length < 1)
@@ -763,10 +941,18 @@ public class MediaFilterManager
             targetBundle = bundles[0];
         }
 
-        Bitstream b = targetBundle.createBitstream(destStream);
+        Bitstream b;
+        try
+        {
+            b = targetBundle.createBitstream(destStream);
+        }
+        finally
+        {
+            destStream.close();
+        }
 
         // Now set the format and name of the bitstream
-        b.setName(newName);
+        b.setName(rendition.name);
         b.setSource("Written by FormatFilter " + formatFilter.getClass().getName() +
         			" on " + DCDate.getCurrent() + " (GMT)."); 
         b.setDescription(formatFilter.getDescription());
@@ -793,21 +979,19 @@ public class MediaFilterManager
 
         // fixme - set date?
         // we are overwriting, so remove old bitstream
-        if (existingBitstream != null)
+        if (rendition.existingBitstream != null)
         {
-            targetBundle.removeBitstream(existingBitstream);
+            targetBundle.removeBitstream(rendition.existingBitstream);
         }
 
         if (!isQuiet)
         {
             System.out.println("FILTERED: bitstream " + source.getID()
-                    + " (item: " + item.getHandle() + ") and created '" + newName + "'");
+                    + " (item: " + item.getHandle() + ") and created '" + rendition.name + "'");
         }
 
         //do post-processing of the generated bitstream
         formatFilter.postProcessBitstream(c, item, b);
-        
-        return true;
     }
     
     /**
@@ -822,7 +1006,25 @@ public class MediaFilterManager
      */
     public static Item getCurrentItem()
     {
-        return currentItem;
+        return currentItem.get();
+    }
+
+    /**
+     * Set the item being filtered by the current thread.
+     *
+     * @param item
+     *            the item, or null once filtered
+     */
+    static void setCurrentItem(Item item)
+    {
+        if (item == null)
+        {
+            currentItem.remove();
+        }
+        else
+        {
+            currentItem.set(item);
+        }
     }
     
     /**
@@ -850,4 +1052,21 @@ public class MediaFilterManager
         }
     }
     
+    /**
+     * Rendition of a bitstream about to be created by a filter.
+     */
+    static final class Rendition
+    {
+        /** name of the new bitstream */
+        final String name;
+
+        /** rendition to replace, if any */
+        final Bitstream existingBitstream;
+
+        Rendition(String name, Bitstream existingBitstream)
+        {
+            this.name = name;
+            this.existingBitstream = existingBitstream;
+        }
+    }
 }
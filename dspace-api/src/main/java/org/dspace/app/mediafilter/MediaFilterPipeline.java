@@ -0,0 +1,449 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.mediafilter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.dspace.content.Bitstream;
+import org.dspace.content.Bundle;
+import org.dspace.content.Item;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+import org.dspace.core.Utils;
+
+/**
+ * Runs the filters of the MediaFilterManager concurrently. The thread walking
+ * the items submits each bitstream to a pool of worker threads of the filter
+ * applied to it, so that the CPU bound text extractors and the thumbnail
+ * filters waiting on external programs are sized independently:
+ * <p>
+ * <code>filter.&lt;class-name&gt;.threads</code> (default 1)
+ * <p>
+ * The workers only run the filters, spooling their output to temporary files;
+ * reading the database and storing the renditions stays on the thread walking
+ * the items, as the Context isn't thread safe. Items are completed in the
+ * order they are submitted, and at most
+ * <code>filter.pipeline.pending-items</code> (default 50) are in flight.
+ * <p>
+ * A filter still running <code>filter.timeout</code> seconds (default 0, no
+ * limit) after it started on a bitstream is interrupted and its output
+ * discarded. External programs started through {@link FilterProcess} are
+ * killed; a filter working in the JVM keeps its worker until it gives up.
+ */
+class MediaFilterPipeline
+{
+    private static final Logger log = Logger.getLogger(MediaFilterPipeline.class);
+
+    /** worker pools by filter */
+    private final Map<FormatFilter, ExecutorService> pools = new IdentityHashMap<FormatFilter, ExecutorService>();
+
+    /** submitted items, oldest first */
+    private final LinkedList<PendingItem> pending = new LinkedList<PendingItem>();
+
+    private final int maxPending;
+
+    /** milliseconds allowed to a filter on a bitstream, 0 for no limit */
+    private final long timeout;
+
+    MediaFilterPipeline(FormatFilter[] filters)
+    {
+        maxPending = Math.max(1, ConfigurationManager.getIntProperty("filter.pipeline.pending-items", 50));
+        timeout = ConfigurationManager.getLongProperty("filter.timeout", 0) * 1000;
+
+        for (FormatFilter filter : filters)
+        {
+            String className = filter.getClass().getName();
+            int threads = ConfigurationManager.getIntProperty(
+                    MediaFilterManager.FILTER_PREFIX + "." + className + ".threads", 1);
+            pools.put(filter, Executors.newFixedThreadPool(Math.max(1, threads),
+                    new WorkerFactory(filter.getClass().getSimpleName())));
+        }
+    }
+
+    /**
+     * Submit the bitstreams of the item to the filters applicable to them,
+     * then complete the oldest items beyond the number allowed in flight.
+     */
+    void submit(Context c, Item item) throws Exception
+    {
+        PendingItem pendingItem = new PendingItem(item);
+        for (Bundle bundle : item.getBundles("ORIGINAL"))
+        {
+            for (Bitstream bitstream : bundle.getBitstreams())
+            {
+                for (FormatFilter filter : MediaFilterManager.getApplicableFilters(bitstream))
+                {
+                    try
+                    {
+                        MediaFilterManager.Rendition rendition = MediaFilterManager.prepare(c, item,
+                                bitstream, filter);
+                        if (rendition != null)
+                        {
+                            FilterTask task = new FilterTask(item, bitstream, filter, rendition,
+                                    bitstream.retrieve());
+                            task.future = pools.get(filter).submit(task);
+                            pendingItem.tasks.add(task);
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        MediaFilterManager.printError(item, bitstream, e);
+                    }
+                }
+            }
+        }
+
+        pending.add(pendingItem);
+        while (pending.size() > maxPending)
+        {
+            complete(c, pending.removeFirst());
+        }
+    }
+
+    /**
+     * Complete all the submitted items.
+     */
+    void finish(Context c) throws Exception
+    {
+        while (!pending.isEmpty())
+        {
+            complete(c, pending.removeFirst());
+        }
+    }
+
+    /**
+     * @return the number of items submitted and not yet completed
+     */
+    int getPendingCount()
+    {
+        return pending.size();
+    }
+
+    /**
+     * Stop the workers, interrupting the filters still running.
+     */
+    void shutdown()
+    {
+        for (PendingItem pendingItem : pending)
+        {
+            for (FilterTask task : pendingItem.tasks)
+            {
+                task.discard();
+            }
+        }
+        pending.clear();
+        for (ExecutorService pool : pools.values())
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    private void complete(Context c, PendingItem pendingItem) throws Exception
+    {
+        Item item = pendingItem.item;
+        boolean filtered = false;
+        for (FilterTask task : pendingItem.tasks)
+        {
+            try
+            {
+                File output = task.await(timeout);
+                if (output == null)
+                {
+                    if (!MediaFilterManager.isQuiet)
+                    {
+                        System.out.println("SKIPPED: bitstream " + task.source.getID()
+                                + " (item: " + item.getHandle() + ") because filtering was unsuccessful");
+                    }
+                    continue;
+                }
+                MediaFilterManager.store(c, item, task.source, task.filter, task.rendition,
+                        new TemporaryFileInputStream(output));
+                item.update(); // Make sure new bitstream has a sequence number
+                filtered = true;
+            }
+            catch (Exception e)
+            {
+                MediaFilterManager.printError(item, task.source, e);
+            }
+        }
+        MediaFilterManager.completeItem(c, item, filtered);
+    }
+
+    private static final class PendingItem
+    {
+        private final Item item;
+
+        private final List<FilterTask> tasks = new ArrayList<FilterTask>();
+
+        PendingItem(Item item)
+        {
+            this.item = item;
+        }
+    }
+
+    /**
+     * A filter applied to a bitstream, run by a worker of the filter.
+     */
+    private static final class FilterTask implements Callable<File>
+    {
+        private final Item item;
+
+        private final Bitstream source;
+
+        private final FormatFilter filter;
+
+        private final MediaFilterManager.Rendition rendition;
+
+        private final InputStream sourceStream;
+
+        private Future<File> future;
+
+        /** time the worker started, 0 while queued */
+        private volatile long started = 0;
+
+        /** set once the result is no longer wanted */
+        private boolean abandoned = false;
+
+        /** set once the worker has produced the output file, see {@link #call()} */
+        private boolean finished = false;
+
+        FilterTask(Item item, Bitstream source, FormatFilter filter, MediaFilterManager.Rendition rendition,
+                InputStream sourceStream)
+        {
+            this.item = item;
+            this.source = source;
+            this.filter = filter;
+            this.rendition = rendition;
+            this.sourceStream = sourceStream;
+        }
+
+        /**
+         * Run the filter. The source stream and the output file belong to the
+         * worker once it has started: it closes the one and deletes the other
+         * in its own finally unless the output is kept, so that a filter
+         * abandoned while running cleans up after itself when it ends.
+         */
+        @Override
+        public File call() throws Exception
+        {
+            synchronized (this)
+            {
+                if (abandoned)
+                {
+                    // abandon() didn't see the task started and closed the stream
+                    return null;
+                }
+                started = System.currentTimeMillis();
+            }
+            MediaFilterManager.setCurrentItem(item);
+            File output = null;
+            boolean kept = false;
+            try
+            {
+                InputStream destStream = null;
+                try
+                {
+                    destStream = filter.getDestinationStream(sourceStream);
+                    if (destStream == null)
+                    {
+                        return null;
+                    }
+                    output = File.createTempFile("DSfilt", ".out");
+                    output.deleteOnExit();
+                    OutputStream out = new FileOutputStream(output);
+                    try
+                    {
+                        Utils.copy(destStream, out);
+                    }
+                    finally
+                    {
+                        out.close();
+                    }
+                }
+                catch (OutOfMemoryError oome)
+                {
+                    System.out.println("!!! OutOfMemoryError !!!");
+                    return null;
+                }
+                finally
+                {
+                    closeQuietly(destStream);
+                }
+
+                synchronized (this)
+                {
+                    kept = !abandoned;
+                    finished = kept;
+                    return kept ? output : null;
+                }
+            }
+            finally
+            {
+                MediaFilterManager.setCurrentItem(null);
+                closeQuietly(sourceStream);
+                if (!kept && output != null && !output.delete())
+                {
+                    log.error("Unable to delete temporary file " + output);
+                }
+            }
+        }
+
+        /**
+         * Wait for the output of the filter.
+         *
+         * @param timeout
+         *            milliseconds allowed from the start of the filter, 0 for
+         *            no limit
+         * @return the file holding the output, or null if the filter produced
+         *         none
+         */
+        File await(long timeout) throws Exception
+        {
+            try
+            {
+                if (timeout <= 0)
+                {
+                    return future.get();
+                }
+                while (true)
+                {
+                    long begun = started;
+                    long wait = begun == 0 ? timeout : begun + timeout - System.currentTimeMillis();
+                    if (wait <= 0)
+                    {
+                        if (abandon())
+                        {
+                            throw new IOException("Filtering timed out after " + (timeout / 1000) + " s");
+                        }
+                        // finished meanwhile
+                        return future.get();
+                    }
+                    try
+                    {
+                        return future.get(wait, TimeUnit.MILLISECONDS);
+                    }
+                    catch (TimeoutException e)
+                    {
+                        // check the deadline again, the filter may have started late
+                    }
+                }
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception)
+                {
+                    throw (Exception) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+
+        /**
+         * Give up the filter, interrupting it if running. A running filter
+         * discards its output when it ends, a queued one is never started.
+         *
+         * @return false if the filter had already finished, its output is
+         *         then left to the caller
+         */
+        boolean abandon()
+        {
+            synchronized (this)
+            {
+                if (finished)
+                {
+                    return false;
+                }
+                abandoned = true;
+                if (started == 0)
+                {
+                    closeQuietly(sourceStream);
+                }
+            }
+            future.cancel(true);
+            return true;
+        }
+
+        /**
+         * Give up the filter, deleting its output if it had already finished.
+         */
+        void discard()
+        {
+            if (abandon())
+            {
+                return;
+            }
+            try
+            {
+                File output = future.get();
+                if (output != null && !output.delete())
+                {
+                    log.error("Unable to delete temporary file " + output);
+                }
+            }
+            catch (Exception e)
+            {
+                // no output to delete
+            }
+        }
+
+        private static void closeQuietly(InputStream stream)
+        {
+            if (stream != null)
+            {
+                try
+                {
+                    stream.close();
+                }
+                catch (IOException e)
+                {
+                    log.warn("Unable to close stream", e);
+                }
+            }
+        }
+    }
+
+    private static final class WorkerFactory implements ThreadFactory
+    {
+        private final String name;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        WorkerFactory(String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "filter-media-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
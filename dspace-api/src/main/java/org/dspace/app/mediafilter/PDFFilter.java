@@ -10,7 +10,6 @@ package org.dspace.app.mediafilter;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
@@ -126,12 +125,19 @@ public class PDFFilter extends MediaFilter
 
             if (useTemporaryFile)
             {
-            	if (tempTextFile.getTotalSpace() > 0) {
-            		return new FileInputStream(tempTextFile);
-            	}
-            	else {
-            		return null;
-            	}
+                if (tempTextFile.length() > 0)
+                {
+                    // the file is deleted once the text is stored
+                    return new TemporaryFileInputStream(tempTextFile);
+                }
+                else
+                {
+                    if (!tempTextFile.delete())
+                    {
+                        log.error("Unable to delete temporary file " + tempTextFile);
+                    }
+                    return null;
+                }
             }
             else
             {
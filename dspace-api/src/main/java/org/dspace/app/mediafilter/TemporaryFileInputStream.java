@@ -0,0 +1,57 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.mediafilter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Stream over a temporary file, which is deleted when the stream is closed.
+ * Filters spool their output to such files rather than to memory, so that
+ * large renditions don't need to fit in the heap.
+ */
+public class TemporaryFileInputStream extends FileInputStream
+{
+    private static final Logger log = Logger.getLogger(TemporaryFileInputStream.class);
+
+    private final File file;
+
+    public TemporaryFileInputStream(File file) throws FileNotFoundException
+    {
+        super(file);
+        this.file = file;
+    }
+
+    /**
+     * @return the length of the file
+     */
+    public long length()
+    {
+        return file.length();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            super.close();
+        }
+        finally
+        {
+            if (file.exists() && !file.delete())
+            {
+                log.error("Unable to delete temporary file " + file);
+            }
+        }
+    }
+}
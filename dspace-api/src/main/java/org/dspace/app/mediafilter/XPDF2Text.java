@@ -7,15 +7,11 @@
  */
 package org.dspace.app.mediafilter;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Arrays;
 
 import org.apache.log4j.Logger;
 import org.dspace.core.ConfigurationManager;
@@ -47,10 +43,10 @@ public class XPDF2Text extends MediaFilter
 {
     private static Logger log = Logger.getLogger(XPDF2Text.class);
 
-    // Command to get text from pdf; @infile@, @COMMAND@ are placeholders
+    // Command to get text from pdf; @infile@, @outfile@, @COMMAND@ are placeholders
     private static final String XPDF_PDFTOTEXT_COMMAND[] =
     {
-        "@COMMAND@", "-q", "-enc", "UTF-8", "@infile@", "-"
+        "@COMMAND@", "-q", "-enc", "UTF-8", "@infile@", "@outfile@"
     };
 
 
@@ -92,6 +88,8 @@ public class XPDF2Text extends MediaFilter
 
         File sourceTmp = File.createTempFile("DSfilt",".pdf");
         sourceTmp.deleteOnExit();  // extra insurance, we'll delete it here.
+        File textTmp = File.createTempFile("DSfilt", ".txt");
+        textTmp.deleteOnExit();
         int status = -1;
         try
         {
@@ -106,16 +104,9 @@ public class XPDF2Text extends MediaFilter
             String pdfCmd[] = XPDF_PDFTOTEXT_COMMAND.clone();
             pdfCmd[0] = pdftotextPath;
             pdfCmd[4] = sourceTmp.toString();
+            pdfCmd[5] = textTmp.toString();
 
-            log.debug("Running command: "+Arrays.deepToString(pdfCmd));
-            Process pdfProc = Runtime.getRuntime().exec(pdfCmd);
-            InputStream stdout = pdfProc.getInputStream();
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            Utils.copy(new BufferedInputStream(stdout), baos);
-            stdout.close();
-            baos.close();
-
-            status = pdfProc.waitFor();
+            status = FilterProcess.run(pdfCmd, null);
             String msg = null;
             if (status == 1)
             {
@@ -136,7 +127,10 @@ public class XPDF2Text extends MediaFilter
                 throw new IOException(msg);
             }
 
-            return new ByteArrayInputStream(baos.toByteArray());
+            // the text file is deleted once read
+            InputStream text = new TemporaryFileInputStream(textTmp);
+            textTmp = null;
+            return text;
         }
         catch (InterruptedException e)
         {
@@ -149,6 +143,10 @@ public class XPDF2Text extends MediaFilter
             {
                 log.error("Unable to delete temporary file");
             }
+            if (textTmp != null && !textTmp.delete())
+            {
+                log.error("Unable to delete temporary file");
+            }
             if (status != 0)
             {
                 log.error("PDF conversion proc failed, returns=" + status + ", file=" + sourceTmp);
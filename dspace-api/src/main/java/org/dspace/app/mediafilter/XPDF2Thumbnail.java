@@ -16,12 +16,12 @@ import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.util.Arrays;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -179,11 +179,12 @@ public class XPDF2Thumbnail extends MediaFilter
             pdfinfoCmd[0] = pdfinfoPath;
             pdfinfoCmd[pdfinfoCmd.length-1] = sourceTmp.toString();
             BufferedReader lr = null;
+            File infoTmp = File.createTempFile("DSfilt", ".txt");
             try
             {
                 MatchResult mediaBox = null;
-                Process pdfProc = Runtime.getRuntime().exec(pdfinfoCmd);
-                lr = new BufferedReader(new InputStreamReader(pdfProc.getInputStream()));
+                int istatus = FilterProcess.run(pdfinfoCmd, infoTmp);
+                lr = new BufferedReader(new InputStreamReader(new FileInputStream(infoTmp)));
                 String line;
                 for (line = lr.readLine(); line != null; line = lr.readLine())
                 {
@@ -194,7 +195,6 @@ public class XPDF2Thumbnail extends MediaFilter
                         mediaBox = mm.toMatchResult();
                     }
                 }
-                int istatus = pdfProc.waitFor();
                 if (istatus != 0)
                 {
                     log.error("XPDF pdfinfo proc failed, exit status=" + istatus + ", file=" + sourceTmp);
@@ -231,6 +231,10 @@ public class XPDF2Thumbnail extends MediaFilter
                 {
                     lr.close();
                 }
+                if (!infoTmp.delete())
+                {
+                    log.error("Unable to delete file");
+                }
             }
 
             // Render page 1 using xpdf's pdftoppm
@@ -248,11 +252,9 @@ public class XPDF2Thumbnail extends MediaFilter
             pdfCmd[pdfCmd.length-2] = sourceTmp.toString();
             pdfCmd[pdfCmd.length-1] = outPrefix;
             File outf = new File(outPrefix+"-000001.ppm");
-            log.debug("Running xpdf command: "+Arrays.deepToString(pdfCmd));
             try
             {
-                Process pdfProc = Runtime.getRuntime().exec(pdfCmd);
-                status = pdfProc.waitFor();
+                status = FilterProcess.run(pdfCmd, null);
                 if (!outf.exists()) outf = new File(outPrefix+"-00001.ppm");
                 if (!outf.exists()) outf = new File(outPrefix+"-0001.ppm");
                 if (!outf.exists()) outf = new File(outPrefix+"-001.ppm");
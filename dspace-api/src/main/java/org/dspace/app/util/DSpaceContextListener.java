@@ -8,6 +8,7 @@
 package org.dspace.app.util;
 
 import org.dspace.core.ConfigurationManager;
+import org.dspace.event.EventOutboxProcessor;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.apache.log4j.Logger;
 
@@ -133,6 +134,13 @@ public class DSpaceContextListener implements ServletContextListener
         } catch (IllegalAccessException ex) {
             event.getServletContext().log("Can't create webapp MBean:  " + ex.getMessage());
         }
+
+        /**
+         * Stage 4
+         *
+         * Start the workers delivering the asynchronous events, if enabled.
+         */
+        EventOutboxProcessor.start();
     }
 
     /**
@@ -147,6 +155,9 @@ public class DSpaceContextListener implements ServletContextListener
 
         try
         {
+            // Stop the event outbox workers while the database is available
+            EventOutboxProcessor.shutdown();
+
             // Remove the database pool
             DatabaseManager.shutdown();
 
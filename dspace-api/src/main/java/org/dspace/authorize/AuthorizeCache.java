@@ -0,0 +1,197 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.authorize;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Authorization decisions, group memberships and prefetched policies already
+ * resolved in a {@link org.dspace.core.Context}, so that rendering a page with
+ * many objects doesn't repeat the same policy and group queries for each of
+ * them.
+ * <p>
+ * The cache lives as long as the context and is cleared whenever the policies,
+ * the groups, the current user or its special groups change through that
+ * context. Changes made by other contexts are not seen until the cache is
+ * cleared, as for the other objects cached by the context.
+ * <p>
+ * The decisions and the policies are each limited to a maximum number of
+ * entries ("core.authorization.cache.size" in dspace.cfg, default
+ * {@value #DEFAULT_SIZE}), the least recently used are dropped first, so that
+ * a long running context (e.g. a batch job or a full reindex) doesn't keep
+ * the decisions of every object it has seen.
+ *
+ * @see org.dspace.core.Context#getAuthorizeCache()
+ */
+public class AuthorizeCache
+{
+    /** default maximum number of decisions and of prefetched objects */
+    public static final int DEFAULT_SIZE = 10000;
+
+    /** decisions of AuthorizeManager, by object, action and eperson */
+    private final Map<Decision, Boolean> decisions;
+
+    /** IDs of all the groups of an eperson, by eperson ID (-1 for anonymous) */
+    private final Map<Integer, Set<Integer>> groupIDs = new HashMap<Integer, Set<Integer>>();
+
+    /** policies of objects, by type and ID */
+    private final Map<Long, List<ResourcePolicy>> policies;
+
+    public AuthorizeCache()
+    {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * @param maxSize
+     *            the maximum number of decisions and of objects with
+     *            prefetched policies
+     */
+    public AuthorizeCache(int maxSize)
+    {
+        this.decisions = new LeastRecentlyUsed<Decision, Boolean>(maxSize);
+        this.policies = new LeastRecentlyUsed<Long, List<ResourcePolicy>>(maxSize);
+    }
+
+    /**
+     * @return the cached decision, or <code>null</code> if not yet resolved
+     */
+    public Boolean getDecision(int type, int id, int action, int epersonID, boolean useInheritance)
+    {
+        return decisions.get(new Decision(type, id, action, epersonID, useInheritance));
+    }
+
+    public void putDecision(int type, int id, int action, int epersonID, boolean useInheritance,
+            boolean authorized)
+    {
+        decisions.put(new Decision(type, id, action, epersonID, useInheritance),
+                Boolean.valueOf(authorized));
+    }
+
+    /**
+     * @return the unmodifiable set of all the groups of the eperson, or
+     *         <code>null</code> if not yet resolved
+     */
+    public Set<Integer> getGroupIDs(int epersonID)
+    {
+        return groupIDs.get(Integer.valueOf(epersonID));
+    }
+
+    /**
+     * @return the unmodifiable snapshot of the given set, as cached
+     */
+    public Set<Integer> putGroupIDs(int epersonID, Set<Integer> ids)
+    {
+        Set<Integer> snapshot = Collections.unmodifiableSet(ids);
+        groupIDs.put(Integer.valueOf(epersonID), snapshot);
+        return snapshot;
+    }
+
+    /**
+     * @return the unmodifiable list of all the policies of the object, or
+     *         <code>null</code> if not prefetched
+     * @see AuthorizeManager#prefetchPolicies(org.dspace.core.Context, int, List)
+     */
+    public List<ResourcePolicy> getPolicies(int type, int id)
+    {
+        return policies.get(policyKey(type, id));
+    }
+
+    public void putPolicies(int type, int id, List<ResourcePolicy> objectPolicies)
+    {
+        policies.put(policyKey(type, id), Collections.unmodifiableList(objectPolicies));
+    }
+
+    private static Long policyKey(int type, int id)
+    {
+        return Long.valueOf(((long) type << 32) | (id & 0xffffffffL));
+    }
+
+    /**
+     * Forget all the decisions, memberships and policies.
+     */
+    public void clear()
+    {
+        decisions.clear();
+        groupIDs.clear();
+        policies.clear();
+    }
+
+    /**
+     * @return the number of cached decisions
+     */
+    public int size()
+    {
+        return decisions.size();
+    }
+
+    private static final class Decision
+    {
+        private final int type;
+
+        private final int id;
+
+        private final int action;
+
+        private final int epersonID;
+
+        private final boolean useInheritance;
+
+        Decision(int type, int id, int action, int epersonID, boolean useInheritance)
+        {
+            this.type = type;
+            this.id = id;
+            this.action = action;
+            this.epersonID = epersonID;
+            this.useInheritance = useInheritance;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Decision))
+            {
+                return false;
+            }
+            Decision other = (Decision) obj;
+            return type == other.type && id == other.id && action == other.action
+                    && epersonID == other.epersonID && useInheritance == other.useInheritance;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int hash = 31 * type + id;
+            hash = 31 * hash + action;
+            hash = 31 * hash + epersonID;
+            return 2 * hash + (useInheritance ? 1 : 0);
+        }
+    }
+
+    private static final class LeastRecentlyUsed<K, V> extends LinkedHashMap<K, V>
+    {
+        private final int maxSize;
+
+        LeastRecentlyUsed(int maxSize)
+        {
+            super(16, 0.75f, true);
+            this.maxSize = Math.max(1, maxSize);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+        {
+            return size() > maxSize;
+        }
+    }
+}
@@ -10,7 +10,9 @@ package org.dspace.authorize;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.dspace.content.*;
 import org.dspace.core.Constants;
@@ -39,6 +41,15 @@ import org.dspace.workflow.WorkflowItem;
  */
 public class AuthorizeManager
 {
+    /** maximum number of objects whose policies are loaded by one query */
+    private static final int PREFETCH_CHUNK_SIZE = 500;
+
+    /**
+     * Pseudo action under which the outcome of {@link #isAdmin(Context, DSpaceObject)}
+     * is kept in the authorization cache of the context.
+     */
+    private static final int IS_ADMIN = -2;
+
     /**
      * Utility method, checks that the current user of the given context can
      * perform all of the specified actions on the given object. An
@@ -225,28 +236,19 @@ public class AuthorizeManager
     public static boolean authorizeActionBoolean(Context c, DSpaceObject o,
                                                  int a, boolean useInheritance) throws SQLException
     {
-        boolean isAuthorized = true;
-
         if (o == null)
         {
             return false;
         }
 
-        try
-        {
-            authorizeAction(c, o, a, useInheritance);
-        } catch (AuthorizeException e)
-        {
-            isAuthorized = false;
-        }
-
-        return isAuthorized;
+        return authorize(c, o, a, c.getCurrentUser(), useInheritance);
     }
 
     /**
      * Check to see if the given user can perform the given action on the given
      * object. Always returns true if the ignore authorization flat is set in
-     * the current context.
+     * the current context. The decision is kept in the authorization cache of
+     * the context, see {@link AuthorizeCache}.
      *
      * @param c
      *         current context. User is irrelevant; "ignore authorization"
@@ -280,6 +282,21 @@ public class AuthorizeManager
             return true;
         }
 
+        AuthorizeCache cache = c.getAuthorizeCache();
+        int epersonID = (e == null) ? -1 : e.getID();
+        Boolean cached = cache.getDecision(o.getType(), o.getID(), action, epersonID, useInheritance);
+        if (cached == null)
+        {
+            boolean authorized = resolveAuthorization(c, o, action, e, useInheritance);
+            cache.putDecision(o.getType(), o.getID(), action, epersonID, useInheritance, authorized);
+            return authorized;
+        }
+        return cached.booleanValue();
+    }
+
+    private static boolean resolveAuthorization(Context c, DSpaceObject o, int action,
+                                                EPerson e, boolean useInheritance) throws SQLException
+    {
         // is eperson set? if not, userid = 0 (anonymous)
         int userid = 0;
         if (e != null)
@@ -414,6 +431,20 @@ public class AuthorizeManager
             userid = e.getID();
         }
 
+        AuthorizeCache cache = c.getAuthorizeCache();
+        int epersonID = (e == null) ? -1 : userid;
+        Boolean cached = cache.getDecision(o.getType(), o.getID(), IS_ADMIN, epersonID, true);
+        if (cached != null)
+        {
+            return cached.booleanValue();
+        }
+        boolean admin = isAdmin(c, o, userid);
+        cache.putDecision(o.getType(), o.getID(), IS_ADMIN, epersonID, true, admin);
+        return admin;
+    }
+
+    private static boolean isAdmin(Context c, DSpaceObject o, int userid) throws SQLException
+    {
         //
         // First, check all Resource Policies directly on this object
         //
@@ -609,6 +640,12 @@ public class AuthorizeManager
     public static List<ResourcePolicy> getPolicies(Context c, DSpaceObject o)
             throws SQLException
     {
+        List<ResourcePolicy> prefetched = c.getAuthorizeCache().getPolicies(o.getType(), o.getID());
+        if (prefetched != null)
+        {
+            return new ArrayList<ResourcePolicy>(prefetched);
+        }
+
         TableRowIterator tri = DatabaseManager.queryTable(c, "resourcepolicy",
                 "SELECT * FROM resourcepolicy WHERE resource_type_id= ? AND resource_id= ? ",
                 o.getType(), o.getID());
@@ -739,6 +776,80 @@ public class AuthorizeManager
         return policies;
     }
 
+    /**
+     * Load the policies of many objects of a type at once, and keep them in
+     * the authorization cache of the context so that the next
+     * {@link #getPolicies(Context, DSpaceObject)} and
+     * {@link #getPoliciesActionFilter(Context, DSpaceObject, int)} calls for
+     * these objects don't query the database. The policies are forgotten as
+     * soon as any policy is changed through the context. The objects whose
+     * policies are already kept are skipped.
+     *
+     * @param c
+     *         current context
+     * @param type
+     *         type of the objects (defined in class Constants)
+     * @param ids
+     *         IDs of the objects
+     * @throws SQLException
+     *         if there's a database problem
+     */
+    public static void prefetchPolicies(Context c, int type, List<Integer> ids)
+            throws SQLException
+    {
+        AuthorizeCache cache = c.getAuthorizeCache();
+        List<Integer> missing = new ArrayList<Integer>();
+        for (Integer id : ids)
+        {
+            if (cache.getPolicies(type, id) == null)
+            {
+                missing.add(id);
+            }
+        }
+        ids = missing;
+
+        for (int from = 0; from < ids.size(); from += PREFETCH_CHUNK_SIZE)
+        {
+            List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + PREFETCH_CHUNK_SIZE));
+
+            StringBuilder query = new StringBuilder(
+                    "SELECT * FROM resourcepolicy WHERE resource_type_id= ? AND resource_id IN (");
+            Object[] params = new Object[chunk.size() + 1];
+            params[0] = type;
+            for (int i = 0; i < chunk.size(); i++)
+            {
+                query.append(i == 0 ? "?" : ", ?");
+                params[i + 1] = chunk.get(i);
+            }
+            query.append(")");
+
+            Map<Integer, List<ResourcePolicy>> policies = new HashMap<Integer, List<ResourcePolicy>>();
+            for (Integer id : chunk)
+            {
+                policies.put(id, new ArrayList<ResourcePolicy>());
+            }
+
+            TableRowIterator tri = DatabaseManager.queryTable(c, "resourcepolicy", query.toString(), params);
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    policies.get(row.getIntColumn("resource_id")).add(new ResourcePolicy(c, row));
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+
+            for (Map.Entry<Integer, List<ResourcePolicy>> entry : policies.entrySet())
+            {
+                cache.putPolicies(type, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
     /**
      * Return a list of policies for an object that match the action
      *
@@ -754,6 +865,20 @@ public class AuthorizeManager
     public static List<ResourcePolicy> getPoliciesActionFilter(Context c, DSpaceObject o,
                                                                int actionID) throws SQLException
     {
+        List<ResourcePolicy> prefetched = c.getAuthorizeCache().getPolicies(o.getType(), o.getID());
+        if (prefetched != null)
+        {
+            List<ResourcePolicy> policies = new ArrayList<ResourcePolicy>();
+            for (ResourcePolicy rp : prefetched)
+            {
+                if (rp.getAction() == actionID)
+                {
+                    policies.add(rp);
+                }
+            }
+            return policies;
+        }
+
         TableRowIterator tri = DatabaseManager.queryTable(c, "resourcepolicy",
                 "SELECT * FROM resourcepolicy WHERE resource_type_id= ? " +
                         "AND resource_id= ? AND action_id= ? ",
@@ -880,6 +1005,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? ",
                 o.getType(), o.getID());
+        c.getAuthorizeCache().clear();
         
         c.turnOffAuthorisationSystem();
         o.updateLastModified();
@@ -902,6 +1028,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? AND (rptype <> ? OR rptype IS NULL)",
                 o.getType(), o.getID(), type);
+        c.getAuthorizeCache().clear();
     }
 
 
@@ -923,6 +1050,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? AND rptype=? ",
                 o.getType(), o.getID(), type);
+        c.getAuthorizeCache().clear();
     }
     
 	/**
@@ -975,6 +1103,7 @@ public class AuthorizeManager
                     "DELETE FROM resourcepolicy WHERE resource_type_id= ? AND " +
                             "resource_id= ? AND action_id= ? ",
                     dso.getType(), dso.getID(), actionID);
+            context.getAuthorizeCache().clear();
         }
         
         context.turnOffAuthorisationSystem();
@@ -998,6 +1127,7 @@ public class AuthorizeManager
     {
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "epersongroup_id= ? ", groupID);
+        c.getAuthorizeCache().clear();
     }
 
     /**
@@ -1019,6 +1149,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? AND epersongroup_id= ? ",
                 o.getType(), o.getID(), g.getID());
+        c.getAuthorizeCache().clear();
         
         c.turnOffAuthorisationSystem();
         o.updateLastModified();
@@ -1044,6 +1175,7 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? AND eperson_id= ? ",
                 o.getType(), o.getID(), e.getID());
+        c.getAuthorizeCache().clear();
         
         c.turnOffAuthorisationSystem();
         o.updateLastModified();
@@ -139,6 +139,32 @@ public final class BitstreamInfoDAO extends DAOSupport
         + "order by trunc(last_process_end_date, 'mi'), "
         + "bitstream_id " + "ASC) WHERE rownum=1";
     
+    /**
+     * Selects the next bitstreams, in order of last processing end date, not
+     * started since the date parameter. The number of bitstreams is the second
+     * parameter.
+     */
+    private static final String GET_OLDEST_BITSTREAMS_DATE = "select bitstream_id  "
+            + "from most_recent_checksum "
+            + "where to_be_processed = true "
+            + "and last_process_start_date < ? "
+            + "order by date_trunc('milliseconds', last_process_end_date), "
+            + "bitstream_id " + "ASC LIMIT ?";
+
+    private static final String GET_OLDEST_BITSTREAMS_DATE_ORACLE = "SELECT bitstream_id FROM (select bitstream_id  "
+        + "from most_recent_checksum "
+        + "where to_be_processed = 1 "
+        + "and last_process_start_date < ? "
+        + "order by trunc(last_process_end_date, 'mi'), "
+        + "bitstream_id " + "ASC) WHERE rownum <= ?";
+
+    /**
+     * Claims a bitstream by setting its processing start date, unless it has
+     * been started since the date the bitstreams were selected with.
+     */
+    private static final String CLAIM_BITSTREAM = "UPDATE most_recent_checksum "
+            + "SET last_process_start_date = ? WHERE bitstream_id = ? AND last_process_start_date < ?";
+
     /** SQL query to retrieve bitstreams for a given item. */
     private static final String ITEM_BITSTREAMS = "SELECT b2b.bitstream_id "
             + "FROM bundle2bitstream b2b, item2bundle i2b WHERE "
@@ -193,18 +219,7 @@ public final class BitstreamInfoDAO extends DAOSupport
         {
             conn = DatabaseManager.getConnection();
             stmt = conn.prepareStatement(UPDATE_CHECKSUM);
-            stmt.setString(1, (info.getCalculatedChecksum() != null) ? info
-                    .getCalculatedChecksum() : "");
-            stmt.setString(2, info.getStoredChecksum());
-            stmt.setBoolean(3, ChecksumCheckResults.CHECKSUM_MATCH.equals(info
-                    .getChecksumCheckResult()));
-            stmt.setBoolean(4, info.getToBeProcessed());
-            stmt.setTimestamp(5, new Timestamp(info.getProcessStartDate()
-                    .getTime()));
-            stmt.setTimestamp(6, new Timestamp(info.getProcessEndDate()
-                    .getTime()));
-            stmt.setString(7, info.getChecksumCheckResult());
-            stmt.setInt(8, info.getBitstreamId());
+            setUpdateParameters(stmt, info);
             stmt.executeUpdate();
             conn.commit();
         }
@@ -219,6 +234,62 @@ public final class BitstreamInfoDAO extends DAOSupport
         }
     }
 
+    /**
+     * Updates most_recent_checksum with the results of several checks, in a
+     * single batch and transaction.
+     * 
+     * @param infos
+     *            The BitstreamInfos to update.
+     */
+    public void update(List<BitstreamInfo> infos)
+    {
+        if (infos.isEmpty())
+        {
+            return;
+        }
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+
+        try
+        {
+            conn = DatabaseManager.getConnection();
+            stmt = conn.prepareStatement(UPDATE_CHECKSUM);
+            for (BitstreamInfo info : infos)
+            {
+                setUpdateParameters(stmt, info);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            conn.commit();
+        }
+        catch (SQLException e)
+        {
+            LOG.error("Problem updating checksum rows. " + e.getMessage(), e);
+            throw new IllegalStateException("Problem updating checksum rows. " + e.getMessage(), e);
+        }
+        finally
+        {
+            cleanup(stmt, conn);
+        }
+    }
+
+    private void setUpdateParameters(PreparedStatement stmt, BitstreamInfo info) throws SQLException
+    {
+        stmt.setString(1, (info.getCalculatedChecksum() != null) ? info
+                .getCalculatedChecksum() : "");
+        stmt.setString(2, info.getStoredChecksum());
+        stmt.setBoolean(3, ChecksumCheckResults.CHECKSUM_MATCH.equals(info
+                .getChecksumCheckResult()));
+        stmt.setBoolean(4, info.getToBeProcessed());
+        stmt.setTimestamp(5, new Timestamp(info.getProcessStartDate()
+                .getTime()));
+        stmt.setTimestamp(6, new Timestamp(info.getProcessEndDate()
+                .getTime()));
+        stmt.setString(7, info.getChecksumCheckResult());
+        stmt.setInt(8, info.getBitstreamId());
+    }
+
     /**
      * Find a bitstream by its id.
      * 
@@ -480,6 +551,122 @@ public final class BitstreamInfoDAO extends DAOSupport
         }
     }
 
+    /**
+     * Claim the oldest bitstreams not started since the given date, by
+     * setting their processing start date to now. A bitstream claimed
+     * meanwhile by another checker is skipped; if the other checkers claimed
+     * all the candidates, the next oldest ones are selected again.
+     * 
+     * @param lessThanDate
+     *            only bitstreams not started since this date are claimed
+     * @param limit
+     *            maximum number of bitstreams to claim
+     * @return the ids of the claimed bitstreams, oldest first; empty only if
+     *         there are no more bitstreams to check
+     */
+    public List<Integer> claimOldestBitstreams(Timestamp lessThanDate, int limit)
+    {
+        Connection conn = null;
+
+        try
+        {
+            conn = DatabaseManager.getConnection();
+            List<Integer> ids = new ArrayList<Integer>(limit);
+            while (ids.isEmpty())
+            {
+                List<Integer> candidates = selectOldestBitstreams(conn, lessThanDate, limit);
+                if (candidates.isEmpty())
+                {
+                    break;
+                }
+                // the candidates claimed by another checker are no longer
+                // selected, so each round gets newer ones
+                ids = claimBitstreams(conn, candidates, lessThanDate);
+            }
+            return ids;
+        }
+        catch (SQLException e)
+        {
+            LOG.error("Problem claiming bitstreams. " + e.getMessage(), e);
+            throw new IllegalStateException("Problem claiming bitstreams. " + e.getMessage(), e);
+        }
+        finally
+        {
+            cleanup(conn);
+        }
+    }
+
+    private List<Integer> selectOldestBitstreams(Connection conn, Timestamp lessThanDate, int limit)
+            throws SQLException
+    {
+        PreparedStatement prepStmt = null;
+        ResultSet rs = null;
+        List<Integer> candidates = new ArrayList<Integer>(limit);
+
+        try
+        {
+            if (DatabaseManager.isOracle())
+            {
+                prepStmt = conn.prepareStatement(GET_OLDEST_BITSTREAMS_DATE_ORACLE);
+            }
+            else
+            {
+                prepStmt = conn.prepareStatement(GET_OLDEST_BITSTREAMS_DATE);
+            }
+            prepStmt.setTimestamp(1, lessThanDate);
+            prepStmt.setInt(2, limit);
+            rs = prepStmt.executeQuery();
+            while (rs.next())
+            {
+                candidates.add(rs.getInt(1));
+            }
+            return candidates;
+        }
+        finally
+        {
+            cleanup(prepStmt, null, rs);
+        }
+    }
+
+    /**
+     * @return the candidates claimed, without the ones started since the
+     *         given date by another checker
+     */
+    private List<Integer> claimBitstreams(Connection conn, List<Integer> candidates,
+            Timestamp lessThanDate) throws SQLException
+    {
+        PreparedStatement prepStmt = null;
+        List<Integer> ids = new ArrayList<Integer>(candidates.size());
+
+        try
+        {
+            prepStmt = conn.prepareStatement(CLAIM_BITSTREAM);
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            for (Integer id : candidates)
+            {
+                prepStmt.setTimestamp(1, now);
+                prepStmt.setInt(2, id);
+                prepStmt.setTimestamp(3, lessThanDate);
+                prepStmt.addBatch();
+            }
+            int[] counts = prepStmt.executeBatch();
+            conn.commit();
+            for (int i = 0; i < counts.length; i++)
+            {
+                if (counts[i] != 0)
+                {
+                    // 1, or SUCCESS_NO_INFO for drivers that don't report counts
+                    ids.add(candidates.get(i));
+                }
+            }
+            return ids;
+        }
+        finally
+        {
+            cleanup(prepStmt);
+        }
+    }
+
     /**
      * Get the bitstream ids for a given Item
      * 
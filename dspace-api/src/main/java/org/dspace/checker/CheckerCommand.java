@@ -7,13 +7,24 @@
  */
 package org.dspace.checker;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.DigestInputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.dspace.core.Context;
@@ -26,6 +37,13 @@ import org.dspace.core.Utils;
  * against the last calculated checksum for that bitstream.
  * </p>
  * 
+ * <p>
+ * With more than one thread the bitstreams are checked concurrently: the
+ * dispatcher feeds the worker threads, and the results are written back in
+ * batches. The bandwidth used to read the bitstreams can be limited, and the
+ * throughput of each store is logged at the end of the run.
+ * </p>
+ * 
  * @author Jim Downing
  * @author Grace Carpenter
  * @author Nathan Sarr
@@ -42,8 +60,21 @@ public final class CheckerCommand
     /** Default digest algorithm (MD5). */
     private static final String DEFAULT_DIGEST_ALGORITHM = "MD5";
 
-    /** 4 Meg byte array for reading file. */
-    private int BYTE_ARRAY_SIZE = 4 * 1024;
+    /** 1 Meg buffer for reading file. */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /** Direct buffer of each thread, for reading files. */
+    private static final ThreadLocal<ByteBuffer> DIRECT_BUFFER = new ThreadLocal<ByteBuffer>()
+    {
+        @Override
+        protected ByteBuffer initialValue()
+        {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    /** Marks the end of the results for the writer thread. */
+    private static final BitstreamInfo END_OF_RESULTS = new BitstreamInfo(BitstreamDispatcher.SENTINEL);
 
     /** BitstreamInfoDAO dependency. */
     private BitstreamInfoDAO bitstreamInfoDAO = null;
@@ -72,6 +103,18 @@ public final class CheckerCommand
     /** Report all processing */
     private boolean reportVerbose = false;
 
+    /** Number of threads checking the bitstreams */
+    private int threads = 1;
+
+    /** Number of results written at once when checking concurrently */
+    private int batchSize = 100;
+
+    /** Limit of the bandwidth used to read the bitstreams */
+    private Throttle throttle = new Throttle(0);
+
+    /** Throughput of each store, by store number */
+    private final Map<Integer, StoreMetrics> storeMetrics = new TreeMap<Integer, StoreMetrics>();
+
     /**
      * Default constructor uses DSpace plugin manager to construct dependencies.
      */
@@ -112,20 +155,224 @@ public final class CheckerCommand
         // bitstream table - this always done.
         bitstreamInfoDAO.updateMissingBitstreams();
 
-        int id = dispatcher.next();
+        if (threads > 1)
+        {
+            processConcurrently();
+        }
+        else
+        {
+            int id = dispatcher.next();
+
+            while (id != BitstreamDispatcher.SENTINEL)
+            {
+                LOG.debug("Processing bitstream id = " + id);
+                BitstreamInfo info = checkBitstream(context, id);
+                if (isToBeRecorded(info))
+                {
+                    bitstreamInfoDAO.update(info);
+                    checksumHistoryDAO.insertHistory(info);
+                }
+
+                collect(info);
+
+                id = dispatcher.next();
+            }
+        }
+
+        logStoreMetrics();
+    }
+
+    /**
+     * Check the bitstreams with several worker threads. This thread feeds them
+     * the ids from the dispatcher, and a writer thread records their results
+     * in batches.
+     */
+    private void processConcurrently()
+    {
+        final BlockingQueue<Integer> ids = new ArrayBlockingQueue<Integer>(threads * batchSize);
+        final BlockingQueue<BitstreamInfo> results = new ArrayBlockingQueue<BitstreamInfo>(threads * batchSize);
+
+        List<Thread> workers = new ArrayList<Thread>(threads);
+        for (int i = 0; i < threads; i++)
+        {
+            Thread worker = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    check(ids, results);
+                }
+            }, "checker-" + (i + 1));
+            worker.start();
+            workers.add(worker);
+        }
+
+        Thread writer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                record(results);
+            }
+        }, "checker-writer");
+        writer.start();
+
+        try
+        {
+            int id = dispatcher.next();
+            while (id != BitstreamDispatcher.SENTINEL)
+            {
+                ids.put(id);
+                id = dispatcher.next();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            ids.clear();
+        }
+        finally
+        {
+            try
+            {
+                for (int i = 0; i < threads; i++)
+                {
+                    ids.put(BitstreamDispatcher.SENTINEL);
+                }
+                for (Thread worker : workers)
+                {
+                    worker.join();
+                }
+                results.put(END_OF_RESULTS);
+                writer.join();
+            }
+            catch (InterruptedException e)
+            {
+                LOG.error("Interrupted while waiting for the checker threads", e);
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Worker thread: check the bitstreams until the sentinel id.
+     */
+    private void check(BlockingQueue<Integer> ids, BlockingQueue<BitstreamInfo> results)
+    {
+        Context context = null;
+        try
+        {
+            context = new Context();
+            int id = ids.take();
+            while (id != BitstreamDispatcher.SENTINEL)
+            {
+                LOG.debug("Processing bitstream id = " + id);
+                try
+                {
+                    results.put(checkBitstream(context, id));
+                }
+                catch (RuntimeException e)
+                {
+                    LOG.error("Unable to check bitstream ID " + id, e);
+                }
+                context.clearCache();
+                id = ids.take();
+            }
+        }
+        catch (SQLException e)
+        {
+            LOG.error("Unable to create the context of the checker thread", e);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            if (context != null)
+            {
+                context.abort();
+            }
+        }
+    }
 
-        while (id != BitstreamDispatcher.SENTINEL)
+    /**
+     * Writer thread: record the results in batches until the end marker.
+     */
+    private void record(BlockingQueue<BitstreamInfo> results)
+    {
+        List<BitstreamInfo> batch = new ArrayList<BitstreamInfo>(batchSize);
+        try
+        {
+            while (true)
+            {
+                BitstreamInfo info = results.poll(1, TimeUnit.SECONDS);
+                if (info == END_OF_RESULTS)
+                {
+                    break;
+                }
+                if (info != null)
+                {
+                    batch.add(info);
+                }
+                if (batch.size() >= batchSize || (info == null && !batch.isEmpty()))
+                {
+                    record(batch);
+                    batch.clear();
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
         {
-            LOG.debug("Processing bitstream id = " + id);
-            BitstreamInfo info = checkBitstream(context, id);
+            record(batch);
+        }
+    }
 
-            if (reportVerbose
-                    || !ChecksumCheckResults.CHECKSUM_MATCH.equals(info.getChecksumCheckResult()))
+    private void record(List<BitstreamInfo> batch)
+    {
+        List<BitstreamInfo> toRecord = new ArrayList<BitstreamInfo>(batch.size());
+        for (BitstreamInfo info : batch)
+        {
+            if (isToBeRecorded(info))
             {
-                collector.collect(info);
+                toRecord.add(info);
             }
+        }
+        try
+        {
+            bitstreamInfoDAO.update(toRecord);
+            checksumHistoryDAO.insertHistory(toRecord);
+        }
+        catch (IllegalStateException e)
+        {
+            LOG.error("Unable to record the results of " + toRecord.size() + " bitstreams", e);
+        }
+        for (BitstreamInfo info : batch)
+        {
+            collect(info);
+        }
+    }
 
-            id = dispatcher.next();
+    /**
+     * @return whether the result of the check goes to most_recent_checksum
+     *         and checksum_history
+     */
+    private boolean isToBeRecorded(BitstreamInfo info)
+    {
+        return info.getInfoFound()
+                && !ChecksumCheckResults.BITSTREAM_NOT_PROCESSED.equals(info.getChecksumCheckResult());
+    }
+
+    private void collect(BitstreamInfo info)
+    {
+        if (reportVerbose
+                || !ChecksumCheckResults.CHECKSUM_MATCH.equals(info.getChecksumCheckResult()))
+        {
+            collector.collect(info);
         }
     }
 
@@ -175,13 +422,15 @@ public final class CheckerCommand
     }
 
     /**
-     * Digest the stream and get the checksum value.
+     * Digest the stream and get the checksum value. Files are read through
+     * their channel into a direct buffer.
      * 
      * @param stream
      *            InputStream to digest.
      * @param algorithm
      *            the algorithm to use when digesting.
-     * @todo Document the algorithm parameter
+     * @param metrics
+     *            the metrics of the store of the bitstream
      * @return digest
      * 
      * @throws java.security.NoSuchAlgorithmException
@@ -190,22 +439,42 @@ public final class CheckerCommand
      * @throws java.io.IOException
      *             If an exception arises whilst reading the stream
      */
-    private String digestStream(InputStream stream, String algorithm)
+    private String digestStream(InputStream stream, String algorithm, StoreMetrics metrics)
             throws java.security.NoSuchAlgorithmException, java.io.IOException
     {
-        // create the digest stream
-        DigestInputStream dStream = new DigestInputStream(stream, MessageDigest
-                .getInstance(algorithm));
-
-        byte[] bytes = new byte[BYTE_ARRAY_SIZE];
+        MessageDigest digest = MessageDigest.getInstance(algorithm);
+        long start = System.nanoTime();
+        long total = 0;
 
-        // make sure all the data is read by the digester
-        int bytesRead = -1;
-        do {
-            bytesRead = dStream.read(bytes, 0, BYTE_ARRAY_SIZE);
-        } while (bytesRead != -1);
+        if (stream instanceof FileInputStream)
+        {
+            FileChannel channel = ((FileInputStream) stream).getChannel();
+            ByteBuffer buffer = DIRECT_BUFFER.get();
+            buffer.clear();
+            while (channel.read(buffer) != -1)
+            {
+                buffer.flip();
+                throttle.acquire(buffer.remaining());
+                total += buffer.remaining();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        else
+        {
+            byte[] bytes = new byte[BUFFER_SIZE];
+            int bytesRead = stream.read(bytes, 0, BUFFER_SIZE);
+            while (bytesRead != -1)
+            {
+                throttle.acquire(bytesRead);
+                total += bytesRead;
+                digest.update(bytes, 0, bytesRead);
+                bytesRead = stream.read(bytes, 0, BUFFER_SIZE);
+            }
+        }
 
-        return Utils.toHex(dStream.getMessageDigest().digest());
+        metrics.add(total, System.nanoTime() - start);
+        return Utils.toHex(digest.digest());
     }
 
     /**
@@ -238,7 +507,8 @@ public final class CheckerCommand
      * Process bitstream that was marked 'deleted' in bitstream table. A deleted
      * bitstream should only be checked once afterwards it should be marked
      * 'to_be_processed=false'. Note that to_be_processed must be manually
-     * updated in db to allow for future processing.
+     * updated in db to allow for future processing. The result is recorded by
+     * the caller.
      * 
      * @param info
      *            a deleted bitstream.
@@ -251,8 +521,6 @@ public final class CheckerCommand
         info.setProcessStartDate(new Date());
         info.setProcessEndDate(new Date());
         info.setToBeProcessed(false);
-        bitstreamInfoDAO.update(info);
-        checksumHistoryDAO.insertHistory(info);
     }
 
     /**
@@ -275,7 +543,7 @@ public final class CheckerCommand
 
     /**
      * <p>
-     * Process general case bitstream.
+     * Process general case bitstream. The result is recorded by the caller.
      * </p>
      * 
      * <p>
@@ -298,15 +566,16 @@ public final class CheckerCommand
             info.setChecksumAlgorithm(DEFAULT_DIGEST_ALGORITHM);
         }
 
+        InputStream bitstream = null;
         try
         {
-            InputStream bitstream = bitstreamDAO.getBitstream(info
+            bitstream = bitstreamDAO.getBitstream(info
                     .getBitstreamId());
 
             info.setBitstreamFound(true);
 
             String checksum = digestStream(bitstream, info
-                    .getChecksumAlgorithm());
+                    .getChecksumAlgorithm(), getStoreMetrics(info.getStoreNumber()));
 
             info.setCalculatedChecksum(checksum);
 
@@ -314,6 +583,12 @@ public final class CheckerCommand
             info.setChecksumCheckResult(compareChecksums(info
                     .getStoredChecksum(), info.getCalculatedChecksum()));
         }
+        catch (InterruptedIOException e)
+        {
+            // the check is abandoned, the bitstream stays to be checked
+            info.setChecksumCheckResult(ChecksumCheckResults.BITSTREAM_NOT_PROCESSED);
+            LOG.warn("Check of bitstream ID " + info.getBitstreamId() + " interrupted");
+        }
         catch (IOException e)
         {
             // bitstream located, but file missing from asset store
@@ -345,9 +620,42 @@ public final class CheckerCommand
         {
             info.setProcessEndDate(new Date());
 
-            // record new checksum and comparison result in db
-            bitstreamInfoDAO.update(info);
-            checksumHistoryDAO.insertHistory(info);
+            if (bitstream != null)
+            {
+                try
+                {
+                    bitstream.close();
+                }
+                catch (IOException e)
+                {
+                    LOG.warn("Unable to close bitstream ID " + info.getBitstreamId(), e);
+                }
+            }
+        }
+    }
+
+    private StoreMetrics getStoreMetrics(int storeNumber)
+    {
+        synchronized (storeMetrics)
+        {
+            StoreMetrics metrics = storeMetrics.get(storeNumber);
+            if (metrics == null)
+            {
+                metrics = new StoreMetrics();
+                storeMetrics.put(storeNumber, metrics);
+            }
+            return metrics;
+        }
+    }
+
+    private void logStoreMetrics()
+    {
+        synchronized (storeMetrics)
+        {
+            for (Map.Entry<Integer, StoreMetrics> entry : storeMetrics.entrySet())
+            {
+                LOG.info("Store " + entry.getKey() + ": " + entry.getValue());
+            }
         }
     }
 
@@ -434,4 +742,114 @@ public final class CheckerCommand
     {
         this.reportVerbose = reportVerbose;
     }
+
+    /**
+     * Set the number of threads checking the bitstreams. With more than one
+     * thread the dispatcher should claim the bitstreams in batches (see
+     * {@link SimpleDispatcher#SimpleDispatcher(BitstreamInfoDAO, Date, boolean, int)}).
+     * 
+     * @param threads
+     *            number of threads, 1 to check the bitstreams in this thread
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Set the number of results written at once when checking concurrently.
+     * 
+     * @param batchSize
+     *            number of results
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Limit the bandwidth used to read the bitstreams, by all the threads.
+     * 
+     * @param bytesPerSecond
+     *            maximum bytes read per second, 0 for no limit
+     */
+    public void setMaxBandwidth(long bytesPerSecond)
+    {
+        this.throttle = new Throttle(bytesPerSecond);
+    }
+
+    /**
+     * Bytes read and time spent digesting the bitstreams of a store.
+     */
+    private static final class StoreMetrics
+    {
+        private final AtomicLong bitstreams = new AtomicLong();
+
+        private final AtomicLong bytes = new AtomicLong();
+
+        private final AtomicLong nanos = new AtomicLong();
+
+        void add(long read, long elapsed)
+        {
+            bitstreams.incrementAndGet();
+            bytes.addAndGet(read);
+            nanos.addAndGet(elapsed);
+        }
+
+        @Override
+        public String toString()
+        {
+            long mb = bytes.get() / (1024 * 1024);
+            double seconds = nanos.get() / 1e9;
+            return bitstreams.get() + " bitstreams, " + mb + " MB in " + Math.round(seconds) + " s ("
+                    + (seconds > 0 ? Math.round(mb / seconds) : 0) + " MB/s per thread)";
+        }
+    }
+
+    /**
+     * Spreads the reads over time so that they don't exceed a bandwidth.
+     */
+    private static final class Throttle
+    {
+        private final long bytesPerSecond;
+
+        /** time at which the bytes acquired so far will have been read */
+        private long nextFree = 0;
+
+        Throttle(long bytesPerSecond)
+        {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(long bytes) throws InterruptedIOException
+        {
+            if (bytesPerSecond <= 0)
+            {
+                return;
+            }
+            long wait;
+            synchronized (this)
+            {
+                long now = System.nanoTime();
+                if (nextFree < now)
+                {
+                    nextFree = now;
+                }
+                nextFree += bytes * 1000000000L / bytesPerSecond;
+                wait = nextFree - now;
+            }
+            if (wait > 0)
+            {
+                try
+                {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while throttling");
+                }
+            }
+        }
+    }
 }
@@ -7,11 +7,19 @@
  */
 package org.dspace.checker;
 
+import java.sql.Timestamp;
 import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
 
 /**
  * An implementation of the selection strategy that selects bitstreams in the
  * order that they were last checked, looping endlessly.
+ * <p>
+ * With a batch size greater than one the bitstreams are claimed in batches
+ * (see {@link BitstreamInfoDAO#claimOldestBitstreams}), so that they can be
+ * checked concurrently, by several threads or processes, without being
+ * dispatched twice.
  * 
  * @author Jim Downing
  * @author Grace Carpenter
@@ -36,6 +44,21 @@ public class SimpleDispatcher implements BitstreamDispatcher
      */
     private BitstreamInfoDAO bitstreamInfoDAO;
 
+    /**
+     * Number of bitstreams claimed at once, 1 to select them one at a time
+     */
+    private int batchSize = 1;
+
+    /**
+     * Start of the current pass over the bitstreams, when claiming batches
+     */
+    private Timestamp passStartTime = null;
+
+    /**
+     * Bitstreams claimed and not yet dispatched
+     */
+    private List<Integer> claimed = new LinkedList<Integer>();
+
     /**
      * Creates a new SimpleDispatcher.
      * 
@@ -52,6 +75,24 @@ public class SimpleDispatcher implements BitstreamDispatcher
         this.loopContinuously = looping;
     }
 
+    /**
+     * Creates a new SimpleDispatcher claiming the bitstreams in batches.
+     * 
+     * @param startTime
+     *            timestamp for beginning of checker process
+     * @param looping
+     *            indicates whether checker should loop infinitely through
+     *            most_recent_checksum table
+     * @param batchSize
+     *            number of bitstreams claimed at once
+     */
+    public SimpleDispatcher(BitstreamInfoDAO bitstreamInfoDAO, Date startTime, boolean looping,
+            int batchSize)
+    {
+        this(bitstreamInfoDAO, startTime, looping);
+        this.batchSize = batchSize;
+    }
+
     /**
      * Blanked off, no-op constructor. Do not use.
      */
@@ -66,6 +107,11 @@ public class SimpleDispatcher implements BitstreamDispatcher
      */
     public synchronized int next()
     {
+        if (batchSize > 1)
+        {
+            return nextClaimed();
+        }
+
         // should process loop infinitely through the
         // bitstreams in most_recent_checksum table?
         if (!loopContinuously && (processStartTime != null))
@@ -79,4 +125,31 @@ public class SimpleDispatcher implements BitstreamDispatcher
         }
 
     }
+
+    private int nextClaimed()
+    {
+        if (claimed.isEmpty())
+        {
+            if (!loopContinuously && (processStartTime != null))
+            {
+                claimed.addAll(bitstreamInfoDAO.claimOldestBitstreams(
+                        new Timestamp(processStartTime.getTime()), batchSize));
+            }
+            else
+            {
+                // a claimed bitstream is started after the current pass,
+                // so it comes again in the next pass only
+                if (passStartTime != null)
+                {
+                    claimed.addAll(bitstreamInfoDAO.claimOldestBitstreams(passStartTime, batchSize));
+                }
+                if (claimed.isEmpty())
+                {
+                    passStartTime = new Timestamp(System.currentTimeMillis());
+                    claimed.addAll(bitstreamInfoDAO.claimOldestBitstreams(passStartTime, batchSize));
+                }
+            }
+        }
+        return claimed.isEmpty() ? SENTINEL : claimed.remove(0);
+    }
 }
@@ -9,6 +9,7 @@ package org.dspace.content;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
@@ -140,6 +141,44 @@ public class Bitstream extends DSpaceObject
         return new Bitstream(context, row);
     }
 
+    /**
+     * Get one page of the bitstreams, in ID order, with the limit applied by
+     * the database. With the last ID of the previous page as
+     * <code>after</code>, the cost of a page doesn't grow with its position.
+     *
+     * @param context
+     *            DSpace context object
+     * @param after
+     *            only the bitstreams with an ID greater than this one, or null
+     *            for all
+     * @param offset
+     *            number of bitstreams skipped
+     * @param limit
+     *            maximum number of bitstreams returned
+     * @return the bitstreams of the page
+     * @throws SQLException
+     */
+    public static Bitstream[] findAll(Context context, Integer after, int offset, int limit) throws SQLException
+    {
+        List<Serializable> params = new ArrayList<Serializable>();
+        StringBuffer query = new StringBuffer("SELECT * FROM bitstream");
+        if (after != null)
+        {
+            query.append(" WHERE bitstream_id > ?");
+            params.add(after);
+        }
+        query.append(" ORDER BY bitstream_id");
+        DatabaseManager.applyOffsetAndLimit(query, params, offset, limit);
+
+        List<Bitstream> bitstreams = new ArrayList<Bitstream>();
+        for (TableRow row : DatabaseManager.query(context, query.toString(), params.toArray()).toList())
+        {
+            Bitstream fromCache = (Bitstream) context.fromCache(Bitstream.class, row.getIntColumn("bitstream_id"));
+            bitstreams.add(fromCache != null ? fromCache : new Bitstream(context, row));
+        }
+        return bitstreams.toArray(new Bitstream[bitstreams.size()]);
+    }
+
     public static Bitstream[] findAll(Context context) throws SQLException
     {
         TableRowIterator tri = DatabaseManager.queryTable(context, "bitstream",
@@ -60,6 +60,22 @@ public class Bundle extends DSpaceObject
      *            the corresponding row in the table
      */
     Bundle(Context context, TableRow row) throws SQLException
+    {
+        this(context, row, findBitstreamRows(context, row.getIntColumn("bundle_id")));
+    }
+
+    /**
+     * Construct a bundle object with the given table row and the rows of its
+     * bitstreams, already retrieved in order.
+     *
+     * @param context
+     *            the context this object exists in
+     * @param row
+     *            the corresponding row in the table
+     * @param bitstreamRows
+     *            the rows of the bitstreams in the bundle
+     */
+    Bundle(Context context, TableRow row, List<TableRow> bitstreamRows) throws SQLException
     {
         super(context);
 
@@ -69,6 +85,39 @@ public class Bundle extends DSpaceObject
 
         bundleRow = row;
         bitstreams = new ArrayList<Bitstream>();
+
+        for (TableRow r : bitstreamRows)
+        {
+            // First check the cache
+            Bitstream fromCache = (Bitstream) context.fromCache(
+                    Bitstream.class, r.getIntColumn("bitstream_id"));
+
+            if (fromCache != null)
+            {
+                bitstreams.add(fromCache);
+            }
+            else
+            {
+                //Since bitstreams can be ordered by a column in bundle2bitstream
+                //We cannot use queryTable & so we need to add our table later on
+                r.setTable("bitstream");
+                bitstreams.add(new Bitstream(ourContext, r));
+            }
+        }
+
+        // Cache ourselves
+        context.cache(this, row.getIntColumn("bundle_id"));
+
+        modified = false;
+    }
+
+    /**
+     * @return the ORDER BY clause of the bitstreams in a bundle, as
+     *         configured by webui.bitstream.order.field and
+     *         webui.bitstream.order.direction
+     */
+    static String getBitstreamOrder()
+    {
         String bitstreamOrderingField  = ConfigurationManager.getProperty("webui.bitstream.order.field");
         String bitstreamOrderingDirection   = ConfigurationManager.getProperty("webui.bitstream.order.direction");
 
@@ -82,57 +131,19 @@ public class Bundle extends DSpaceObject
             bitstreamOrderingDirection = "ASC";
         }
 
+        return " ORDER BY " + bitstreamOrderingField + " " + bitstreamOrderingDirection;
+    }
+
+    private static List<TableRow> findBitstreamRows(Context context, int bundleID) throws SQLException
+    {
         StringBuilder query = new StringBuilder();
         query.append("SELECT bitstream.*,bundle2bitstream.bitstream_order FROM bitstream, bundle2bitstream WHERE");
         query.append(" bundle2bitstream.bitstream_id=bitstream.bitstream_id AND");
         query.append(" bundle2bitstream.bundle_id= ?");
-        query.append(" ORDER BY ");
-        query.append(bitstreamOrderingField);
-        query.append(" ");
-        query.append(bitstreamOrderingDirection);
-
-        // Get bitstreams
-        TableRowIterator tri = DatabaseManager.query(
-                ourContext,
-                query.toString(),
-                bundleRow.getIntColumn("bundle_id"));
-
-        try
-        {
-            while (tri.hasNext())
-            {
-                TableRow r = tri.next();
-
-                // First check the cache
-                Bitstream fromCache = (Bitstream) context.fromCache(
-                        Bitstream.class, r.getIntColumn("bitstream_id"));
+        query.append(getBitstreamOrder());
 
-                if (fromCache != null)
-                {
-                    bitstreams.add(fromCache);
-                }
-                else
-                {
-                    //Since bitstreams can be ordered by a column in bundle2bitstream
-                    //We cannot use queryTable & so we need to add our table later on
-                    r.setTable("bitstream");
-                    bitstreams.add(new Bitstream(ourContext, r));
-                }
-            }
-        }
-        finally
-        {
-            // close the TableRowIterator to free up resources
-            if (tri != null)
-            {
-                tri.close();
-            }
-        }
-
-        // Cache ourselves
-        context.cache(this, row.getIntColumn("bundle_id"));
-
-        modified = false;
+        // Get bitstreams, the iterator is closed by toList()
+        return DatabaseManager.query(context, query.toString(), bundleID).toList();
     }
 
     /**
@@ -514,6 +514,43 @@ public class Collection extends DSpaceObject implements IGlobalSearchResult
         return new ItemIterator(ourContext, rows);
     }
 
+    /**
+     * Get one page of the IDs of the in_archive items in this collection, in
+     * ID order. With the last ID of the previous page as <code>after</code>,
+     * the cost of a page doesn't grow with its position.
+     * @param after Only the IDs greater than this one, or null for all
+     * @param offset Number of results to jump ahead by
+     * @param limit Max number of results in set
+     * @return the IDs of the page
+     * @throws SQLException
+     */
+    public List<Integer> getItemIDs(Integer after, int offset, int limit) throws SQLException
+    {
+        List<Serializable> params = new ArrayList<Serializable>();
+        StringBuffer myQuery = new StringBuffer(
+            "SELECT item.item_id " +
+            "FROM item, collection2item " +
+            "WHERE item.item_id = collection2item.item_id " +
+              "AND collection2item.collection_id = ? " +
+              "AND item.in_archive = '1'"
+        );
+        params.add(getID());
+        if (after != null)
+        {
+            myQuery.append(" AND item.item_id > ?");
+            params.add(after);
+        }
+        myQuery.append(" ORDER BY item.item_id");
+        DatabaseManager.applyOffsetAndLimit(myQuery, params, offset, limit);
+
+        List<Integer> itemIDs = new ArrayList<Integer>();
+        for (TableRow row : DatabaseManager.query(ourContext, myQuery.toString(), params.toArray()).toList())
+        {
+            itemIDs.add(row.getIntColumn("item_id"));
+        }
+        return itemIDs;
+    }
+
     /**
      * Get all the items in this collection. The order is indeterminate.
      *
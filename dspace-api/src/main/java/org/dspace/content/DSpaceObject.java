@@ -12,6 +12,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
@@ -88,24 +89,41 @@ public abstract class DSpaceObject implements IGlobalSearchResult
     }
 
 
+    /**
+     * Write the in-memory metadata to the database. Nothing is done unless
+     * the metadata have been modified since they were loaded or last written.
+     * The rows in the database are matched against the in-memory values by
+     * hashing (field, place, value, language, authority, confidence), only the
+     * rows that don't match are deleted and only the values that don't match
+     * are inserted, each with a single JDBC batch.
+     */
     public void updateMetadata() throws SQLException, AuthorizeException {
+        if (!modifiedMetadata)
+        {
+            return;
+        }
+        modifiedMetadata = false;
+
+        List<Metadatum> metadata = getMetadata();
+
         // Map counting number of values for each element/qualifier.
         // Keys are Strings: "element" or "element.qualifier"
         // Values are Integers indicating number of values written for a
         // element/qualifier
         Map<String,Integer> elementCount = new HashMap<String,Integer>();
 
-        modifiedMetadata = false;
-
         // Arrays to store the working information required
-        int[]     placeNum = new int[getMetadata().size()];
-        boolean[] storedDC = new boolean[getMetadata().size()];
-        MetadataField[] dcFields = new MetadataField[getMetadata().size()];
+        int[]     placeNum = new int[metadata.size()];
+        boolean[] storedDC = new boolean[metadata.size()];
+        MetadataField[] dcFields = new MetadataField[metadata.size()];
+
+        // in-memory values not matched yet, by key
+        Map<MetadataKey, LinkedList<Integer>> pending = new HashMap<MetadataKey, LinkedList<Integer>>();
 
         // Work out the place numbers for the in memory DC
-        for (int dcIdx = 0; dcIdx < getMetadata().size(); dcIdx++)
+        for (int dcIdx = 0; dcIdx < metadata.size(); dcIdx++)
         {
-            Metadatum dcv = getMetadata().get(dcIdx);
+            Metadatum dcv = metadata.get(dcIdx);
 
             // Work out the place number for ordering
             int current = 0;
@@ -134,10 +152,21 @@ public abstract class DSpaceObject implements IGlobalSearchResult
                 log.warn("Invalid metadata field: [" + dcv.getField() + "] : [" + dcv.value + "]");
                 throw new SQLException("Invalid metadata field: [" + dcv.getField() + "]");
             }
+
+            MetadataKey mk = new MetadataKey(dcFields[dcIdx].getFieldID(), current, dcv.value,
+                    dcv.language, dcv.authority, dcv.confidence);
+            LinkedList<Integer> indexes = pending.get(mk);
+            if (indexes == null)
+            {
+                indexes = new LinkedList<Integer>();
+                pending.put(mk, indexes);
+            }
+            indexes.add(dcIdx);
         }
 
         // Now the precalculations are done, iterate through the existing metadata
         // looking for matches
+        List<Integer> toDelete = new ArrayList<Integer>();
         TableRowIterator tri = retrieveMetadata();
         if (tri != null)
         {
@@ -146,97 +175,20 @@ public abstract class DSpaceObject implements IGlobalSearchResult
                 while (tri.hasNext())
                 {
                     TableRow tr = tri.next();
-                    // Assume that we will remove this row, unless we get a match
-                    boolean removeRow = true;
-
-                    // Go through the in-memory metadata, unless we've already decided to keep this row
-                    for (int dcIdx = 0; dcIdx < getMetadata().size() && removeRow; dcIdx++)
+                    MetadataKey mk = new MetadataKey(tr.getIntColumn("metadata_field_id"),
+                            tr.getIntColumn("place"), tr.getStringColumn("text_value"),
+                            tr.getStringColumn("text_lang"), tr.getStringColumn("authority"),
+                            tr.getIntColumn("confidence"));
+                    LinkedList<Integer> indexes = pending.get(mk);
+                    if (indexes != null && !indexes.isEmpty())
                     {
-                        // Only process if this metadata has not already been matched to something in the DB
-                        if (!storedDC[dcIdx])
-                        {
-                            boolean matched = true;
-                            Metadatum dcv   = getMetadata().get(dcIdx);
-
-                            // Check the metadata field is the same
-                            if (matched && dcFields[dcIdx].getFieldID() != tr.getIntColumn("metadata_field_id"))
-                            {
-                                matched = false;
-                            }
-
-                            // Check the place is the same
-                            if (matched && placeNum[dcIdx] != tr.getIntColumn("place"))
-                            {
-                                matched = false;
-                            }
-
-                            // Check the text is the same
-                            if (matched)
-                            {
-                                String text = tr.getStringColumn("text_value");
-                                if (dcv.value == null && text == null)
-                                {
-                                    matched = true;
-                                }
-                                else if (dcv.value != null && dcv.value.equals(text))
-                                {
-                                    matched = true;
-                                }
-                                else
-                                {
-                                    matched = false;
-                                }
-                            }
-
-                            // Check the language is the same
-                            if (matched)
-                            {
-                                String lang = tr.getStringColumn("text_lang");
-                                if (dcv.language == null && lang == null)
-                                {
-                                    matched = true;
-                                }
-                                else if (dcv.language != null && dcv.language.equals(lang))
-                                {
-                                    matched = true;
-                                }
-                                else
-                                {
-                                    matched = false;
-                                }
-                            }
-
-                            // check that authority and confidence match
-                            if (matched)
-                            {
-                                String auth = tr.getStringColumn("authority");
-                                int conf = tr.getIntColumn("confidence");
-                                if (!((dcv.authority == null && auth == null) ||
-                                        (dcv.authority != null && auth != null && dcv.authority.equals(auth))
-                                                && dcv.confidence == conf))
-                                {
-                                    matched = false;
-                                }
-                            }
-
-                            // If the db record is identical to the in memory values
-                            if (matched)
-                            {
-                                // Flag that the metadata is already in the DB
-                                storedDC[dcIdx] = true;
-
-                                // Flag that we are not going to remove the row
-                                removeRow = false;
-                            }
-                        }
+                        // the db record is identical to an in memory value
+                        storedDC[indexes.removeFirst()] = true;
                     }
-
-                    // If after processing all the metadata values, we didn't find a match
-                    // delete this row from the DB
-                    if (removeRow)
+                    else
                     {
-                        DatabaseManager.delete(ourContext, tr);
-                        modifiedMetadata = true;
+                        // no match, delete this row from the DB
+                        toDelete.add(tr.getIntColumn("metadata_value_id"));
                     }
                 }
             }
@@ -244,39 +196,112 @@ public abstract class DSpaceObject implements IGlobalSearchResult
             {
                 tri.close();
             }
+        }
 
-
+        if (!toDelete.isEmpty())
+        {
+            DatabaseManager.deleteBatch(ourContext, "MetadataValue", toDelete);
+            modifiedMetadata = true;
         }
 
         // Add missing in-memory DC
-        for (int dcIdx = 0; dcIdx < getMetadata().size(); dcIdx++)
+        List<TableRow> toInsert = new ArrayList<TableRow>();
+        for (int dcIdx = 0; dcIdx < metadata.size(); dcIdx++)
         {
             // Only write values that are not already in the db
             if (!storedDC[dcIdx])
             {
-                Metadatum dcv = getMetadata().get(dcIdx);
-
-                // Write Metadatum
-                MetadataValue metadata = new MetadataValue();
-                metadata.setResourceId(getID());
-                metadata.setResourceTypeId(getType());
-                metadata.setFieldId(dcFields[dcIdx].getFieldID());
-                metadata.setValue(dcv.value);
-                metadata.setLanguage(dcv.language);
-                metadata.setPlace(placeNum[dcIdx]);
-                metadata.setAuthority(dcv.authority);
-                metadata.setConfidence(dcv.confidence);
-                metadata.create(ourContext);
-                modifiedMetadata = true;
+                Metadatum dcv = metadata.get(dcIdx);
+
+                TableRow row = DatabaseManager.row(ourContext, "MetadataValue");
+                row.setColumn("resource_id", getID());
+                row.setColumn("resource_type_id", getType());
+                row.setColumn("metadata_field_id", dcFields[dcIdx].getFieldID());
+                row.setColumn("text_value", dcv.value);
+                row.setColumn("text_lang", dcv.language);
+                row.setColumn("place", placeNum[dcIdx]);
+                row.setColumn("authority", dcv.authority);
+                row.setColumn("confidence", dcv.confidence);
+                toInsert.add(row);
             }
         }
 
+        if (!toInsert.isEmpty())
+        {
+            DatabaseManager.insertBatch(ourContext, "MetadataValue", toInsert);
+            modifiedMetadata = true;
+        }
+
         if(modifiedMetadata) {
             ourContext.addEvent(new Event(Event.MODIFY_METADATA, getType(), getID(), getDetails(), getIdentifiers(ourContext)));
             modifiedMetadata = false;
         }
     }
 
+    /**
+     * Identity of a metadata value for the comparison between the database and
+     * the in-memory values. As in the original comparison, the confidence is
+     * only relevant when there is an authority.
+     */
+    private static final class MetadataKey
+    {
+        private final int fieldID;
+
+        private final int place;
+
+        private final String value;
+
+        private final String language;
+
+        private final String authority;
+
+        private final int confidence;
+
+        private final int hash;
+
+        MetadataKey(int fieldID, int place, String value, String language, String authority, int confidence)
+        {
+            this.fieldID = fieldID;
+            this.place = place;
+            this.value = value;
+            this.language = language;
+            this.authority = authority;
+            this.confidence = authority == null ? 0 : confidence;
+            int h = fieldID;
+            h = 31 * h + place;
+            h = 31 * h + (value == null ? 0 : value.hashCode());
+            h = 31 * h + (language == null ? 0 : language.hashCode());
+            h = 31 * h + (authority == null ? 0 : authority.hashCode());
+            h = 31 * h + this.confidence;
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof MetadataKey))
+            {
+                return false;
+            }
+            MetadataKey other = (MetadataKey) obj;
+            return hash == other.hash && fieldID == other.fieldID && place == other.place
+                    && confidence == other.confidence
+                    && StringUtils.equals(value, other.value)
+                    && StringUtils.equals(language, other.language)
+                    && StringUtils.equals(authority, other.authority);
+        }
+    }
+
     /**
      * Reset the cache of event details.
      */
@@ -1200,6 +1225,45 @@ public abstract class DSpaceObject implements IGlobalSearchResult
         modifiedMetadata = true;
     }
 
+    /**
+     * Make a metadata value from a row of the MetadataValue table.
+     *
+     * @return the value, or null if its field or schema doesn't exist
+     */
+    static Metadatum toMetadatum(Context c, TableRow resultRow, Logger log) throws SQLException
+    {
+        // Get the associated metadata field and schema information
+        int fieldID = resultRow.getIntColumn("metadata_field_id");
+        MetadataField field = MetadataField.find(c, fieldID);
+
+        if (field == null)
+        {
+            log.error("Loading item - cannot find metadata field " + fieldID + " for resourceType="
+                    + resultRow.getIntColumn("resource_type_id") + " and resourceId="
+                    + resultRow.getIntColumn("resource_id"));
+            return null;
+        }
+        MetadataSchema schema = MetadataSchema.find(c, field.getSchemaID());
+        if (schema == null)
+        {
+            log.error("Loading item - cannot find metadata schema " + field.getSchemaID() + ", field " + fieldID);
+            return null;
+        }
+
+        // Make a Metadatum object
+        Metadatum dcv = new Metadatum();
+        dcv.element = field.getElement();
+        dcv.qualifier = field.getQualifier();
+        dcv.value = resultRow.getStringColumn("text_value");
+        dcv.language = resultRow.getStringColumn("text_lang");
+        //dcv.namespace = schema.getNamespace();
+        dcv.schema = schema.getName();
+        dcv.authority = resultRow.getStringColumn("authority");
+        dcv.confidence = resultRow.getIntColumn("confidence");
+        dcv.setPlace(resultRow.getIntColumn("place"));
+        return dcv;
+    }
+
     class MetadataCache
     {
         List<Metadatum> metadata = null;
@@ -1219,39 +1283,10 @@ public abstract class DSpaceObject implements IGlobalSearchResult
                     {
                         while (tri.hasNext())
                         {
-                            TableRow resultRow = tri.next();
-
-                            // Get the associated metadata field and schema information
-                            int fieldID = resultRow.getIntColumn("metadata_field_id");
-                            MetadataField field = MetadataField.find(c, fieldID);
-
-                            if (field == null)
+                            Metadatum dcv = toMetadatum(c, tri.next(), log);
+                            if (dcv != null)
                             {
-                                log.error("Loading item - cannot find metadata field " + fieldID + " for resourceType=" + resourceTypeId + " and resourceId=" + resourceId);
-                            }
-                            else
-                            {
-                                MetadataSchema schema = MetadataSchema.find(c, field.getSchemaID());
-                                if (schema == null)
-                                {
-                                    log.error("Loading item - cannot find metadata schema " + field.getSchemaID() + ", field " + fieldID);
-                                }
-                                else
-                                {
-                                    // Make a Metadatum object
-                                    Metadatum dcv = new Metadatum();
-                                    dcv.element = field.getElement();
-                                    dcv.qualifier = field.getQualifier();
-                                    dcv.value = resultRow.getStringColumn("text_value");
-                                    dcv.language = resultRow.getStringColumn("text_lang");
-                                    //dcv.namespace = schema.getNamespace();
-                                    dcv.schema = schema.getName();
-                                    dcv.authority = resultRow.getStringColumn("authority");
-                                    dcv.confidence = resultRow.getIntColumn("confidence");
-                                    dcv.setPlace(resultRow.getIntColumn("place"));
-                                    // Add it to the list
-                                    metadata.add(dcv);
-                                }
+                                metadata.add(dcv);
                             }
                         }
                     }
@@ -1274,6 +1309,11 @@ public abstract class DSpaceObject implements IGlobalSearchResult
             metadata = m;
         }
 
+        boolean isLoaded()
+        {
+            return metadata != null;
+        }
+
         TableRowIterator retrieveMetadata(int resourceId, int resourceTypeId) throws SQLException
         {
             return DatabaseManager.queryTable(ourContext, "MetadataValue",
@@ -9,6 +9,7 @@ package org.dspace.content;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
@@ -111,7 +112,38 @@ public class Item extends DSpaceObject implements BrowsableDSpaceObject
     Item(Context context, TableRow row) throws SQLException
     {
         super(context);
+        init(row);
 
+        // Get our Handle if any
+        handle = HandleManager.findHandle(context, this);
+
+        // Cache ourselves
+        context.cache(this, row.getIntColumn("item_id"));
+    }
+
+    /**
+     * Construct an item with the given table row and its handle, already
+     * retrieved
+     *
+     * @param context
+     *            the context this object exists in
+     * @param row
+     *            the corresponding row in the table
+     * @param handle
+     *            the handle of the item, or null if it has none
+     */
+    Item(Context context, TableRow row, String handle)
+    {
+        super(context);
+        init(row);
+        this.handle = handle;
+
+        // Cache ourselves
+        context.cache(this, row.getIntColumn("item_id"));
+    }
+
+    private void init(TableRow row)
+    {
         // Ensure that my TableRow is typed.
         if (null == row.getTable())
             row.setTable("item");
@@ -119,12 +151,38 @@ public class Item extends DSpaceObject implements BrowsableDSpaceObject
         itemRow = row;
         modified = false;
         clearDetails();
+    }
 
-        // Get our Handle if any
-        handle = HandleManager.findHandle(context, this);
-
-        // Cache ourselves
-        context.cache(this, row.getIntColumn("item_id"));
+    /**
+     * Load the given items with a few queries for the whole set rather than
+     * a few queries for each item, and keep them in the context cache. Use it
+     * before rendering or exporting many items, e.g. a page of search results.
+     * The items already in the cache are reused, only their parts not yet
+     * loaded are retrieved.
+     *
+     * @param context
+     *            DSpace context object
+     * @param ids
+     *            internal IDs of the items
+     * @param spec
+     *            which parts of the items to load along with them
+     * @return the items, in the order of the IDs, with null for invalid IDs
+     * @throws SQLException
+     */
+    public static Item[] prefetch(Context context, int[] ids, PrefetchSpec spec) throws SQLException
+    {
+        Item[] items = new ItemPrefetcher(context, spec).prefetch(ids);
+        if (context.isRequiredItemWrapper())
+        {
+            for (int i = 0; i < items.length; i++)
+            {
+                if (items[i] != null)
+                {
+                    items[i] = items[i].getWrapper();
+                }
+            }
+        }
+        return items;
     }
 
 
@@ -253,6 +311,46 @@ public class Item extends DSpaceObject implements BrowsableDSpaceObject
         return new ItemIterator(context, rows);
 	}
 
+    /**
+     * Get one page of the IDs of the "final" items, both archived and
+     * withdrawn, in ID order. The limit is applied by the database, so that
+     * paging through the whole repository never reads the skipped rows; with
+     * the last ID of the previous page as <code>after</code>, the cost of a page
+     * doesn't grow with its position.
+     *
+     * @param context
+     *            DSpace context object
+     * @param after
+     *            only the IDs greater than this one, or null for all
+     * @param offset
+     *            number of IDs skipped
+     * @param limit
+     *            maximum number of IDs returned
+     * @return the IDs of the page
+     * @throws SQLException
+     */
+    public static List<Integer> findItemIDsUnfiltered(Context context, Integer after, int offset, int limit)
+            throws SQLException
+    {
+        List<Serializable> params = new ArrayList<Serializable>();
+        StringBuffer myQuery = new StringBuffer(
+                "SELECT item_id FROM item WHERE (in_archive='1' OR withdrawn='1')");
+        if (after != null)
+        {
+            myQuery.append(" AND item_id > ?");
+            params.add(after);
+        }
+        myQuery.append(" ORDER BY item_id");
+        DatabaseManager.applyOffsetAndLimit(myQuery, params, offset, limit);
+
+        List<Integer> result = new ArrayList<Integer>();
+        for (TableRow row : DatabaseManager.query(context, myQuery.toString(), params.toArray()).toList())
+        {
+            result.add(row.getIntColumn("item_id"));
+        }
+        return result;
+    }
+
     public static List<Integer> findAllItemIDsUnfiltered(Context context)
             throws SQLException
     {
@@ -767,6 +865,22 @@ public class Item extends DSpaceObject implements BrowsableDSpaceObject
         return bundleArray;
     }
 
+    /**
+     * @return true if the bundles are already loaded
+     */
+    boolean isBundlesLoaded()
+    {
+        return bundles != null;
+    }
+
+    /**
+     * Set the bundles, as retrieved by a prefetch.
+     */
+    void setBundles(List<Bundle> prefetched)
+    {
+        bundles = prefetched;
+    }
+
     /**
      * Get the bundles matching a bundle name (name corresponds roughly to type)
      *
@@ -987,6 +1101,45 @@ public class Item extends DSpaceObject implements BrowsableDSpaceObject
         return createSingleBitstream(is, "ORIGINAL");
     }
 
+    /**
+     * Get one page of the bitstreams in all the bundles of the item, in ID
+     * order, with the limit applied by the database.
+     *
+     * @param after
+     *            only the bitstreams with an ID greater than this one, or null
+     *            for all
+     * @param offset
+     *            number of bitstreams skipped
+     * @param limit
+     *            maximum number of bitstreams returned
+     * @return the bitstreams of the page
+     * @throws SQLException
+     */
+    public Bitstream[] getBitstreams(Integer after, int offset, int limit) throws SQLException
+    {
+        List<Serializable> params = new ArrayList<Serializable>();
+        StringBuffer myQuery = new StringBuffer(
+                "SELECT bitstream.* FROM bitstream, bundle2bitstream, item2bundle WHERE "
+                        + "bitstream.bitstream_id = bundle2bitstream.bitstream_id AND "
+                        + "bundle2bitstream.bundle_id = item2bundle.bundle_id AND item2bundle.item_id = ?");
+        params.add(getID());
+        if (after != null)
+        {
+            myQuery.append(" AND bitstream.bitstream_id > ?");
+            params.add(after);
+        }
+        myQuery.append(" ORDER BY bitstream.bitstream_id");
+        DatabaseManager.applyOffsetAndLimit(myQuery, params, offset, limit);
+
+        List<Bitstream> bitstreams = new ArrayList<Bitstream>();
+        for (TableRow row : DatabaseManager.query(ourContext, myQuery.toString(), params.toArray()).toList())
+        {
+            Bitstream cached = (Bitstream) ourContext.fromCache(Bitstream.class, row.getIntColumn("bitstream_id"));
+            bitstreams.add(cached != null ? cached : new Bitstream(ourContext, row));
+        }
+        return bitstreams.toArray(new Bitstream[bitstreams.size()]);
+    }
+
     /**
      * Get all non-internal bitstreams in the item. This is mainly used for
      * auditing for provenance messages and adding format.* DC values. The order
@@ -1104,6 +1257,10 @@ public class Item extends DSpaceObject implements BrowsableDSpaceObject
             AuthorizeManager.authorizeAction(ourContext, this, Constants.WRITE);
         }
 
+        // the state of the item (archived, withdrawn, owning collection)
+        // takes part in the authorization decisions
+        ourContext.getAuthorizeCache().clear();
+
         log.info(LogManager.getHeader(ourContext, "update_item", "item_id="
                 + getID()));
 
@@ -0,0 +1,314 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.authorize.AuthorizeManager;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.handle.HandleManager;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Loads a set of items and the parts given by a {@link PrefetchSpec} with one
+ * query per table for each chunk of items, instead of the queries issued for
+ * each item, bundle and bitstream when they are loaded one by one.
+ *
+ * @see Item#prefetch(Context, int[], PrefetchSpec)
+ */
+final class ItemPrefetcher
+{
+    private static final Logger log = Logger.getLogger(ItemPrefetcher.class);
+
+    /** maximum number of items loaded by one query */
+    private static final int CHUNK_SIZE = 500;
+
+    private final Context context;
+
+    private final PrefetchSpec spec;
+
+    ItemPrefetcher(Context context, PrefetchSpec spec)
+    {
+        this.context = context;
+        this.spec = spec;
+    }
+
+    /**
+     * @return the items, in the order of the IDs, with null for invalid IDs
+     */
+    Item[] prefetch(int[] ids) throws SQLException
+    {
+        Item[] result = new Item[ids.length];
+        for (int from = 0; from < ids.length; from += CHUNK_SIZE)
+        {
+            int to = Math.min(ids.length, from + CHUNK_SIZE);
+            Map<Integer, Item> items = loadItems(ids, from, to);
+
+            if (spec.isMetadata())
+            {
+                loadMetadata(items.values());
+            }
+            if (spec.isBundles())
+            {
+                loadBundles(items.values());
+            }
+            if (spec.isPolicies())
+            {
+                loadPolicies(items.values());
+            }
+
+            for (int i = from; i < to; i++)
+            {
+                result[i] = items.get(ids[i]);
+            }
+        }
+        return result;
+    }
+
+    private Map<Integer, Item> loadItems(int[] ids, int from, int to) throws SQLException
+    {
+        Map<Integer, Item> items = new LinkedHashMap<Integer, Item>();
+        Set<Integer> missing = new LinkedHashSet<Integer>();
+        for (int i = from; i < to; i++)
+        {
+            Item cached = (Item) context.fromCache(Item.class, ids[i]);
+            if (cached != null)
+            {
+                items.put(ids[i], cached);
+            }
+            else
+            {
+                missing.add(ids[i]);
+            }
+        }
+
+        if (!missing.isEmpty())
+        {
+            List<Integer> missingIDs = new ArrayList<Integer>(missing);
+            Map<Integer, String> handles = HandleManager.findHandles(context, Constants.ITEM, missingIDs);
+            TableRowIterator tri = DatabaseManager.queryTable(context, "item",
+                    "SELECT * FROM item WHERE item_id IN (" + placeholders(missingIDs.size()) + ")",
+                    missingIDs.toArray());
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    int id = row.getIntColumn("item_id");
+                    items.put(id, new Item(context, row, handles.get(id)));
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+        return items;
+    }
+
+    private void loadMetadata(Collection<Item> items) throws SQLException
+    {
+        Map<Integer, List<Metadatum>> metadata = new HashMap<Integer, List<Metadatum>>();
+        List<Item> toLoad = new ArrayList<Item>();
+        for (Item item : items)
+        {
+            if (!item.metadataCache.isLoaded())
+            {
+                toLoad.add(item);
+                metadata.put(item.getID(), new ArrayList<Metadatum>());
+            }
+        }
+        if (toLoad.isEmpty())
+        {
+            return;
+        }
+
+        Object[] params = new Object[metadata.size() + 1];
+        params[0] = Constants.ITEM;
+        System.arraycopy(metadata.keySet().toArray(), 0, params, 1, metadata.size());
+        TableRowIterator tri = DatabaseManager.queryTable(context, "MetadataValue",
+                "SELECT * FROM MetadataValue WHERE resource_type_id = ? AND resource_id IN ("
+                        + placeholders(metadata.size()) + ") ORDER BY resource_id, metadata_field_id, place",
+                params);
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                Metadatum dcv = DSpaceObject.toMetadatum(context, row, log);
+                if (dcv != null)
+                {
+                    metadata.get(row.getIntColumn("resource_id")).add(dcv);
+                }
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
+        for (Item item : toLoad)
+        {
+            item.metadataCache.set(metadata.get(item.getID()));
+        }
+    }
+
+    private void loadBundles(Collection<Item> items) throws SQLException
+    {
+        Map<Integer, List<TableRow>> bundleRows = new HashMap<Integer, List<TableRow>>();
+        List<Item> toLoad = new ArrayList<Item>();
+        for (Item item : items)
+        {
+            if (!item.isBundlesLoaded())
+            {
+                toLoad.add(item);
+                bundleRows.put(item.getID(), new ArrayList<TableRow>());
+            }
+        }
+        if (toLoad.isEmpty())
+        {
+            return;
+        }
+
+        // the rows of the bundles, by item
+        List<Integer> newBundleIDs = new ArrayList<Integer>();
+        TableRowIterator tri = DatabaseManager.query(context,
+                "SELECT bundle.*, item2bundle.item_id FROM bundle, item2bundle WHERE "
+                        + "item2bundle.bundle_id=bundle.bundle_id AND item2bundle.item_id IN ("
+                        + placeholders(bundleRows.size()) + ")",
+                bundleRows.keySet().toArray());
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                bundleRows.get(row.getIntColumn("item_id")).add(row);
+                int bundleID = row.getIntColumn("bundle_id");
+                if (context.fromCache(Bundle.class, bundleID) == null)
+                {
+                    newBundleIDs.add(bundleID);
+                }
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
+        // the rows of the bitstreams, in order, by bundle not yet loaded
+        Map<Integer, List<TableRow>> bitstreamRows = new HashMap<Integer, List<TableRow>>();
+        for (Integer bundleID : newBundleIDs)
+        {
+            bitstreamRows.put(bundleID, new ArrayList<TableRow>());
+        }
+        if (!newBundleIDs.isEmpty())
+        {
+            Set<Integer> formatIDs = new LinkedHashSet<Integer>();
+            tri = DatabaseManager.query(context,
+                    "SELECT bitstream.*, bundle2bitstream.bitstream_order, bundle2bitstream.bundle_id "
+                            + "FROM bitstream, bundle2bitstream WHERE "
+                            + "bundle2bitstream.bitstream_id=bitstream.bitstream_id AND "
+                            + "bundle2bitstream.bundle_id IN (" + placeholders(newBundleIDs.size()) + ")"
+                            + Bundle.getBitstreamOrder(),
+                    newBundleIDs.toArray());
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    bitstreamRows.get(row.getIntColumn("bundle_id")).add(row);
+                    formatIDs.add(row.getIntColumn("bitstream_format_id"));
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+
+            // the format registry is small: load it whole if a format is missing
+            for (Integer formatID : formatIDs)
+            {
+                if (context.fromCache(BitstreamFormat.class, formatID) == null)
+                {
+                    BitstreamFormat.findAll(context);
+                    break;
+                }
+            }
+        }
+
+        for (Item item : toLoad)
+        {
+            List<Bundle> bundles = new ArrayList<Bundle>();
+            for (TableRow row : bundleRows.get(item.getID()))
+            {
+                int bundleID = row.getIntColumn("bundle_id");
+                Bundle cached = (Bundle) context.fromCache(Bundle.class, bundleID);
+                if (cached != null)
+                {
+                    bundles.add(cached);
+                }
+                else
+                {
+                    // in a read-only context the bundle isn't cached, the
+                    // rows of its bitstreams are then still at hand
+                    row.setTable("bundle");
+                    List<TableRow> rows = bitstreamRows.get(bundleID);
+                    bundles.add(rows != null ? new Bundle(context, row, rows) : new Bundle(context, row));
+                }
+            }
+            item.setBundles(bundles);
+        }
+    }
+
+    private void loadPolicies(Collection<Item> items) throws SQLException
+    {
+        List<Integer> itemIDs = new ArrayList<Integer>();
+        List<Integer> bundleIDs = new ArrayList<Integer>();
+        List<Integer> bitstreamIDs = new ArrayList<Integer>();
+        for (Item item : items)
+        {
+            itemIDs.add(item.getID());
+            if (spec.isBundles())
+            {
+                for (Bundle bundle : item.getBundles())
+                {
+                    bundleIDs.add(bundle.getID());
+                    for (Bitstream bitstream : bundle.getBitstreams())
+                    {
+                        bitstreamIDs.add(bitstream.getID());
+                    }
+                }
+            }
+        }
+        AuthorizeManager.prefetchPolicies(context, Constants.ITEM, itemIDs);
+        AuthorizeManager.prefetchPolicies(context, Constants.BUNDLE, bundleIDs);
+        AuthorizeManager.prefetchPolicies(context, Constants.BITSTREAM, bitstreamIDs);
+    }
+
+    private static String placeholders(int count)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.toString();
+    }
+}
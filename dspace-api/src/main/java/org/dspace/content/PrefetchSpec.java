@@ -0,0 +1,98 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+/**
+ * The parts of the items loaded along with them by
+ * {@link Item#prefetch(org.dspace.core.Context, int[], PrefetchSpec)}.
+ * <ul>
+ * <li>metadata: the metadata values of the items</li>
+ * <li>bundles: the bundles, their bitstreams and the bitstream formats</li>
+ * <li>policies: the resource policies of the items, and of their bundles and
+ * bitstreams if these are loaded too</li>
+ * </ul>
+ */
+public class PrefetchSpec
+{
+    /** only the item rows and handles */
+    public static final PrefetchSpec NONE = new PrefetchSpec(false, false, false);
+
+    /** the metadata, as needed to list the items */
+    public static final PrefetchSpec METADATA = new PrefetchSpec(true, false, false);
+
+    /** everything, as needed to render or export the whole items */
+    public static final PrefetchSpec ALL = new PrefetchSpec(true, true, true);
+
+    private final boolean metadata;
+
+    private final boolean bundles;
+
+    private final boolean policies;
+
+    public PrefetchSpec(boolean metadata, boolean bundles, boolean policies)
+    {
+        this.metadata = metadata;
+        this.bundles = bundles;
+        this.policies = policies;
+    }
+
+    /**
+     * Parse a configured list of parts, e.g. "metadata, bundles, policies".
+     *
+     * @param parts
+     *            the parts, separated by commas or spaces
+     * @param defaultSpec
+     *            returned when parts is null
+     * @return the spec loading the given parts
+     */
+    public static PrefetchSpec parse(String parts, PrefetchSpec defaultSpec)
+    {
+        if (parts == null)
+        {
+            return defaultSpec;
+        }
+        boolean metadata = false;
+        boolean bundles = false;
+        boolean policies = false;
+        for (String part : parts.trim().split("[,\\s]+"))
+        {
+            if ("metadata".equalsIgnoreCase(part))
+            {
+                metadata = true;
+            }
+            else if ("bundles".equalsIgnoreCase(part))
+            {
+                bundles = true;
+            }
+            else if ("policies".equalsIgnoreCase(part))
+            {
+                policies = true;
+            }
+            else if (part.length() > 0 && !"none".equalsIgnoreCase(part))
+            {
+                throw new IllegalArgumentException("Unknown prefetch part: " + part);
+            }
+        }
+        return new PrefetchSpec(metadata, bundles, policies);
+    }
+
+    public boolean isMetadata()
+    {
+        return metadata;
+    }
+
+    public boolean isBundles()
+    {
+        return bundles;
+    }
+
+    public boolean isPolicies()
+    {
+        return policies;
+    }
+}
@@ -7,10 +7,10 @@
  */
 package org.dspace.content.authority;
 
-import org.apache.solr.common.SolrDocumentList;
 import org.dspace.discovery.SearchServiceException;
+import org.dspace.discovery.SolrDocumentCursor;
 
 public interface IAuthorityDAOSolr
 {
-    public SolrDocumentList getPendingMatch(String metadata, String authority) throws SearchServiceException;
+    public SolrDocumentCursor getPendingMatch(String metadata, String authority) throws SearchServiceException;
 }
\ No newline at end of file
@@ -24,6 +24,7 @@ import javax.sql.DataSource;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.log4j.Logger;
+import org.dspace.authorize.AuthorizeCache;
 import org.dspace.content.EPersonCRISIntegration;
 import org.dspace.content.Item;
 import org.dspace.eperson.EPerson;
@@ -87,6 +88,9 @@ public class Context
     /** Object cache for this context */
     private Map<String, Object> objectCache;
 
+    /** Authorization decisions and group memberships resolved in this context */
+    private AuthorizeCache authorizeCache;
+
     /** Group IDs of special groups user is a member of */
     private List<Integer> specialGroups;
 
@@ -173,6 +177,8 @@ public class Context
         requiredItemWrapper = true;
 
         objectCache = new HashMap<String, Object>();
+        authorizeCache = new AuthorizeCache(ConfigurationManager.getIntProperty(
+                "core.authorization.cache.size", AuthorizeCache.DEFAULT_SIZE));
         specialGroups = new ArrayList<Integer>();
 
         authStateChangeHistory = new Stack<Boolean>();
@@ -209,6 +215,8 @@ public class Context
     public void setCurrentUser(EPerson user)
     {
         currentUser = user;
+        // the memberships of the current user include the special groups
+        authorizeCache.clear();
 
 		EPersonCRISIntegration plugin = (EPersonCRISIntegration) PluginManager
 				.getSinglePlugin(org.dspace.content.EPersonCRISIntegration.class);
@@ -452,6 +460,7 @@ public class Context
 				}
 
 				dispatcher = EventManager.getDispatcher(dispName);
+				dispatcher.prepare(this);
 				if (!isAutoCommit) {
 					connection.commit();
 				}
@@ -671,6 +680,19 @@ public class Context
     public void clearCache()
     {
         objectCache.clear();
+        authorizeCache.clear();
+    }
+
+    /**
+     * Get the authorization decisions and group memberships already resolved
+     * in this context. Code changing policies or group memberships through
+     * this context must clear it.
+     *
+     * @return the authorization cache of this context
+     */
+    public AuthorizeCache getAuthorizeCache()
+    {
+        return authorizeCache;
     }
 
     /**
@@ -698,6 +720,7 @@ public class Context
     public void setSpecialGroup(int groupID)
     {
         specialGroups.add(Integer.valueOf(groupID));
+        authorizeCache.clear();
 
         // System.out.println("Added " + groupID);
     }
@@ -0,0 +1,233 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.dspace.content.Bitstream;
+import org.dspace.core.ConfigurationManager;
+
+/**
+ * Reads the full text of the bitstreams in the TEXT bundle of an item so that
+ * it can be sent to Solr as a plain <code>fulltext</code> field, together with
+ * the other fields of the document, instead of going through the
+ * <code>/update/extract</code> handler. The TEXT bundle already holds the
+ * text extracted by the MediaFilterManager, so there is nothing left for Tika
+ * to do.
+ * <p/>
+ * The bitstreams are read by a bounded pool shared by all the indexer threads
+ * ("indexer.fulltext.threads" in discovery.cfg), which limits the load on the
+ * assetstore. The text of each bitstream is truncated to
+ * "indexer.fulltext.max-chars" characters (0 means no limit).
+ */
+public class FullTextExtractor
+{
+    private static final Logger log = Logger.getLogger(FullTextExtractor.class);
+
+    private static FullTextExtractor instance;
+
+    private final ExecutorService pool;
+
+    private final int maxChars;
+
+    protected FullTextExtractor(int threads, int maxChars)
+    {
+        this.maxChars = maxChars;
+        final AtomicInteger counter = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "fulltext-extractor-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public static synchronized FullTextExtractor getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new FullTextExtractor(
+                    ConfigurationManager.getIntProperty("discovery", "indexer.fulltext.threads", 4),
+                    ConfigurationManager.getIntProperty("discovery", "indexer.fulltext.max-chars", 0));
+        }
+        return instance;
+    }
+
+    /**
+     * Read the text of the given bitstreams. The bitstreams are read in
+     * parallel, the result keeps their order and skips the ones that could
+     * not be read.
+     *
+     * @param bitstreams the TEXT bitstreams of an item
+     * @return the text of each bitstream
+     */
+    public List<String> extract(List<Bitstream> bitstreams)
+    {
+        List<ReadTask> tasks = new ArrayList<ReadTask>(bitstreams.size());
+        List<Future<String>> futures = new ArrayList<Future<String>>(bitstreams.size());
+        List<String> result = new ArrayList<String>(bitstreams.size());
+        int i = 0;
+        try
+        {
+            for (Bitstream bitstream : bitstreams)
+            {
+                // the stream is opened on the calling thread because it needs
+                // the database connection of the item context, only the
+                // reading is handed to the pool
+                InputStream is;
+                try
+                {
+                    is = bitstream.retrieve();
+                }
+                catch (Exception e)
+                {
+                    log.error("Error opening the full text of bitstream:" + bitstream.getID(), e);
+                    tasks.add(null);
+                    futures.add(null);
+                    continue;
+                }
+                ReadTask task = new ReadTask(bitstream, is);
+                tasks.add(task);
+                futures.add(pool.submit(task));
+            }
+
+            for (; i < futures.size(); i++)
+            {
+                if (futures.get(i) == null)
+                {
+                    continue;
+                }
+                try
+                {
+                    String text = futures.get(i).get();
+                    if (text != null && text.length() > 0)
+                    {
+                        result.add(text);
+                    }
+                }
+                catch (ExecutionException e)
+                {
+                    log.error("Error reading the full text of bitstream:" + bitstreams.get(i).getID(),
+                            e.getCause());
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            // close the streams of the bitstreams not read yet, when
+            // interrupted or when a task could not be submitted
+            for (; i < tasks.size(); i++)
+            {
+                if (tasks.get(i) != null)
+                {
+                    tasks.get(i).discard();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads a bitstream on the pool. The stream is closed either by the task
+     * once it has read it or by {@link #discard()} if the task didn't start,
+     * never by both.
+     */
+    private class ReadTask implements Callable<String>
+    {
+        private final Bitstream bitstream;
+
+        private final InputStream is;
+
+        private final AtomicBoolean started = new AtomicBoolean(false);
+
+        ReadTask(Bitstream bitstream, InputStream is)
+        {
+            this.bitstream = bitstream;
+            this.is = is;
+        }
+
+        @Override
+        public String call() throws Exception
+        {
+            if (!started.compareAndSet(false, true))
+            {
+                return null;
+            }
+            return read(bitstream, is);
+        }
+
+        void discard()
+        {
+            if (started.compareAndSet(false, true))
+            {
+                close(bitstream, is);
+            }
+        }
+    }
+
+    protected String read(Bitstream bitstream, InputStream is) throws IOException
+    {
+        try
+        {
+            Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8);
+            long capacity = Math.min(Math.max(bitstream.getSize(), 16), 1 << 20);
+            StringBuilder sb = new StringBuilder((int) (maxChars > 0 ? Math.min(capacity, maxChars) : capacity));
+            char[] buffer = new char[8192];
+            int n;
+            while ((n = reader.read(buffer)) != -1)
+            {
+                if (maxChars > 0 && sb.length() + n >= maxChars)
+                {
+                    sb.append(buffer, 0, maxChars - sb.length());
+                    break;
+                }
+                sb.append(buffer, 0, n);
+            }
+            return sb.toString();
+        }
+        finally
+        {
+            close(bitstream, is);
+        }
+    }
+
+    private static void close(Bitstream bitstream, InputStream is)
+    {
+        try
+        {
+            is.close();
+        }
+        catch (IOException e)
+        {
+            log.error("Error closing stream:" + bitstream.getID(), e);
+        }
+    }
+}
@@ -132,4 +132,12 @@ public interface SearchService {
     String escapeQueryChars(String query);
 
     QueryResponse search(SolrQuery solrQuery) throws SearchServiceException;
+
+    /**
+     * Stream all the documents matching the query a page at a time, instead
+     * of asking for all the rows at once
+     * @param solrQuery the query, its start and rows are ignored
+     * @return a cursor on the documents
+     */
+    SolrDocumentCursor iterate(SolrQuery solrQuery) throws SearchServiceException;
 }
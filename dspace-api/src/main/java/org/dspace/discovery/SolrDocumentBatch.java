@@ -0,0 +1,207 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Buffer of <code>SolrInputDocument</code>s owned by a single indexer worker.
+ * Documents are sent to Solr with one add request as soon as the buffer
+ * reaches its size limit or the oldest buffered document is older than the
+ * configured maximum age. No commit is issued, the caller is expected to
+ * commit once at the end of the run.
+ * <p/>
+ * The semaphore is shared by all the workers of a run and bounds the number
+ * of add requests in flight: when Solr is slow the workers block here
+ * instead of piling up requests on the server.
+ *
+ * Not thread safe, each worker must use its own instance.
+ */
+public class SolrDocumentBatch
+{
+    /** default maximum number of add requests in flight */
+    public static final int DEFAULT_MAX_INFLIGHT = 2;
+
+    private static final Logger log = Logger.getLogger(SolrDocumentBatch.class);
+
+    /** the field identifying the documents in the log */
+    private static final String UNIQUE_ID_FIELD = "search.uniqueid";
+
+    private final SolrServer solr;
+
+    private final int batchSize;
+
+    private final long maxAgeMillis;
+
+    private final Semaphore inflight;
+
+    private final List<SolrInputDocument> docs;
+
+    /** time at which the oldest document in the buffer was added, -1 if empty */
+    private long oldest = -1;
+
+    private long sentDocuments = 0;
+
+    private long sentRequests = 0;
+
+    private long failedDocuments = 0;
+
+    private long waitMillis = 0;
+
+    public SolrDocumentBatch(SolrServer solr, int batchSize, long maxAgeMillis, Semaphore inflight)
+    {
+        this.solr = solr;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxAgeMillis = maxAgeMillis;
+        this.inflight = inflight;
+        this.docs = new ArrayList<SolrInputDocument>(this.batchSize);
+    }
+
+    /**
+     * @param numThreads
+     *            the number of workers sharing the semaphore
+     * @return the default number of add requests in flight: fewer than the
+     *         workers, otherwise the semaphore would never block them
+     */
+    public static int getDefaultMaxInflight(int numThreads)
+    {
+        return Math.max(1, Math.min(DEFAULT_MAX_INFLIGHT, numThreads - 1));
+    }
+
+    /**
+     * Add a document to the buffer, flushing it if the size or age limit has
+     * been reached.
+     *
+     * @param doc the document to send
+     */
+    public void add(SolrInputDocument doc) throws SolrServerException, IOException
+    {
+        long now = System.currentTimeMillis();
+        if (oldest < 0)
+        {
+            oldest = now;
+        }
+        docs.add(doc);
+        if (docs.size() >= batchSize || (maxAgeMillis > 0 && now - oldest >= maxAgeMillis))
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Send all the buffered documents to Solr with a single add request. If
+     * Solr rejects the request (a 4xx error, e.g. a malformed document), the
+     * documents are sent again one at a time and the ones rejected are
+     * logged, so that one bad document doesn't lose the whole batch. The
+     * buffer is emptied even if the request fails, so that a broken batch is
+     * not retried forever.
+     */
+    public void flush() throws SolrServerException, IOException
+    {
+        if (docs.isEmpty())
+        {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        inflight.acquireUninterruptibly();
+        waitMillis += System.currentTimeMillis() - start;
+        try
+        {
+            try
+            {
+                solr.add(docs);
+                sentDocuments += docs.size();
+                sentRequests++;
+            }
+            catch (SolrException e)
+            {
+                if (!isRejected(e))
+                {
+                    throw e;
+                }
+                log.warn("Batch of " + docs.size() + " documents rejected, sending them one at a time: "
+                        + e.getMessage());
+                for (SolrInputDocument doc : docs)
+                {
+                    try
+                    {
+                        solr.add(doc);
+                        sentDocuments++;
+                    }
+                    catch (SolrException de)
+                    {
+                        if (!isRejected(de))
+                        {
+                            throw de;
+                        }
+                        failedDocuments++;
+                        log.error("Document " + doc.getFieldValue(UNIQUE_ID_FIELD) + " rejected: "
+                                + de.getMessage());
+                    }
+                    sentRequests++;
+                }
+            }
+        }
+        finally
+        {
+            inflight.release();
+            docs.clear();
+            oldest = -1;
+        }
+    }
+
+    /**
+     * @return true if Solr rejected the request itself (4xx), as opposed to
+     *         failing to process it
+     */
+    private static boolean isRejected(SolrException e)
+    {
+        return e.code() >= 400 && e.code() < 500;
+    }
+
+    public int size()
+    {
+        return docs.size();
+    }
+
+    public long getSentDocuments()
+    {
+        return sentDocuments;
+    }
+
+    /**
+     * @return the number of documents rejected by Solr, see {@link #flush()}
+     */
+    public long getFailedDocuments()
+    {
+        return failedDocuments;
+    }
+
+    public long getSentRequests()
+    {
+        return sentRequests;
+    }
+
+    /**
+     * @return the total time spent waiting for a free slot to send a batch,
+     *         i.e. how much the worker has been throttled by Solr
+     */
+    public long getWaitMillis()
+    {
+        return waitMillis;
+    }
+}
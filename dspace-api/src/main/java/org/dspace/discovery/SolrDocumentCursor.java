@@ -0,0 +1,274 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.dspace.core.ConfigurationManager;
+
+/**
+ * Streams all the documents matching a query, a page at a time, using the
+ * Solr cursorMark: neither the client nor Solr hold more than a page, and
+ * the cost of a page doesn't grow with its position as it does with the
+ * start parameter. Meant for the batch scans that used to ask for
+ * Integer.MAX_VALUE rows.
+ * <p/>
+ * The sort of the query is kept, the unique key of the core is added to it
+ * as tie breaker as the cursor requires. The start and rows of the query are
+ * ignored, the size of the pages is read from discovery.cfg
+ * (cursor.fetch-size, default 1000) unless given. Restrict the field list
+ * of the query to the fields used, they are all that is transferred.
+ * <p/>
+ * Not thread safe; {@link #process(Handler, int)} can hand the documents to
+ * several threads.
+ */
+public class SolrDocumentCursor
+{
+    /**
+     * Processes the documents of the cursor.
+     */
+    public interface Handler
+    {
+        public void handle(SolrDocument document) throws Exception;
+    }
+
+    private final SolrServer solr;
+
+    private final SolrQuery query;
+
+    private String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+
+    private boolean done = false;
+
+    private SolrDocumentList page;
+
+    private int position;
+
+    private long numFound = -1;
+
+    public SolrDocumentCursor(SolrServer solr, SolrQuery query, String uniqueKey)
+    {
+        this(solr, query, uniqueKey, ConfigurationManager.getIntProperty("discovery", "cursor.fetch-size", 1000));
+    }
+
+    /**
+     * @param query
+     *            the query, not modified
+     * @param uniqueKey
+     *            the unique key field of the core
+     * @param fetchSize
+     *            the number of documents of a page
+     */
+    public SolrDocumentCursor(SolrServer solr, SolrQuery query, String uniqueKey, int fetchSize)
+    {
+        this.solr = solr;
+        this.query = query.getCopy();
+        this.query.setStart(0);
+        this.query.setRows(Math.max(1, fetchSize));
+        String sort = this.query.get(CommonParams.SORT);
+        if (StringUtils.isBlank(sort))
+        {
+            this.query.set(CommonParams.SORT, uniqueKey + " asc");
+        }
+        else if (!hasSortField(sort, uniqueKey))
+        {
+            this.query.set(CommonParams.SORT, sort + "," + uniqueKey + " asc");
+        }
+    }
+
+    private static boolean hasSortField(String sort, String field)
+    {
+        for (String clause : StringUtils.split(sort, ","))
+        {
+            if (field.equals(StringUtils.substringBefore(clause.trim(), " ")))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of documents matching the query
+     */
+    public long getNumFound() throws SearchServiceException
+    {
+        if (numFound < 0)
+        {
+            fetch();
+        }
+        return numFound;
+    }
+
+    public boolean hasNext() throws SearchServiceException
+    {
+        while ((page == null || position >= page.size()) && !done)
+        {
+            fetch();
+        }
+        return page != null && position < page.size();
+    }
+
+    public SolrDocument next() throws SearchServiceException
+    {
+        if (!hasNext())
+        {
+            throw new IllegalStateException("No more documents");
+        }
+        return page.get(position++);
+    }
+
+    /**
+     * @return the documents of the current page not read yet, the next page
+     *         if there are none, null at the end
+     */
+    private SolrDocumentList nextPage() throws SearchServiceException
+    {
+        if (!hasNext())
+        {
+            return null;
+        }
+        SolrDocumentList result = page;
+        if (position > 0)
+        {
+            result = new SolrDocumentList();
+            result.addAll(page.subList(position, page.size()));
+        }
+        position = page.size();
+        return result;
+    }
+
+    private void fetch() throws SearchServiceException
+    {
+        query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+        QueryResponse response;
+        try
+        {
+            response = solr.query(query);
+        }
+        catch (Exception e)
+        {
+            throw new SearchServiceException(e.getMessage(), e);
+        }
+        page = response.getResults();
+        position = 0;
+        if (numFound < 0)
+        {
+            numFound = page.getNumFound();
+        }
+        String nextCursorMark = response.getNextCursorMark();
+        done = nextCursorMark == null || nextCursorMark.equals(cursorMark) || page.isEmpty();
+        cursorMark = nextCursorMark;
+    }
+
+    /**
+     * Hand all the remaining documents to the handler. With more than one
+     * thread, the pages are processed concurrently (the documents of a page
+     * by the same thread, in order) while the next ones are fetched; at most
+     * two pages per thread are held at once. The first failure of the handler
+     * stops the fetch and is thrown once the pages under way are completed.
+     *
+     * @return the number of documents handled
+     */
+    public long process(final Handler handler, int threads) throws SearchServiceException
+    {
+        if (threads <= 1)
+        {
+            long count = 0;
+            while (hasNext())
+            {
+                SolrDocument document = next();
+                try
+                {
+                    handler.handle(document);
+                }
+                catch (Exception e)
+                {
+                    throw new SearchServiceException(e.getMessage(), e);
+                }
+                count++;
+            }
+            return count;
+        }
+
+        final AtomicLong count = new AtomicLong();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        final Semaphore pages = new Semaphore(threads * 2);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            SolrDocumentList documents;
+            while (failure.get() == null && (documents = nextPage()) != null)
+            {
+                pages.acquireUninterruptibly();
+                final SolrDocumentList current = documents;
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            for (SolrDocument document : current)
+                            {
+                                if (failure.get() != null)
+                                {
+                                    return;
+                                }
+                                handler.handle(document);
+                                count.incrementAndGet();
+                            }
+                        }
+                        catch (Exception e)
+                        {
+                            failure.compareAndSet(null, e);
+                        }
+                        finally
+                        {
+                            pages.release();
+                        }
+                    }
+                });
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+            try
+            {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES))
+                {
+                    // the pages under way are still running
+                }
+            }
+            catch (InterruptedException e)
+            {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure.get() != null)
+        {
+            throw new SearchServiceException(failure.get().getMessage(), failure.get());
+        }
+        return count.get();
+    }
+}
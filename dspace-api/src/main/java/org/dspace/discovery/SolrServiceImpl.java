@@ -30,6 +30,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.MapUtils;
@@ -48,7 +53,6 @@ import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
-import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
 import org.apache.solr.client.solrj.request.ContentStreamUpdateRequest;
 import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.Group;
@@ -67,7 +71,6 @@ import org.apache.solr.common.params.MoreLikeThisParams;
 import org.apache.solr.common.params.SpellingParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.handler.extraction.ExtractingParams;
-import org.dspace.app.util.Util;
 import org.dspace.content.Bitstream;
 import org.dspace.content.Bundle;
 import org.dspace.content.Collection;
@@ -77,6 +80,7 @@ import org.dspace.content.Item;
 import org.dspace.content.ItemIterator;
 import org.dspace.content.MetadataValue;
 import org.dspace.content.Metadatum;
+import org.dspace.content.PrefetchSpec;
 import org.dspace.content.authority.ChoiceAuthorityManager;
 import org.dspace.content.authority.Choices;
 import org.dspace.content.authority.MetadataAuthorityManager;
@@ -149,6 +153,12 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      */
     private HttpSolrServer solr = null;
 
+    /**
+     * Batch of the indexer worker running on the current thread, if any. When
+     * set, documents are buffered instead of being sent one by one.
+     */
+    protected final ThreadLocal<SolrDocumentBatch> currentBatch = new ThreadLocal<SolrDocumentBatch>();
+
 
     protected HttpSolrServer getSolr()
     {
@@ -240,7 +250,12 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                             || requiresIndexing(handle,
                                     ((Item) dso).getLastModified()))
                         {
-                            unIndexContent(context, handle);
+                            // a batched add overwrites the previous document
+                            // by its unique id, no need for a deleteByQuery
+                            if (currentBatch.get() == null)
+                            {
+                                unIndexContent(context, handle);
+                            }
                             buildDocument(context, (Item) dso);
                         }
                     } else {
@@ -428,6 +443,14 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             throw new RuntimeException("Only ITEM is supported in this mode - type founded: " + type);
         }
         startMultiThreadIndex(force, ids);
+        try
+        {
+            commit();
+        }
+        catch (SearchServiceException e)
+        {
+            log.error(e.getMessage(), e);
+        }
     }
     
     @Override
@@ -474,26 +497,60 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         }
     }
 
+    /**
+     * Index the given items with a bounded pool of workers. The workers claim
+     * consecutive chunks of the id list from a shared cursor, so a worker that
+     * gets fast items simply takes more chunks instead of idling while the
+     * others finish a statically assigned slice. Documents are sent to Solr
+     * in batches (see {@link SolrDocumentBatch}), no commit is issued here.
+     *
+     * @param force force the reindexing even if the item is not stale
+     * @param ids the item ids to index
+     */
     private void startMultiThreadIndex(boolean force, List<Integer> ids)
     {
         int numThreads = ConfigurationManager.getIntProperty("discovery", "indexer.items.threads", 5);
+        int chunkSize = ConfigurationManager.getIntProperty("discovery", "indexer.items.chunk-size", 100);
+        int batchSize = ConfigurationManager.getIntProperty("discovery", "indexer.batch.size", 100);
+        long maxAge = ConfigurationManager.getLongProperty("discovery", "indexer.batch.max-age", 5000);
+        int maxInflight = ConfigurationManager.getIntProperty("discovery", "indexer.batch.max-inflight",
+                SolrDocumentBatch.getDefaultMaxInflight(numThreads));
 
-        List<Integer>[] arrayIDList = Util.splitList(ids, numThreads);
-        List<IndexerThread> threads = new ArrayList<IndexerThread>();
-        for (List<Integer> hl : arrayIDList) {
-        	IndexerThread thread = new IndexerThread(hl, force);
-        	thread.start();
-        	threads.add(thread);
-        }
-        boolean finished = false;
-        while (!finished) {
-        	finished = true;
-        	for (IndexerThread thread : threads) {
-        		finished = finished && !thread.isAlive();
-        	}
+        if (ids.isEmpty() || getSolr() == null)
+        {
+            return;
+        }
+
+        numThreads = Math.max(1, Math.min(numThreads, ids.size()));
+        AtomicInteger cursor = new AtomicInteger(0);
+        AtomicInteger done = new AtomicInteger(0);
+        Semaphore inflight = new Semaphore(Math.max(1, maxInflight));
+        CountDownLatch latch = new CountDownLatch(numThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        long start = System.currentTimeMillis();
+        try
+        {
+            for (int i = 0; i < numThreads; i++)
+            {
+                executor.execute(new IndexerWorker(ids, cursor, done, Math.max(1, chunkSize),
+                        new SolrDocumentBatch(getSolr(), batchSize, maxAge, inflight), force, latch));
+            }
+            latch.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for the indexer workers", e);
         }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        log.info("Indexed " + done.get() + " items with " + numThreads + " workers in " + elapsed
+                + " ms (" + (done.get() * 1000L / elapsed) + " items/s)");
     }
-    
+
     /**
      * Iterates over all documents in the Lucene index and verifies they are in
      * database, if not, they are removed.
@@ -835,12 +892,22 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                     req.setParam(ExtractingParams.UNKNOWN_FIELD_PREFIX, "attr_");
                     req.setParam(ExtractingParams.MAP_PREFIX + "content", "fulltext");
                     req.setParam(ExtractingParams.EXTRACT_FORMAT, "text");
-                    req.setAction(AbstractUpdateRequest.ACTION.COMMIT, true, true);
+                    // no commit here, visibility is left to the solr
+                    // autoCommit/autoSoftCommit or to the final commit of a
+                    // reindex
                     req.process(getSolr());
                 }
                 else
                 {
-                    getSolr().add(doc);
+                    SolrDocumentBatch batch = currentBatch.get();
+                    if (batch != null)
+                    {
+                        batch.add(doc);
+                    }
+                    else
+                    {
+                        getSolr().add(doc);
+                    }
                 }
             }
         } catch (SolrServerException e)
@@ -1521,6 +1588,8 @@ public class SolrServiceImpl implements SearchService, IndexingService {
 
 
         List<BitstreamContentStream> streams = new ArrayList<BitstreamContentStream>();
+        List<Bitstream> textBitstreams = new ArrayList<Bitstream>();
+        boolean extractInSolr = "solr".equals(ConfigurationManager.getProperty("discovery", "indexer.fulltext.extract"));
 
         try {
             // now get full text of any bitstreams in the TEXT bundle
@@ -1539,7 +1608,14 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                     {
                         try {
 
-                            streams.add(new BitstreamContentStream(myBitstream));
+                            if (extractInSolr)
+                            {
+                                streams.add(new BitstreamContentStream(myBitstream));
+                            }
+                            else
+                            {
+                                textBitstreams.add(myBitstream);
+                            }
 
                             log.debug("  Added BitStream: "
                                     + myBitstream.getStoreNumber() + "	"
@@ -1560,6 +1636,14 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             log.error(e.getMessage(), e);
         }
 
+        if (!textBitstreams.isEmpty())
+        {
+            for (String text : FullTextExtractor.getInstance().extract(textBitstreams))
+            {
+                doc.addField("fulltext", text);
+            }
+        }
+
         //Do any additional indexing, depends on the plugins
         List<SolrServiceIndexPlugin> solrServiceIndexPlugins = new DSpace().getServiceManager().getServicesByType(SolrServiceIndexPlugin.class);
         for (SolrServiceIndexPlugin solrServiceIndexPlugin : solrServiceIndexPlugins)
@@ -1980,6 +2064,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             GroupResponse collapsing = solrQueryResponse.getGroupResponse();
             SolrDocumentList results = new SolrDocumentList();
             int groupTotal = 0;
+			prefetchItems(context, solrQueryResponse);
 			if(collapsing != null) {
             	for(GroupCommand groupCommand : collapsing.getValues()) {
             		groupTotal += groupCommand.getMatches();           		
@@ -2151,6 +2236,47 @@ public class SolrServiceImpl implements SearchService, IndexingService {
 		return facetResult;
 	}
 
+    /**
+     * Load at once the items of the results, with the parts configured by
+     * search.prefetch, so that findDSpaceObject finds them in the context
+     * cache rather than loading them one by one.
+     */
+    protected void prefetchItems(Context context, QueryResponse solrQueryResponse) throws SQLException
+    {
+        List<SolrDocument> docs = new ArrayList<SolrDocument>();
+        if (solrQueryResponse.getGroupResponse() != null)
+        {
+            for (GroupCommand groupCommand : solrQueryResponse.getGroupResponse().getValues())
+            {
+                for (Group group : groupCommand.getValues())
+                {
+                    docs.addAll(group.getResult());
+                }
+            }
+        }
+        else if (solrQueryResponse.getResults() != null)
+        {
+            docs.addAll(solrQueryResponse.getResults());
+        }
+
+        List<Integer> ids = new ArrayList<Integer>();
+        for (SolrDocument doc : docs)
+        {
+            Integer type = (Integer) doc.getFirstValue(RESOURCE_TYPE_FIELD);
+            Integer id = (Integer) doc.getFirstValue(RESOURCE_ID_FIELD);
+            if (type != null && id != null && type == Constants.ITEM)
+            {
+                ids.add(id);
+            }
+        }
+        if (ids.size() > 1)
+        {
+            Item.prefetch(context, ArrayUtils.toPrimitive(ids.toArray(new Integer[ids.size()])),
+                    PrefetchSpec.parse(ConfigurationManager.getProperty("discovery", "search.prefetch"),
+                            PrefetchSpec.ALL));
+        }
+    }
+
     protected DSpaceObject findDSpaceObject(Context context, SolrDocument doc) throws SQLException {
 
         Integer type = (Integer) doc.getFirstValue(RESOURCE_TYPE_FIELD);
@@ -2598,43 +2724,107 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         }
     }
 
-	class IndexerThread extends Thread {
-		private boolean force;
-		private List<Integer> itemids;
+    @Override
+    public SolrDocumentCursor iterate(SolrQuery query) throws SearchServiceException
+    {
+        HttpSolrServer solr = getSolr();
+        if (solr == null)
+        {
+            throw new SearchServiceException("Solr search server not available");
+        }
+        return new SolrDocumentCursor(solr, query, "search.uniqueid");
+    }
 
-		public IndexerThread(List<Integer> itemids, boolean force) {
-			this.force = force;
-			this.itemids = itemids;
-		}
+    /**
+     * Indexer worker, claims chunks of the id list until it is exhausted and
+     * buffers the produced documents in its own {@link SolrDocumentBatch}.
+     */
+    class IndexerWorker implements Runnable
+    {
+        private final List<Integer> itemids;
 
-		@Override
-		public void run() {
-			Context context = null;
-			try {
-				context = new Context();
-				context.turnOffAuthorisationSystem();
-				int idx = 1;
-				final String head = this.getName() + "#" + this.getId();
-				final int size = itemids.size();
-				for (Integer id : itemids) {
-				    try {				        
-				        Item item = Item.find(context, id);
-				        indexContent(context, item, force);				        
-				        item.decache();
-				    }
-				    catch(Exception ex) {
-				        System.out.println("ERROR: identifier item:" + id + " identifier thread:"+ head);
-				    }
-				    System.out.println(head + ":" + (idx++) + " / " + size);				    
-				}
-			} catch (Exception e) {
-				e.printStackTrace();
-			} finally {
-				if (context != null) {
-					context.abort();
-				}
-			}
-		}
-	}
-	
+        private final AtomicInteger cursor;
+
+        private final AtomicInteger done;
+
+        private final int chunkSize;
+
+        private final SolrDocumentBatch batch;
+
+        private final boolean force;
+
+        private final CountDownLatch latch;
+
+        public IndexerWorker(List<Integer> itemids, AtomicInteger cursor, AtomicInteger done,
+                int chunkSize, SolrDocumentBatch batch, boolean force, CountDownLatch latch)
+        {
+            this.itemids = itemids;
+            this.cursor = cursor;
+            this.done = done;
+            this.chunkSize = chunkSize;
+            this.batch = batch;
+            this.force = force;
+            this.latch = latch;
+        }
+
+        @Override
+        public void run()
+        {
+            final String head = Thread.currentThread().getName();
+            final int size = itemids.size();
+            Context context = null;
+            int processed = 0;
+            int errors = 0;
+            long start = System.currentTimeMillis();
+            currentBatch.set(batch);
+            try
+            {
+                context = new Context();
+                context.turnOffAuthorisationSystem();
+                int from;
+                while ((from = cursor.getAndAdd(chunkSize)) < size)
+                {
+                    int to = Math.min(from + chunkSize, size);
+                    for (Integer id : itemids.subList(from, to))
+                    {
+                        try
+                        {
+                            Item item = Item.find(context, id);
+                            if (item != null)
+                            {
+                                indexContent(context, item, force);
+                                item.decache();
+                            }
+                        }
+                        catch (Exception ex)
+                        {
+                            errors++;
+                            log.error("Error indexing item:" + id + " thread:" + head, ex);
+                        }
+                        processed++;
+                    }
+                    System.out.println(head + ": " + done.addAndGet(to - from) + " / " + size);
+                }
+                batch.flush();
+            }
+            catch (Exception e)
+            {
+                log.error(e.getMessage(), e);
+            }
+            finally
+            {
+                currentBatch.remove();
+                if (context != null)
+                {
+                    context.abort();
+                }
+                long elapsed = Math.max(1, System.currentTimeMillis() - start);
+                log.info(head + ": " + processed + " items (" + errors + " errors), "
+                        + batch.getSentDocuments() + " documents (" + batch.getFailedDocuments() + " rejected) in "
+                        + batch.getSentRequests() + " requests, " + (processed * 1000L / elapsed) + " items/s, "
+                        + batch.getWaitMillis() + " ms throttled by solr");
+                latch.countDown();
+            }
+        }
+    }
 }
@@ -654,6 +654,7 @@ public class EPerson extends DSpaceObject
 
         // Remove ourself
         DatabaseManager.delete(ourContext, myRow);
+        ourContext.getAuthorizeCache().clear();
 
         log.info(LogManager.getHeader(ourContext, "delete_eperson",
                 "eperson_id=" + getID()));
@@ -11,8 +11,14 @@ package org.dspace.eperson;
 import java.sql.SQLException;
 import java.text.DateFormat;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import org.apache.commons.cli.*;
 import org.dspace.authorize.AuthorizeException;
 import org.dspace.core.Context;
@@ -42,6 +48,8 @@ public class Groomer
         verbs.addOption(new Option("h", "help", false, "explain this tool"));
         verbs.addOption(new Option("a", "aging", false, "discover accounts not used recently"));
         verbs.addOption(new Option("u", "unsalted", false, "list accounts with unsalted password hashes"));
+        verbs.addOption(new Option("g", "group-cache", false,
+                "compare the group2groupcache table with a full rebuild from group2group"));
 
         Options options = new Options();
         options.addOptionGroup(verbs);
@@ -51,6 +59,7 @@ public class Groomer
                         + dateFormat.format(Calendar.getInstance().getTime())
                         + ')');
         options.addOption("d", "delete", false, "delete matching epersons");
+        options.addOption("f", "fix", false, "rebuild the group2groupcache rows found different");
 
         PosixParser parser = new PosixParser();
         CommandLine command = null;
@@ -79,6 +88,11 @@ public class Groomer
         {
             findUnsalted();
         }
+        // Check the group cache
+        else if (command.hasOption('g'))
+        {
+            checkGroupCache(command.hasOption('f'));
+        }
         // Should not happen:  verb option defined but no code!
         else
             System.err.println("Unimplemented verb:  " + verbs.getSelected());
@@ -161,6 +175,88 @@ public class Groomer
             myContext.complete();
     }
 
+    /**
+     * Compare the group2groupcache table with the closure of group2group, as
+     * a full rebuild would compute it, and print the differences.
+     *
+     * @param fix rebuild the rows of the groups found different.
+     * @throws SQLException from callees.
+     */
+    private static void checkGroupCache(boolean fix)
+            throws SQLException
+    {
+        Context myContext = new Context();
+        try
+        {
+            Map<Integer, Set<Integer>> group2group = Group.loadGroup2Group(myContext);
+
+            Map<Integer, Set<Integer>> cached = new HashMap<Integer, Set<Integer>>();
+            final TableRowIterator tri = DatabaseManager.queryTable(myContext,
+                    "group2groupcache", "SELECT * FROM group2groupcache");
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    Integer parentID = row.getIntColumn("parent_id");
+                    Set<Integer> children = cached.get(parentID);
+                    if (children == null)
+                    {
+                        children = new HashSet<Integer>();
+                        cached.put(parentID, children);
+                    }
+                    children.add(row.getIntColumn("child_id"));
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+
+            Set<Integer> parentIDs = new TreeSet<Integer>(group2group.keySet());
+            parentIDs.addAll(cached.keySet());
+            Map<Integer, Set<Integer>> different = new HashMap<Integer, Set<Integer>>();
+            for (Integer parentID : parentIDs)
+            {
+                Set<Integer> expected = Group.getDescendants(group2group, parentID);
+                Set<Integer> actual = cached.containsKey(parentID) ? cached.get(parentID)
+                        : Collections.<Integer>emptySet();
+                for (Integer childID : expected)
+                {
+                    if (!actual.contains(childID))
+                    {
+                        System.out.println("missing\t" + parentID + '\t' + childID);
+                        different.put(parentID, expected);
+                    }
+                }
+                for (Integer childID : actual)
+                {
+                    if (!expected.contains(childID))
+                    {
+                        System.out.println("extra\t" + parentID + '\t' + childID);
+                        different.put(parentID, expected);
+                    }
+                }
+            }
+            System.out.println(parentIDs.size() + " groups checked, "
+                    + different.size() + " with differences");
+
+            if (fix && !different.isEmpty())
+            {
+                Group.writeGroupCache(myContext, different);
+                myContext.complete();
+                System.out.println("group2groupcache fixed");
+            }
+        }
+        finally
+        {
+            if (myContext.isValid())
+            {
+                myContext.abort();
+            }
+        }
+    }
+
     /**
      * List accounts having no password salt.
      *
@@ -9,14 +9,17 @@ package org.dspace.eperson;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.dspace.authorize.AuthorizeCache;
 import org.dspace.authorize.AuthorizeConfiguration;
 import org.dspace.authorize.AuthorizeException;
 import org.dspace.authorize.AuthorizeManager;
@@ -46,6 +49,9 @@ public class Group extends DSpaceObject
     /** log4j logger */
     private static final Logger log = Logger.getLogger(Group.class);
 
+    /** the maximum number of parameters of the IN lists of the group cache queries */
+    private static final int IN_LIST_SIZE = 500;
+
     /** ID of Anonymous Group */
     public static final int ANONYMOUS_ID = 0;
 
@@ -444,6 +450,26 @@ public class Group extends DSpaceObject
     public static Set<Integer> allMemberGroupIDs(Context c, EPerson e)
             throws SQLException
     {
+        return new HashSet<Integer>(memberGroupIDs(c, e));
+    }
+
+    /**
+     * Snapshot of all the group memberships of an eperson, resolved once per
+     * context and kept in its authorization cache.
+     *
+     * @return unmodifiable Set of Integer groupIDs
+     */
+    private static Set<Integer> memberGroupIDs(Context c, EPerson e)
+            throws SQLException
+    {
+        int epersonID = (e == null) ? -1 : e.getID();
+        AuthorizeCache cache = c.getAuthorizeCache();
+        Set<Integer> cached = cache.getGroupIDs(epersonID);
+        if (cached != null)
+        {
+            return cached;
+        }
+
         Set<Integer> groupIDs = new HashSet<Integer>();
         
         if (e != null)
@@ -545,7 +571,7 @@ public class Group extends DSpaceObject
             }
         }
 
-        return groupIDs;
+        return cache.putGroupIDs(epersonID, groupIDs);
     }
     
     
@@ -688,7 +714,7 @@ public class Group extends DSpaceObject
     private static boolean epersonInGroup(Context c, int groupID, EPerson e)
             throws SQLException
     {
-        Set<Integer> groupIDs = Group.allMemberGroupIDs(c, e);
+        Set<Integer> groupIDs = memberGroupIDs(c, e);
 
         return groupIDs.contains(Integer.valueOf(groupID));
     }
@@ -1071,6 +1097,7 @@ public class Group extends DSpaceObject
 
         // Remove from cache
         ourContext.removeCached(this, getID());
+        ourContext.getAuthorizeCache().clear();
 
         // Remove any ResourcePolicies that reference this group
         AuthorizeManager.removeGroupPolicies(ourContext, getID());
@@ -1080,6 +1107,10 @@ public class Group extends DSpaceObject
                 "DELETE FROM EPersonGroup2EPerson WHERE eperson_group_id= ? ",
                 getID());
 
+        // the groups containing this one may reach other groups only through it
+        Set<Integer> ancestors = getCachedAncestors(ourContext, getID());
+        ancestors.remove(Integer.valueOf(getID()));
+
         // remove any group2groupcache entries
         DatabaseManager.updateQuery(ourContext,
                 "DELETE FROM group2groupcache WHERE parent_id= ? OR child_id= ? ",
@@ -1090,6 +1121,11 @@ public class Group extends DSpaceObject
                 "DELETE FROM group2group WHERE parent_id= ? OR child_id= ? ",
                 getID(),getID());
 
+        if (!ancestors.isEmpty())
+        {
+            updateGroupCache(ourContext, ancestors);
+        }
+
         // Delete the Dublin Core
         removeMetadataFromDatabase();
 
@@ -1179,6 +1215,12 @@ public class Group extends DSpaceObject
         // FIXME: Check authorisation
         DatabaseManager.update(ourContext, myRow);
 
+        if (epeopleChanged || groupsChanged)
+        {
+            // memberships are about to change
+            ourContext.getAuthorizeCache().clear();
+        }
+
         if (modifiedMetadata)
         {
             updateMetadata();
@@ -1212,26 +1254,53 @@ public class Group extends DSpaceObject
         // Redo Group mappings if they've changed
         if (groupsChanged)
         {
-            // Remove any existing mappings
-            DatabaseManager.updateQuery(ourContext,
-                    "delete from group2group where parent_id= ? ",
-                    getID());
-
-            // Add new mappings
-            Iterator<Group> i = groups.iterator();
+            // Only touch the mappings that actually changed
+            Set<Integer> current = new HashSet<Integer>();
+            TableRowIterator tri = DatabaseManager.queryTable(ourContext, "group2group",
+                    "SELECT * FROM group2group WHERE parent_id= ? ", getID());
+            try
+            {
+                while (tri.hasNext())
+                {
+                    current.add(Integer.valueOf(tri.next().getIntColumn("child_id")));
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
 
-            while (i.hasNext())
+            List<TableRow> added = new ArrayList<TableRow>();
+            Set<Integer> wanted = new HashSet<Integer>();
+            for (Group g : groups)
             {
-                Group g = i.next();
+                Integer childID = Integer.valueOf(g.getID());
+                if (wanted.add(childID) && !current.contains(childID))
+                {
+                    TableRow mappingRow = DatabaseManager.row(ourContext, "group2group");
+                    mappingRow.setColumn("parent_id", getID());
+                    mappingRow.setColumn("child_id", g.getID());
+                    added.add(mappingRow);
+                }
+            }
 
-                TableRow mappingRow = DatabaseManager.row("group2group");
-                mappingRow.setColumn("parent_id", getID());
-                mappingRow.setColumn("child_id", g.getID());
-                DatabaseManager.insert(ourContext, mappingRow);
+            current.removeAll(wanted);
+            for (Integer removed : current)
+            {
+                DatabaseManager.updateQuery(ourContext,
+                        "delete from group2group where parent_id= ? AND child_id= ? ",
+                        getID(), removed);
+            }
+            if (!added.isEmpty())
+            {
+                DatabaseManager.insertBatch(ourContext, "group2group", added);
             }
 
             // groups changed, now change group cache
-            rethinkGroupCache();
+            if (!added.isEmpty() || !current.isEmpty())
+            {
+                updateGroupCache(ourContext, getID());
+            }
 
             groupsChanged = false;
         }
@@ -1290,126 +1359,305 @@ public class Group extends DSpaceObject
     }
 
     /**
-     * Regenerate the group cache AKA the group2groupcache table in the database -
-     * meant to be called when a group is added or removed from another group
-     * 
+     * Update the group cache AKA the group2groupcache table in the database
+     * after the member groups of a group changed. Only the rows of the group
+     * and of the groups containing it can change, the rows of all the other
+     * groups are left alone.
+     *
+     * @param context
+     *            DSpace context
+     * @param groupID
+     *            the group whose member groups changed
      */
-    private void rethinkGroupCache() throws SQLException
+    static void updateGroupCache(Context context, int groupID) throws SQLException
     {
-        // read in the group2group table
-        TableRowIterator tri = DatabaseManager.queryTable(ourContext, "group2group",
-                "SELECT * FROM group2group");
-
-        Map<Integer,Set<Integer>> parents = new HashMap<Integer,Set<Integer>>();
+        Set<Integer> affected = getCachedAncestors(context, groupID);
+        affected.add(Integer.valueOf(groupID));
+        updateGroupCache(context, affected);
+    }
 
-        try
+    /**
+     * Recompute the group2groupcache rows of the given groups, which must
+     * include the groups containing any group whose member groups changed.
+     * Only the group2group rows of these groups are read: the other groups
+     * don't contain a changed group (or they would be among them), so their
+     * descendants didn't change and are read from group2groupcache.
+     *
+     * @param context
+     *            DSpace context
+     * @param affected
+     *            the groups whose rows are recomputed
+     */
+    static void updateGroupCache(Context context, Set<Integer> affected) throws SQLException
+    {
+        Map<Integer, Set<Integer>> group2group = loadChildren(context, "group2group", affected);
+        Set<Integer> unaffected = new HashSet<Integer>();
+        for (Set<Integer> children : group2group.values())
         {
-            while (tri.hasNext())
-            {
-                TableRow row = (TableRow) tri.next();
+            unaffected.addAll(children);
+        }
+        unaffected.removeAll(affected);
+        Map<Integer, Set<Integer>> cached = loadChildren(context, "group2groupcache", unaffected);
 
-                Integer parentID = Integer.valueOf(row.getIntColumn("parent_id"));
-                Integer childID = Integer.valueOf(row.getIntColumn("child_id"));
+        Map<Integer, Set<Integer>> expected = new HashMap<Integer, Set<Integer>>();
+        for (Integer parentID : affected)
+        {
+            expected.put(parentID, getDescendants(group2group, cached, parentID));
+        }
+        writeGroupCache(context, expected);
+    }
 
-                // if parent doesn't have an entry, create one
-                if (!parents.containsKey(parentID))
-                {
-                    Set<Integer> children = new HashSet<Integer>();
+    /**
+     * Bring the group2groupcache rows of the given parent groups in line with
+     * their expected children, inserting and deleting only the differences.
+     *
+     * @param context
+     *            DSpace context
+     * @param expected
+     *            all the groups contained in each parent group, emptied by
+     *            this method
+     */
+    static void writeGroupCache(Context context, Map<Integer, Set<Integer>> expected)
+            throws SQLException
+    {
+        List<TableRow> inserts = new ArrayList<TableRow>();
+        List<Integer> deletes = new ArrayList<Integer>();
 
-                    // add child id to the list
-                    children.add(childID);
-                    parents.put(parentID, children);
-                }
-                else
+        List<Integer> parentIDs = new ArrayList<Integer>(expected.keySet());
+        for (int from = 0; from < parentIDs.size(); from += IN_LIST_SIZE)
+        {
+            List<Integer> chunk = parentIDs.subList(from,
+                    Math.min(from + IN_LIST_SIZE, parentIDs.size()));
+            TableRowIterator tri = DatabaseManager.queryTable(context, "group2groupcache",
+                    "SELECT * FROM group2groupcache WHERE parent_id IN " + inList(chunk.size()),
+                    chunk.toArray());
+            try
+            {
+                while (tri.hasNext())
                 {
-                    // parent has an entry, now add the child to the parent's record
-                    // of children
-                    Set<Integer> children =  parents.get(parentID);
-                    children.add(childID);
+                    TableRow row = tri.next();
+                    Set<Integer> children = expected.get(Integer.valueOf(row.getIntColumn("parent_id")));
+                    if (!children.remove(Integer.valueOf(row.getIntColumn("child_id"))))
+                    {
+                        deletes.add(Integer.valueOf(row.getIntColumn("id")));
+                    }
                 }
             }
+            finally
+            {
+                tri.close();
+            }
         }
-        finally
+
+        // what is left is missing
+        for (Map.Entry<Integer, Set<Integer>> entry : expected.entrySet())
         {
-            // close the TableRowIterator to free up resources
-            if (tri != null)
+            for (Integer childID : entry.getValue())
             {
-                tri.close();
+                TableRow row = DatabaseManager.row(context, "group2groupcache");
+                row.setColumn("parent_id", entry.getKey().intValue());
+                row.setColumn("child_id", childID.intValue());
+                inserts.add(row);
             }
         }
 
-        // now parents is a hash of all of the IDs of groups that are parents
-        // and each hash entry is a hash of all of the IDs of children of those
-        // parent groups
-        // so now to establish all parent,child relationships we can iterate
-        // through the parents hash
-        for (Map.Entry<Integer, Set<Integer>> parent : parents.entrySet())
+        if (!deletes.isEmpty())
         {
-            Set<Integer> myChildren = getChildren(parents, parent.getKey());
-            parent.getValue().addAll(myChildren);
+            DatabaseManager.deleteBatch(context, "group2groupcache", deletes);
         }
+        if (!inserts.isEmpty())
+        {
+            DatabaseManager.insertBatch(context, "group2groupcache", inserts);
+        }
+        if (log.isDebugEnabled())
+        {
+            log.debug("group2groupcache of " + expected.size() + " groups updated: "
+                    + inserts.size() + " rows added, " + deletes.size() + " removed");
+        }
+    }
 
-        // empty out group2groupcache table
-        DatabaseManager.updateQuery(ourContext,
-                "DELETE FROM group2groupcache WHERE id >= 0");
+    /**
+     * Read the children of the given parent groups in group2group or
+     * group2groupcache.
+     *
+     * @return the IDs of the children, by parent group ID (no entry for the
+     *         groups without children)
+     */
+    private static Map<Integer, Set<Integer>> loadChildren(Context context, String table,
+            Set<Integer> parentIDs) throws SQLException
+    {
+        Map<Integer, Set<Integer>> parents = new HashMap<Integer, Set<Integer>>();
+        List<Integer> ids = new ArrayList<Integer>(parentIDs);
+        for (int from = 0; from < ids.size(); from += IN_LIST_SIZE)
+        {
+            List<Integer> chunk = ids.subList(from, Math.min(from + IN_LIST_SIZE, ids.size()));
+            TableRowIterator tri = DatabaseManager.queryTable(context, table,
+                    "SELECT * FROM " + table + " WHERE parent_id IN " + inList(chunk.size()),
+                    chunk.toArray());
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    Integer parentID = Integer.valueOf(row.getIntColumn("parent_id"));
+                    Set<Integer> children = parents.get(parentID);
+                    if (children == null)
+                    {
+                        children = new HashSet<Integer>();
+                        parents.put(parentID, children);
+                    }
+                    children.add(Integer.valueOf(row.getIntColumn("child_id")));
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+        return parents;
+    }
 
-        // write out new one
-        for (Map.Entry<Integer, Set<Integer>> parent : parents.entrySet())
+    /**
+     * @return the "(?, ?, ...)" list of the given number of parameters
+     */
+    private static String inList(int size)
+    {
+        StringBuilder list = new StringBuilder("(");
+        for (int i = 0; i < size; i++)
         {
-            int parentID = parent.getKey().intValue();
+            list.append(i > 0 ? ", ?" : "?");
+        }
+        return list.append(")").toString();
+    }
 
-            for (Integer child : parent.getValue())
-            {
-                TableRow row = DatabaseManager.row("group2groupcache");
+    /**
+     * Read the group2group table.
+     *
+     * @param context
+     *            DSpace context
+     * @return the IDs of the direct member groups, by parent group ID
+     */
+    static Map<Integer, Set<Integer>> loadGroup2Group(Context context) throws SQLException
+    {
+        Map<Integer, Set<Integer>> parents = new HashMap<Integer, Set<Integer>>();
 
-                row.setColumn("parent_id", parentID);
-                row.setColumn("child_id", child);
+        TableRowIterator tri = DatabaseManager.queryTable(context, "group2group",
+                "SELECT * FROM group2group");
+        try
+        {
+            int parentColumn = -1;
+            int childColumn = -1;
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                if (parentColumn < 0)
+                {
+                    parentColumn = row.getColumnIndex("parent_id");
+                    childColumn = row.getColumnIndex("child_id");
+                }
 
-                DatabaseManager.insert(ourContext, row);
+                Integer parentID = Integer.valueOf(row.getIntColumn(parentColumn));
+                Set<Integer> children = parents.get(parentID);
+                if (children == null)
+                {
+                    children = new HashSet<Integer>();
+                    parents.put(parentID, children);
+                }
+                children.add(Integer.valueOf(row.getIntColumn(childColumn)));
             }
         }
+        finally
+        {
+            // close the TableRowIterator to free up resources
+            tri.close();
+        }
+
+        return parents;
     }
 
     /**
-     * Used recursively to generate a map of ALL of the children of the given
-     * parent
-     * 
-     * @param parents
-     *            Map of parent,child relationships
+     * All the groups reachable from a parent through group2group, i.e. the
+     * children of the parent in group2groupcache. Cycles are tolerated.
+     *
+     * @param group2group
+     *            the direct member groups of each group
      * @param parent
      *            the parent you're interested in
-     * @return Map whose keys are all of the children of a parent
+     * @return the IDs of all the groups contained in the parent
      */
-    private Set<Integer> getChildren(Map<Integer,Set<Integer>> parents, Integer parent)
+    static Set<Integer> getDescendants(Map<Integer, Set<Integer>> group2group, Integer parent)
     {
-        Set<Integer> myChildren = new HashSet<Integer>();
+        return getDescendants(group2group, Collections.<Integer, Set<Integer>>emptyMap(), parent);
+    }
 
-        // degenerate case, this parent has no children
-        if (!parents.containsKey(parent))
+    /**
+     * All the groups reachable from a parent, walking group2group for the
+     * groups whose descendants are unknown and taking the descendants of the
+     * other groups as they are. Cycles are tolerated.
+     *
+     * @param group2group
+     *            the direct member groups of the groups to walk
+     * @param descendants
+     *            all the member groups of the groups not to walk (the
+     *            group2groupcache rows), their members are not walked again
+     * @param parent
+     *            the parent you're interested in
+     * @return the IDs of all the groups contained in the parent
+     */
+    static Set<Integer> getDescendants(Map<Integer, Set<Integer>> group2group,
+            Map<Integer, Set<Integer>> descendants, Integer parent)
+    {
+        Set<Integer> result = new HashSet<Integer>();
+        LinkedList<Integer> toVisit = new LinkedList<Integer>();
+        toVisit.add(parent);
+        while (!toVisit.isEmpty())
         {
-            return myChildren;
+            Integer group = toVisit.removeFirst();
+            Set<Integer> known = descendants.get(group);
+            if (known != null)
+            {
+                result.addAll(known);
+                continue;
+            }
+            Set<Integer> children = group2group.get(group);
+            if (children == null)
+            {
+                continue;
+            }
+            for (Integer child : children)
+            {
+                if (result.add(child))
+                {
+                    toVisit.add(child);
+                }
+            }
         }
+        return result;
+    }
 
-        // got this far, so we must have children
-        Set<Integer> children =  parents.get(parent);
-
-        // now iterate over all of the children
-        Iterator<Integer> i = children.iterator();
-
-        while (i.hasNext())
+    /**
+     * The groups containing, directly or not, the given group according to
+     * the group2groupcache table.
+     */
+    private static Set<Integer> getCachedAncestors(Context context, int groupID) throws SQLException
+    {
+        Set<Integer> ancestors = new HashSet<Integer>();
+        TableRowIterator tri = DatabaseManager.queryTable(context, "group2groupcache",
+                "SELECT * FROM group2groupcache WHERE child_id= ? ", groupID);
+        try
         {
-            Integer childID = i.next();
-
-            // add this child's ID to our return set
-            myChildren.add(childID);
-
-            // and now its children
-            myChildren.addAll(getChildren(parents, childID));
+            while (tri.hasNext())
+            {
+                ancestors.add(Integer.valueOf(tri.next().getIntColumn("parent_id")));
+            }
         }
-
-        return myChildren;
+        finally
+        {
+            tri.close();
+        }
+        return ancestors;
     }
-    
+
     public DSpaceObject getParentObject() throws SQLException
     {
         // could a collection/community administrator manage related groups?
@@ -59,6 +59,33 @@ public class BasicDispatcher extends Dispatcher
         }
     }
 
+    /**
+     * Whether the consumer has to get the events from {@link #dispatch}. The
+     * basic dispatcher delivers everything synchronously.
+     * 
+     * @param cp
+     *            the consumer profile
+     */
+    protected boolean isSynchronous(ConsumerProfile cp)
+    {
+        return true;
+    }
+
+    /**
+     * Called for every event taken from the Context queue, before it is
+     * delivered to the synchronous consumers. Subclasses delivering some
+     * consumers outside of {@link #dispatch} hand the event over here; the
+     * basic dispatcher has nothing to do.
+     * 
+     * @param ctx
+     *            the execution context
+     * @param event
+     *            the event taken from the queue
+     */
+    protected void handleAsynchronous(Context ctx, Event event)
+    {
+    }
+
     /**
      * Dispatch all events added to this Context according to configured
      * consumers.
@@ -93,6 +120,8 @@ public class BasicDispatcher extends Dispatcher
                 event.setDispatcher(getIdentifier());
                 event.setTransactionID(tid);
 
+                handleAsynchronous(ctx, event);
+
                 if (log.isDebugEnabled())
                 {
                     log.debug("Iterating over "
@@ -104,7 +133,7 @@ public class BasicDispatcher extends Dispatcher
                 {
                     ConsumerProfile cp = (ConsumerProfile) ci.next();
 
-                    if (event.pass(cp.getFilters()))
+                    if (isSynchronous(cp) && event.pass(cp.getFilters()))
                     {
                         if (log.isDebugEnabled())
                         {
@@ -134,7 +163,7 @@ public class BasicDispatcher extends Dispatcher
             for (Iterator ci = consumers.values().iterator(); ci.hasNext();)
             {
                 ConsumerProfile cp = (ConsumerProfile) ci.next();
-                if (cp != null)
+                if (cp != null && isSynchronous(cp))
                 {
                     if (log.isDebugEnabled())
                     {
@@ -36,6 +36,12 @@ public class ConsumerProfile
     /** Filters - each is an array of 2 bitmasks, action mask and subject mask */
     private List<int[]> filters;
 
+    /**
+     * Whether the events should be delivered after the commit by the outbox
+     * workers rather than synchronously, see {@link OutboxDispatcher}
+     */
+    private boolean asynchronous;
+
     // Prefix of keys in DSpace Configuration.
     private static final String CONSUMER_PREFIX = "event.consumer.";
 
@@ -86,6 +92,9 @@ public class ConsumerProfile
 
         consumer = (Consumer) Class.forName(className.trim()).newInstance();
 
+        asynchronous = ConfigurationManager.getBooleanProperty(CONSUMER_PREFIX
+                + name + ".async", false);
+
         // Each "filter" is <objectTypes> + <eventTypes> : ...
         filters = new ArrayList<int[]>();
         String part[] = filterString.trim().split(":");
@@ -159,4 +168,9 @@ public class ConsumerProfile
     {
         return name;
     }
+
+    public boolean isAsynchronous()
+    {
+        return asynchronous;
+    }
 }
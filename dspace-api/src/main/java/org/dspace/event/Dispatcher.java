@@ -7,6 +7,7 @@
  */
 package org.dspace.event;
 
+import java.sql.SQLException;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -71,4 +72,17 @@ public abstract class Dispatcher
      */
     public abstract void dispatch(Context ctx);
 
+    /**
+     * Called by the Context before its database transaction is committed, with
+     * the events still queued. Dispatchers that need to persist the events
+     * atomically with the changes that produced them do it here. The default
+     * implementation does nothing.
+     * 
+     * @param ctx
+     *            the execution context object
+     */
+    public void prepare(Context ctx) throws SQLException
+    {
+    }
+
 }
@@ -0,0 +1,290 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.event;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Data access for the <code>event_outbox</code> table, where the
+ * {@link OutboxDispatcher} stores the events of the asynchronous consumers
+ * in the same transaction that produced them. Rows are claimed by the
+ * {@link EventOutboxProcessor} workers, deleted when delivered and
+ * rescheduled with a growing delay when the delivery fails.
+ *
+ * A claim is only valid until <code>claimed_until</code>, so the events of a
+ * worker (or of a JVM) that died while processing them are picked up again
+ * when the claim expires.
+ *
+ * The events of the same subject are delivered to a consumer in the order
+ * they were produced: an event is not claimed while an earlier event of its
+ * subject for the same consumer is still pending, unless the same claim
+ * takes both.
+ */
+public class EventOutbox
+{
+    public static final String TABLE = "event_outbox";
+
+    private static final String IDENTIFIERS_SEPARATOR = "\n";
+
+    /**
+     * An earlier event of the same subject for the same consumer, not yet
+     * delivered nor given up (parameter: max attempts)
+     */
+    private static final String EARLIER_PENDING = "SELECT 1 FROM " + TABLE + " e"
+            + " WHERE e.consumer = " + TABLE + ".consumer"
+            + " AND e.subject_type = " + TABLE + ".subject_type"
+            + " AND e.subject_id = " + TABLE + ".subject_id"
+            + " AND e.event_outbox_id < " + TABLE + ".event_outbox_id AND e.attempts < ?";
+
+    /**
+     * The events that can't be claimed now because an earlier event of their
+     * subject waits for a retry or is claimed by a worker (parameters: max
+     * attempts, now, now)
+     */
+    private static final String NOT_BLOCKED = " AND NOT EXISTS (" + EARLIER_PENDING
+            + " AND (e.next_attempt > ? OR e.claimed_until >= ?))";
+
+    /** Default constructor */
+    private EventOutbox()
+    {
+    }
+
+    /**
+     * Store an event for the given consumer. The row is part of the current
+     * transaction of the context.
+     */
+    public static void enqueue(Context context, String consumer, Event event,
+            String transactionID) throws SQLException
+    {
+        Date now = new Date();
+        TableRow row = DatabaseManager.row(context, TABLE);
+        row.setColumn("consumer", consumer);
+        row.setColumn("event_type", event.getEventType());
+        row.setColumn("subject_type", event.getSubjectType());
+        row.setColumn("subject_id", event.getSubjectID());
+        if (event.getObjectType() >= 0)
+        {
+            row.setColumn("object_type", event.getObjectType());
+            row.setColumn("object_id", event.getObjectID());
+        }
+        else
+        {
+            row.setColumnNull("object_type");
+            row.setColumnNull("object_id");
+        }
+        setStringOrNull(row, "detail", event.getDetail());
+        String[] identifiers = event.getIdentifiers();
+        setStringOrNull(row, "identifiers", identifiers == null || identifiers.length == 0 ? null
+                : StringUtils.join(identifiers, IDENTIFIERS_SEPARATOR));
+        if (context.getCurrentUser() != null)
+        {
+            row.setColumn("eperson_id", context.getCurrentUser().getID());
+        }
+        else
+        {
+            row.setColumnNull("eperson_id");
+        }
+        setStringOrNull(row, "transaction_id", transactionID);
+        row.setColumn("created", now);
+        row.setColumn("attempts", 0);
+        row.setColumn("next_attempt", now);
+        row.setColumnNull("claimed_by");
+        row.setColumnNull("claimed_until");
+        row.setColumnNull("last_error");
+        DatabaseManager.insert(context, row);
+    }
+
+    /**
+     * Claim up to <code>max</code> pending events for the given worker,
+     * skipping the events with an earlier event of the same subject still
+     * pending. The claim is committed before returning.
+     *
+     * @param context
+     *            a context dedicated to the worker
+     * @param worker
+     *            unique name of the worker
+     * @param max
+     *            maximum number of events to claim
+     * @param leaseMillis
+     *            validity of the claim
+     * @param maxAttempts
+     *            events that already failed this many times are left alone
+     * @return the claimed rows, ordered by id
+     */
+    public static List<TableRow> claim(Context context, String worker, int max, long leaseMillis,
+            int maxAttempts) throws SQLException
+    {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<TableRow> claimed = new ArrayList<TableRow>();
+
+        // find the highest id among the first "max" claimable events, so that
+        // the claim update below touches a bounded range
+        int maxID = -1;
+        Connection connection = context.getDBConnection();
+        PreparedStatement statement = connection.prepareStatement("SELECT event_outbox_id FROM "
+                + TABLE + " WHERE attempts < ? AND next_attempt <= ?"
+                + " AND (claimed_until IS NULL OR claimed_until < ?)" + NOT_BLOCKED
+                + " ORDER BY event_outbox_id");
+        try
+        {
+            statement.setMaxRows(max);
+            statement.setInt(1, maxAttempts);
+            statement.setTimestamp(2, now);
+            statement.setTimestamp(3, now);
+            statement.setInt(4, maxAttempts);
+            statement.setTimestamp(5, now);
+            statement.setTimestamp(6, now);
+            ResultSet rs = statement.executeQuery();
+            while (rs.next())
+            {
+                maxID = rs.getInt(1);
+            }
+            rs.close();
+        }
+        finally
+        {
+            statement.close();
+        }
+        if (maxID < 0)
+        {
+            return claimed;
+        }
+
+        int updated = DatabaseManager.updateQuery(context, "UPDATE " + TABLE
+                + " SET claimed_by = ?, claimed_until = ? WHERE event_outbox_id <= ?"
+                + " AND attempts < ? AND next_attempt <= ?"
+                + " AND (claimed_until IS NULL OR claimed_until < ?)" + NOT_BLOCKED,
+                worker, new Timestamp(now.getTime() + leaseMillis), maxID, maxAttempts, now, now,
+                maxAttempts, now, now);
+        context.getDBConnection().commit();
+        if (updated == 0)
+        {
+            return claimed;
+        }
+
+        // another worker may have claimed an earlier event of the same
+        // subject between the select and the update: now that this claim is
+        // committed, give back the events with an earlier pending event of
+        // their subject outside of it
+        DatabaseManager.updateQuery(context, "UPDATE " + TABLE
+                + " SET claimed_by = NULL, claimed_until = NULL WHERE claimed_by = ?"
+                + " AND EXISTS (" + EARLIER_PENDING + " AND (e.claimed_by IS NULL OR e.claimed_by <> ?))",
+                worker, maxAttempts, worker);
+        context.getDBConnection().commit();
+
+        TableRowIterator tri = DatabaseManager.queryTable(context, TABLE, "SELECT * FROM " + TABLE
+                + " WHERE claimed_by = ? AND claimed_until > ? ORDER BY event_outbox_id", worker, now);
+        try
+        {
+            while (tri.hasNext())
+            {
+                claimed.add(tri.next());
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+        return claimed;
+    }
+
+    /**
+     * Release the claims of a worker on the events it didn't deliver, so that
+     * the other workers can pick them up without waiting for the claims to
+     * expire. The release is part of the current transaction of the context.
+     */
+    public static void release(Context context, String worker) throws SQLException
+    {
+        DatabaseManager.updateQuery(context, "UPDATE " + TABLE
+                + " SET claimed_by = NULL, claimed_until = NULL WHERE claimed_by = ?", worker);
+    }
+
+    /**
+     * Rebuild the event stored in an outbox row.
+     */
+    public static Event toEvent(TableRow row)
+    {
+        String identifiers = row.getStringColumn("identifiers");
+        String[] ids = StringUtils.isEmpty(identifiers) ? new String[0]
+                : identifiers.split(IDENTIFIERS_SEPARATOR);
+        Event event;
+        if (row.isColumnNull("object_type"))
+        {
+            event = new Event(row.getIntColumn("event_type"), row.getIntColumn("subject_type"),
+                    row.getIntColumn("subject_id"), row.getStringColumn("detail"), ids);
+        }
+        else
+        {
+            event = new Event(row.getIntColumn("event_type"), row.getIntColumn("subject_type"),
+                    row.getIntColumn("subject_id"), row.getIntColumn("object_type"),
+                    row.getIntColumn("object_id"), row.getStringColumn("detail"), ids);
+        }
+        if (!row.isColumnNull("eperson_id"))
+        {
+            event.setCurrentUser(row.getIntColumn("eperson_id"));
+        }
+        event.setTransactionID(row.getStringColumn("transaction_id"));
+        return event;
+    }
+
+    /**
+     * Remove the delivered events.
+     */
+    public static void delete(Context context, List<TableRow> rows) throws SQLException
+    {
+        for (TableRow row : rows)
+        {
+            DatabaseManager.delete(context, row);
+        }
+    }
+
+    /**
+     * Release the claim on failed events and reschedule them, each failure
+     * doubles the delay before the next attempt.
+     */
+    public static void fail(Context context, List<TableRow> rows, String error, long retryDelayMillis)
+            throws SQLException
+    {
+        long now = System.currentTimeMillis();
+        for (TableRow row : rows)
+        {
+            int attempts = row.getIntColumn("attempts") + 1;
+            row.setColumn("attempts", attempts);
+            row.setColumn("next_attempt", new Date(now + (retryDelayMillis << Math.min(attempts - 1, 16))));
+            row.setColumnNull("claimed_by");
+            row.setColumnNull("claimed_until");
+            setStringOrNull(row, "last_error", StringUtils.abbreviate(error, 4000));
+            DatabaseManager.update(context, row);
+        }
+    }
+
+    private static void setStringOrNull(TableRow row, String column, String value)
+    {
+        if (value == null)
+        {
+            row.setColumnNull(column);
+        }
+        else
+        {
+            row.setColumn(column, value);
+        }
+    }
+}
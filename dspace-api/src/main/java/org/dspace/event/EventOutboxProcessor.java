@@ -0,0 +1,402 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.event;
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+import org.dspace.eperson.EPerson;
+import org.dspace.storage.rdbms.TableRow;
+
+/**
+ * Background workers draining the event outbox filled by the
+ * {@link OutboxDispatcher}. Each worker claims a batch of events, groups them
+ * by consumer, drops the duplicates (e.g. several MODIFY_METADATA of the same
+ * item in a row) and delivers them to its own instance of the consumer,
+ * followed by a single <code>end</code> call. Delivered events are deleted,
+ * failed ones are rescheduled with an exponential delay up to
+ * "event.outbox.max-attempts" attempts.
+ * <p/>
+ * The workers are started by the webapps, when an {@link OutboxDispatcher}
+ * is configured, and by the "event-outbox" command for a standalone process;
+ * the other command line tools only fill the outbox. On shutdown the workers
+ * release the events they claimed.
+ * <p/>
+ * Configuration (dspace.cfg):
+ * <ul>
+ * <li>event.outbox.workers - number of workers, 0 disables the processing in
+ * this JVM (default 2)</li>
+ * <li>event.outbox.batch-size - events claimed at once (default 100)</li>
+ * <li>event.outbox.poll-interval - ms to wait when the outbox is empty
+ * (default 1000)</li>
+ * <li>event.outbox.lease - ms after which a claim expires (default 600000)</li>
+ * <li>event.outbox.max-attempts - (default 10)</li>
+ * <li>event.outbox.retry-delay - ms before the first retry (default 5000)</li>
+ * </ul>
+ */
+public class EventOutboxProcessor
+{
+    private static final Logger log = Logger.getLogger(EventOutboxProcessor.class);
+
+    private static EventOutboxProcessor instance;
+
+    private final ExecutorService executor;
+
+    private final int batchSize;
+
+    private final long pollInterval;
+
+    private final long lease;
+
+    private final int maxAttempts;
+
+    private final long retryDelay;
+
+    private final List<String> workerNames = new ArrayList<String>();
+
+    private volatile boolean running = true;
+
+    protected EventOutboxProcessor(int workers)
+    {
+        batchSize = ConfigurationManager.getIntProperty("event.outbox.batch-size", 100);
+        pollInterval = ConfigurationManager.getLongProperty("event.outbox.poll-interval", 1000);
+        lease = ConfigurationManager.getLongProperty("event.outbox.lease", 600000);
+        maxAttempts = ConfigurationManager.getIntProperty("event.outbox.max-attempts", 10);
+        retryDelay = ConfigurationManager.getLongProperty("event.outbox.retry-delay", 5000);
+
+        final AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "event-outbox-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        String jvm = ManagementFactory.getRuntimeMXBean().getName();
+        for (int i = 0; i < workers; i++)
+        {
+            String name = jvm + "-" + i;
+            workerNames.add(name);
+            executor.execute(new Worker(name));
+        }
+    }
+
+    /**
+     * Start the workers of this JVM, if not already running and if an
+     * {@link OutboxDispatcher} is configured.
+     */
+    public static synchronized void start()
+    {
+        if (instance == null && isOutboxConfigured())
+        {
+            int workers = ConfigurationManager.getIntProperty("event.outbox.workers", 2);
+            if (workers > 0)
+            {
+                instance = new EventOutboxProcessor(workers);
+                log.info("Started " + workers + " event outbox workers");
+            }
+        }
+    }
+
+    /**
+     * Stop the workers and release the events they claimed and didn't
+     * deliver. If the workers don't stop in time, their events are picked up
+     * again when the claims expire.
+     */
+    public static synchronized void shutdown()
+    {
+        if (instance != null)
+        {
+            instance.running = false;
+            instance.executor.shutdownNow();
+            try
+            {
+                if (instance.executor.awaitTermination(30, TimeUnit.SECONDS))
+                {
+                    instance.releaseClaims();
+                }
+                else
+                {
+                    log.warn("The event outbox workers didn't stop, their claims expire in "
+                            + instance.lease + " ms");
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            instance = null;
+        }
+    }
+
+    /**
+     * Run the workers until the JVM is stopped, for a standalone process
+     * draining the outbox.
+     */
+    public static void main(String[] argv) throws InterruptedException
+    {
+        Runtime.getRuntime().addShutdownHook(new Thread()
+        {
+            @Override
+            public void run()
+            {
+                shutdown();
+            }
+        });
+        start();
+        if (instance == null)
+        {
+            System.err.println("No OutboxDispatcher configured, or event.outbox.workers = 0");
+            System.exit(1);
+        }
+        instance.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return true if one of the event.dispatcher.&lt;name&gt;.class is the
+     *         {@link OutboxDispatcher}
+     */
+    private static boolean isOutboxConfigured()
+    {
+        Enumeration<?> names = ConfigurationManager.propertyNames();
+        while (names != null && names.hasMoreElements())
+        {
+            String name = (String) names.nextElement();
+            if (name.startsWith("event.dispatcher.") && name.endsWith(".class")
+                    && OutboxDispatcher.class.getName().equals(
+                            ConfigurationManager.getProperty(name).trim()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void releaseClaims()
+    {
+        Context context = null;
+        try
+        {
+            context = new Context();
+            for (String name : workerNames)
+            {
+                EventOutbox.release(context, name);
+            }
+            context.complete();
+        }
+        catch (SQLException e)
+        {
+            log.error("Error releasing the claims of the event outbox workers", e);
+        }
+        finally
+        {
+            if (context != null && context.isValid())
+            {
+                context.abort();
+            }
+        }
+    }
+
+    /**
+     * Drop the duplicate events (Event.equals ignores timestamps and
+     * transactions), keeping the last occurrence of each: ADD(x), REMOVE(x),
+     * ADD(x) is delivered as REMOVE(x), ADD(x), so that the consumers end in
+     * the same state as with the synchronous delivery of all of them.
+     *
+     * @param events the events in the order they were produced
+     * @return the distinct events, in the order of their last occurrence
+     */
+    static Set<Event> coalesce(List<Event> events)
+    {
+        Set<Event> result = new LinkedHashSet<Event>();
+        for (Event event : events)
+        {
+            // moves a duplicate at the end
+            result.remove(event);
+            result.add(event);
+        }
+        return result;
+    }
+
+    class Worker implements Runnable
+    {
+        private final String name;
+
+        /** own consumer instances, consumers keep state between consume and end */
+        private final Map<String, ConsumerProfile> profiles = new HashMap<String, ConsumerProfile>();
+
+        Worker(String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public void run()
+        {
+            while (running && !Thread.currentThread().isInterrupted())
+            {
+                int processed = 0;
+                try
+                {
+                    processed = processBatch();
+                }
+                catch (Exception e)
+                {
+                    log.error("Error processing the event outbox", e);
+                }
+                if (processed == 0)
+                {
+                    try
+                    {
+                        Thread.sleep(pollInterval);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private int processBatch() throws SQLException
+        {
+            Context context = new Context();
+            try
+            {
+                List<TableRow> rows = EventOutbox.claim(context, name, batchSize, lease, maxAttempts);
+                if (rows.isEmpty())
+                {
+                    return 0;
+                }
+
+                Map<String, List<TableRow>> byConsumer = new LinkedHashMap<String, List<TableRow>>();
+                for (TableRow row : rows)
+                {
+                    String consumer = row.getStringColumn("consumer");
+                    List<TableRow> list = byConsumer.get(consumer);
+                    if (list == null)
+                    {
+                        list = new ArrayList<TableRow>();
+                        byConsumer.put(consumer, list);
+                    }
+                    list.add(row);
+                }
+
+                for (Map.Entry<String, List<TableRow>> entry : byConsumer.entrySet())
+                {
+                    deliver(entry.getKey(), entry.getValue());
+                }
+                return rows.size();
+            }
+            finally
+            {
+                if (context.isValid())
+                {
+                    context.abort();
+                }
+            }
+        }
+
+        /**
+         * Deliver the events of a consumer in a context of their own, so that
+         * a failure doesn't affect the other consumers of the batch.
+         */
+        private void deliver(String consumerName, List<TableRow> rows) throws SQLException
+        {
+            List<Event> outbox = new ArrayList<Event>(rows.size());
+            for (TableRow row : rows)
+            {
+                outbox.add(EventOutbox.toEvent(row));
+            }
+            Set<Event> events = coalesce(outbox);
+
+            Context context = new Context();
+            try
+            {
+                ConsumerProfile cp = getProfile(consumerName);
+                context.turnOffAuthorisationSystem();
+                Map<Integer, EPerson> epersons = new HashMap<Integer, EPerson>();
+                for (Event event : events)
+                {
+                    // run as the user that produced the event, as the
+                    // synchronous delivery does
+                    int eperson = event.getCurrentUser();
+                    if (eperson > 0 && !epersons.containsKey(eperson))
+                    {
+                        epersons.put(eperson, EPerson.find(context, eperson));
+                    }
+                    context.setCurrentUser(epersons.get(eperson));
+                    cp.getConsumer().consume(context, event);
+                }
+                cp.getConsumer().end(context);
+                EventOutbox.delete(context, rows);
+                context.complete();
+                if (log.isDebugEnabled())
+                {
+                    log.debug("Delivered " + events.size() + " events (" + rows.size()
+                            + " in the outbox) to " + consumerName);
+                }
+            }
+            catch (Exception e)
+            {
+                log.error("Consumer(\"" + consumerName + "\") failed on " + rows.size()
+                        + " outbox events: " + e.toString(), e);
+                if (context.isValid())
+                {
+                    context.abort();
+                }
+                // drop the consumer instance, its state is not reliable anymore
+                profiles.remove(consumerName);
+                Context failContext = new Context();
+                try
+                {
+                    EventOutbox.fail(failContext, rows, e.toString(), retryDelay);
+                    failContext.complete();
+                }
+                finally
+                {
+                    if (failContext.isValid())
+                    {
+                        failContext.abort();
+                    }
+                }
+            }
+        }
+
+        private ConsumerProfile getProfile(String consumerName) throws Exception
+        {
+            ConsumerProfile cp = profiles.get(consumerName);
+            if (cp == null)
+            {
+                cp = ConsumerProfile.makeConsumerProfile(consumerName);
+                cp.getConsumer().initialize();
+                profiles.put(consumerName, cp);
+            }
+            return cp;
+        }
+    }
+}
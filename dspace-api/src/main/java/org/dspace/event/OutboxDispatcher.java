@@ -0,0 +1,145 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.event;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.Context;
+import org.dspace.core.Utils;
+
+/**
+ * Dispatcher that delivers the events of the consumers configured with
+ * <code>event.consumer.&lt;name&gt;.async = true</code> after the commit, in
+ * background. The events of these consumers are written to the
+ * <code>event_outbox</code> table in the same database transaction that
+ * produced them, so they survive a restart, and are then delivered by the
+ * {@link EventOutboxProcessor} workers, which run in the webapps and in the
+ * "event-outbox" command, not in the other command line tools. The other
+ * consumers are served synchronously, exactly as the
+ * {@link BasicDispatcher} does.
+ * <p/>
+ * Events raised by the synchronous consumers while they process the queue
+ * are written to the outbox, and committed, at the end of the dispatch.
+ *
+ * @see EventOutbox
+ */
+public class OutboxDispatcher extends BasicDispatcher
+{
+    /** log4j category */
+    private static Logger log = Logger.getLogger(OutboxDispatcher.class);
+
+    /** events of the current commit already written by prepare */
+    private Set<Event> prepared = Collections.newSetFromMap(new IdentityHashMap<Event, Boolean>());
+
+    /** events queued during the dispatch, to be written to the outbox */
+    private List<Event> late = new ArrayList<Event>();
+
+    public OutboxDispatcher(String name)
+    {
+        super(name);
+    }
+
+    @Override
+    protected boolean isSynchronous(ConsumerProfile cp)
+    {
+        return !cp.isAsynchronous();
+    }
+
+    @Override
+    public void prepare(Context ctx) throws SQLException
+    {
+        prepared.clear();
+        late.clear();
+        if (!ctx.hasEvents())
+        {
+            return;
+        }
+        write(ctx, ctx.getEvents());
+        prepared.addAll(ctx.getEvents());
+    }
+
+    @Override
+    protected void handleAsynchronous(Context ctx, Event event)
+    {
+        if (!prepared.contains(event))
+        {
+            late.add(event);
+        }
+    }
+
+    @Override
+    public void dispatch(Context ctx)
+    {
+        try
+        {
+            super.dispatch(ctx);
+
+            if (!late.isEmpty())
+            {
+                try
+                {
+                    if (write(ctx, late))
+                    {
+                        Connection connection = ctx.getDBConnection();
+                        if (!connection.getAutoCommit())
+                        {
+                            connection.commit();
+                        }
+                    }
+                }
+                catch (SQLException e)
+                {
+                    log.error("Unable to write " + late.size()
+                            + " events raised during the dispatch to the outbox", e);
+                }
+            }
+        }
+        finally
+        {
+            prepared.clear();
+            late.clear();
+        }
+    }
+
+    /**
+     * Write the events to the outbox for each asynchronous consumer they
+     * pass the filters of. Identical events are written once.
+     *
+     * @return true if at least a row has been written
+     */
+    private boolean write(Context ctx, List<Event> events) throws SQLException
+    {
+        String tid = "TX" + Utils.generateKey();
+        boolean written = false;
+        for (ConsumerProfile cp : consumers.values())
+        {
+            if (!cp.isAsynchronous())
+            {
+                continue;
+            }
+            Set<Event> seen = new HashSet<Event>();
+            for (Event event : events)
+            {
+                if (event.pass(cp.getFilters()) && seen.add(event))
+                {
+                    EventOutbox.enqueue(ctx, cp.getName(), event, tid);
+                    written = true;
+                }
+            }
+        }
+        return written;
+    }
+}
@@ -9,7 +9,9 @@ package org.dspace.handle;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.dspace.content.Collection;
@@ -420,19 +422,73 @@ public class HandleManager
             String result = rows.next().getStringColumn("handle");
             while (rows.hasNext())
             {
-                TableRow row = rows.next();
-                //Ensure that the handle doesn't look like this 12346/213.{version}
-                //If we find a match that indicates that we have a proper handle
-                if(!row.getStringColumn("handle").matches(".*/.*\\.\\d+"))
-                {
-                    result = row.getStringColumn("handle");
-                }
+                result = preferredHandle(result, rows.next().getStringColumn("handle"));
             }
 
             return result;
         }
     }
 
+    /**
+     * Return the handles of many objects of a type at once, as
+     * {@link #findHandle(Context, DSpaceObject)} would return for each of them.
+     *
+     * @param context
+     *            DSpace context
+     * @param type
+     *            The type of the objects, which can't be Constants.SITE
+     * @param ids
+     *            The IDs of the objects
+     * @return The handles by object ID. The objects without handle are absent.
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static Map<Integer, String> findHandles(Context context, int type, List<Integer> ids)
+            throws SQLException
+    {
+        Map<Integer, String> handles = new HashMap<Integer, String>();
+        for (int from = 0; from < ids.size(); from += 500)
+        {
+            List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + 500));
+
+            StringBuilder sql = new StringBuilder(
+                    "SELECT * FROM Handle WHERE resource_type_id = ? AND resource_id IN (");
+            Object[] params = new Object[chunk.size() + 1];
+            params[0] = type;
+            for (int i = 0; i < chunk.size(); i++)
+            {
+                sql.append(i == 0 ? "?" : ", ?");
+                params[i + 1] = chunk.get(i);
+            }
+            sql.append(")");
+
+            TableRowIterator rows = DatabaseManager.queryTable(context, "Handle", sql.toString(), params);
+            try
+            {
+                while (rows.hasNext())
+                {
+                    TableRow row = rows.next();
+                    Integer id = row.getIntColumn("resource_id");
+                    String current = handles.get(id);
+                    String handle = row.getStringColumn("handle");
+                    handles.put(id, current == null ? handle : preferredHandle(current, handle));
+                }
+            }
+            finally
+            {
+                rows.close();
+            }
+        }
+        return handles;
+    }
+
+    private static String preferredHandle(String current, String candidate)
+    {
+        //Ensure that the handle doesn't look like this 12346/213.{version}
+        //If we find a match that indicates that we have a proper handle
+        return candidate.matches(".*/.*\\.\\d+") ? current : candidate;
+    }
+
     /**
      * Return all the handles which start with prefix.
      *
@@ -9,6 +9,8 @@ package org.dspace.statistics;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
@@ -22,12 +24,15 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
@@ -58,6 +63,7 @@ import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.luke.FieldFlag;
 import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.CursorMarkParams;
 import org.apache.solr.common.params.FacetParams;
 import org.apache.solr.common.params.MapSolrParams;
 import org.apache.solr.common.params.ModifiableSolrParams;
@@ -73,6 +79,7 @@ import org.dspace.content.Item;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
+import org.dspace.discovery.SolrDocumentCursor;
 import org.dspace.eperson.EPerson;
 import org.dspace.eperson.Group;
 import org.dspace.statistics.util.DnsLookup;
@@ -87,6 +94,13 @@ import au.com.bytecode.opencsv.CSVWriter;
  * Static holder for a HttpSolrClient connection pool to issue
  * usage logging events to Solr from DSpace libraries, and some static query
  * composers.
+ * <p/>
+ * The usage events are sent to Solr in batches, in background, through a
+ * {@link UsageEventBuffer} of "logger.queue-size" events (default 10000, 0 to
+ * send them from the request thread). The reverse DNS lookup of the client
+ * address is shared with the other requests from the same address: if it
+ * doesn't complete within "resolver.timeout", the event is queued anyway and
+ * the host name is filled in by the background thread.
  * 
  * @author ben at atmire.com
  * @author kevinvandevelde at atmire.com
@@ -114,6 +128,13 @@ public class SolrLogger
 
     private List<String> statisticYearCores = new ArrayList<String>();
 
+    /** buffer of the usage events, null when they are sent synchronously */
+    private UsageEventBuffer buffer;
+
+    /** milliseconds to wait for the reverse DNS lookup of the client */
+    private static final long DNS_WAIT = ConfigurationManager.getIntProperty(CFG_USAGE_MODULE,
+            "resolver.timeout", 200);
+
     public static enum StatisticsType {
    		VIEW ("view"),
    		SEARCH ("search"),
@@ -201,42 +222,74 @@ public class SolrLogger
     }
 
     
+    /**
+     * @return the fields of the usage events of the given type read by
+     *         {@link #getRawDataCursor(int, String)}, the unique key included
+     */
+    protected String[] getRawDataFields(int type)
+    {
+        return new String[] { "uid", "ip", "id", "type", "time", "dns", "epersonid",
+                "isBot", "userAgent" };
+    }
+
+    /**
+     * Stream the usage events of the given type matching the query, a page at
+     * a time.
+     */
+    public SolrDocumentCursor getRawDataCursor(int type, String queryString)
+    {
+        SolrQuery query = new SolrQuery();
+        query.setQuery(queryString);
+        query.setFilterQueries("type:" + type);
+        query.setFields(getRawDataFields(type));
+        return new SolrDocumentCursor(getSolr(), query, "uid");
+    }
+
+    public SolrDocumentCursor getRawDataCursor(int type, int year)
+    {
+        String start = year+"-01-01T00:00:00.000Z";
+        String end = (year+1)+"-01-01T00:00:00.000Z";
+        return getRawDataCursor(type, "time:["+start+" TO "+end+"]");
+    }
+
+    public SolrDocumentCursor getRawDataCursor(int type)
+    {
+        return getRawDataCursor(type, "*:*");
+    }
+
+    /**
+     * @deprecated all the events are loaded in memory, use
+     *             {@link #getRawDataCursor(int, String)}
+     */
     public SolrDocumentList getRawData(int type, String queryString) throws SolrServerException
     {
         SolrQuery query = new SolrQuery();
         query.setQuery(queryString);
         query.setFilterQueries("type:" + type);
         query.setRows(Integer.MAX_VALUE);
-        query.setFields("ip", "id", "type", "time", "dns", "epersonid",
-                "isBot", "userAgent");
+        query.setFields(getRawDataFields(type));
         QueryResponse resp = getSolr().query(query);
         return resp.getResults();
     }
     
+    /**
+     * @deprecated all the events are loaded in memory, use
+     *             {@link #getRawDataCursor(int, int)}
+     */
     public SolrDocumentList getRawData(int type, int year) throws SolrServerException
     {
-        SolrQuery query = new SolrQuery();
         String start = year+"-01-01T00:00:00.000Z";
         String end = (year+1)+"-01-01T00:00:00.000Z";
-        query.setQuery("time:["+start+" TO "+end+"]");
-        query.setFilterQueries("type:" + type);
-        query.setRows(Integer.MAX_VALUE);
-        query.setFields("ip", "id", "type", "time", "dns", "epersonid",
-                "isBot", "userAgent");
-        QueryResponse resp = getSolr().query(query);
-        return resp.getResults();
+        return getRawData(type, "time:["+start+" TO "+end+"]");
     }
     
+    /**
+     * @deprecated all the events are loaded in memory, use
+     *             {@link #getRawDataCursor(int)}
+     */
     public SolrDocumentList getRawData(int type) throws SolrServerException
     {
-        SolrQuery query = new SolrQuery();
-        query.setQuery("*:*");
-        query.setFilterQueries("type:" + type);
-        query.setRows(Integer.MAX_VALUE);
-        query.setFields("ip", "id", "type", "time", "dns", "epersonid",
-                "isBot", "userAgent");
-        QueryResponse resp = getSolr().query(query);
-        return resp.getResults();
+        return getRawData(type, "*:*");
     }
 
     /**
@@ -276,7 +329,7 @@ public class SolrLogger
 
             doc1.addField("statistics_type", StatisticsType.LOGIN.text());
 
-            solr.add(doc1);
+            send(doc1, true);
             //commits are executed automatically using the solr autocommit
 //            solr.commit(false, false);
 
@@ -312,7 +365,7 @@ public class SolrLogger
             if (doc1 == null) return;
 
             doc1.addField("statistics_type", StatisticsType.VIEW.text());
-            solr.add(doc1);
+            send(doc1, true);
             //commits are executed automatically using the solr autocommit
 //            solr.commit(false, false);
 
@@ -341,7 +394,7 @@ public class SolrLogger
 
 			doc1.addField("statistics_type", StatisticsType.VIEW.text());
 
-			solr.add(doc1);
+			send(doc1, false);
 			// commits are executed automatically using the solr autocommit
 			// solr.commit(false, false);
 
@@ -367,7 +420,7 @@ public class SolrLogger
 
 			doc1.addField("statistics_type", StatisticsType.VIEW.text());
 
-			solr.add(doc1);
+			send(doc1, true);
 			// commits are executed automatically using the solr autocommit
 			// solr.commit(false, false);
 
@@ -427,16 +480,11 @@ public class SolrLogger
             
             doc1.addField("isBot",isSpiderBot);
             
-            try
+            String dns = DnsLookup.reverseDnsCached(ip, DNS_WAIT);
+            if (dns != null)
             {
-                String dns = DnsLookup.reverseDns(ip);
                 doc1.addField("dns", dns.toLowerCase());
             }
-            catch (Exception e)
-            {
-                log.error("Failed DNS Lookup for IP:" + ip);
-                log.debug(e.getMessage(),e);
-            }
         }
 
         if(dspaceObject != null){
@@ -477,16 +525,7 @@ public class SolrLogger
             }
     	}
     	
-    	String dns = null;
-    	try
-        {
-            dns = DnsLookup.reverseDns(ip);
-        }
-        catch (Exception e)
-        {
-            log.error("Failed DNS Lookup for IP:" + ip);
-            log.debug(e.getMessage(),e);
-        }
+    	String dns = DnsLookup.reverseDnsCached(ip, DNS_WAIT);
     	return getCommonSolrDocByFinalIP(dspaceObject, ip, dns, userAgent, currentUser);
     }
     
@@ -578,7 +617,7 @@ public class SolrLogger
                 solrDoc.addField("page", page);
             }
 
-            getSolr().add(solrDoc);
+            send(solrDoc, true);
         }
         catch (RuntimeException re)
         {
@@ -628,7 +667,7 @@ public class SolrLogger
                 solrDoc.addField("actor", usageWorkflowEvent.getActor().getID());
             }
 
-            getSolr().add(solrDoc);
+            send(solrDoc, false);
         }
         catch (Exception e)
         {
@@ -638,6 +677,45 @@ public class SolrLogger
 
     }
 
+    /**
+     * @return the buffer of the usage events waiting to be sent, or null if
+     *         they are sent synchronously
+     */
+    public synchronized UsageEventBuffer getBuffer()
+    {
+        if (buffer == null)
+        {
+            int size = ConfigurationManager.getIntProperty(CFG_USAGE_MODULE, "logger.queue-size", 10000);
+            if (size > 0)
+            {
+                buffer = new UsageEventBuffer(this, size, 10 * DNS_WAIT);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Send a usage event to Solr, in background if so configured.
+     *
+     * @param doc
+     *            the usage event
+     * @param resolveDns
+     *            whether to fill in the host name of the client, if its
+     *            lookup didn't complete yet
+     */
+    private void send(SolrInputDocument doc, boolean resolveDns) throws Exception
+    {
+        UsageEventBuffer events = getBuffer();
+        if (events == null)
+        {
+            getSolr().add(doc);
+        }
+        else
+        {
+            events.offer(doc, resolveDns);
+        }
+    }
+
     /**
      * Method just used to log the parents.
      * <ul>
@@ -738,57 +816,56 @@ public class SolrLogger
     }
 
 
+    /**
+     * Flag as bots the hits from the known spider addresses. The hits are
+     * updated in place, in batches, and an interrupted run resumes where it
+     * stopped.
+     */
     public void markRobotsByIP()
     {
+        Checkpoint checkpoint = new Checkpoint("mark-spiders");
         for(String ip : SpiderDetector.getSpiderIpAddresses()){
 
             try {
-
-                /* Result Process to alter record to be identified as a bot */
-                ResultProcessor processor = new ResultProcessor(){
-                    public void process(SolrDocument doc) throws IOException, SolrServerException {
-                        doc.removeFields("isBot");
-                        doc.addField("isBot", true);
-                        SolrInputDocument newInput = ClientUtils.toSolrInputDocument(doc);
-                        getSolr().add(newInput);
-                        log.info("Marked " + doc.getFieldValue("ip") + " as bot");
-                    }
-                };
-
                 /* query for ip, exclude results previously set as bots. */
-                processor.execute("ip:"+ip+ "* AND -isBot:true");
-
-                getSolr().commit();
-
+                long count = atomicUpdate("ip:" + ip + "* AND -isBot:true",
+                        isBotOperation(), checkpoint);
+                if (count > 0)
+                {
+                    log.info("Marked " + count + " hits of " + ip + " as bot");
+                }
             } catch (Exception e) {
                 log.error(e.getMessage(),e);
+                return;
             }
-
-
         }
-
+        checkpoint.delete();
     }
 
+    /**
+     * Flag as bots the hits from a user agent. The hits are updated in place,
+     * in batches, and an interrupted run resumes where it stopped.
+     *
+     * @param agent the user agent, as a Solr query term.
+     */
     public void markRobotByUserAgent(String agent){
+        Checkpoint checkpoint = new Checkpoint("mark-spiders-by-useragent");
         try {
+            /* query for the agent, exclude results previously set as bots. */
+            long count = atomicUpdate("userAgent:" + agent + " AND -isBot:true",
+                    isBotOperation(), checkpoint);
+            log.info("Marked " + count + " hits of " + agent + " as bot");
+            checkpoint.delete();
+        } catch (Exception e) {
+            log.error(e.getMessage(),e);
+        }
+    }
 
-                /* Result Process to alter record to be identified as a bot */
-                ResultProcessor processor = new ResultProcessor(){
-                    public void process(SolrDocument doc) throws IOException, SolrServerException {
-                        doc.removeFields("isBot");
-                        doc.addField("isBot", true);
-                        SolrInputDocument newInput = ClientUtils.toSolrInputDocument(doc);
-                        getSolr().add(newInput);
-                    }
-                };
-
-                /* query for ip, exclude results previously set as bots. */
-                processor.execute("userAgent:"+agent+ " AND -isBot:true");
-
-                getSolr().commit();
-            } catch (Exception e) {
-                log.error(e.getMessage(),e);
-            }
+    private Map<String, Map<String, Object>> isBotOperation()
+    {
+        Map<String, Map<String, Object>> operations = new HashMap<String, Map<String, Object>>();
+        operations.put("isBot", Collections.<String, Object> singletonMap("set", Boolean.TRUE));
+        return operations;
     }
 
     public void deleteRobotsByIsBotFlag()
@@ -825,73 +902,220 @@ public class SolrLogger
      * List<Object> oldvals = new ArrayList<Object>(); oldvals.add(fieldValue);
      * update(query, addField, fieldName, vals, oldvals); }
      */
+    /**
+     * Change a field of all the hits matching a query. The hits are updated
+     * in place through Solr atomic updates, in batches, rather than deleted
+     * and added again.
+     *
+     * @param query the hits to update.
+     * @param action "replace" to set the values of the fields, "addOne" to add
+     *      them, "remOne" to remove them.
+     * @param fieldNames the fields to update.
+     * @param fieldValuesList the values of each field.
+     */
     public void update(String query, String action,
             List<String> fieldNames, List<List<Object>> fieldValuesList)
             throws SolrServerException, IOException
     {
-        // Since there is NO update
-        // We need to get our documents
-        // QueryResponse queryResponse = solr.query()//query(query, null, -1,
-        // null, null, null);
-
-        final List<SolrDocument> docsToUpdate = new ArrayList<SolrDocument>();
-
-        ResultProcessor processor = new ResultProcessor(){
-                public void process(List<SolrDocument> docs) throws IOException, SolrServerException {
-                    docsToUpdate.addAll(docs);
-                }
-            };
-
-        processor.execute(query);
+        String operation;
+        if (action.equals("replace"))
+        {
+            operation = "set";
+        }
+        else if (action.equals("addOne"))
+        {
+            operation = "add";
+        }
+        else if (action.equals("remOne"))
+        {
+            operation = "remove";
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unknown update action " + action);
+        }
 
-        // We have all the docs delete the ones we don't need
-        getSolr().deleteByQuery(query);
+        Map<String, Map<String, Object>> operations = new LinkedHashMap<String, Map<String, Object>>();
+        for (int j = 0; j < fieldNames.size(); j++)
+        {
+            Map<String, Object> fieldOperation = new HashMap<String, Object>();
+            fieldOperation.put(operation, fieldValuesList.get(j));
+            operations.put(fieldNames.get(j), fieldOperation);
+        }
+        atomicUpdate(query, operations, null);
+    }
 
-        // Add the new (updated onces
-        for (int i = 0; i < docsToUpdate.size(); i++)
+    /**
+     * Apply atomic updates to all the hits matching a query, core by core.
+     * The hits are read with a cursor sorted on their unique key and updated
+     * in batches of "update.batch-size" (default 1000), so that memory use
+     * doesn't depend on the number of hits, and no hit is ever missing from
+     * the index.
+     *
+     * @param query the hits to update.
+     * @param operations the atomic update operations (set, add, remove...),
+     *      by field.
+     * @param checkpoint where to record the progress, to resume an interrupted
+     *      run; or null.
+     * @return the number of hits updated.
+     */
+    private long atomicUpdate(String query, Map<String, Map<String, Object>> operations,
+            Checkpoint checkpoint) throws SolrServerException, IOException
+    {
+        int batchSize = ConfigurationManager.getIntProperty(CFG_STAT_MODULE, "update.batch-size", 1000);
+        long updated = 0;
+        HttpSolrServer main = getSolr();
+        for (HttpSolrServer server : getCoreServers())
         {
-            SolrDocument solrDocument = docsToUpdate.get(i);
-            // Now loop over our fieldname actions
-            for (int j = 0; j < fieldNames.size(); j++)
+            try
             {
-                String fieldName = fieldNames.get(j);
-                List<Object> fieldValues = fieldValuesList.get(j);
+                String key = server.getBaseURL() + " " + query;
+                String cursorMark = checkpoint == null ? null : checkpoint.get(key);
+                if (Checkpoint.DONE.equals(cursorMark))
+                {
+                    continue;
+                }
+                if (cursorMark == null)
+                {
+                    cursorMark = CursorMarkParams.CURSOR_MARK_START;
+                }
 
-                if (action.equals("addOne") || action.equals("replace"))
+                SolrQuery solrQuery = new SolrQuery(query);
+                solrQuery.setFields("uid");
+                solrQuery.setRows(batchSize);
+                solrQuery.setSort("uid", SolrQuery.ORDER.asc);
+                long count = 0;
+                while (true)
                 {
-                    if (action.equals("replace"))
+                    solrQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+                    QueryResponse response = server.query(solrQuery);
+                    SolrDocumentList docs = response.getResults();
+                    if (!docs.isEmpty())
                     {
-                        solrDocument.removeFields(fieldName);
+                        List<SolrInputDocument> updates = new ArrayList<SolrInputDocument>(docs.size());
+                        for (SolrDocument doc : docs)
+                        {
+                            SolrInputDocument update = new SolrInputDocument();
+                            update.addField("uid", doc.getFieldValue("uid"));
+                            for (Map.Entry<String, Map<String, Object>> operation : operations.entrySet())
+                            {
+                                update.addField(operation.getKey(), operation.getValue());
+                            }
+                            updates.add(update);
+                        }
+                        server.add(updates);
+                        count += docs.size();
+                        log.info("Updated " + count + " of " + docs.getNumFound() + " hits of "
+                                + server.getBaseURL() + " matching " + query);
                     }
 
-                    for (Object fieldValue : fieldValues)
+                    String next = response.getNextCursorMark();
+                    if (next == null || next.equals(cursorMark))
                     {
-                        solrDocument.addField(fieldName, fieldValue);
+                        break;
                     }
-                }
-                else if (action.equals("remOne"))
-                {
-                    // Remove the field
-                    java.util.Collection<Object> values = solrDocument
-                            .getFieldValues(fieldName);
-                    solrDocument.removeFields(fieldName);
-                    for (Object value : values)
+                    cursorMark = next;
+                    if (checkpoint != null)
                     {
-                        // Keep all the values besides the one we need to remove
-                        if (!fieldValues.contains((value)))
-                        {
-                            solrDocument.addField(fieldName, value);
-                        }
+                        checkpoint.put(key, cursorMark);
                     }
                 }
+                server.commit();
+                if (checkpoint != null)
+                {
+                    checkpoint.put(key, Checkpoint.DONE);
+                }
+                updated += count;
+            }
+            finally
+            {
+                if (server != main)
+                {
+                    server.shutdown();
+                }
             }
-            SolrInputDocument newInput = ClientUtils
-                    .toSolrInputDocument(solrDocument);
-            getSolr().add(newInput);
         }
-        getSolr().commit();
-        // System.out.println("SolrLogger.update(\""+query+"\"):"+(new
-        // Date().getTime() - start)+"ms,"+numbFound+"records");
+        return updated;
+    }
+
+    /**
+     * @return the server of each statistics core, the yearly shards and the
+     *      main one, which holds the current year.
+     */
+    private List<HttpSolrServer> getCoreServers()
+    {
+        HttpSolrServer main = getSolr();
+        String scheme = main.getBaseURL().startsWith("https://") ? "https://" : "http://";
+        List<HttpSolrServer> servers = new ArrayList<HttpSolrServer>();
+        for (String core : statisticYearCores)
+        {
+            if (main.getBaseURL().equals(scheme + core))
+            {
+                servers.add(main);
+            }
+            else
+            {
+                servers.add(new HttpSolrServer(scheme + core));
+            }
+        }
+        if (servers.isEmpty())
+        {
+            servers.add(main);
+        }
+        return servers;
+    }
+
+    /**
+     * Progress of a maintenance task, saved in ${log.dir}/stats-util-NAME.checkpoint:
+     * the cursor mark reached by each query on each core.
+     */
+    private static class Checkpoint
+    {
+        static final String DONE = "done";
+
+        private final File file;
+
+        private final Properties cursors = new Properties();
+
+        Checkpoint(String name)
+        {
+            file = new File(ConfigurationManager.getProperty("log.dir"), "stats-util-" + name + ".checkpoint");
+            if (file.exists())
+            {
+                try (FileInputStream in = new FileInputStream(file))
+                {
+                    cursors.load(in);
+                    log.info("Resuming from " + file);
+                }
+                catch (IOException e)
+                {
+                    log.warn("Unable to read " + file + ", starting over", e);
+                }
+            }
+        }
+
+        String get(String key)
+        {
+            return cursors.getProperty(key);
+        }
+
+        void put(String key, String cursorMark)
+        {
+            cursors.setProperty(key, cursorMark);
+            try (FileOutputStream out = new FileOutputStream(file))
+            {
+                cursors.store(out, null);
+            }
+            catch (IOException e)
+            {
+                log.warn("Unable to write " + file, e);
+            }
+        }
+
+        void delete()
+        {
+            file.delete();
+        }
     }
 
     public QueryResponse query(String query, int max) throws SolrServerException
@@ -0,0 +1,608 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.time.DateFormatUtils;
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Utils;
+import org.dspace.statistics.util.DnsLookup;
+
+/**
+ * Bounded buffer of the usage events waiting to be stored in Solr. The
+ * requests only put their event in the buffer, never waiting: when the buffer
+ * is full the event is dropped and counted. A single thread drains the buffer
+ * and sends the events to Solr in batches.
+ * <p/>
+ * While Solr can't be reached the batches are appended to a spill file in
+ * "logger.spill-dir" (default ${log.dir}/usage-events), and Solr is tried
+ * again every "logger.retry-interval" seconds. Once Solr is back, the spill
+ * file is replayed between the batches of new events. The spill files left by
+ * other, stopped, instances are replayed too once they haven't been written
+ * for an hour.
+ * <p/>
+ * The counters are reported in the log every 15 minutes, and are available
+ * through {@link SolrLogger#getBuffer()}.
+ *
+ * @see SolrLogger
+ */
+public class UsageEventBuffer
+{
+    private static final Logger log = Logger.getLogger(UsageEventBuffer.class);
+
+    private static final String SPILL_SUFFIX = ".spill";
+
+    private static final String REPLAY_SUFFIX = ".replay";
+
+    /** age after which the spill file of another instance is replayed */
+    private static final long ORPHAN_AGE = 60 * 60 * 1000L;
+
+    /** interval between the reports of the counters in the log */
+    private static final long REPORT_INTERVAL = 15 * 60 * 1000L;
+
+    private final SolrLogger solrLogger;
+
+    private final BlockingQueue<Event> queue;
+
+    private final int batchSize;
+
+    private final long flushInterval;
+
+    private final long retryInterval;
+
+    private final long dnsWait;
+
+    private final File spillDir;
+
+    /** spill file of this instance */
+    private final File spillFile;
+
+    /** time of the next attempt to send to Solr, 0 while Solr is available */
+    private long retryAt = 0;
+
+    /** whether there may be spilled events to replay */
+    private boolean spilled = true;
+
+    /** time of the next look for the spill files of other instances */
+    private long nextOrphanCheck = 0;
+
+    private long nextReport = System.currentTimeMillis() + REPORT_INTERVAL;
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final AtomicLong sentCount = new AtomicLong();
+
+    private final AtomicLong spilledCount = new AtomicLong();
+
+    private final AtomicLong replayedCount = new AtomicLong();
+
+    private final Thread drainer;
+
+    /**
+     * @param solrLogger
+     *            the logger whose Solr server receives the events
+     * @param capacity
+     *            maximum number of events waiting to be sent
+     * @param dnsWait
+     *            milliseconds to wait for a reverse DNS lookup still in
+     *            progress
+     */
+    public UsageEventBuffer(SolrLogger solrLogger, int capacity, long dnsWait)
+    {
+        this.solrLogger = solrLogger;
+        this.queue = new ArrayBlockingQueue<Event>(capacity);
+        this.batchSize = Math.max(1, ConfigurationManager.getIntProperty(SolrLogger.CFG_USAGE_MODULE,
+                "logger.batch-size", 100));
+        this.flushInterval = ConfigurationManager.getLongProperty(SolrLogger.CFG_USAGE_MODULE,
+                "logger.flush-interval", 1000);
+        this.retryInterval = ConfigurationManager.getLongProperty(SolrLogger.CFG_USAGE_MODULE,
+                "logger.retry-interval", 60) * 1000;
+        this.dnsWait = dnsWait;
+
+        String dir = ConfigurationManager.getProperty(SolrLogger.CFG_USAGE_MODULE, "logger.spill-dir");
+        if (dir == null)
+        {
+            dir = ConfigurationManager.getProperty("log.dir") + File.separator + "usage-events";
+        }
+        this.spillDir = new File(dir);
+        this.spillFile = new File(spillDir, "usage-events-" + Utils.generateKey() + SPILL_SUFFIX);
+
+        drainer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                drain();
+            }
+        }, "solr-statistics-writer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Queue an event, without waiting.
+     *
+     * @param doc
+     *            the usage event
+     * @param resolveDns
+     *            whether to fill in the host name of the client, if its
+     *            lookup didn't complete yet
+     * @return false if the buffer is full and the event has been dropped
+     */
+    public boolean offer(SolrInputDocument doc, boolean resolveDns)
+    {
+        if (queue.offer(new Event(doc, resolveDns)))
+        {
+            return true;
+        }
+        long dropped = droppedCount.incrementAndGet();
+        if (dropped == 1 || dropped % 1000 == 0)
+        {
+            log.warn("Usage event buffer full, " + dropped + " events dropped so far");
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of events waiting to be sent
+     */
+    public int getQueueDepth()
+    {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of events dropped because the buffer was full, the
+     *         spill file couldn't be written or Solr rejected them
+     */
+    public long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return the number of events sent to Solr, replayed ones included
+     */
+    public long getSentCount()
+    {
+        return sentCount.get();
+    }
+
+    /**
+     * @return the number of events written to the spill file
+     */
+    public long getSpilledCount()
+    {
+        return spilledCount.get();
+    }
+
+    /**
+     * @return the number of spilled events sent to Solr
+     */
+    public long getReplayedCount()
+    {
+        return replayedCount.get();
+    }
+
+    private void drain()
+    {
+        List<Event> batch = new ArrayList<Event>(batchSize);
+        while (true)
+        {
+            try
+            {
+                Event first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                if (first != null)
+                {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    List<SolrInputDocument> docs = prepare(batch);
+                    batch.clear();
+                    if (!send(docs))
+                    {
+                        spill(docs);
+                    }
+                }
+                if (queue.size() < batchSize)
+                {
+                    replay();
+                }
+                if (System.currentTimeMillis() >= nextReport)
+                {
+                    nextReport = System.currentTimeMillis() + REPORT_INTERVAL;
+                    log.info("Usage events: " + getQueueDepth() + " queued, " + getSentCount() + " sent, "
+                            + getSpilledCount() + " spilled, " + getReplayedCount() + " replayed, "
+                            + getDroppedCount() + " dropped");
+                }
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            catch (RuntimeException e)
+            {
+                log.error("Usage events not stored: " + e.getMessage(), e);
+                batch.clear();
+            }
+        }
+    }
+
+    private List<SolrInputDocument> prepare(List<Event> batch)
+    {
+        List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(batch.size());
+        for (Event event : batch)
+        {
+            SolrInputDocument doc = event.doc;
+            if (event.resolveDns && doc.getFieldValue("dns") == null && doc.getFieldValue("ip") != null)
+            {
+                String dns = DnsLookup.reverseDnsCached(doc.getFieldValue("ip").toString(), dnsWait);
+                if (dns != null)
+                {
+                    doc.addField("dns", dns.toLowerCase());
+                }
+            }
+            docs.add(doc);
+        }
+        return docs;
+    }
+
+    /**
+     * Send the documents to Solr, unless it has recently failed. A batch
+     * rejected by Solr (a 4xx error, e.g. a malformed document) is sent again
+     * one document at a time, the rejected documents are logged and dropped:
+     * only an I/O error or a server error is taken as an outage.
+     *
+     * @param docs
+     *            the documents to send, left with the ones not sent if Solr
+     *            is unavailable
+     * @return true if the documents have been sent or dropped
+     */
+    private boolean send(List<SolrInputDocument> docs)
+    {
+        if (retryAt != 0 && System.currentTimeMillis() < retryAt)
+        {
+            return false;
+        }
+        HttpSolrServer server = solrLogger.getSolr();
+        if (server == null)
+        {
+            retryAt = System.currentTimeMillis() + retryInterval;
+            return false;
+        }
+        try
+        {
+            try
+            {
+                server.add(docs);
+                sentCount.addAndGet(docs.size());
+                docs.clear();
+            }
+            catch (SolrException e)
+            {
+                if (!isRejected(e))
+                {
+                    throw e;
+                }
+                for (Iterator<SolrInputDocument> it = docs.iterator(); it.hasNext();)
+                {
+                    SolrInputDocument doc = it.next();
+                    try
+                    {
+                        server.add(doc);
+                        sentCount.incrementAndGet();
+                    }
+                    catch (SolrException de)
+                    {
+                        if (!isRejected(de))
+                        {
+                            throw de;
+                        }
+                        droppedCount.incrementAndGet();
+                        log.error("Usage event rejected by the statistics core, dropped: " + doc, de);
+                    }
+                    it.remove();
+                }
+            }
+            if (retryAt != 0)
+            {
+                log.info("Statistics core available again");
+                retryAt = 0;
+            }
+            return true;
+        }
+        catch (Exception e)
+        {
+            if (retryAt == 0)
+            {
+                log.error("Statistics core unavailable, spilling the usage events to " + spillDir, e);
+            }
+            retryAt = System.currentTimeMillis() + retryInterval;
+            return false;
+        }
+    }
+
+    /**
+     * @return true if Solr rejected the request itself (4xx), as opposed to
+     *         failing to process it
+     */
+    private static boolean isRejected(SolrException e)
+    {
+        return e.code() >= 400 && e.code() < 500;
+    }
+
+    /**
+     * Append the documents to the spill file of this instance.
+     */
+    private void spill(List<SolrInputDocument> docs)
+    {
+        spillDir.mkdirs();
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile, true)));
+            for (SolrInputDocument doc : docs)
+            {
+                write(out, doc);
+            }
+            out.flush();
+            spilledCount.addAndGet(docs.size());
+            spilled = true;
+        }
+        catch (IOException e)
+        {
+            droppedCount.addAndGet(docs.size());
+            log.error("Unable to spill " + docs.size() + " usage events to " + spillFile, e);
+        }
+        finally
+        {
+            if (out != null)
+            {
+                try
+                {
+                    out.close();
+                }
+                catch (IOException e)
+                {
+                    log.error(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replay the spill files, as long as Solr accepts the events and no new
+     * events are waiting.
+     */
+    private void replay()
+    {
+        if (retryAt != 0 && System.currentTimeMillis() < retryAt)
+        {
+            return;
+        }
+        if (!spilled && !hasOrphans())
+        {
+            return;
+        }
+        final long orphanBefore = System.currentTimeMillis() - ORPHAN_AGE;
+        File[] files = spillDir.listFiles(new FileFilter()
+        {
+            @Override
+            public boolean accept(File file)
+            {
+                String name = file.getName();
+                return file.equals(spillFile) || name.endsWith(REPLAY_SUFFIX)
+                        || (name.endsWith(SPILL_SUFFIX) && file.lastModified() < orphanBefore);
+            }
+        });
+        if (files == null)
+        {
+            spilled = false;
+            return;
+        }
+        for (File file : files)
+        {
+            File claimed = file;
+            if (!file.getName().endsWith(REPLAY_SUFFIX))
+            {
+                // the rename makes sure only one instance replays the file
+                claimed = new File(spillDir, file.getName() + "." + Utils.generateKey() + REPLAY_SUFFIX);
+                if (!file.renameTo(claimed))
+                {
+                    continue;
+                }
+            }
+            else if (file.lastModified() >= orphanBefore)
+            {
+                // being replayed by another instance
+                continue;
+            }
+            if (!replay(claimed))
+            {
+                return;
+            }
+        }
+        spilled = false;
+    }
+
+    private boolean hasOrphans()
+    {
+        // look for the files of other instances once per retry interval only
+        long now = System.currentTimeMillis();
+        if (now < nextOrphanCheck)
+        {
+            return false;
+        }
+        nextOrphanCheck = now + retryInterval;
+        String[] names = spillDir.list();
+        return names != null && names.length > 0;
+    }
+
+    /**
+     * Send the events of a claimed spill file to Solr. If Solr fails, or new
+     * events arrive, the events not yet sent are written back to the spill
+     * file of this instance.
+     *
+     * @return true if the whole file has been replayed
+     */
+    private boolean replay(File file)
+    {
+        DataInputStream in = null;
+        boolean done = false;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(batchSize);
+            boolean more = true;
+            while (more)
+            {
+                docs.clear();
+                while (docs.size() < batchSize && (more = read(in, docs)))
+                {
+                    // read a batch
+                }
+                if (docs.isEmpty())
+                {
+                    break;
+                }
+                int size = docs.size();
+                if (queue.size() >= batchSize || !send(docs))
+                {
+                    // put back what's left, live events come first
+                    replayedCount.addAndGet(size - docs.size());
+                    spill(docs);
+                    docs.clear();
+                    while (read(in, docs))
+                    {
+                        if (docs.size() >= batchSize)
+                        {
+                            spill(docs);
+                            docs.clear();
+                        }
+                    }
+                    spill(docs);
+                    done = true;
+                    return false;
+                }
+                replayedCount.addAndGet(size);
+            }
+            done = true;
+            return true;
+        }
+        catch (IOException e)
+        {
+            log.error("Unable to replay the usage events of " + file, e);
+            return false;
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (IOException e)
+                {
+                    log.error(e.getMessage(), e);
+                }
+            }
+            // a file that couldn't be read is left for a later attempt
+            if (done)
+            {
+                file.delete();
+            }
+        }
+    }
+
+    private static void write(DataOutputStream out, SolrInputDocument doc) throws IOException
+    {
+        out.writeInt(doc.size());
+        for (SolrInputField field : doc)
+        {
+            out.writeUTF(field.getName());
+            out.writeInt(field.getValueCount());
+            for (Object value : field)
+            {
+                if (value instanceof Date)
+                {
+                    out.writeUTF(DateFormatUtils.formatUTC((Date) value, SolrLogger.DATE_FORMAT_8601));
+                }
+                else
+                {
+                    out.writeUTF(String.valueOf(value));
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the next document, if any. A document truncated by a crash while
+     * spilling is ignored.
+     *
+     * @return false at the end of the file
+     */
+    private static boolean read(DataInputStream in, List<SolrInputDocument> docs) throws IOException
+    {
+        try
+        {
+            SolrInputDocument doc = new SolrInputDocument();
+            int fields = in.readInt();
+            for (int i = 0; i < fields; i++)
+            {
+                String name = in.readUTF();
+                int values = in.readInt();
+                for (int j = 0; j < values; j++)
+                {
+                    doc.addField(name, in.readUTF());
+                }
+            }
+            docs.add(doc);
+            return true;
+        }
+        catch (EOFException e)
+        {
+            return false;
+        }
+    }
+
+    private static final class Event
+    {
+        private final SolrInputDocument doc;
+
+        private final boolean resolveDns;
+
+        Event(SolrInputDocument doc, boolean resolveDns)
+        {
+            this.doc = doc;
+            this.resolveDns = resolveDns;
+        }
+    }
+}
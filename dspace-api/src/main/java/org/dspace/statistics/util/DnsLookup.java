@@ -7,20 +7,115 @@
  */
 package org.dspace.statistics.util;
 
+import org.apache.log4j.Logger;
 import org.dspace.core.ConfigurationManager;
 import org.xbill.DNS.*;
 
 import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * XBill DNS resolver to retrieve hostnames for client IP addresses.
  * TODO: deal with IPv6 addresses.
+ * <p/>
+ * The reverse lookups made for the usage events go through
+ * {@link #reverseDnsCached(String, long)}: the outcome of each lookup, failures
+ * included, is kept for "resolver.cache.ttl" seconds (default 3600) in a cache
+ * of "resolver.cache.size" addresses (default 10000), and concurrent requests
+ * from the same address share the same lookup.
  * 
  * @author kevinvandevelde at atmire.com
  * @author ben at atmire.com
  */
 public class DnsLookup {
 
+    private static final Logger log = Logger.getLogger(DnsLookup.class);
+
+    /** resolver shared by all the lookups, reading the system configuration is expensive */
+    private static Resolver resolver;
+
+    /** pending and completed reverse lookups, by address */
+    private static final LookupCache<String, Future<String>> reverseCache = new LookupCache<String, Future<String>>(
+            ConfigurationManager.getIntProperty("usage-statistics", "resolver.cache.size", 10000),
+            ConfigurationManager.getLongProperty("usage-statistics", "resolver.cache.ttl", 3600) * 1000);
+
+    private static ExecutorService executor;
+
+    private static synchronized Resolver getResolver() throws IOException {
+        if (resolver == null) {
+            Resolver res = new ExtendedResolver();
+
+            // set the timeout, defaults to 200 milliseconds
+            int timeout = ConfigurationManager.getIntProperty("usage-statistics", "resolver.timeout", 200);
+            res.setTimeout(0, timeout);
+            resolver = res;
+        }
+        return resolver;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final AtomicInteger counter = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(
+                    ConfigurationManager.getIntProperty("usage-statistics", "resolver.threads", 4),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "dns-lookup-" + counter.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        return executor;
+    }
+
+    /**
+     * Resolve an IP address to a host name, reusing the outcome of a recent
+     * or pending lookup of the same address.
+     *
+     * @param hostIp dotted decimal IPv4 address.
+     * @param maxWait milliseconds to wait for a lookup in progress.
+     * @return name if resolved, the address if it has no name, or null if the
+     *         lookup failed or didn't complete within maxWait.
+     */
+    public static String reverseDnsCached(final String hostIp, long maxWait) {
+        Future<String> lookup = reverseCache.get(hostIp);
+        if (lookup == null) {
+            FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return reverseDns(hostIp);
+                }
+            });
+            lookup = reverseCache.putIfAbsent(hostIp, task);
+            if (lookup == task) {
+                getExecutor().execute(task);
+            }
+        }
+
+        try {
+            return lookup.get(maxWait, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (ExecutionException e) {
+            log.debug("Failed DNS Lookup for IP:" + hostIp, e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
     /**
      * Resolve an IP address to a host name.
      *
@@ -29,11 +124,7 @@ public class DnsLookup {
      * @throws IOException from infrastructure.
      */
     public static String reverseDns(String hostIp) throws IOException {
-         Resolver res = new ExtendedResolver();
-         
-         // set the timeout, defaults to 200 milliseconds
-         int timeout = ConfigurationManager.getIntProperty("usage-statistics", "resolver.timeout", 200);
-         res.setTimeout(0, timeout);
+         Resolver res = getResolver();
 
          Name name = ReverseMap.fromAddress(hostIp);
          int type = Type.PTR;
@@ -60,10 +151,7 @@ public class DnsLookup {
     public static String forward(String hostname)
             throws IOException
     {
-        Resolver res = new ExtendedResolver();
-        int timeout = ConfigurationManager.getIntProperty("usage-statistics",
-                "resolver.timeout", 200);
-        res.setTimeout(0, timeout);
+        Resolver res = getResolver();
 
         Name name = Name.fromString(hostname, Name.root);
         Record rec = Record.newRecord(name, Type.A, DClass.IN);
@@ -0,0 +1,110 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small thread safe cache for the outcome of the lookups made for each usage
+ * event (reverse DNS, spider verdicts). It holds at most <code>maxSize</code>
+ * entries, dropping the least recently used ones, and each entry expires
+ * <code>ttl</code> milliseconds after it was stored.
+ *
+ * @param <K> the looked up value, e.g. an IP address
+ * @param <V> the outcome of the lookup
+ */
+public class LookupCache<K, V>
+{
+    private final long ttl;
+
+    private final Map<K, Entry<V>> entries;
+
+    /**
+     * @param maxSize maximum number of entries, 0 disables the cache
+     * @param ttl milliseconds an entry is valid for, 0 for no expiry
+     */
+    public LookupCache(final int maxSize, long ttl)
+    {
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest)
+            {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the cached value, or <code>null</code> if absent or expired
+     */
+    public synchronized V get(K key)
+    {
+        Entry<V> entry = entries.get(key);
+        if (entry == null)
+        {
+            return null;
+        }
+        if (ttl > 0 && System.currentTimeMillis() - entry.created > ttl)
+        {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public synchronized void put(K key, V value)
+    {
+        entries.put(key, new Entry<V>(value));
+    }
+
+    /**
+     * Store the value unless a valid one is already cached.
+     *
+     * @return the value in the cache after the call
+     */
+    public synchronized V putIfAbsent(K key, V value)
+    {
+        V current = get(key);
+        if (current != null)
+        {
+            return current;
+        }
+        put(key, value);
+        return value;
+    }
+
+    public synchronized void remove(K key)
+    {
+        entries.remove(key);
+    }
+
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    private static final class Entry<V>
+    {
+        private final V value;
+
+        private final long created = System.currentTimeMillis();
+
+        Entry(V value)
+        {
+            this.value = value;
+        }
+    }
+}
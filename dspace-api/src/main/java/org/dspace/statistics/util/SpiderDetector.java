@@ -15,8 +15,8 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.Collections;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import javax.servlet.http.HttpServletRequest;
 import org.dspace.core.ConfigurationManager;
 import org.slf4j.Logger;
@@ -30,6 +30,11 @@ import org.slf4j.LoggerFactory;
  * @author kevinvandevelde at atmire.com
  * @author ben at atmire.com
  * @author Mark Diggory (mdiggory at atmire.com)
+ * <p/>
+ * The agent and domain patterns are combined in a single regular expression
+ * each, and the verdicts are cached by agent and by host name (see
+ * "spider.cache.size" in usage-statistics.cfg), as the same few clients make
+ * most of the requests.
  */
 public class SpiderDetector {
 
@@ -42,11 +47,20 @@ public class SpiderDetector {
      */
     private static IPTable table = null;
 
-    /** Collection of regular expressions to match known spiders' agents. */
-    private static List<Pattern> agents = Collections.synchronizedList(new ArrayList<Pattern>());
+    /** Regular expressions to match known spiders' agents, loaded on first use. */
+    private static volatile PatternSet agents;
 
-    /** Collection of regular expressions to match known spiders' domain names. */
-    private static List<Pattern> domains = Collections.synchronizedList(new ArrayList<Pattern>());
+    /** Regular expressions to match known spiders' domain names, loaded on first use. */
+    private static volatile PatternSet domains;
+
+    private static final int CACHE_SIZE = ConfigurationManager.getIntProperty("usage-statistics",
+            "spider.cache.size", 10000);
+
+    /** verdicts of the agent patterns, by agent */
+    private static final LookupCache<String, Boolean> agentVerdicts = new LookupCache<String, Boolean>(CACHE_SIZE, 0);
+
+    /** verdicts of the domain patterns, by host name */
+    private static final LookupCache<String, Boolean> domainVerdicts = new LookupCache<String, Boolean>(CACHE_SIZE, 0);
 
     /**
      * Utility method which reads lines from a file & returns them in a Set.
@@ -148,11 +162,11 @@ public class SpiderDetector {
      * @param directory simple directory name (e.g. "agents").
      *      "${dspace.dir}/config/spiders" will be prepended to yield the path to
      *      the directory of pattern files.
-     * @param patternList patterns read from the files in {@code directory} will
-     *      be added to this List.
+     * @return the patterns read from the files in {@code directory}.
      */
-    private static void loadPatterns(String directory, List<Pattern> patternList)
+    private static PatternSet loadPatterns(String directory)
     {
+        List<String> patternList = new ArrayList<String>();
         String dspaceHome = ConfigurationManager.getProperty("dspace.dir");
         File spidersDir = new File(dspaceHome, "config/spiders");
         File patternsDir = new File(spidersDir, directory);
@@ -170,10 +184,7 @@ public class SpiderDetector {
                             file.getPath(), ex.getMessage());
                     continue;
                 }
-                for (String pattern : patterns)
-                {
-                    patternList.add(Pattern.compile(pattern));
-                }
+                patternList.addAll(patterns);
                 log.info("Loaded pattern file:  {}", file.getPath());
             }
         }
@@ -181,6 +192,56 @@ public class SpiderDetector {
         {
             log.info("No patterns loaded from {}", patternsDir.getPath());
         }
+        return new PatternSet(patternList);
+    }
+
+    private static PatternSet getAgents()
+    {
+        PatternSet patterns = agents;
+        if (patterns == null)
+        {
+            synchronized (SpiderDetector.class)
+            {
+                if (agents == null)
+                {
+                    agents = loadPatterns("agents");
+                }
+                patterns = agents;
+            }
+        }
+        return patterns;
+    }
+
+    private static PatternSet getDomains()
+    {
+        PatternSet patterns = domains;
+        if (patterns == null)
+        {
+            synchronized (SpiderDetector.class)
+            {
+                if (domains == null)
+                {
+                    domains = loadPatterns("domains");
+                }
+                patterns = domains;
+            }
+        }
+        return patterns;
+    }
+
+    /**
+     * @return true if any of the patterns finds a match in the value, the
+     *      verdict being cached by value
+     */
+    private static boolean matches(PatternSet patterns, LookupCache<String, Boolean> verdicts, String value)
+    {
+        Boolean verdict = verdicts.get(value);
+        if (verdict == null)
+        {
+            verdict = Boolean.valueOf(patterns.find(value));
+            verdicts.put(value, verdict);
+        }
+        return verdict.booleanValue();
     }
 
     /**
@@ -199,21 +260,9 @@ public class SpiderDetector {
             String hostname, String agent)
     {
         // See if any agent patterns match
-        if (null != agent)
-        {   
-            synchronized(agents)
-            {
-                if (agents.isEmpty())
-                    loadPatterns("agents", agents);
-            }
-            for (Pattern candidate : agents)
-            {
-                // prevent matcher() invocation from a null Pattern object
-                if (null != candidate && candidate.matcher(agent).find())
-                {
-                    return true;
-                }
-            }
+        if (null != agent && matches(getAgents(), agentVerdicts, agent))
+        {
+            return true;
         }
 
         // No.  See if any IP addresses match
@@ -231,21 +280,9 @@ public class SpiderDetector {
             return true;
 
         // No.  See if any DNS names match
-        if (null != hostname)
+        if (null != hostname && matches(getDomains(), domainVerdicts, hostname))
         {
-            synchronized(domains) 
-            {
-                if (domains.isEmpty())
-                    loadPatterns("domains", domains);
-            }
-            for (Pattern candidate : domains)
-            {
-                // prevent matcher() invocation from a null Pattern object
-                if (null != candidate && candidate.matcher(hostname).find())
-                {
-                    return true;
-                }
-            }
+            return true;
         }
 
         // Not a known spider.
@@ -306,4 +343,87 @@ public class SpiderDetector {
         return useProxies;
     }
 
+    /**
+     * A set of patterns, tested at once through their alternation. The
+     * patterns that can't be combined, e.g. those with back references whose
+     * group numbers would shift, are tested one by one.
+     */
+    private static final class PatternSet
+    {
+        private final Pattern combined;
+
+        private final List<Pattern> separate = new ArrayList<Pattern>();
+
+        PatternSet(List<String> patterns)
+        {
+            StringBuilder alternation = new StringBuilder();
+            for (String pattern : patterns)
+            {
+                Pattern compiled;
+                try
+                {
+                    compiled = Pattern.compile(pattern);
+                }
+                catch (PatternSyntaxException e)
+                {
+                    log.error("Invalid spider pattern {}:  {}", pattern, e.getMessage());
+                    continue;
+                }
+                if (pattern.matches(".*\\\\([1-9]|k<).*"))
+                {
+                    separate.add(compiled);
+                    continue;
+                }
+                if (alternation.length() > 0)
+                {
+                    alternation.append('|');
+                }
+                alternation.append("(?:").append(pattern).append(')');
+            }
+
+            Pattern all = null;
+            if (alternation.length() > 0)
+            {
+                try
+                {
+                    all = Pattern.compile(alternation.toString());
+                }
+                catch (PatternSyntaxException e)
+                {
+                    // e.g. an unbalanced group in a pattern, that was valid on its own
+                    log.warn("Spider patterns not combined:  {}", e.getMessage());
+                    separate.clear();
+                    for (String pattern : patterns)
+                    {
+                        try
+                        {
+                            separate.add(Pattern.compile(pattern));
+                        }
+                        catch (PatternSyntaxException ex)
+                        {
+                            // already logged
+                        }
+                    }
+                }
+            }
+            combined = all;
+        }
+
+        boolean find(String value)
+        {
+            if (combined != null && combined.matcher(value).find())
+            {
+                return true;
+            }
+            for (Pattern pattern : separate)
+            {
+                if (pattern.matcher(value).find())
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
 }
@@ -31,6 +31,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import javax.naming.InitialContext;
@@ -97,6 +98,12 @@ public class DatabaseManager
      */
     private static Map<String, Map<String, ColumnInfo>> info = new HashMap<String, Map<String, ColumnInfo>>();
 
+    /**
+     * The column layout shared by the rows of each table, by canonicalized
+     * table name.
+     */
+    private static Map<String, TableRowLayout> layouts = new ConcurrentHashMap<String, TableRowLayout>();
+
     /**
      * Protected Constructor to prevent instantiation except by derived classes.
      */
@@ -546,7 +553,7 @@ public class DatabaseManager
 
     {
         try {
-            TableRow row = new TableRow(canonicalize(table), getColumnNames(context,table));
+            TableRow row = new TableRow(canonicalize(table), getLayout(context, table));
             insert(context, row);
             return row;
         } catch (SQLException e) {
@@ -764,11 +771,11 @@ public class DatabaseManager
      */
     public static TableRow row(Context context, String table) throws SQLException
     {
-        return new TableRow(canonicalize(table), getColumnNames(context, table));
+        return new TableRow(canonicalize(table), getLayout(context, table));
     }
     public static TableRow row(String table) throws SQLException
     {
-        return new TableRow(canonicalize(table), getColumnNames(table));
+        return new TableRow(canonicalize(table), getLayout(null, table));
     }
 
     /**
@@ -876,6 +883,139 @@ public class DatabaseManager
         return delete(context, row.getTable(), row.getIntColumn(pk));
     }
 
+    /**
+     * Insert several rows of the same table with a single JDBC batch. The
+     * primary keys are assigned by the database from the table sequence and
+     * are NOT set back in the rows, use {@link #insert(Context, TableRow)}
+     * when the new ids are needed.
+     *
+     * @param context
+     *            Current DSpace context
+     * @param table
+     *            The table of the rows
+     * @param rows
+     *            The rows to insert
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static void insertBatch(Context context, String table, List<TableRow> rows) throws SQLException
+    {
+        if (rows.isEmpty())
+        {
+            return;
+        }
+        table = canonicalize(table);
+
+        Collection<ColumnInfo> info = getColumnInfo(context, table);
+        Collection<ColumnInfo> params = new ArrayList<ColumnInfo>();
+        StringBuilder insertBuilder = new StringBuilder("INSERT INTO ").append(table).append(" ( ");
+        StringBuilder valuesBuilder = new StringBuilder(") VALUES ( ");
+        boolean firstColumn = true;
+        boolean foundPrimaryKey = false;
+        for (ColumnInfo col : info)
+        {
+            if (!firstColumn)
+            {
+                insertBuilder.append(",");
+                valuesBuilder.append(",");
+            }
+            firstColumn = false;
+            insertBuilder.append(col.getName());
+
+            if (!foundPrimaryKey && col.isPrimaryKey())
+            {
+                if (isOracle)
+                {
+                    valuesBuilder.append(table).append("_seq.nextval");
+                }
+                else
+                {
+                    valuesBuilder.append("getnextid('").append(table).append("')");
+                }
+                foundPrimaryKey = true;
+            }
+            else
+            {
+                valuesBuilder.append('?');
+                params.add(col);
+            }
+        }
+        String sql = insertBuilder.append(valuesBuilder).append(")").toString();
+
+        context.setAutoCommit(false);
+        PreparedStatement statement = null;
+        try
+        {
+            statement = context.getDBConnection().prepareStatement(sql);
+            for (TableRow row : rows)
+            {
+                loadParameters(statement, params, row);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        catch (SQLException e)
+        {
+            log.error("SQL insertBatch Error - ", e);
+            throw e;
+        }
+        finally
+        {
+            if (statement != null)
+            {
+                try { statement.close(); } catch (SQLException sqle) { }
+            }
+        }
+    }
+
+    /**
+     * Delete several rows of the same table, by primary key, with a single
+     * JDBC batch.
+     *
+     * @param context
+     *            Current DSpace context
+     * @param table
+     *            The table of the rows
+     * @param ids
+     *            The primary keys of the rows to delete
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static void deleteBatch(Context context, String table, List<Integer> ids) throws SQLException
+    {
+        if (ids.isEmpty())
+        {
+            return;
+        }
+        table = canonicalize(table);
+        String sql = "DELETE FROM " + table + " WHERE " + getPrimaryKeyColumn(context, table) + " = ?";
+
+        context.setAutoCommit(false);
+        PreparedStatement statement = null;
+        try
+        {
+            statement = context.getDBConnection().prepareStatement(sql);
+            for (Integer id : ids)
+            {
+                statement.setInt(1, id);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        catch (SQLException e)
+        {
+            log.error("SQL deleteBatch Error - ", e);
+            throw e;
+        }
+        finally
+        {
+            if (statement != null)
+            {
+                try { statement.close(); } catch (SQLException sqle) { }
+            }
+        }
+    }
+
     /**
      * Return metadata about a table.
      *
@@ -938,6 +1078,27 @@ public class DatabaseManager
         return results;
     }
 
+    /**
+     * Return the column layout of the given table, shared by all its rows.
+     *
+     * @param table
+     *            The name of the table
+     * @return The columns of the table
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    static TableRowLayout getLayout(Context context, String table) throws SQLException
+    {
+        String ctable = canonicalize(table);
+        TableRowLayout layout = layouts.get(ctable);
+        if (layout == null)
+        {
+            layout = new TableRowLayout(getColumnNames(context, ctable));
+            layouts.put(ctable, layout);
+        }
+        return layout;
+    }
+
     /**
      * Return the names of all the columns of the ResultSet.
      *
@@ -1027,120 +1188,204 @@ public class DatabaseManager
      */
     static TableRow process(Context context, ResultSet results, String table, List<String> pColumnNames) throws SQLException
     {
-        ResultSetMetaData meta = results.getMetaData();
-        int columns = meta.getColumnCount() + 1;
+        return getRowReader(context, results.getMetaData(), table, pColumnNames).read(results);
+    }
 
+    /**
+     * Prepare the conversion of the rows of a ResultSet into TableRow
+     * objects. The reader resolves the columns once, so it should be reused
+     * for all the rows of the same ResultSet.
+     *
+     * @param meta
+     *            The metadata of the ResultSet
+     * @param table
+     *            The name of the table
+     * @param pColumnNames
+     *            The name of the columns in this resultset, null to use the
+     *            ones of the table or of the resultset
+     * @return A reader of the rows of the ResultSet
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    static RowReader getRowReader(Context context, ResultSetMetaData meta, String table, List<String> pColumnNames)
+            throws SQLException
+    {
         // If we haven't been passed the column names try to generate them from the metadata / table
-        List<String> columnNames = pColumnNames != null ? pColumnNames :
-                ((table == null) ? getColumnNames(meta) : getColumnNames(context,table));
+        TableRowLayout layout;
+        if (pColumnNames != null)
+        {
+            layout = new TableRowLayout(pColumnNames);
+        }
+        else if (table == null)
+        {
+            layout = new TableRowLayout(getColumnNames(meta));
+        }
+        else
+        {
+            layout = getLayout(context, table);
+        }
+        return new RowReader(canonicalize(table), layout, meta);
+    }
 
-        TableRow row = new TableRow(canonicalize(table), columnNames);
+    /**
+     * Converts the rows of a ResultSet into TableRow objects sharing the same
+     * layout. The position in the layout and the JDBC type of each column of
+     * the ResultSet are resolved once, when the reader is created.
+     */
+    static final class RowReader
+    {
+        private final String table;
+
+        private final TableRowLayout layout;
+
+        /** position in the layout of each column of the resultset */
+        private final int[] positions;
+
+        /** JDBC type of each column of the resultset */
+        private final int[] types;
+
+        /** name of each column of the resultset, for the error messages */
+        private final String[] names;
+
+        RowReader(String table, TableRowLayout layout, ResultSetMetaData meta) throws SQLException
+        {
+            this.table = table;
+            this.layout = layout;
+            int columns = meta.getColumnCount();
+            positions = new int[columns];
+            types = new int[columns];
+            names = new String[columns];
+            for (int i = 0; i < columns; i++)
+            {
+                names[i] = meta.getColumnName(i + 1);
+                types[i] = meta.getColumnType(i + 1);
+                positions[i] = layout.indexOf(names[i]);
+                if (positions[i] < 0)
+                {
+                    throw new IllegalArgumentException("No such column '" + ColumnInfo.canonicalize(names[i]) + "'");
+                }
+            }
+        }
 
-        // Process the columns in order
-        // (This ensures maximum backwards compatibility with
-        // old JDBC drivers)
-        for (int i = 1; i < columns; i++)
+        /**
+         * Convert the current row in the ResultSet into a TableRow object.
+         *
+         * @param results
+         *            The ResultSet this reader was created for
+         * @return A TableRow object with the data from the ResultSet
+         * @exception SQLException
+         *                If a database error occurs
+         */
+        TableRow read(ResultSet results) throws SQLException
         {
-            String name = meta.getColumnName(i);
-            int jdbctype = meta.getColumnType(i);
+            TableRow row = new TableRow(table, layout);
 
-            switch (jdbctype)
+            // Process the columns in order
+            // (This ensures maximum backwards compatibility with
+            // old JDBC drivers)
+            for (int c = 0; c < positions.length; c++)
             {
-                case Types.BOOLEAN:
-                case Types.BIT:
-                    row.setColumn(name, results.getBoolean(i));
-                    break;
+                int i = c + 1;
+                int jdbctype = types[c];
+                Object value = null;
 
-                case Types.INTEGER:
-                    if (isOracle)
-                    {
-                        long longValue = results.getLong(i);
-                        if (longValue <= (long)Integer.MAX_VALUE)
+                switch (jdbctype)
+                {
+                    case Types.BOOLEAN:
+                    case Types.BIT:
+                        value = TableRow.booleanValue(results.getBoolean(i));
+                        break;
+
+                    case Types.INTEGER:
+                        if (isOracle)
                         {
-                            row.setColumn(name, (int) longValue);
+                            long longValue = results.getLong(i);
+                            if (longValue <= (long)Integer.MAX_VALUE)
+                            {
+                                value = Integer.valueOf((int) longValue);
+                            }
+                            else
+                            {
+                                value = Long.valueOf(longValue);
+                            }
                         }
                         else
                         {
-                            row.setColumn(name, longValue);
+                            value = Integer.valueOf(results.getInt(i));
                         }
-                    }
-                    else
-                    {
-                        row.setColumn(name, results.getInt(i));
-                    }
-                    break;
-
-                case Types.BIGINT:
-                    row.setColumn(name, results.getLong(i));
-                    break;
-
-                case Types.NUMERIC:
-                case Types.DECIMAL:
-                    row.setColumn(name, results.getBigDecimal(i));
-                    break;
-
-                case Types.DOUBLE:
-                    row.setColumn(name, results.getDouble(i));
-                    break;
-
-                case Types.CLOB:
-                    if (isOracle)
-                    {
-                        row.setColumn(name, results.getString(i));
-                    }
-                    else
-                    {
-                        throw new IllegalArgumentException("Unsupported JDBC type: " + jdbctype);
-                    }
-                    break;
+                        break;
 
-                case Types.VARCHAR:
-                    try
-                    {
-                        byte[] bytes = results.getBytes(i);
+                    case Types.BIGINT:
+                        value = Long.valueOf(results.getLong(i));
+                        break;
 
-                        if (bytes != null)
+                    case Types.NUMERIC:
+                    case Types.DECIMAL:
+                        value = results.getBigDecimal(i);
+                        break;
+
+                    case Types.DOUBLE:
+                        value = Double.valueOf(results.getDouble(i));
+                        break;
+
+                    case Types.CLOB:
+                        if (isOracle)
                         {
-                            String mystring = new String(results.getBytes(i), "UTF-8");
-                            row.setColumn(name, mystring);
+                            value = results.getString(i);
                         }
                         else
                         {
-                            row.setColumn(name, results.getString(i));
+                            throw new IllegalArgumentException("Unsupported JDBC type: " + jdbctype);
+                        }
+                        break;
+
+                    case Types.VARCHAR:
+                        if (DBMS_H2.equals(dbms_keyword))
+                        {
+                            // H2 returns the bytes as hexadecimal, the string is
+                            // already decoded
+                            value = results.getString(i);
+                            break;
                         }
-                    }
-                    catch (UnsupportedEncodingException e)
-                    {
-                        log.error("Unable to parse text from database", e);
-                    }
-                    break;
+                        try
+                        {
+                            byte[] bytes = results.getBytes(i);
 
-                case Types.DATE:
-                    row.setColumn(name, results.getDate(i));
-                    break;
+                            if (bytes != null)
+                            {
+                                value = new String(bytes, "UTF-8");
+                            }
+                        }
+                        catch (UnsupportedEncodingException e)
+                        {
+                            log.error("Unable to parse text from database", e);
+                        }
+                        break;
 
-                case Types.TIME:
-                    row.setColumn(name, results.getTime(i));
-                    break;
+                    case Types.DATE:
+                        value = results.getDate(i);
+                        break;
 
-                case Types.TIMESTAMP:
-                    row.setColumn(name, results.getTimestamp(i));
-                    break;
+                    case Types.TIME:
+                        value = results.getTime(i);
+                        break;
 
-                default:
-                    throw new IllegalArgumentException("Unsupported JDBC type: " + jdbctype + " for column " + name);
-            }
+                    case Types.TIMESTAMP:
+                        value = results.getTimestamp(i);
+                        break;
 
-            // Determines if the last column was null, and sets the tablerow accordingly
-            if (results.wasNull())
-            {
-                row.setColumnNull(name);
+                    default:
+                        throw new IllegalArgumentException("Unsupported JDBC type: " + jdbctype + " for column " + names[c]);
+                }
+
+                // Determines if the last column was null, and sets the tablerow accordingly
+                row.load(positions[c], results.wasNull() ? null : value);
             }
-        }
 
-        // Now that we've prepped the TableRow, reset the flags so that we can detect which columns have changed
-        row.resetChanged();
-        return row;
+            // The row has just been read, no column has changed
+            row.resetChanged();
+            return row;
+        }
     }
 
     /**
@@ -8,13 +8,18 @@
 package org.dspace.storage.rdbms;
 
 import java.math.BigDecimal;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Represents a database row.
+ * <p/>
+ * The column names are held by a {@link TableRowLayout} shared by all the
+ * rows of the same table or query, the row itself only holds an array of
+ * values and the flags of the changed columns. The accessors taking the
+ * position of the column, see {@link #getColumnIndex(String)}, avoid any
+ * lookup of the name when many rows are read.
  * 
  * @author Peter Breton
  * @version $Revision$
@@ -27,14 +32,18 @@ public class TableRow
     /** The name of the database table containing this row */
     private String table;
 
+    /** The columns of this row */
+    private final TableRowLayout layout;
+
     /**
-     * A map of column names to column values. The key of the map is a String,
-     * the column name; the value is an Object, either an Integer, Boolean,
-     * Date, or String. If the value is NULL_OBJECT, then the column was NULL.
+     * The column values, by position in the layout. Each value is an Object,
+     * either an Integer, Boolean, Date, or String. If the value is
+     * NULL_OBJECT, then the column was NULL.
      */
-    private Map<String, Object> data = new HashMap<String, Object>();
+    private final Object[] values;
 
-    private Map<String, Boolean> changed = new HashMap<String, Boolean>();
+    /** The columns changed since the row was read, by position */
+    private final BitSet changed;
 
     /**
      * Constructor
@@ -49,14 +58,25 @@ public class TableRow
      */
     public TableRow(String table, List<String> columns)
     {
-        this.table = table;
+        this(table, new TableRowLayout(columns));
+    }
 
-        for (String column : columns)
-        {
-            String canonicalized = ColumnInfo.canonicalize(column);
-            data.put(canonicalized, NULL_OBJECT);
-            changed.put(canonicalized, Boolean.TRUE);
-        }
+    /**
+     * Constructor for rows sharing an existing layout.
+     *
+     * @param table
+     *            The name of the database table containing this row.
+     * @param layout
+     *            The columns of the row.
+     */
+    TableRow(String table, TableRowLayout layout)
+    {
+        this.table = table;
+        this.layout = layout;
+        this.values = new Object[layout.size()];
+        Arrays.fill(values, NULL_OBJECT);
+        this.changed = new BitSet(values.length);
+        changed.set(0, values.length);
     }
 
     /**
@@ -83,14 +103,29 @@ public class TableRow
      */
     public boolean hasColumn(String column)
     {
-        try
-        {
-            return canonicalizeAndCheck(column) != null;
-        }
-        catch (IllegalArgumentException e)
+        return layout.indexOf(column) >= 0;
+    }
+
+    /**
+     * Return the position of a column, to be used with the accessors taking
+     * a column index when the same column is read from many rows of a
+     * query. The position is only valid for the rows of the same table or
+     * of the same TableRowIterator.
+     *
+     * If the column does not exist, an IllegalArgumentException is thrown.
+     *
+     * @param column
+     *            The column name (case-insensitive)
+     * @return The position of the column in this row
+     */
+    public int getColumnIndex(String column)
+    {
+        int index = layout.indexOf(column);
+        if (index < 0)
         {
-            return false;
+            throw new IllegalArgumentException("No such column '" + ColumnInfo.canonicalize(column) + "'");
         }
+        return index;
     }
 
     /**
@@ -102,12 +137,13 @@ public class TableRow
      */
     public boolean hasColumnChanged(String column)
     {
-        return hasColumnChangedCanonicalized(ColumnInfo.canonicalize(column));
+        int index = layout.indexOf(column);
+        return index >= 0 && changed.get(index);
     }
 
     boolean hasColumnChangedCanonicalized(String column)
     {
-        return changed.get(column) == Boolean.TRUE;
+        return hasColumnChanged(column);
     }
 
     /**
@@ -119,12 +155,25 @@ public class TableRow
      */
     public boolean isColumnNull(String column)
     {
-        return isColumnNullCanonicalized(canonicalizeAndCheck(column));
+        return isColumnNull(getColumnIndex(column));
+    }
+
+    /**
+     * Return true if the column at the given position is an SQL NULL.
+     *
+     * @param index
+     *            The position of the column, see {@link #getColumnIndex(String)}
+     * @return True if the column is an SQL NULL
+     */
+    public boolean isColumnNull(int index)
+    {
+        return values[index] == NULL_OBJECT;
     }
 
     boolean isColumnNullCanonicalized(String column)
     {
-        return data.get(column) == NULL_OBJECT;
+        int index = layout.indexOf(column);
+        return index >= 0 && values[index] == NULL_OBJECT;
     }
 
     /**
@@ -140,17 +189,24 @@ public class TableRow
      */
     public int getIntColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
-        {
-            return -1;
-        }
-
-        Object value = data.get(canonicalized);
+        return getIntColumn(getColumnIndex(column));
+    }
 
-        if (value == null)
+    /**
+     * Return the integer value of the column at the given position.
+     *
+     * @param index
+     *            The position of the column, see {@link #getColumnIndex(String)}
+     * @return The integer value of the column, or -1 if the column is an SQL
+     *         null.
+     * @see #getIntColumn(String)
+     */
+    public int getIntColumn(int index)
+    {
+        Object value = values[index];
+        if (value == NULL_OBJECT)
         {
-            throw new IllegalArgumentException("Column " + column + " not present");
+            return -1;
         }
 
         if (value instanceof Integer)
@@ -161,7 +217,7 @@ public class TableRow
         {
             long longValue = (Long)value;
             if ((longValue > Integer.MAX_VALUE) || longValue < Integer.MIN_VALUE)
-                throw new IllegalArgumentException("Value for " + column + " does not fit in an Integer");
+                throw new IllegalArgumentException("Value for " + layout.getName(index) + " does not fit in an Integer");
             else
             {
                 return (int)longValue;
@@ -173,7 +229,7 @@ public class TableRow
         }
         else
         {
-            throw new IllegalArgumentException("Value for " + column + " is not an integer");
+            throw new IllegalArgumentException("Value for " + layout.getName(index) + " is not an integer");
         }
     }
 
@@ -189,17 +245,23 @@ public class TableRow
      */
     public long getLongColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
-        {
-            return -1;
-        }
-
-        Object value = data.get(canonicalized);
+        return getLongColumn(getColumnIndex(column));
+    }
 
-        if (value == null)
+    /**
+     * Return the long value of the column at the given position.
+     *
+     * @param index
+     *            The position of the column, see {@link #getColumnIndex(String)}
+     * @return The long value of the column, or -1 if the column is an SQL null.
+     * @see #getLongColumn(String)
+     */
+    public long getLongColumn(int index)
+    {
+        Object value = values[index];
+        if (value == NULL_OBJECT)
         {
-            throw new IllegalArgumentException("Column " + column + " not present");
+            return -1;
         }
 
         // If the value is an integer, it can be represented without error as a long
@@ -218,7 +280,7 @@ public class TableRow
         }
         else
         {
-            throw new IllegalArgumentException("Value for " + column + " is not a long");
+            throw new IllegalArgumentException("Value for " + layout.getName(index) + " is not a long");
         }
     }
 
@@ -233,15 +295,10 @@ public class TableRow
      */
     public BigDecimal getNumericColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
+        Object value = values[getColumnIndex(column)];
+        if (value == NULL_OBJECT)
             return BigDecimal.valueOf(-1);
 
-        Object value = data.get(canonicalized);
-
-        if (value == null)
-            throw new IllegalArgumentException("Column " + column + " not present");
-
         if (value instanceof Integer)
             return new BigDecimal((Integer)value);
         else if (value instanceof Long)
@@ -266,22 +323,28 @@ public class TableRow
      */
     public double getDoubleColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
+        return getDoubleColumn(getColumnIndex(column));
+    }
+
+    /**
+     * Return the double value of the column at the given position.
+     *
+     * @param index
+     *            The position of the column, see {@link #getColumnIndex(String)}
+     * @return The double value of the column, or -1 if the column is an SQL null.
+     * @see #getDoubleColumn(String)
+     */
+    public double getDoubleColumn(int index)
+    {
+        Object value = values[index];
+        if (value == NULL_OBJECT)
         {
             return -1;
         }
 
-        Object value = data.get(canonicalized);
-
-        if (value == null)
-        {
-            throw new IllegalArgumentException("Column " + column + " not present");
-        }
-        
         if (!(value instanceof Double))
         {
-            throw new IllegalArgumentException("Value for " + column + " is not a double");
+            throw new IllegalArgumentException("Value for " + layout.getName(index) + " is not a double");
         }
 
         return ((Double) value).doubleValue();
@@ -300,17 +363,24 @@ public class TableRow
      */
     public String getStringColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
-        {
-            return null;
-        }
-
-        Object value = data.get(canonicalized);
+        return getStringColumn(getColumnIndex(column));
+    }
 
-        if (value == null)
+    /**
+     * Return the String value of the column at the given position.
+     *
+     * @param index
+     *            The position of the column, see {@link #getColumnIndex(String)}
+     * @return The String value of the column, or null if the column is an SQL
+     *         null.
+     * @see #getStringColumn(String)
+     */
+    public String getStringColumn(int index)
+    {
+        Object value = values[index];
+        if (value == NULL_OBJECT)
         {
-            throw new IllegalArgumentException("Column " + column + " not present");
+            return null;
         }
 
         if (!(value instanceof String))
@@ -334,20 +404,27 @@ public class TableRow
      */
     public boolean getBooleanColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
+        return getBooleanColumn(getColumnIndex(column));
+    }
+
+    /**
+     * Return the boolean value of the column at the given position.
+     *
+     * @param index
+     *            The position of the column, see {@link #getColumnIndex(String)}
+     * @return The boolean value of the column, or false if the column is an SQL
+     *         null.
+     * @see #getBooleanColumn(String)
+     */
+    public boolean getBooleanColumn(int index)
+    {
+        Object value = values[index];
+        if (value == NULL_OBJECT)
         {
             return false;
         }
 
-        Object value = data.get(canonicalized);
-
         // make sure that we tolerate integers or booleans
-        if (value == null)
-        {
-            throw new IllegalArgumentException("Column " + column + " not present");
-        }
-
         if ((value instanceof Boolean))
         {
             return ((Boolean) value).booleanValue();
@@ -390,17 +467,24 @@ public class TableRow
      */
     public java.util.Date getDateColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
-        {
-            return null;
-        }
-
-        Object value = data.get(canonicalized);
+        return getDateColumn(getColumnIndex(column));
+    }
 
-        if (value == null)
+    /**
+     * Return the date value of the column at the given position.
+     *
+     * @param index
+     *            The position of the column, see {@link #getColumnIndex(String)}
+     * @return - The date value of the column, or null if the column is an SQL
+     *         null.
+     * @see #getDateColumn(String)
+     */
+    public java.util.Date getDateColumn(int index)
+    {
+        Object value = values[index];
+        if (value == NULL_OBJECT)
         {
-            throw new IllegalArgumentException("Column " + column + " not present");
+            return null;
         }
 
         if (!(value instanceof java.util.Date))
@@ -421,11 +505,11 @@ public class TableRow
      */
     public void setColumnNull(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (data.get(canonicalized) != NULL_OBJECT)
+        int index = getColumnIndex(column);
+        if (values[index] != NULL_OBJECT)
         {
-            data.put(canonicalized, NULL_OBJECT);
-            changed.put(canonicalized, Boolean.TRUE);
+            values[index] = NULL_OBJECT;
+            changed.set(index);
         }
     }
     /**
@@ -440,27 +524,7 @@ public class TableRow
      */
     public void setColumn(String column, boolean b)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (DatabaseManager.isOracle())
-        {
-            // if oracle, use 1 or 0 for true/false
-            Integer value = b ? Integer.valueOf(1) : Integer.valueOf(0);
-            if (!value.equals(data.get(canonicalized)))
-            {
-                data.put(canonicalized, value);
-                changed.put(canonicalized, Boolean.TRUE);
-            }
-        }
-        else
-        {
-            // default to postgres true/false
-            Boolean value = b ? Boolean.TRUE : Boolean.FALSE;
-            if (!value.equals(data.get(canonicalized)))
-            {
-                data.put(canonicalized, value);
-                changed.put(canonicalized, Boolean.TRUE);
-            }
-        }
+        setValue(getColumnIndex(column), booleanValue(b));
     }
 
     /**
@@ -475,13 +539,7 @@ public class TableRow
      */
     public void setColumn(String column, String s)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        Object value = (s == null) ? NULL_OBJECT : s;
-        if (!value.equals(data.get(canonicalized)))
-        {
-            data.put(canonicalized, value);
-            changed.put(canonicalized, Boolean.TRUE);
-        }
+        setValue(getColumnIndex(column), (s == null) ? NULL_OBJECT : s);
     }
 
     /**
@@ -496,13 +554,7 @@ public class TableRow
      */
     public void setColumn(String column, int i)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        Integer value = Integer.valueOf(i);
-        if (!value.equals(data.get(canonicalized)))
-        {
-            data.put(canonicalized, value);
-            changed.put(canonicalized, Boolean.TRUE);
-        }
+        setValue(getColumnIndex(column), Integer.valueOf(i));
     }
 
     /**
@@ -517,13 +569,7 @@ public class TableRow
      */
     public void setColumn(String column, long l)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        Long value = Long.valueOf(l);
-        if (!value.equals(data.get(canonicalized)))
-        {
-            data.put(canonicalized, value);
-            changed.put(canonicalized, Boolean.TRUE);
-        }
+        setValue(getColumnIndex(column), Long.valueOf(l));
     }
 
     /**
@@ -537,13 +583,7 @@ public class TableRow
      */
     public void setColumn(String column, BigDecimal bd)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        Object value = (bd == null) ? NULL_OBJECT : bd;
-        if (!value.equals(data.get(canonicalized)))
-        {
-            data.put(canonicalized, bd);
-            changed.put(canonicalized, Boolean.TRUE);
-        }
+        setValue(getColumnIndex(column), (bd == null) ? NULL_OBJECT : bd);
     }
 
     /**
@@ -558,13 +598,7 @@ public class TableRow
      */
     public void setColumn(String column, double d)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        Double value = new Double(d);
-        if (!value.equals(data.get(canonicalized)))
-        {
-            data.put(canonicalized, value);
-            changed.put(canonicalized, Boolean.TRUE);
-        }
+        setValue(getColumnIndex(column), Double.valueOf(d));
     }
 
     /**
@@ -580,13 +614,7 @@ public class TableRow
      */
     public void setColumn(String column, java.util.Date d)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        Object value = (d == null) ? NULL_OBJECT : d;
-        if (!value.equals(data.get(canonicalized)))
-        {
-            data.put(canonicalized, value);
-            changed.put(canonicalized, Boolean.TRUE);
-        }
+        setValue(getColumnIndex(column), (d == null) ? NULL_OBJECT : d);
     }
 
     ////////////////////////////////////////
@@ -614,11 +642,10 @@ public class TableRow
     	
     	result.append(NEWLINE);
 
-        for (Iterator iterator = data.keySet().iterator(); iterator.hasNext();)
+        for (int i = 0; i < values.length; i++)
         {
-            String column = (String) iterator.next();
-            result.append("\t").append(column).append(" = ").append(
-                    isColumnNull(column) ? "NULL" : data.get(column)).append(
+            result.append("\t").append(layout.getName(i)).append(" = ").append(
+                    isColumnNull(i) ? "NULL" : values[i]).append(
                     NEWLINE);
         }
 
@@ -648,23 +675,24 @@ public class TableRow
             return false;
         }
 
-        return data.equals(((TableRow) obj).data);
-    }
-
-    private String canonicalizeAndCheck(String column)
-    {
-        if (data.containsKey(column))
+        TableRow other = (TableRow) obj;
+        if (other.layout == layout)
         {
-            return column;
+            return Arrays.equals(values, other.values);
         }
-
-        String canonicalized = ColumnInfo.canonicalize(column);
-        if (data.containsKey(canonicalized))
+        if (other.values.length != values.length)
         {
-            return canonicalized;
+            return false;
         }
-
-        throw new IllegalArgumentException("No such column '" + canonicalized + "'");
+        for (int i = 0; i < values.length; i++)
+        {
+            int index = other.layout.indexOf(layout.getName(i));
+            if (index < 0 || !values[i].equals(other.values[index]))
+            {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -676,34 +704,53 @@ public class TableRow
      */
     void resetChanged()
     {
-        for (String column : changed.keySet())
+        changed.clear();
+    }
+
+    /**
+     * package private method used by the database manager to fill a row just
+     * read from a resultset, the value is stored as is, without flagging the
+     * column as changed.
+     *
+     * @param index
+     *            The position of the column
+     * @param value
+     *            The value, null for an SQL NULL
+     */
+    void load(int index, Object value)
+    {
+        values[index] = (value == null) ? NULL_OBJECT : value;
+    }
+
+    /**
+     * package private method to convert a boolean the way the database
+     * stores it: 1 or 0 on Oracle, true or false elsewhere.
+     */
+    static Object booleanValue(boolean b)
+    {
+        if (DatabaseManager.isOracle())
         {
-            changed.put(column, Boolean.FALSE);
+            // if oracle, use 1 or 0 for true/false
+            return b ? Integer.valueOf(1) : Integer.valueOf(0);
         }
+        // default to postgres true/false
+        return b ? Boolean.TRUE : Boolean.FALSE;
     }
-    
+
     public byte[] getBinaryData(String column)
     {
-        if (!hasColumn(column))
+        int index = layout.indexOf(column);
+        if (index < 0)
         {
             throw new IllegalArgumentException("No such column " + column);
         }
 
-        String name = canonicalizeAndCheck(column);
-
-        if (isColumnNull(name))
+        Object value = values[index];
+        if (value == NULL_OBJECT)
         {
             return null;
         }
 
-        Object value = data.get(name);
-
-        if (value == null)
-        {
-            throw new IllegalArgumentException("Column " + column
-                    + " not present");
-        }
-
         if (!(value instanceof byte[]))
         {
             throw new IllegalArgumentException("Value is not a bytea");
@@ -714,17 +761,21 @@ public class TableRow
     
     public void setColumn(String column, byte[] bytea)
     {
-        if (!hasColumn(column))
+        int index = layout.indexOf(column);
+        if (index < 0)
         {
             throw new IllegalArgumentException("No such column " + column);
         }
 
-        String canonName = canonicalizeAndCheck(column);
-        Object value = (bytea == null) ? NULL_OBJECT : bytea;
-        if (!value.equals(data.get(canonName)))
+        setValue(index, (bytea == null) ? NULL_OBJECT : bytea);
+    }
+
+    private void setValue(int index, Object value)
+    {
+        if (!value.equals(values[index]))
         {
-            data.put(canonName, value);
-            changed.put(canonName, Boolean.TRUE);
+            values[index] = value;
+            changed.set(index);
         }
     }
 }
@@ -56,6 +56,12 @@ public class TableRowIterator
      */
     List<String> columnNames = null;
 
+    /**
+     * Converts the rows of the results, resolved on the first row and
+     * shared by all of them
+     */
+    private DatabaseManager.RowReader reader = null;
+
     /**
      * Constructor
      * 
@@ -88,9 +94,10 @@ public class TableRowIterator
         this.table = table;
         if (columnNames == null)
         {
+            // the rows of a table share the layout of the table, see DatabaseManager.getLayout
             try
             {
-                this.columnNames = (table == null) ? DatabaseManager.getColumnNames(results.getMetaData()) : DatabaseManager.getColumnNames(table);
+                this.columnNames = (table == null) ? DatabaseManager.getColumnNames(results.getMetaData()) : null;
             }
             catch (SQLException e)
             {
@@ -151,7 +158,7 @@ public class TableRowIterator
 
         hasAdvanced = false;
 
-        return DatabaseManager.process(results, table, columnNames);
+        return getReader(null).read(results);
     }
 
     /**
@@ -177,7 +184,16 @@ public class TableRowIterator
 
         hasAdvanced = false;
 
-        return DatabaseManager.process(context, results, table, columnNames);
+        return getReader(context).read(results);
+    }
+
+    private DatabaseManager.RowReader getReader(Context context) throws SQLException
+    {
+        if (reader == null)
+        {
+            reader = DatabaseManager.getRowReader(context, results.getMetaData(), table, columnNames);
+        }
+        return reader;
     }
 
     /**
@@ -273,5 +289,6 @@ public class TableRowIterator
         }
 
         columnNames = null;
+        reader = null;
     }
 }
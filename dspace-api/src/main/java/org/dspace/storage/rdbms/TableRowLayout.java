@@ -0,0 +1,89 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.rdbms;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The columns of a {@link TableRow}: their canonicalized names, in order, and
+ * the position of each of them. A layout is immutable and shared by all the
+ * rows of a table (see {@link DatabaseManager#getLayout}) or of a query (see
+ * {@link TableRowIterator}), so that the rows only hold their values.
+ */
+final class TableRowLayout
+{
+    /** canonicalized column names, by position */
+    private final String[] names;
+
+    /**
+     * position of the columns, by canonicalized name and by the name they
+     * were given with, so that the lookup usually doesn't need to
+     * canonicalize
+     */
+    private final Map<String, Integer> positions;
+
+    TableRowLayout(List<String> columns)
+    {
+        Map<String, Integer> map = new HashMap<String, Integer>(columns.size() * 4);
+        String[] canonicalized = new String[columns.size()];
+        int count = 0;
+        for (String column : columns)
+        {
+            String name = ColumnInfo.canonicalize(column);
+            Integer position = map.get(name);
+            if (position == null)
+            {
+                // duplicate columns (e.g. SELECT a.id, b.id) share a position
+                position = Integer.valueOf(count);
+                canonicalized[count++] = name;
+                map.put(name, position);
+            }
+            if (!map.containsKey(column))
+            {
+                map.put(column, position);
+            }
+        }
+        names = new String[count];
+        System.arraycopy(canonicalized, 0, names, 0, count);
+        positions = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * @return the number of columns
+     */
+    int size()
+    {
+        return names.length;
+    }
+
+    /**
+     * @return the canonicalized name of the column at the given position
+     */
+    String getName(int position)
+    {
+        return names[position];
+    }
+
+    /**
+     * @param column
+     *            the column name (case-insensitive)
+     * @return the position of the column, or -1 if there is no such column
+     */
+    int indexOf(String column)
+    {
+        Integer position = positions.get(column);
+        if (position == null)
+        {
+            position = positions.get(ColumnInfo.canonicalize(column));
+        }
+        return (position == null) ? -1 : position.intValue();
+    }
+}
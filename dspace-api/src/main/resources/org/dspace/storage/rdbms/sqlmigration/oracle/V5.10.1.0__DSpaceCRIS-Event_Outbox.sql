@@ -0,0 +1,39 @@
+--
+-- The contents of this file are subject to the license and copyright
+-- detailed in the LICENSE and NOTICE files at the root of the source
+-- tree and available online at
+--
+-- http://www.dspace.org/license/
+--
+
+------------------------------------------------------
+-- Outbox of the events delivered asynchronously to the consumers
+-- (see org.dspace.event.OutboxDispatcher)
+------------------------------------------------------
+
+CREATE SEQUENCE event_outbox_seq;
+
+CREATE TABLE event_outbox
+(
+  event_outbox_id INTEGER PRIMARY KEY,
+  consumer VARCHAR2(64) NOT NULL,
+  event_type INTEGER NOT NULL,
+  subject_type INTEGER NOT NULL,
+  subject_id INTEGER NOT NULL,
+  object_type INTEGER,
+  object_id INTEGER,
+  detail CLOB,
+  identifiers CLOB,
+  eperson_id INTEGER,
+  transaction_id VARCHAR2(64),
+  created TIMESTAMP,
+  attempts INTEGER NOT NULL,
+  next_attempt TIMESTAMP NOT NULL,
+  claimed_by VARCHAR2(64),
+  claimed_until TIMESTAMP,
+  last_error CLOB
+);
+
+CREATE INDEX event_outbox_next_attempt_idx ON event_outbox(next_attempt);
+CREATE INDEX event_outbox_claimed_by_idx ON event_outbox(claimed_by);
+CREATE INDEX event_outbox_subject_idx ON event_outbox(consumer, subject_type, subject_id);
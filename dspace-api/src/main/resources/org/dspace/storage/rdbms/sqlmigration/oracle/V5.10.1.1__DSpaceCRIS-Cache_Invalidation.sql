@@ -0,0 +1,24 @@
+--
+-- The contents of this file are subject to the license and copyright
+-- detailed in the LICENSE and NOTICE files at the root of the source
+-- tree and available online at
+--
+-- http://www.dspace.org/license/
+--
+
+------------------------------------------------------
+-- Invalidations of the CRIS ApplicationService cache published to the
+-- other nodes (see org.dspace.app.cris.service.JdbcCacheInvalidationBus)
+------------------------------------------------------
+
+CREATE SEQUENCE cris_cache_invalidation_seq;
+
+CREATE TABLE cris_cache_invalidation
+(
+  cris_cache_invalidation_id INTEGER PRIMARY KEY,
+  uuid VARCHAR2(255),
+  node VARCHAR2(255) NOT NULL,
+  created TIMESTAMP NOT NULL
+);
+
+CREATE INDEX cris_cache_inval_created_idx ON cris_cache_invalidation(created);
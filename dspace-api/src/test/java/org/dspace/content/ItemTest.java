@@ -17,6 +17,7 @@ import org.apache.commons.lang.time.DateUtils;
 import org.dspace.authorize.AuthorizeException;
 import org.apache.log4j.Logger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -117,6 +118,37 @@ public class ItemTest  extends AbstractDSpaceObjectTest
         assertThat("testItemFind 2", found.getName(), nullValue());
     }
 
+    /**
+     * Test of prefetch method, of class Item.
+     */
+    @Test
+    public void testPrefetch() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        it.addMetadata("dc", "title", null, null, "prefetched");
+        it.addMetadata("dc", "subject", null, null, new String[] {"one", "two"});
+        it.update();
+        File f = new File(testProps.get("test.bitstream").toString());
+        it.createSingleBitstream(new FileInputStream(f), "prefetched bundle");
+        AuthorizeManager.addPolicy(context, it, Constants.READ, Group.find(context, 0));
+        context.restoreAuthSystemState();
+        context.commit();
+        context.clearCache();
+
+        int id = it.getID();
+        Item[] found = Item.prefetch(context, new int[] {id, -1}, PrefetchSpec.ALL);
+        assertThat("testPrefetch 0", found.length, equalTo(2));
+        assertThat("testPrefetch 1", found[0].getID(), equalTo(id));
+        assertThat("testPrefetch 2", found[1], nullValue());
+        assertThat("testPrefetch 3", found[0].getName(), equalTo("prefetched"));
+        assertThat("testPrefetch 4", found[0].getMetadata("dc", "subject", null, Item.ANY).length, equalTo(2));
+        assertThat("testPrefetch 5", found[0].getHandle(), equalTo(it.getHandle()));
+        assertThat("testPrefetch 6", found[0].getBundles("prefetched bundle").length, equalTo(1));
+        assertThat("testPrefetch 7", found[0].getBundles("prefetched bundle")[0].getBitstreams().length, equalTo(1));
+        assertThat("testPrefetch 8", AuthorizeManager.getPolicies(context, found[0]).size(),
+                equalTo(AuthorizeManager.getPolicies(context, it).size()));
+    }
+
     /**
      * Test of create method, of class Item.
      */
@@ -149,6 +181,26 @@ public class ItemTest  extends AbstractDSpaceObjectTest
         assertTrue("testFindAll 1",added);
     }
 
+    /**
+     * Test of findItemIDsUnfiltered method, of class Item.
+     */
+    @Test
+    public void testFindItemIDsUnfiltered() throws Exception
+    {
+        List<Integer> page = Item.findItemIDsUnfiltered(context, it.getID() - 1, 0, 1);
+        assertThat("testFindItemIDsUnfiltered 0", page, equalTo(Arrays.asList(it.getID())));
+
+        page = Item.findItemIDsUnfiltered(context, it.getID(), 0, 10);
+        assertTrue("testFindItemIDsUnfiltered 1", page.isEmpty());
+
+        page = Item.findItemIDsUnfiltered(context, null, 0, 10);
+        assertFalse("testFindItemIDsUnfiltered 2", page.isEmpty());
+        for (int i = 1; i < page.size(); i++)
+        {
+            assertTrue("testFindItemIDsUnfiltered 3", page.get(i) > page.get(i - 1));
+        }
+    }
+
     /**
      * Test of findBySubmitter method, of class Item.
      */
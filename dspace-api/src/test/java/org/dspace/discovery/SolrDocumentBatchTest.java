@@ -0,0 +1,115 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SolrDocumentBatchTest
+{
+    /**
+     * Rejects the add requests holding a document with the given id, with
+     * the given error code.
+     */
+    private static class RejectingSolrServer extends SolrServer
+    {
+        private final String badID;
+
+        private final SolrException.ErrorCode code;
+
+        private final List<String> added = new ArrayList<String>();
+
+        private int requests = 0;
+
+        RejectingSolrServer(String badID, SolrException.ErrorCode code)
+        {
+            this.badID = badID;
+            this.code = code;
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request) throws SolrServerException
+        {
+            requests++;
+            List<String> ids = new ArrayList<String>();
+            for (SolrInputDocument doc : ((UpdateRequest) request).getDocuments())
+            {
+                ids.add((String) doc.getFieldValue("search.uniqueid"));
+            }
+            if (ids.contains(badID))
+            {
+                throw new SolrException(code, "bad document");
+            }
+            added.addAll(ids);
+            return new NamedList<Object>();
+        }
+
+        @Override
+        public void shutdown()
+        {
+        }
+    }
+
+    private static SolrInputDocument doc(String id)
+    {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("search.uniqueid", id);
+        return doc;
+    }
+
+    @Test
+    public void testRejectedDocument() throws Exception
+    {
+        RejectingSolrServer solr = new RejectingSolrServer("2-2", SolrException.ErrorCode.BAD_REQUEST);
+        SolrDocumentBatch batch = new SolrDocumentBatch(solr, 3, 0, new Semaphore(1));
+        batch.add(doc("2-1"));
+        batch.add(doc("2-2"));
+        batch.add(doc("2-3"));
+
+        // the good documents of the batch are sent one at a time
+        assertEquals(0, batch.size());
+        assertEquals("[2-1, 2-3]", solr.added.toString());
+        assertEquals(4, solr.requests);
+        assertEquals(2, batch.getSentDocuments());
+        assertEquals(1, batch.getFailedDocuments());
+    }
+
+    @Test
+    public void testServerError() throws Exception
+    {
+        RejectingSolrServer solr = new RejectingSolrServer("2-2", SolrException.ErrorCode.SERVER_ERROR);
+        Semaphore inflight = new Semaphore(1);
+        SolrDocumentBatch batch = new SolrDocumentBatch(solr, 3, 0, inflight);
+        batch.add(doc("2-1"));
+        batch.add(doc("2-2"));
+        try
+        {
+            batch.add(doc("2-3"));
+            fail("A server error should be thrown");
+        }
+        catch (SolrException e)
+        {
+            assertEquals(500, e.code());
+        }
+        assertEquals(1, solr.requests);
+        assertEquals(0, batch.size());
+        assertEquals(1, inflight.availablePermits());
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SolrDocumentCursorTest
+{
+    /**
+     * Pages over the ids 0..size-1, the cursor mark being the next id.
+     */
+    private static class PagingSolrServer extends SolrServer
+    {
+        private final int size;
+
+        private final List<SolrParams> queries = new ArrayList<SolrParams>();
+
+        PagingSolrServer(int size)
+        {
+            this.size = size;
+        }
+
+        @Override
+        public QueryResponse query(SolrParams params) throws SolrServerException
+        {
+            queries.add(params);
+            String mark = params.get(CursorMarkParams.CURSOR_MARK_PARAM);
+            int from = CursorMarkParams.CURSOR_MARK_START.equals(mark) ? 0 : Integer.parseInt(mark);
+            int to = Math.min(size, from + params.getInt(CommonParams.ROWS));
+            SolrDocumentList page = new SolrDocumentList();
+            page.setNumFound(size);
+            for (int id = from; id < to; id++)
+            {
+                SolrDocument document = new SolrDocument();
+                document.setField("id", id);
+                page.add(document);
+            }
+            NamedList<Object> response = new NamedList<Object>();
+            response.add("response", page);
+            response.add(CursorMarkParams.CURSOR_MARK_NEXT, String.valueOf(to));
+            return new QueryResponse(response, this);
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request) throws SolrServerException, IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void shutdown()
+        {
+        }
+    }
+
+    @Test
+    public void testIterate() throws Exception
+    {
+        PagingSolrServer solr = new PagingSolrServer(25);
+        SolrQuery query = new SolrQuery("*:*");
+        query.setRows(Integer.MAX_VALUE);
+        SolrDocumentCursor cursor = new SolrDocumentCursor(solr, query, "id", 10);
+        assertEquals(25, cursor.getNumFound());
+        int expected = 0;
+        while (cursor.hasNext())
+        {
+            assertEquals(expected++, cursor.next().getFieldValue("id"));
+        }
+        assertEquals(25, expected);
+        // three pages and the empty one closing the cursor
+        assertEquals(4, solr.queries.size());
+        assertEquals(10, solr.queries.get(0).getInt(CommonParams.ROWS).intValue());
+        assertEquals("id asc", solr.queries.get(0).get(CommonParams.SORT));
+        // the query of the caller is not modified
+        assertEquals(Integer.MAX_VALUE, query.getRows().intValue());
+    }
+
+    @Test
+    public void testSortTieBreaker() throws Exception
+    {
+        PagingSolrServer solr = new PagingSolrServer(0);
+        SolrQuery query = new SolrQuery("*:*");
+        query.addSort("title", SolrQuery.ORDER.desc);
+        new SolrDocumentCursor(solr, query, "id", 10).hasNext();
+        assertEquals("title desc,id asc", solr.queries.get(0).get(CommonParams.SORT));
+
+        query = new SolrQuery("*:*");
+        query.addSort("id", SolrQuery.ORDER.desc);
+        new SolrDocumentCursor(solr, query, "id", 10).hasNext();
+        assertEquals("id desc", solr.queries.get(1).get(CommonParams.SORT));
+    }
+
+    @Test
+    public void testProcess() throws Exception
+    {
+        SolrDocumentCursor cursor = new SolrDocumentCursor(new PagingSolrServer(1005), new SolrQuery(
+                "*:*"), "id", 10);
+        final List<Integer> ids = Collections.synchronizedList(new ArrayList<Integer>());
+        long count = cursor.process(new SolrDocumentCursor.Handler()
+        {
+            @Override
+            public void handle(SolrDocument document)
+            {
+                ids.add((Integer) document.getFieldValue("id"));
+            }
+        }, 4);
+        assertEquals(1005, count);
+        Collections.sort(ids);
+        for (int id = 0; id < ids.size(); id++)
+        {
+            assertEquals(id, ids.get(id).intValue());
+        }
+        assertEquals(1005, ids.size());
+    }
+
+    @Test(expected = SearchServiceException.class)
+    public void testProcessFailure() throws Exception
+    {
+        SolrDocumentCursor cursor = new SolrDocumentCursor(new PagingSolrServer(100), new SolrQuery(
+                "*:*"), "id", 10);
+        cursor.process(new SolrDocumentCursor.Handler()
+        {
+            @Override
+            public void handle(SolrDocument document) throws Exception
+            {
+                if (((Integer) document.getFieldValue("id")) == 42)
+                {
+                    throw new IllegalArgumentException("42");
+                }
+            }
+        }, 3);
+    }
+}
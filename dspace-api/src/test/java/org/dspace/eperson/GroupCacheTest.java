@@ -0,0 +1,159 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.eperson;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The incremental update of group2groupcache, as done by
+ * Group.updateGroupCache, against a full rebuild of the closure of
+ * group2group.
+ */
+public class GroupCacheTest
+{
+    private final Map<Integer, Set<Integer>> group2group = new HashMap<Integer, Set<Integer>>();
+
+    /** group2groupcache, kept up to date incrementally */
+    private final Map<Integer, Set<Integer>> cache = new HashMap<Integer, Set<Integer>>();
+
+    private void addMember(int parent, int child)
+    {
+        Set<Integer> children = group2group.get(parent);
+        if (children == null)
+        {
+            children = new HashSet<Integer>();
+            group2group.put(parent, children);
+        }
+        children.add(child);
+        update(parent);
+    }
+
+    private void removeMember(int parent, int child)
+    {
+        group2group.get(parent).remove(child);
+        update(parent);
+    }
+
+    /**
+     * Recompute the rows of the group and of its ancestors in the cache,
+     * reading the group2group rows of these groups only and the cache rows
+     * of their other members.
+     */
+    private void update(int group)
+    {
+        Set<Integer> affected = new HashSet<Integer>();
+        affected.add(group);
+        for (Map.Entry<Integer, Set<Integer>> entry : cache.entrySet())
+        {
+            if (entry.getValue().contains(group))
+            {
+                affected.add(entry.getKey());
+            }
+        }
+
+        Map<Integer, Set<Integer>> edges = new HashMap<Integer, Set<Integer>>();
+        Map<Integer, Set<Integer>> descendants = new HashMap<Integer, Set<Integer>>();
+        for (Integer parent : affected)
+        {
+            if (group2group.containsKey(parent))
+            {
+                edges.put(parent, group2group.get(parent));
+                for (Integer child : group2group.get(parent))
+                {
+                    if (!affected.contains(child) && cache.containsKey(child))
+                    {
+                        descendants.put(child, cache.get(child));
+                    }
+                }
+            }
+        }
+
+        for (Integer parent : affected)
+        {
+            Set<Integer> children = Group.getDescendants(edges, descendants, parent);
+            if (children.isEmpty())
+            {
+                cache.remove(parent);
+            }
+            else
+            {
+                cache.put(parent, children);
+            }
+        }
+    }
+
+    private void assertRebuilt()
+    {
+        Map<Integer, Set<Integer>> rebuilt = new HashMap<Integer, Set<Integer>>();
+        for (Integer parent : group2group.keySet())
+        {
+            Set<Integer> children = Group.getDescendants(group2group, parent);
+            if (!children.isEmpty())
+            {
+                rebuilt.put(parent, children);
+            }
+        }
+        assertEquals(rebuilt, cache);
+    }
+
+    @Test
+    public void testNestedCycles()
+    {
+        // 1 > 2 > 3 > 1 and 3 > 4 > 5 > 3, 6 > 1
+        addMember(1, 2);
+        addMember(2, 3);
+        addMember(6, 1);
+        addMember(3, 1);
+        assertRebuilt();
+        addMember(3, 4);
+        addMember(4, 5);
+        addMember(5, 3);
+        assertRebuilt();
+        assertTrue(cache.get(6).contains(5));
+        assertTrue(cache.get(5).contains(5));
+
+        // break the outer cycle, then the inner one
+        removeMember(3, 1);
+        assertRebuilt();
+        assertFalse(cache.get(5).contains(1));
+        removeMember(4, 5);
+        assertRebuilt();
+        assertFalse(cache.get(3).contains(3));
+        removeMember(1, 2);
+        assertRebuilt();
+        assertEquals(1, cache.get(6).size());
+    }
+
+    @Test
+    public void testRandomChanges()
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++)
+        {
+            int parent = random.nextInt(20);
+            int child = random.nextInt(20);
+            if (group2group.containsKey(parent) && group2group.get(parent).contains(child))
+            {
+                removeMember(parent, child);
+            }
+            else
+            {
+                addMember(parent, child);
+            }
+            assertRebuilt();
+        }
+    }
+}
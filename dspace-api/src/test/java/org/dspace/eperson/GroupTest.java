@@ -0,0 +1,141 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.eperson;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.dspace.AbstractUnitTest;
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The group2groupcache rows written by Group.update and Group.delete,
+ * against a full rebuild of the closure of group2group.
+ */
+public class GroupTest extends AbstractUnitTest
+{
+    private Group[] createGroups(int count) throws SQLException, AuthorizeException
+    {
+        Group[] groups = new Group[count];
+        for (int i = 0; i < count; i++)
+        {
+            groups[i] = Group.create(context);
+        }
+        return groups;
+    }
+
+    private void addMember(Group parent, Group child) throws SQLException, AuthorizeException
+    {
+        parent.addMember(child);
+        parent.update();
+    }
+
+    private void removeMember(Group parent, Group child) throws SQLException, AuthorizeException
+    {
+        parent.removeMember(child);
+        parent.update();
+    }
+
+    private void assertRebuilt() throws SQLException
+    {
+        Map<Integer, Set<Integer>> group2group = Group.loadGroup2Group(context);
+        Map<Integer, Set<Integer>> rebuilt = new HashMap<Integer, Set<Integer>>();
+        for (Integer parentID : group2group.keySet())
+        {
+            Set<Integer> children = Group.getDescendants(group2group, parentID);
+            if (!children.isEmpty())
+            {
+                rebuilt.put(parentID, children);
+            }
+        }
+
+        Map<Integer, Set<Integer>> cached = new HashMap<Integer, Set<Integer>>();
+        TableRowIterator tri = DatabaseManager.queryTable(context, "group2groupcache",
+                "SELECT * FROM group2groupcache");
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                Integer parentID = Integer.valueOf(row.getIntColumn("parent_id"));
+                Set<Integer> children = cached.get(parentID);
+                if (children == null)
+                {
+                    children = new HashSet<Integer>();
+                    cached.put(parentID, children);
+                }
+                assertTrue("duplicate row " + parentID + " > " + row.getIntColumn("child_id"),
+                        children.add(Integer.valueOf(row.getIntColumn("child_id"))));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+        assertEquals(rebuilt, cached);
+    }
+
+    /**
+     * Test of update method, of class Group, adding and removing subgroups.
+     */
+    @Test
+    public void testUpdateGroupCache() throws SQLException, AuthorizeException
+    {
+        context.turnOffAuthorisationSystem(); //must be an Admin to create a Group
+        Group[] g = createGroups(5);
+        addMember(g[0], g[1]);
+        addMember(g[1], g[2]);
+        assertRebuilt();
+        addMember(g[3], g[0]);
+        addMember(g[2], g[4]);
+        assertRebuilt();
+        removeMember(g[1], g[2]);
+        assertRebuilt();
+        removeMember(g[3], g[0]);
+        assertRebuilt();
+        context.restoreAuthSystemState();
+    }
+
+    /**
+     * Test of update and delete methods, of class Group, with nested cycles.
+     */
+    @Test
+    public void testUpdateGroupCacheCycles() throws SQLException, AuthorizeException
+    {
+        context.turnOffAuthorisationSystem(); //must be an Admin to create a Group
+        Group[] g = createGroups(6);
+        // 0 > 1 > 2 > 0 and 2 > 3 > 4 > 2, 5 > 0
+        addMember(g[0], g[1]);
+        addMember(g[1], g[2]);
+        addMember(g[5], g[0]);
+        addMember(g[2], g[0]);
+        assertRebuilt();
+        addMember(g[2], g[3]);
+        addMember(g[3], g[4]);
+        addMember(g[4], g[2]);
+        assertRebuilt();
+
+        // break the outer cycle, then delete a group of the inner one
+        removeMember(g[2], g[0]);
+        assertRebuilt();
+        g[3].delete();
+        assertRebuilt();
+        removeMember(g[0], g[1]);
+        assertRebuilt();
+        context.restoreAuthSystemState();
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dspace.core.Constants;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EventOutboxProcessorTest
+{
+    private static Event event(int eventType, int itemID)
+    {
+        return new Event(eventType, Constants.COLLECTION, 1, Constants.ITEM, itemID, null);
+    }
+
+    @Test
+    public void testCoalesceKeepsLastOccurrence()
+    {
+        // three transactions: add the item, remove it, add it again
+        Event add = event(Event.ADD, 10);
+        Event remove = event(Event.REMOVE, 10);
+        Event addAgain = event(Event.ADD, 10);
+        List<Event> events = new ArrayList<Event>(EventOutboxProcessor.coalesce(Arrays.asList(add,
+                remove, addAgain)));
+        assertEquals(2, events.size());
+        assertEquals(Event.REMOVE, events.get(0).getEventType());
+        assertEquals(Event.ADD, events.get(1).getEventType());
+        assertSame(addAgain, events.get(1));
+    }
+
+    @Test
+    public void testCoalesceDistinctEvents()
+    {
+        Event first = event(Event.ADD, 10);
+        Event second = event(Event.ADD, 11);
+        Event third = event(Event.REMOVE, 12);
+        Event firstAgain = event(Event.ADD, 10);
+        List<Event> events = new ArrayList<Event>(EventOutboxProcessor.coalesce(Arrays.asList(first,
+                second, firstAgain, third)));
+        assertEquals(3, events.size());
+        assertSame(second, events.get(0));
+        assertSame(firstAgain, events.get(1));
+        assertSame(third, events.get(2));
+    }
+}
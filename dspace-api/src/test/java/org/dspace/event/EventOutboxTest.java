@@ -0,0 +1,106 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.event;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dspace.AbstractUnitTest;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The claims of the outbox workers, which must deliver the events of a
+ * subject in order.
+ */
+public class EventOutboxTest extends AbstractUnitTest
+{
+    private static final String CONSUMER = "test";
+
+    @After
+    public void deleteEvents() throws SQLException
+    {
+        Context c = new Context();
+        DatabaseManager.updateQuery(c, "DELETE FROM " + EventOutbox.TABLE);
+        c.complete();
+    }
+
+    private void enqueue(int itemID, String detail) throws SQLException
+    {
+        Context c = new Context();
+        EventOutbox.enqueue(c, CONSUMER, new Event(Event.MODIFY_METADATA, Constants.ITEM, itemID,
+                detail), null);
+        c.complete();
+    }
+
+    /**
+     * @return the details of the events claimed by the worker
+     */
+    private List<String> claim(String worker, int max) throws SQLException
+    {
+        Context c = new Context();
+        try
+        {
+            List<String> details = new ArrayList<String>();
+            for (TableRow row : EventOutbox.claim(c, worker, max, 60000, 10))
+            {
+                details.add(row.getStringColumn("detail"));
+            }
+            return details;
+        }
+        finally
+        {
+            c.abort();
+        }
+    }
+
+    @Test
+    public void testClaimInSubjectOrder() throws SQLException
+    {
+        enqueue(1, "1a");
+        enqueue(2, "2a");
+        enqueue(1, "1b");
+        enqueue(3, "3a");
+
+        assertEquals("[1a]", claim("A", 1).toString());
+        // 1b waits for 1a, claimed by A
+        assertEquals("[2a, 3a]", claim("B", 10).toString());
+        assertEquals("[]", claim("C", 10).toString());
+    }
+
+    @Test
+    public void testClaimAfterFailure() throws SQLException
+    {
+        enqueue(1, "1a");
+        enqueue(1, "1b");
+        enqueue(2, "2a");
+
+        // the events of a subject claimed together are delivered in order
+        assertEquals("[1a, 1b]", claim("A", 2).toString());
+        Context c = new Context();
+        EventOutbox.release(c, "A");
+        c.complete();
+
+        assertEquals("[1a]", claim("B", 1).toString());
+        c = new Context();
+        List<TableRow> rows = DatabaseManager.queryTable(c, EventOutbox.TABLE, "SELECT * FROM "
+                + EventOutbox.TABLE + " WHERE claimed_by = ?", "B").toList();
+        EventOutbox.fail(c, rows, "failed", 60000);
+        c.complete();
+
+        // 1b waits for the retry of 1a
+        assertEquals("[2a]", claim("C", 10).toString());
+    }
+}
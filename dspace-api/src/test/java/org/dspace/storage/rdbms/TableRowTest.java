@@ -10,6 +10,9 @@ package org.dspace.storage.rdbms;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -488,15 +491,84 @@ public class TableRowTest
     /**
      * Test of resetChanged method, of class TableRow.
      */
-/*
     @Test
     public void testResetChanged()
     {
         System.out.println("resetChanged");
-        TableRow instance = null;
+        List<String> columns = new ArrayList<>();
+        columns.add("item_id");
+        columns.add("Handle");
+        TableRow instance = new TableRow("row", columns);
+        assertTrue("New rows have all the columns changed", instance.hasColumnChanged("handle"));
         instance.resetChanged();
-        // TODO review the generated test code and remove the default call to fail.
-        fail("The test case is a prototype.");
+        assertFalse("Flags should be reset", instance.hasColumnChanged("handle"));
+        instance.setColumn("HANDLE", "123456789/1");
+        assertTrue("Column set should be changed", instance.hasColumnChanged("handle"));
+        assertFalse("Other columns should not be changed", instance.hasColumnChanged("item_id"));
+        instance.resetChanged();
+        instance.setColumn("handle", "123456789/1");
+        assertFalse("Same value should not change the column", instance.hasColumnChanged("handle"));
+    }
+
+    /**
+     * Test of getColumnIndex method and of the accessors by index, of class
+     * TableRow: they must return what the accessors by name return, whether
+     * the columns are null or set.
+     */
+    @Test
+    public void testGetColumnIndex()
+    {
+        List<String> columns = new ArrayList<>();
+        columns.add("item_id");
+        columns.add("Handle");
+        columns.add("in_archive");
+        columns.add("score");
+        columns.add("last_modified");
+        TableRow instance = new TableRow("row", columns);
+        int id = instance.getColumnIndex("ITEM_ID");
+        int handle = instance.getColumnIndex("handle");
+        int inArchive = instance.getColumnIndex("in_archive");
+        int score = instance.getColumnIndex("score");
+        int lastModified = instance.getColumnIndex("last_modified");
+        assertEquals("Each column should have its own index", 5, new HashSet<Integer>(
+                Arrays.asList(id, handle, inArchive, score, lastModified)).size());
+
+        assertAccessorsAgree(instance, id, handle, inArchive, score, lastModified);
+
+        instance.setColumn("item_id", 42);
+        instance.setColumn("handle", "123456789/42");
+        instance.setColumn("in_archive", true);
+        instance.setColumn("score", 0.5);
+        instance.setColumn("last_modified", new Date(1000));
+        assertAccessorsAgree(instance, id, handle, inArchive, score, lastModified);
+        assertEquals(42, instance.getIntColumn(id));
+        assertEquals("123456789/42", instance.getStringColumn(handle));
+
+        assertFalse(instance.hasColumn("owning_collection"));
+        try
+        {
+            instance.getColumnIndex("owning_collection");
+            fail("Unknown columns should be rejected");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    private static void assertAccessorsAgree(TableRow instance, int id, int handle, int inArchive,
+            int score, int lastModified)
+    {
+        for (String column : new String[] { "item_id", "handle", "in_archive", "score", "last_modified" })
+        {
+            assertEquals(column, instance.isColumnNull(column),
+                    instance.isColumnNull(instance.getColumnIndex(column)));
+        }
+        assertEquals(instance.getIntColumn("item_id"), instance.getIntColumn(id));
+        assertEquals(instance.getLongColumn("item_id"), instance.getLongColumn(id));
+        assertEquals(instance.getStringColumn("handle"), instance.getStringColumn(handle));
+        assertEquals(instance.getBooleanColumn("in_archive"), instance.getBooleanColumn(inArchive));
+        assertEquals(instance.getDoubleColumn("score"), instance.getDoubleColumn(score), 0);
+        assertEquals(instance.getDateColumn("last_modified"), instance.getDateColumn(lastModified));
     }
-*/
 }
@@ -0,0 +1,278 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.metrics.common.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dspace.app.cris.metrics.common.model.CrisMetrics;
+import org.dspace.app.cris.metrics.common.model.CrisMetricsValues;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+
+/**
+ * Writes new metrics with JDBC batches, on its own connection: a batch unsets
+ * the last flag of the previous metrics of the objects and inserts the new
+ * ones, then commits, instead of a Hibernate update and save for each metric.
+ * <p/>
+ * The last value of each object is read once per metric type. In incremental
+ * mode a metric equal to the last one of the object (and without remark) is
+ * not written again, the last metric stays the current one.
+ * <p/>
+ * Thread safe, the metrics can be written by several threads.
+ */
+public class CrisMetricsWriter
+{
+    private static final String UNSET_LAST = "update cris_metrics set last = false where resourcetypeid = ? and resourceid = ? and metrictype = ? and last = true";
+
+    private static final String INSERT = "insert into cris_metrics (id, timestampcreated, timestamplastmodified, startdate, enddate, metriccount, remark, metrictype, uuid, resourceid, resourcetypeid, last) values (%s, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final MetricsApplicationDao applicationDao;
+
+    private final Context context;
+
+    private final boolean incremental;
+
+    private final int batchSize;
+
+    /** the last value of the objects, by metric type */
+    private final Map<String, CrisMetricsValues> lastValues = new HashMap<String, CrisMetricsValues>();
+
+    /** the objects of the current batch, by metric type */
+    private final Map<String, CrisMetricsValues> batchKeys = new HashMap<String, CrisMetricsValues>();
+
+    private final List<CrisMetrics> inserts = new ArrayList<CrisMetrics>();
+
+    private final List<CrisMetrics> updates = new ArrayList<CrisMetrics>();
+
+    private long written;
+
+    private long skipped;
+
+    public CrisMetricsWriter(MetricsApplicationDao applicationDao,
+            boolean incremental, int batchSize) throws SQLException
+    {
+        this(applicationDao, new Context(), incremental, batchSize);
+    }
+
+    /**
+     * For the subclasses reading and writing the metrics elsewhere, see
+     * {@link #readLastValues(String)} and {@link #writeBatch(List, List)}.
+     */
+    protected CrisMetricsWriter(boolean incremental, int batchSize)
+    {
+        this(null, null, incremental, batchSize);
+    }
+
+    private CrisMetricsWriter(MetricsApplicationDao applicationDao,
+            Context context, boolean incremental, int batchSize)
+    {
+        this.applicationDao = applicationDao;
+        this.context = context;
+        this.incremental = incremental;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Write the metric (its resource type, resource id and metric type must
+     * be set), the batch is sent once full.
+     */
+    public synchronized void write(CrisMetrics metric) throws SQLException
+    {
+        int resourceTypeId = metric.getResourceTypeId();
+        int resourceId = metric.getResourceId();
+        CrisMetricsValues last = lastValues.get(metric.getMetricType());
+        if (last == null)
+        {
+            last = readLastValues(metric.getMetricType());
+            lastValues.put(metric.getMetricType(), last);
+        }
+        double previous = last.get(resourceTypeId, resourceId);
+        if (incremental && metric.getRemark() == null
+                && previous == metric.getMetricCount())
+        {
+            skipped++;
+            return;
+        }
+
+        CrisMetricsValues batch = batchKeys.get(metric.getMetricType());
+        if (batch == null)
+        {
+            batch = new CrisMetricsValues();
+            batchKeys.put(metric.getMetricType(), batch);
+        }
+        else if (batch.contains(resourceTypeId, resourceId))
+        {
+            // the previous one has to be inserted before it is unset
+            flush();
+        }
+        batch.put(resourceTypeId, resourceId, metric.getMetricCount());
+        if (last.contains(resourceTypeId, resourceId))
+        {
+            updates.add(metric);
+        }
+        last.put(resourceTypeId, resourceId, metric.getMetricCount());
+        inserts.add(metric);
+        if (inserts.size() >= batchSize)
+        {
+            flush();
+        }
+    }
+
+    public synchronized void flush() throws SQLException
+    {
+        if (inserts.isEmpty())
+        {
+            return;
+        }
+        writeBatch(updates, inserts);
+
+        written += inserts.size();
+        inserts.clear();
+        updates.clear();
+        batchKeys.clear();
+    }
+
+    /**
+     * @return the value of the last metric of the type of each object
+     */
+    protected CrisMetricsValues readLastValues(String metricType)
+            throws SQLException
+    {
+        return applicationDao.getLastMetricValues(context, metricType);
+    }
+
+    /**
+     * Unset the last flag of the metrics of the updated objects, insert the
+     * new metrics as the last ones and commit.
+     *
+     * @param updates
+     *            the new metrics of the objects already having one
+     * @param inserts
+     *            all the new metrics, at most one for each object
+     */
+    protected void writeBatch(List<CrisMetrics> updates,
+            List<CrisMetrics> inserts) throws SQLException
+    {
+        Connection connection = context.getDBConnection();
+        PreparedStatement statement = connection.prepareStatement(UNSET_LAST);
+        try
+        {
+            for (CrisMetrics metric : updates)
+            {
+                statement.setInt(1, metric.getResourceTypeId());
+                statement.setInt(2, metric.getResourceId());
+                statement.setString(3, metric.getMetricType());
+                statement.addBatch();
+            }
+            if (!updates.isEmpty())
+            {
+                statement.executeBatch();
+            }
+        }
+        finally
+        {
+            statement.close();
+        }
+
+        statement = connection.prepareStatement(String.format(INSERT,
+                DatabaseManager.isOracle() ? "cris_metrics_seq.nextval"
+                        : "getnextid('cris_metrics')"));
+        try
+        {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            for (CrisMetrics metric : inserts)
+            {
+                statement.setTimestamp(1, now);
+                statement.setTimestamp(2, now);
+                setTimestamp(statement, 3, metric.getStartDate());
+                setTimestamp(statement, 4, metric.getEndDate());
+                statement.setDouble(5, metric.getMetricCount());
+                if (metric.getRemark() != null)
+                {
+                    statement.setString(6, metric.getRemark());
+                }
+                else
+                {
+                    statement.setNull(6, Types.VARCHAR);
+                }
+                statement.setString(7, metric.getMetricType());
+                statement.setString(8, metric.getUuid());
+                statement.setInt(9, metric.getResourceId());
+                statement.setInt(10, metric.getResourceTypeId());
+                statement.setBoolean(11, true);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        finally
+        {
+            statement.close();
+        }
+        context.commit();
+    }
+
+    private static void setTimestamp(PreparedStatement statement, int index,
+            Date date) throws SQLException
+    {
+        if (date != null)
+        {
+            statement.setTimestamp(index, new Timestamp(date.getTime()));
+        }
+        else
+        {
+            statement.setNull(index, Types.TIMESTAMP);
+        }
+    }
+
+    /**
+     * Send the last batch and release the connection.
+     */
+    public synchronized void close() throws SQLException
+    {
+        try
+        {
+            flush();
+            if (context != null)
+            {
+                context.complete();
+            }
+        }
+        finally
+        {
+            if (context != null && context.isValid())
+            {
+                context.abort();
+            }
+        }
+    }
+
+    /**
+     * @return the number of metrics written so far
+     */
+    public synchronized long getWritten()
+    {
+        return written;
+    }
+
+    /**
+     * @return the number of metrics not written as equal to the last one
+     */
+    public synchronized long getSkipped()
+    {
+        return skipped;
+    }
+}
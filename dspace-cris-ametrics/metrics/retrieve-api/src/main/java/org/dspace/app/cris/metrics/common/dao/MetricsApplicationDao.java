@@ -11,6 +11,7 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Date;
 
+import org.dspace.app.cris.metrics.common.model.CrisMetricsValues;
 import org.dspace.core.Context;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
@@ -34,6 +35,8 @@ public class MetricsApplicationDao
             + " join cris_metrics cm2"
             + " on cm2.resourceid = subq.resourceid and subq.metrictype = cm2.metrictype and cm2.resourcetypeid = subq.resourcetypeid and subq.limitdx = cm2.enddate";
 
+    private final String queryLastValues = "select resourcetypeid, resourceid, metriccount from cris_metrics where metrictype = ? and last = true";
+
     private final String queryUpdateLast = "update cris_metrics set last = false where metrictype = ? and last = true and resourcetypeid = ? and resourceid = ? and timestampcreated < ?";
     
     public void buildPeriodMetrics(Context context, String suffixNewType,
@@ -90,6 +93,35 @@ public class MetricsApplicationDao
         }
     }
 
+    /**
+     * @return the value of the last metric of the type of each object
+     */
+    public CrisMetricsValues getLastMetricValues(Context context,
+            String metricType) throws SQLException
+    {
+        CrisMetricsValues result = new CrisMetricsValues();
+        TableRowIterator tri = null;
+        try
+        {
+            tri = DatabaseManager.query(context, queryLastValues, metricType);
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                result.put(row.getIntColumn("resourcetypeid"),
+                        row.getIntColumn("resourceid"),
+                        row.getDoubleColumn("metriccount"));
+            }
+        }
+        finally
+        {
+            if (tri != null)
+            {
+                tri.close();
+            }
+        }
+        return result;
+    }
+
     /**
      * 
      * @param resourceTypeId
@@ -0,0 +1,128 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.metrics.common.model;
+
+import java.util.Arrays;
+
+/**
+ * The values of a metric type by object (resource type and id), in primitive
+ * arrays (open addressing on the packed resource type and id): a few bytes
+ * per object, without boxing, to hold the last metrics of all the objects of
+ * a site while computing the indicators.
+ * <p/>
+ * Not thread safe while modified.
+ */
+public class CrisMetricsValues
+{
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+
+    private double[] values;
+
+    private int size;
+
+    public CrisMetricsValues()
+    {
+        this(1024);
+    }
+
+    public CrisMetricsValues(int expectedSize)
+    {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 16) * 2 - 1) << 1;
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new double[capacity];
+    }
+
+    public static long key(int resourceTypeId, int resourceId)
+    {
+        return ((long) resourceTypeId << 32) | (resourceId & 0xffffffffL);
+    }
+
+    public void put(int resourceTypeId, int resourceId, double value)
+    {
+        put(key(resourceTypeId, resourceId), value);
+    }
+
+    public void put(long key, double value)
+    {
+        int slot = slot(key);
+        if (keys[slot] == EMPTY)
+        {
+            keys[slot] = key;
+            size++;
+            if (size * 2 > keys.length)
+            {
+                values[slot] = value;
+                grow();
+                return;
+            }
+        }
+        values[slot] = value;
+    }
+
+    /**
+     * @return the value of the object, NaN if missing
+     */
+    public double get(int resourceTypeId, int resourceId)
+    {
+        return get(key(resourceTypeId, resourceId));
+    }
+
+    public double get(long key)
+    {
+        int slot = slot(key);
+        return keys[slot] == EMPTY ? Double.NaN : values[slot];
+    }
+
+    public boolean contains(int resourceTypeId, int resourceId)
+    {
+        return keys[slot(key(resourceTypeId, resourceId))] != EMPTY;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    private int slot(long key)
+    {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key)
+        {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int mix(long key)
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        values = new double[keys.length];
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != EMPTY)
+            {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
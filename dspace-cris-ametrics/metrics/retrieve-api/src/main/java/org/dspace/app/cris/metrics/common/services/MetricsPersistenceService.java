@@ -11,13 +11,16 @@ import java.sql.SQLException;
 import java.util.List;
 
 import org.dspace.app.cris.metrics.common.dao.CrisMetricsDao;
+import org.dspace.app.cris.metrics.common.dao.CrisMetricsWriter;
 import org.dspace.app.cris.metrics.common.dao.MetricsApplicationDao;
 import org.dspace.app.cris.metrics.common.model.CrisMetrics;
+import org.dspace.app.cris.metrics.common.model.CrisMetricsValues;
 import org.dspace.app.cris.metrics.pmc.dao.PMCCitationDao;
 import org.dspace.app.cris.metrics.pmc.model.PMCCitation;
 import org.dspace.app.cris.metrics.pmc.model.PMCRecord;
 import org.dspace.app.cris.metrics.pmc.services.PMCEntrezException;
 import org.dspace.app.cris.metrics.pmc.services.PMCEntrezServices;
+import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Context;
 import org.hibernate.Session;
 
@@ -105,6 +108,40 @@ public class MetricsPersistenceService extends PersistenceService
     	super.saveOrUpdate(modelClass, transientObject);
     }
 
+    /**
+     * @return the value of the last metric of the type of each object
+     */
+    public CrisMetricsValues getLastMetricValues(Context context, String metricsType)
+    {
+        try
+        {
+            return applicationDao.getLastMetricValues(context, metricsType);
+        }
+        catch (SQLException e)
+        {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param incremental
+     *            true not to write again the metrics equal to the last ones
+     * @return a writer of new metrics with JDBC batches, to close once done
+     */
+    public CrisMetricsWriter getMetricsWriter(boolean incremental)
+    {
+        try
+        {
+            return new CrisMetricsWriter(applicationDao, incremental,
+                    ConfigurationManager.getIntProperty("cris",
+                            "stats.indicators.batch-size", 500));
+        }
+        catch (SQLException e)
+        {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
 	public void buildPeriodMetrics(Context context, String frequency, String type, long rangeLimitSx,
 			long rangeLimitDx) {
 		try {
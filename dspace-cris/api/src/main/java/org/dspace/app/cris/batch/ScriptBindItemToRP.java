@@ -12,7 +12,6 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -24,9 +23,7 @@ import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
-import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrDocumentList;
 import org.dspace.app.cris.integration.BindItemToRP;
 import org.dspace.app.cris.model.CrisConstants;
 import org.dspace.app.cris.model.ResearcherPage;
@@ -34,6 +31,7 @@ import org.dspace.app.cris.service.ApplicationService;
 import org.dspace.app.cris.service.RelationPreferenceService;
 import org.dspace.discovery.SearchService;
 import org.dspace.discovery.SearchServiceException;
+import org.dspace.discovery.SolrDocumentCursor;
 import org.dspace.utils.DSpace;
 
 /**
@@ -47,6 +45,9 @@ public class ScriptBindItemToRP
     
     private static final DateFormat dateFormat = new SimpleDateFormat("dd-MM-yyyy");
     
+    /** number of researchers bound at once when working on all of them */
+    private static final int BATCH_SIZE = 500;
+    
     /** log4j logger */
     private static Logger log = Logger.getLogger(ScriptBindItemToRP.class);
 
@@ -148,19 +149,23 @@ public class ScriptBindItemToRP
                 SolrQuery query = new SolrQuery("*:*");
                 query.addFilterQuery("{!field f=search.resourcetype}" + CrisConstants.RP_TYPE_ID);
                 query.setFields("search.resourceid", "search.resourcetype");
-                query.setRows(Integer.MAX_VALUE);
                 rps = new ArrayList<ResearcherPage>();
                 try
                 {
-                    QueryResponse response = searchService.search(query);
-                    SolrDocumentList docList = response.getResults();
-                    Iterator<SolrDocument> solrDoc = docList.iterator();
+                    // the researchers are bound a batch at a time, rather
+                    // than all loaded first
+                    SolrDocumentCursor solrDoc = searchService.iterate(query);
                     while (solrDoc.hasNext())
                     {
                         SolrDocument doc = solrDoc.next();
                         Integer rpId = (Integer) doc
                                 .getFirstValue("search.resourceid");
                         rps.add(applicationService.get(ResearcherPage.class, rpId));
+                        if (rps.size() >= BATCH_SIZE)
+                        {
+                            BindItemToRP.work(rps, relationPreferenceService);
+                            rps = new ArrayList<ResearcherPage>();
+                        }
                     }
                 }
                 catch (SearchServiceException e)
@@ -67,9 +67,7 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
-import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrDocumentList;
 import org.dspace.app.cris.configuration.RelationConfiguration;
 import org.dspace.app.cris.discovery.CrisSearchService;
 import org.dspace.app.cris.discovery.OwnerRPAuthorityIndexer;
@@ -91,6 +89,7 @@ import org.dspace.core.I18nUtil;
 import org.dspace.core.LogManager;
 import org.dspace.discovery.SearchService;
 import org.dspace.discovery.SearchServiceException;
+import org.dspace.discovery.SolrDocumentCursor;
 import org.dspace.eperson.EPerson;
 import org.dspace.eperson.Subscribe;
 import org.dspace.handle.HandleManager;
@@ -278,7 +277,6 @@ public class ScriptCrisSubscribe
                 q.append("(").append(MessageFormat.format(rel.getQuery(), rp.getCrisID(), rp.getUuid())).append(")");
             }
             query.setQuery(q.toString());
-            query.setRows(Integer.MAX_VALUE);
 
             if (ConfigurationManager.getBooleanProperty(
                     "eperson.subscription.onlynew", false))
@@ -292,8 +290,7 @@ public class ScriptCrisSubscribe
 				query.addFilterQuery("itemLastModified_dt:[NOW/DAY-1DAY TO NOW/DAY] OR dateaccessioned_dt:[NOW/DAY-1DAY TO NOW/DAY]");
             }
 
-            QueryResponse qResponse = searchService.search(query);
-            SolrDocumentList results = qResponse.getResults();
+            SolrDocumentCursor results = searchService.iterate(query);
 
             // Only add to buffer if there are new items
             if (results.getNumFound() > 0)
@@ -316,9 +313,9 @@ public class ScriptCrisSubscribe
                         .append(": ").append(results.getNumFound())
                         .append("\n\n");
 
-                for (SolrDocument solrDoc : results)
-
+                while (results.hasNext())
                 {
+                    SolrDocument solrDoc = results.next();
                     Item item = Item.find(context, (Integer) solrDoc
                             .getFieldValue("search.resourceid"));
 
@@ -475,17 +472,16 @@ public class ScriptCrisSubscribe
                 query.setFields("cris-uuid", OwnerRPAuthorityIndexer.OWNER_I);
                 query.addFilterQuery("{!field f=search.resourcetype}"
                         + CrisConstants.RP_TYPE_ID);
-                query.setRows(Integer.MAX_VALUE);
    				query.setQuery(OwnerRPAuthorityIndexer.OWNER_I + ":[* TO *]");
 
-                QueryResponse qResponse = searchService.search(query);
-                SolrDocumentList results = qResponse.getResults();
+                SolrDocumentCursor results = searchService.iterate(query);
                 CrisSubscribeService crisSubscribeService = researcher.getCrisSubscribeService();
                 
                 if (results.getNumFound() > 0)
                 {
-                    for (SolrDocument solrDoc : results)
+                    while (results.hasNext())
                     {
+                        SolrDocument solrDoc = results.next();
                     	String uuid = (String) solrDoc.getFieldValue("cris-uuid");
                     	Integer oo = (Integer) solrDoc.getFieldValue(OwnerRPAuthorityIndexer.OWNER_I);
                 		crisSubscribeService.subscribe(oo, uuid, CrisConstants.RP_TYPE_ID);
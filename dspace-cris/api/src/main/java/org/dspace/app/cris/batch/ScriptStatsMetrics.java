@@ -9,7 +9,6 @@ package org.dspace.app.cris.batch;
 
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
@@ -23,6 +22,7 @@ import org.apache.log4j.Logger;
 import org.dspace.app.cris.discovery.CrisSearchService;
 import org.dspace.app.cris.service.ApplicationService;
 import org.dspace.app.cris.statistics.CrisSolrLogger;
+import org.dspace.app.cris.statistics.plugin.StatsIndicatorsEngine;
 import org.dspace.app.cris.statistics.plugin.StatsIndicatorsPlugin;
 import org.dspace.app.cris.util.Researcher;
 import org.dspace.core.Context;
@@ -62,6 +62,10 @@ public class ScriptStatsMetrics
         options.addOption("h", "help", false, "help");
         options.addOption("s", "single_plugin", true, "Work on single plugin");
         options.addOption("l", "filter", true, "Filter by");
+        options.addOption("p", "partitions", true,
+                "Number of partitions computed in parallel");
+        options.addOption("i", "incremental", false,
+                "Write only the indicators that changed");
 
         CommandLine line = parser.parse(options, args);
 
@@ -70,7 +74,7 @@ public class ScriptStatsMetrics
             HelpFormatter myhelp = new HelpFormatter();
             myhelp.printHelp("ScriptStatsIndicators \n", options);
             System.out.println(
-                    "\n\nUSAGE:\n ScriptStatsIndicators <-s <connection_name>>] \n");
+                    "\n\nUSAGE:\n ScriptStatsIndicators <-s <connection_name>>] [-p <partitions>] [-i]\n");
 
             System.exit(0);
         }
@@ -106,6 +110,14 @@ public class ScriptStatsMetrics
             }
         }
             
+        StatsIndicatorsEngine engine = new StatsIndicatorsEngine(
+                applicationService, statsService, searchService);
+        if (line.hasOption('p'))
+        {
+            engine.setPartitions(Integer.parseInt(line.getOptionValue("p")));
+        }
+        engine.setIncremental(line.hasOption('i'));
+
         List<StatsIndicatorsPlugin> plugins = new ArrayList<StatsIndicatorsPlugin>();
         if (StringUtils.isBlank(connection))
         {
@@ -119,31 +131,14 @@ public class ScriptStatsMetrics
             plugins.add(plugin);
         }
 
-        List<String> discardedConnection = new LinkedList<String>();
-        List<String> successfullConnection = new LinkedList<String>();
+        List<String> discardedConnection = engine.getFailed();
+        List<String> successfullConnection = engine.getSucceeded();
         // get plugin
         Context context = null;
         try
         {
             context = new Context();
-            String currentPlugin = "";
-            plugin: for (StatsIndicatorsPlugin plugin : plugins)
-            {
-                currentPlugin = plugin.getName();
-                try
-                {
-                    plugin.buildIndicator(context, applicationService, statsService,
-                            searchService, level);
-                    successfullConnection.add(currentPlugin);
-                    context.commit();
-                }
-                catch (Exception e)
-                {
-                    log.error(e.getMessage(), e);
-                    discardedConnection.add(currentPlugin);
-                    continue plugin;
-                }
-            }
+            engine.run(context, plugins, level);
             context.complete();
         }
         catch (Exception e)
@@ -60,5 +60,32 @@ public class ApplicationDao extends it.cilea.osd.common.dao.impl.ApplicationDao
         return (C) query.uniqueResult();
     }
 
+    /**
+     * Keyset pagination: the objects with an id greater than the given one,
+     * in id order, without the offset scan of a paginated query.
+     */
+    public <T> List<T> findAfterID(Class<T> model, Integer id, int maxResults)
+    {
+        Query query = getSessionFactory().getCurrentSession().createQuery(
+                "from " + model.getName() + " where id > ? order by id asc");
+        query.setParameter(0, id);
+        query.setMaxResults(maxResults);
+        return query.list();
+    }
+
+    /**
+     * The nested objects of all the given parents, of any type, grouped by
+     * parent.
+     */
+    public <T> List<T> findNestedObjectsByParentIDs(Class<T> model,
+            List<Integer> parentIDs)
+    {
+        Query query = getSessionFactory().getCurrentSession().createQuery(
+                "from " + model.getName()
+                        + " where parent.id in (:ids) order by parent.id, typo.id, positionDef");
+        query.setParameterList("ids", parentIDs);
+        return query.list();
+    }
+
  
 }
@@ -19,6 +19,7 @@ import org.dspace.app.cris.deduplication.service.impl.SolrDedupServiceImpl.Dedup
 import org.dspace.content.DSpaceObject;
 import org.dspace.core.Context;
 import org.dspace.discovery.SearchServiceException;
+import org.dspace.discovery.SolrDocumentCursor;
 
 public interface DedupService
 {
@@ -50,6 +51,11 @@ public interface DedupService
     
     public QueryResponse search(SolrQuery solrQuery) throws SearchServiceException;
 
+    /**
+     * Stream all the documents matching the query, a page at a time
+     */
+    public SolrDocumentCursor iterate(SolrQuery solrQuery) throws SearchServiceException;
+
     public void buildReject(Context context, Integer firstId, Integer secondId, Integer type,
             DeduplicationFlag flag, String note);
 
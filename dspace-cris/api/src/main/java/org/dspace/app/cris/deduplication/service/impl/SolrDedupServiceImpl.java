@@ -34,6 +34,7 @@ import org.dspace.app.cris.deduplication.service.DedupService;
 import org.dspace.app.cris.deduplication.service.SearchDeduplication;
 import org.dspace.app.cris.deduplication.service.SolrDedupServiceIndexPlugin;
 import org.dspace.app.cris.deduplication.utils.Signature;
+import org.dspace.app.cris.deduplication.utils.SimilaritySignature;
 import org.dspace.app.cris.model.CrisConstants;
 import org.dspace.app.cris.model.OrganizationUnit;
 import org.dspace.app.cris.model.Project;
@@ -47,6 +48,7 @@ import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.discovery.SearchServiceException;
+import org.dspace.discovery.SolrDocumentCursor;
 import org.dspace.handle.HandleManager;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
@@ -89,6 +91,10 @@ public class SolrDedupServiceImpl implements DedupService
     
     public static final String RESOURCE_WITHDRAWN_FIELD = "dedup.withdrawn";
 
+    public static final String SIGNATURE_SUFFIX = "_signature";
+
+    public static final String SKETCH_SUFFIX = "_sketch";
+
     /**
      * Non-Static CommonsHttpSolrServer for processing indexing events.
      */
@@ -96,6 +102,8 @@ public class SolrDedupServiceImpl implements DedupService
 
     private DSpace dspace = new DSpace();
 
+    private volatile List<Signature> signatures;
+
     public static final String SUBQUERY_NOT_IN_REJECTED = "-({!join from="
             + RESOURCE_ID_FIELD + " to=" + RESOURCE_ID_FIELD + "}"
             + RESOURCE_FLAG_FIELD + ":reject_admin)";
@@ -222,9 +230,10 @@ public class SolrDedupServiceImpl implements DedupService
     {
 
         Map<String, List<String>> tmpMapFilter = new HashMap<String, List<String>>();
+        Map<String, List<String>> tmpMapSketch = new HashMap<String, List<String>>();
         List<String> tmpFilter = new ArrayList<String>();
 
-        fillSignature(ctx, iu, tmpMapFilter, tmpFilter);
+        fillSignature(ctx, iu, tmpMapFilter, tmpMapSketch, tmpFilter);
 
         if (tmpFilter.isEmpty())
         {
@@ -249,83 +258,130 @@ public class SolrDedupServiceImpl implements DedupService
 
         // build the FAKE document
         build(ctx, iu.getID(), iu.getID(), DeduplicationFlag.FAKE, iu.getType(),
-                tmpMapFilter, searchSignature, null);
+                tmpMapFilter, tmpMapSketch, searchSignature, null);
 
         // remove previous potential match
         removeMatch(iu.getID(), iu.getType());
 
         // build the new ones
-        buildPotentialMatch(ctx, iu, tmpMapFilter, tmpFilter, searchSignature);
+        buildPotentialMatch(ctx, iu, tmpMapFilter, tmpMapSketch, tmpFilter, searchSignature);
         
     }
 
+    /**
+     * The signature algorithms, looked up once: they are singletons, and the
+     * lookup is expensive compared to the signatures of an object.
+     */
+    private List<Signature> getSignatures()
+    {
+        List<Signature> result = signatures;
+        if (result == null)
+        {
+            result = dspace.getServiceManager().getServicesByType(Signature.class);
+            signatures = result;
+        }
+        return result;
+    }
+
+    private SimilaritySignature getSimilaritySignature(Integer type, String sketchField)
+    {
+        for (Signature algo : getSignatures())
+        {
+            if (algo instanceof SimilaritySignature && type == algo.getResourceTypeID()
+                    && sketchField.equals(algo.getSignatureType() + SKETCH_SUFFIX))
+            {
+                return (SimilaritySignature) algo;
+            }
+        }
+        return null;
+    }
+
     private void fillSignature(Context ctx, DSpaceObject iu,
-            Map<String, List<String>> tmpMapFilter, List<String> tmpFilter)
+            Map<String, List<String>> tmpMapFilter,
+            Map<String, List<String>> tmpMapSketch, List<String> tmpFilter)
     {
         // get all algorithms to build signature
-        List<Signature> signAlgo = dspace.getServiceManager()
-                .getServicesByType(Signature.class);        
-        for (Signature algo : signAlgo)
+        for (Signature algo : getSignatures())
         {
             if (iu.getType() == algo.getResourceTypeID())
             {
-                List<String> signatures = algo.getSignature(iu, ctx);
+                List<String> signatures;
+                if (algo instanceof SimilaritySignature)
+                {
+                    // the sketches are kept to verify the candidates
+                    SimilaritySignature similarity = (SimilaritySignature) algo;
+                    List<String> sketches = similarity.getSketches(iu, ctx);
+                    if (!sketches.isEmpty())
+                    {
+                        addAll(tmpMapSketch, algo.getSignatureType() + SKETCH_SUFFIX, sketches);
+                    }
+                    signatures = similarity.getSignature(sketches);
+                }
+                else
+                {
+                    signatures = algo.getSignature(iu, ctx);
+                }
                 for(String signature : signatures) {
                     if (StringUtils.isNotEmpty(signature))
                     {                    
-                        String key = algo.getSignatureType() + "_signature";
-                        if(tmpMapFilter.containsKey(key)) {
-                            List<String> obj = tmpMapFilter.get(key);
-                            obj.add(signature);
-                            tmpMapFilter.put(key,
-                                    obj);
-                        }
-                        else {
-                            List<String> obj = new ArrayList<String>();
-                            obj.add(signature);
-                            tmpMapFilter.put(key,
-                                obj);
-                        }
+                        addAll(tmpMapFilter, algo.getSignatureType() + SIGNATURE_SUFFIX,
+                                Arrays.asList(signature));
                     }
                 }
             }
         }
         
-        String result = "";
-        int index = 0;
+        StringBuilder result = new StringBuilder();
         for(String tmpF : tmpMapFilter.keySet()) {
-            if(index>0) {
-                result += " OR ";
+            if(result.length()>0) {
+                result.append(" OR ");
             }
                    
-            result += tmpF + ":(";
+            result.append(tmpF).append(":(");
             int jindex = 0;
             for(String s : tmpMapFilter.get(tmpF)) {
                 if(jindex>0) {
-                    result += " OR ";
+                    result.append(" OR ");
                 }
-                result += s;
+                result.append(s);
                 jindex++;
             }
-            result += ")";
-            index++;
+            result.append(")");
         }
         
-        if(StringUtils.isNotBlank(result)) {
-            tmpFilter.add(result);
+        if(result.length()>0) {
+            tmpFilter.add(result.toString());
+        }
+    }
+
+    private static void addAll(Map<String, List<String>> map, String key,
+            List<String> values)
+    {
+        List<String> obj = map.get(key);
+        if (obj == null)
+        {
+            obj = new ArrayList<String>();
+            map.put(key, obj);
         }
+        obj.addAll(values);
     }
 
     private void buildPotentialMatch(Context ctx, DSpaceObject iu,
-            Map<String, List<String>> tmpMapFilter, List<String> tmpFilter,
+            Map<String, List<String>> tmpMapFilter,
+            Map<String, List<String>> tmpMapSketch, List<String> tmpFilter,
             SearchDeduplication searchSignature) throws SearchServiceException
     {
         tmpFilter.add("+" + RESOURCE_FLAG_FIELD + ":"
                 + DeduplicationFlag.FAKE.getDescription());
         // select all fake not in reject and build the potential match
         String[] tmpArrayFilter = new String[tmpFilter.size()];
-        QueryResponse response = find("*:*",
-                tmpFilter.toArray(tmpArrayFilter));
+        SolrQuery solrQuery = new SolrQuery("*:*");
+        solrQuery.addFilterQuery(tmpFilter.toArray(tmpArrayFilter));
+        solrQuery.setFields(RESOURCE_IDS_FIELD, "*" + SIGNATURE_SUFFIX,
+                "*" + SKETCH_SUFFIX);
+        solrQuery.setRows(ConfigurationManager.getIntProperty("deduplication",
+                "indexer.match.candidates", 100));
+        QueryResponse response = search(solrQuery);
         SolrDocumentList list = response.getResults();
         external: for (SolrDocument resultDoc : list)
         {
@@ -356,7 +412,7 @@ public class SolrDedupServiceImpl implements DedupService
             for (String field : resultDoc.getFieldNames())
             {
                 List<String> valueResult = new ArrayList<String>();
-                if (field.endsWith("_signature"))
+                if (field.endsWith(SIGNATURE_SUFFIX))
                 {
                     
                     List<String> valueCurrentSignature = tmpMapFilter.get(field);
@@ -373,16 +429,68 @@ public class SolrDedupServiceImpl implements DedupService
                         }
                     }
                 }
+                if (!valueResult.isEmpty())
+                {
+                    String sketchField = StringUtils.removeEnd(field,
+                            SIGNATURE_SUFFIX) + SKETCH_SUFFIX;
+                    List<String> sketches = tmpMapSketch.get(sketchField);
+                    Collection<Object> otherSketches = resultDoc
+                            .getFieldValues(sketchField);
+                    // a FAKE document indexed before the sketches has none,
+                    // it is matched on the shared values as the other
+                    // signatures until the dedup index is rebuilt
+                    if (sketches != null && otherSketches != null)
+                    {
+                        // a shared band only makes a candidate, the match is
+                        // recorded once for the pair if the sketches are close
+                        if (!isSimilar(iu.getType(), sketchField, sketches,
+                                otherSketches))
+                        {
+                            valueResult.clear();
+                        }
+                        else
+                        {
+                            valueResult.subList(1, valueResult.size()).clear();
+                        }
+                    }
+                }
                 if(!valueResult.isEmpty()) {
                     tmp.put(field, valueResult);
                 }
             }
 
+            if (tmp.isEmpty())
+            {
+                continue external;
+            }
+
             build(ctx, iu.getID(), matchId, DeduplicationFlag.MATCH, iu.getType(), tmp, searchSignature, null);
             
         }
     }
 
+    private boolean isSimilar(Integer type, String sketchField,
+            List<String> sketches, Collection<Object> otherSketches)
+    {
+        SimilaritySignature algo = getSimilaritySignature(type, sketchField);
+        if (algo == null)
+        {
+            return false;
+        }
+        for (String sketch : sketches)
+        {
+            for (Object other : otherSketches)
+            {
+                if (algo.getSimilarity(sketch, (String) other) >= algo
+                        .getThreshold())
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private void removeFake(String dedupID, Integer type)
             throws SearchServiceException
     {
@@ -408,6 +516,16 @@ public class SolrDedupServiceImpl implements DedupService
     public void build(Context ctx, Integer firstId, Integer secondId,
             DeduplicationFlag flag, Integer type,
             Map<String, List<String>> signatures, SearchDeduplication searchSignature, String note)
+    {
+        build(ctx, firstId, secondId, flag, type, signatures, null,
+                searchSignature, note);
+    }
+
+    public void build(Context ctx, Integer firstId, Integer secondId,
+            DeduplicationFlag flag, Integer type,
+            Map<String, List<String>> signatures,
+            Map<String, List<String>> sketches,
+            SearchDeduplication searchSignature, String note)
     {
         SolrInputDocument doc = new SolrInputDocument();
 
@@ -440,6 +558,17 @@ public class SolrDedupServiceImpl implements DedupService
                 doc.addField(RESOURCE_SIGNATURETYPE_FIELD, key);
             }
         }
+
+        if (sketches != null)
+        {
+            for (String key : sketches.keySet())
+            {
+                for (String sketch : sketches.get(key))
+                {
+                    doc.addField(key, sketch);
+                }
+            }
+        }
         
         if(StringUtils.isNotBlank(note)) {
             doc.addField(RESOURCE_NOTE_FIELD, note);           
@@ -522,6 +651,18 @@ public class SolrDedupServiceImpl implements DedupService
         }
     }
 
+    @Override
+    public SolrDocumentCursor iterate(SolrQuery solrQuery)
+            throws SearchServiceException
+    {
+        HttpSolrServer server = getSolr();
+        if (server == null)
+        {
+            throw new SearchServiceException("Solr deduplication server not available");
+        }
+        return new SolrDocumentCursor(server, solrQuery, UNIQUE_ID_FIELD);
+    }
+
     @Override
     public QueryResponse find(String query, String... filters)
             throws SearchServiceException
@@ -855,7 +996,7 @@ public class SolrDedupServiceImpl implements DedupService
 
     private void startMultiThreadIndex(boolean onlyFake, List<Integer> ids, Integer type)
     {
-        int numThreads = ConfigurationManager.getIntProperty("dedup",
+        int numThreads = ConfigurationManager.getIntProperty("deduplication",
                 "indexer.items.threads", 5);        
         List<Integer>[] arrayIDList = Util.splitList(ids, numThreads);
         List<IndexerThread> threads = new ArrayList<IndexerThread>();
@@ -865,13 +1006,16 @@ public class SolrDedupServiceImpl implements DedupService
             thread.start();
             threads.add(thread);
         }
-        boolean finished = false;
-        while (!finished)
+        for (IndexerThread thread : threads)
         {
-            finished = true;
-            for (IndexerThread thread : threads)
+            try
+            {
+                thread.join();
+            }
+            catch (InterruptedException e)
             {
-                finished = finished && !thread.isAlive();
+                Thread.currentThread().interrupt();
+                return;
             }
         }
     }
@@ -902,6 +1046,12 @@ public class SolrDedupServiceImpl implements DedupService
                 int idx = 1;
                 final String head = this.getName() + "#" + this.getId();
                 final int size = itemids.size();
+                // retrieve all search plugin to build search document in the same index
+                SearchDeduplication searchSignature = dspace.getServiceManager()
+                        .getServiceByName(
+                                CrisConstants.getEntityTypeText(itemtype)
+                                        .toUpperCase() + "SearchDeduplication",
+                                SearchDeduplication.class);
                 for (Integer id : itemids)
                 {
                     try
@@ -917,21 +1067,16 @@ public class SolrDedupServiceImpl implements DedupService
                         }
 
                         Map<String, List<String>> tmpMapFilter = new HashMap<String, List<String>>();
+                        Map<String, List<String>> tmpMapSketch = new HashMap<String, List<String>>();
                         List<String> tmpFilter = new ArrayList<String>();
-                        fillSignature(context, item, tmpMapFilter, tmpFilter);
+                        fillSignature(context, item, tmpMapFilter, tmpMapSketch, tmpFilter);
                         if(!tmpFilter.isEmpty()) {
-                            // retrieve all search plugin to build search document in the same index
-                            SearchDeduplication searchSignature = dspace.getServiceManager()
-                                    .getServiceByName(
-                                            CrisConstants.getEntityTypeText(itemtype)
-                                                    .toUpperCase() + "SearchDeduplication",
-                                            SearchDeduplication.class);
                             if(onlyFake) {                                
                                 buildFromDedupReject(context, item, tmpMapFilter, tmpFilter, searchSignature);                                
-                                build(context, item.getID(), item.getID(), DeduplicationFlag.FAKE, itemtype, tmpMapFilter, searchSignature, null);
+                                build(context, item.getID(), item.getID(), DeduplicationFlag.FAKE, itemtype, tmpMapFilter, tmpMapSketch, searchSignature, null);
                             }
                             else {                              
-                                buildPotentialMatch(context, item, tmpMapFilter, tmpFilter, searchSignature);
+                                buildPotentialMatch(context, item, tmpMapFilter, tmpMapSketch, tmpFilter, searchSignature);
                             }
                         }
                         if (itemtype == Constants.ITEM)
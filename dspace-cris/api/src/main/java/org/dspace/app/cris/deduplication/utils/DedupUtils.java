@@ -39,6 +39,7 @@ import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.discovery.SearchServiceException;
+import org.dspace.discovery.SolrDocumentCursor;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
 import org.dspace.utils.DSpace;
@@ -578,7 +579,9 @@ public class DedupUtils
                 solrQueryInternal.addFilterQuery(
                         SolrDedupServiceImpl.RESOURCE_RESOURCETYPE_FIELD + ":"
                                 + resourceType);
-                solrQueryInternal.setRows(Integer.MAX_VALUE);
+                solrQueryInternal.setFields(signatureType,
+                        SolrDedupServiceImpl.RESOURCE_RESOURCETYPE_FIELD,
+                        SolrDedupServiceImpl.RESOURCE_IDS_FIELD);
                 solrQueryInternal.addFilterQuery(
                         SolrDedupServiceImpl.RESOURCE_FLAG_FIELD + ":"
                                 + SolrDedupServiceImpl.DeduplicationFlag.MATCH.getDescription());
@@ -587,14 +590,13 @@ public class DedupUtils
                 {
                     solrQueryInternal.addFilterQuery("-"+SolrDedupServiceImpl.RESOURCE_WITHDRAWN_FIELD+":true");
                 }
-                QueryResponse response = getDedupService().search(solrQueryInternal);
-                
-                SolrDocumentList solrDocumentList = response.getResults();
+                SolrDocumentCursor solrDocumentList = getDedupService().iterate(solrQueryInternal);
 
                 DuplicateSignatureInfo dsi = new DuplicateSignatureInfo(signatureType, name);
                 
-                for (SolrDocument solrDocument : solrDocumentList)
+                while (solrDocumentList.hasNext())
                 {
+                    SolrDocument solrDocument = solrDocumentList.next();
 
                     List<String> signatureTypeList = (List<String>) (solrDocument
                             .getFieldValue(signatureType));
@@ -0,0 +1,231 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.deduplication.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.dspace.content.DSpaceObject;
+import org.dspace.core.Context;
+
+/**
+ * Near duplicate signature of a text value (e.g. the title): the MinHash of
+ * the character shingles of the normalized value, split in bands for the LSH
+ * blocking. Two values share a band with probability 1 - (1 - s^rows)^bands,
+ * s being the Jaccard similarity of their shingles: with the default 20 bands
+ * of 5 rows, 0.64 for s = 0.55 and above 0.99 for s = 0.75, about the
+ * similarity of two titles differing by one word in ten.
+ * <p/>
+ * The sketch is the whole MinHash, 8 hex digits per hash, the similarity of
+ * two sketches is the share of the hashes they have in common, an estimate of
+ * the Jaccard similarity of the values.
+ */
+public class MinHashSignature extends MD5ValueSignature implements SimilaritySignature
+{
+    private static final int HASH_DIGITS = 8;
+
+    private int shingleSize = 5;
+
+    private int bands = 20;
+
+    private int rows = 5;
+
+    private double threshold = 0.7;
+
+    private boolean keepDigits = true;
+
+    @Override
+    public List<String> getSignature(DSpaceObject item, Context context)
+    {
+        return getSignature(getSketches(item, context));
+    }
+
+    @Override
+    public List<String> getSketches(DSpaceObject item, Context context)
+    {
+        List<String> result = new ArrayList<String>();
+        for (String value : getMultiValue(item, getMetadata()))
+        {
+            if (StringUtils.isNotEmpty(value))
+            {
+                String sketch = getSketch(value);
+                if (sketch != null && !result.contains(sketch))
+                {
+                    result.add(sketch);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> getSignature(List<String> sketches)
+    {
+        List<String> result = new ArrayList<String>();
+        int bandLength = rows * HASH_DIGITS;
+        for (String sketch : sketches)
+        {
+            for (int band = 0; band < bands && (band + 1) * bandLength <= sketch.length(); band++)
+            {
+                long hash = fnv(sketch, band * bandLength, (band + 1) * bandLength);
+                char[] key = new char[2 + 16];
+                toHex(band, key, 0, 2);
+                toHex(hash, key, 2, 16);
+                String signature = new String(key);
+                if (!result.contains(signature))
+                {
+                    result.add(signature);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public double getSimilarity(String sketch, String other)
+    {
+        if (sketch == null || other == null || sketch.length() != other.length()
+                || sketch.length() == 0)
+        {
+            return 0;
+        }
+        int hashes = sketch.length() / HASH_DIGITS;
+        int same = 0;
+        for (int h = 0; h < hashes; h++)
+        {
+            if (sketch.regionMatches(h * HASH_DIGITS, other, h * HASH_DIGITS, HASH_DIGITS))
+            {
+                same++;
+            }
+        }
+        return (double) same / hashes;
+    }
+
+    /**
+     * @return the MinHash of the shingles of the normalized value, null if
+     *         nothing is left of the value
+     */
+    protected String getSketch(String value)
+    {
+        String norm = TitleNormalizer.normalize(value, keepDigits);
+        if (norm.isEmpty())
+        {
+            return null;
+        }
+        int hashes = bands * rows;
+        int[] min = new int[hashes];
+        for (int h = 0; h < hashes; h++)
+        {
+            min[h] = Integer.MAX_VALUE;
+        }
+        // a value shorter than a shingle is a shingle on its own
+        int shingles = Math.max(norm.length() - shingleSize + 1, 1);
+        for (int s = 0; s < shingles; s++)
+        {
+            long shingle = fnv(norm, s, Math.min(s + shingleSize, norm.length()));
+            for (int h = 0; h < hashes; h++)
+            {
+                int hash = (int) mix(shingle + (h + 1) * 0x9E3779B97F4A7C15L) & Integer.MAX_VALUE;
+                if (hash < min[h])
+                {
+                    min[h] = hash;
+                }
+            }
+        }
+        char[] sketch = new char[hashes * HASH_DIGITS];
+        for (int h = 0; h < hashes; h++)
+        {
+            toHex(min[h], sketch, h * HASH_DIGITS, HASH_DIGITS);
+        }
+        return new String(sketch);
+    }
+
+    /** FNV-1a hash of the chars between start and end */
+    private static long fnv(String value, int start, int end)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++)
+        {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /** the finalizer of MurmurHash3, a different hash for each seed */
+    private static long mix(long hash)
+    {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static void toHex(long value, char[] dest, int offset, int digits)
+    {
+        for (int i = digits - 1; i >= 0; i--)
+        {
+            dest[offset + i] = HEX_DIGITS[(int) (value & 0xf)];
+            value >>>= 4;
+        }
+    }
+
+    public int getShingleSize()
+    {
+        return shingleSize;
+    }
+
+    public void setShingleSize(int shingleSize)
+    {
+        this.shingleSize = shingleSize;
+    }
+
+    public int getBands()
+    {
+        return bands;
+    }
+
+    public void setBands(int bands)
+    {
+        this.bands = bands;
+    }
+
+    public int getRows()
+    {
+        return rows;
+    }
+
+    public void setRows(int rows)
+    {
+        this.rows = rows;
+    }
+
+    @Override
+    public double getThreshold()
+    {
+        return threshold;
+    }
+
+    public void setThreshold(double threshold)
+    {
+        this.threshold = threshold;
+    }
+
+    public boolean isKeepDigits()
+    {
+        return keepDigits;
+    }
+
+    public void setKeepDigits(boolean keepDigits)
+    {
+        this.keepDigits = keepDigits;
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.deduplication.utils;
+
+import java.util.List;
+
+import org.dspace.content.DSpaceObject;
+import org.dspace.core.Context;
+
+/**
+ * Signature matching the near duplicates too. The signatures are blocking
+ * keys, sharing one only makes two objects candidate duplicates: the sketches
+ * of the candidates, stored in the FAKE documents, are compared to confirm
+ * the match.
+ */
+public interface SimilaritySignature extends Signature
+{
+    public List<String> getSketches(DSpaceObject item, Context context);
+
+    /**
+     * @return the signatures (blocking keys) of the sketches
+     */
+    public List<String> getSignature(List<String> sketches);
+
+    /**
+     * @return the similarity of two sketches, between 0 and 1
+     */
+    public double getSimilarity(String sketch, String other);
+
+    /**
+     * @return the minimum similarity of a match
+     */
+    public double getThreshold();
+}
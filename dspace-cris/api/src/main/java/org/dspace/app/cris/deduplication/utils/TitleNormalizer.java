@@ -0,0 +1,103 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.deduplication.utils;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.ibm.icu.text.CharsetDetector;
+import com.ibm.icu.text.CharsetMatch;
+import com.ibm.icu.text.Normalizer;
+
+/**
+ * Normalization of the titles shared by the title signatures: the NFD
+ * decomposition of the value, stripped of everything but the letters (and the
+ * numbers), in lower case.
+ * <p/>
+ * The result is the one of the former
+ * <code>replaceAll("[^\\p{L}]", "").toLowerCase(locale)</code>, computed in a
+ * single pass. The language of the value, guessed by the ICU charset
+ * detector, only matters to the lower case of the dotted and dotless I, so
+ * the detector runs on the values having one of them only.
+ */
+public final class TitleNormalizer
+{
+    private static final ConcurrentMap<String, Locale> locales = new ConcurrentHashMap<String, Locale>();
+
+    private TitleNormalizer()
+    {
+    }
+
+    /**
+     * @param value
+     *            the value to normalize, not null
+     * @param keepDigits
+     *            keep the numbers too; the '^' is kept as well, like the
+     *            pattern <code>[^\\p{L}^\\p{N}]</code> did, so that the
+     *            signatures already indexed don't change
+     */
+    public static String normalize(String value, boolean keepDigits)
+    {
+        String norm = Normalizer.normalize(value, Normalizer.NFD);
+        StringBuilder sb = new StringBuilder(norm.length());
+        boolean dottedI = false;
+        for (int i = 0; i < norm.length();)
+        {
+            int cp = norm.codePointAt(i);
+            i += Character.charCount(cp);
+            if (Character.isLetter(cp) || (keepDigits && (cp == '^' || isNumber(cp))))
+            {
+                sb.appendCodePoint(cp);
+                dottedI |= cp == 'I' || cp == '\u0130';
+            }
+        }
+        if (sb.length() == 0)
+        {
+            return "";
+        }
+        Locale locale = dottedI ? detectLocale(value) : null;
+        return locale != null ? sb.toString().toLowerCase(locale) : sb.toString().toLowerCase();
+    }
+
+    private static boolean isNumber(int cp)
+    {
+        switch (Character.getType(cp))
+        {
+        case Character.DECIMAL_DIGIT_NUMBER:
+        case Character.LETTER_NUMBER:
+        case Character.OTHER_NUMBER:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private static Locale detectLocale(String value)
+    {
+        CharsetDetector cd = new CharsetDetector();
+        cd.setText(value.getBytes());
+        CharsetMatch detect = cd.detect();
+        if (detect == null || detect.getLanguage() == null)
+        {
+            return null;
+        }
+        String language = detect.getLanguage();
+        Locale locale = locales.get(language);
+        if (locale == null)
+        {
+            locale = new Locale(language);
+            Locale previous = locales.putIfAbsent(language, locale);
+            if (previous != null)
+            {
+                locale = previous;
+            }
+        }
+        return locale;
+    }
+}
@@ -8,15 +8,10 @@
 package org.dspace.app.cris.deduplication.utils;
 
 import java.sql.SQLException;
-import java.util.Locale;
 
 import org.dspace.content.DSpaceObject;
 import org.dspace.core.Context;
 
-import com.ibm.icu.text.CharsetDetector;
-import com.ibm.icu.text.CharsetMatch;
-import com.ibm.icu.text.Normalizer;
-
 public class TitleWithDigitAndCollectionSignature extends MD5ValueSignature {
 
     @Override
@@ -38,16 +33,7 @@ public class TitleWithDigitAndCollectionSignature extends MD5ValueSignature {
                     temp = parent.getName();
                 }
             }
-            String norm = Normalizer.normalize(value, Normalizer.NFD);
-            CharsetDetector cd = new CharsetDetector();
-            cd.setText(value.getBytes());
-            CharsetMatch detect = cd.detect();
-            if (detect != null && detect.getLanguage() != null) {
-                norm = norm.replaceAll("[^\\p{L}^\\p{N}]", "").toLowerCase(
-                        new Locale(detect.getLanguage()));
-            } else {
-                norm = norm.replaceAll("[^\\p{L}^\\p{N}]", "").toLowerCase();
-            }
+            String norm = TitleNormalizer.normalize(value, true);
             if (temp != null) {
                 return temp + " " + norm;
             }
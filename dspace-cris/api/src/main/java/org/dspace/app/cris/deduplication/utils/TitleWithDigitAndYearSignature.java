@@ -7,15 +7,9 @@
  */
 package org.dspace.app.cris.deduplication.utils;
 
-import java.util.Locale;
-
 import org.apache.commons.lang.StringUtils;
 import org.dspace.content.DSpaceObject;
 
-import com.ibm.icu.text.CharsetDetector;
-import com.ibm.icu.text.CharsetMatch;
-import com.ibm.icu.text.Normalizer;
-
 public class TitleWithDigitAndYearSignature extends MD5ValueSignature
 {
 
@@ -29,19 +23,7 @@ public class TitleWithDigitAndYearSignature extends MD5ValueSignature
             {
                 temp = getYear(item);
             }
-            String norm = Normalizer.normalize(value, Normalizer.NFD);
-            CharsetDetector cd = new CharsetDetector();
-            cd.setText(value.getBytes());
-            CharsetMatch detect = cd.detect();
-            if (detect != null && detect.getLanguage() != null)
-            {
-                norm = norm.replaceAll("[^\\p{L}^\\p{N}]", "").toLowerCase(
-                        new Locale(detect.getLanguage()));
-            }
-            else
-            {
-                norm = norm.replaceAll("[^\\p{L}^\\p{N}]", "").toLowerCase();
-            }
+            String norm = TitleNormalizer.normalize(value, true);
             if (temp != null) {
                 return temp + " " + norm;
             }
@@ -21,12 +21,21 @@ import it.cilea.osd.jdyna.value.PointerValue;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
@@ -78,6 +87,7 @@ import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.discovery.SearchServiceException;
 import org.dspace.discovery.SearchUtils;
+import org.dspace.discovery.SolrDocumentBatch;
 import org.dspace.discovery.SolrServiceImpl;
 import org.dspace.discovery.configuration.DiscoveryConfiguration;
 import org.dspace.discovery.configuration.DiscoveryConfigurationParameters;
@@ -99,6 +109,9 @@ public class CrisSearchService extends SolrServiceImpl
 
     private static final Logger log = Logger.getLogger(CrisSearchService.class);
 
+    /** the marker of the end of the queue of the cris indexer workers */
+    private static final List<CrisIndexTask> END_OF_INDEX = Collections.emptyList();
+
     public ApplicationService getApplicationService()
     {
 
@@ -620,36 +633,126 @@ public class CrisSearchService extends SolrServiceImpl
         }
     }
 
+    /**
+     * Index all the objects of the given class with their nested objects. The
+     * objects are read in pages by keyset pagination on the id, each page with
+     * the nested objects of all its objects, and split in chunks indexed by a
+     * pool of workers. Each worker sends its documents to Solr in batches (see
+     * {@link SolrDocumentBatch}), no commit is issued here. If reading a page
+     * fails, the error is thrown once the workers have sent what they got.
+     */
     private <T extends ACrisObject<P, TP, NP, NTP, ACNO, ATNO>, P extends Property<TP>, TP extends PropertiesDefinition, NP extends ANestedProperty<NTP>, NTP extends ANestedPropertiesDefinition, ACNO extends ACrisNestedObject<NP, NTP, P, TP>, ATNO extends ATypeNestedObject<NTP>> void createCrisIndex(
             Context context, Class<T> classCrisObject)
     {
-    	long tot = getApplicationService().count(classCrisObject);
-    	final int MAX_RESULT = 10;
-    	long numpages = (tot / MAX_RESULT) + 1;
-        for (int page = 1; page <= numpages; page++)
+        int numThreads = ConfigurationManager.getIntProperty("discovery", "indexer.cris.threads",
+                ConfigurationManager.getIntProperty("discovery", "indexer.items.threads", 5));
+        int pageSize = ConfigurationManager.getIntProperty("discovery", "indexer.cris.page-size", 500);
+        int batchSize = ConfigurationManager.getIntProperty("discovery", "indexer.batch.size", 100);
+        long maxAge = ConfigurationManager.getLongProperty("discovery", "indexer.batch.max-age", 5000);
+        int maxInflight = ConfigurationManager.getIntProperty("discovery", "indexer.batch.max-inflight",
+                SolrDocumentBatch.getDefaultMaxInflight(numThreads));
+
+        if (getSolr() == null)
+        {
+            return;
+        }
+
+        numThreads = Math.max(1, numThreads);
+        pageSize = Math.max(1, pageSize);
+        // small chunks, so that the objects with many nested objects don't
+        // keep a single worker busy while the others wait for the next page
+        int chunkSize = Math.max(1, pageSize / (numThreads * 4));
+        BlockingQueue<List<CrisIndexTask>> queue = new ArrayBlockingQueue<List<CrisIndexTask>>(
+                numThreads * 8);
+        AtomicInteger done = new AtomicInteger(0);
+        Semaphore inflight = new Semaphore(Math.max(1, maxInflight));
+        CountDownLatch latch = new CountDownLatch(numThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        RuntimeException readError = null;
+        long start = System.currentTimeMillis();
+        try
+        {
+            for (int i = 0; i < numThreads; i++)
+            {
+                executor.execute(new CrisIndexerWorker(queue, done,
+                        new SolrDocumentBatch(getSolr(), batchSize, maxAge, inflight), latch));
+            }
+
+            try
+            {
+                Integer lastID = 0;
+                Map<T, List<ACNO>> page;
+                while (!(page = getApplicationService().<T, ACNO> getCrisObjectsWithNestedAfterID(
+                        classCrisObject, lastID, pageSize)).isEmpty())
+                {
+                    List<CrisIndexTask> chunk = new ArrayList<CrisIndexTask>(chunkSize);
+                    for (Map.Entry<T, List<ACNO>> entry : page.entrySet())
+                    {
+                        lastID = entry.getKey().getID();
+                        chunk.add(new CrisIndexTask(entry.getKey(), entry.getValue()));
+                        if (chunk.size() >= chunkSize)
+                        {
+                            enqueue(queue, chunk, latch);
+                            chunk = new ArrayList<CrisIndexTask>(chunkSize);
+                        }
+                    }
+                    if (!chunk.isEmpty())
+                    {
+                        enqueue(queue, chunk, latch);
+                    }
+                }
+            }
+            catch (RuntimeException e)
+            {
+                log.error("Error reading the " + classCrisObject.getSimpleName()
+                        + " to index: " + e.getMessage(), e);
+                readError = e;
+            }
+
+            // let the workers send what they have already got
+            for (int i = 0; i < numThreads; i++)
+            {
+                enqueue(queue, END_OF_INDEX, latch);
+            }
+            latch.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while indexing the " + classCrisObject.getSimpleName(), e);
+        }
+        catch (IllegalStateException e)
+        {
+            log.error(e.getMessage(), e);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        log.info("Indexed " + done.get() + " " + classCrisObject.getSimpleName() + " with "
+                + numThreads + " workers in " + elapsed + " ms ("
+                + (done.get() * 1000L / elapsed) + " objects/s)");
+        if (readError != null)
+        {
+            throw readError;
+        }
+    }
+
+    /**
+     * Wait for room in the queue, unless there is no worker left to make it.
+     */
+    private void enqueue(BlockingQueue<List<CrisIndexTask>> queue,
+            List<CrisIndexTask> chunk, CountDownLatch latch)
+            throws InterruptedException
+    {
+        while (!queue.offer(chunk, 1, TimeUnit.SECONDS))
         {
-			List<T> rpObjects = getApplicationService().getPaginateList(
-					classCrisObject, "id", false, page, MAX_RESULT);
-	
-	        if (rpObjects != null)
-	        {
-	            for (T cris : rpObjects)
-	            {
-	                indexCrisObject(cris, true);
-	                // indexing nested
-	                for (ATNO anestedtype : getApplicationService().getList(
-	                        cris.getClassTypeNested()))
-	                {
-	                    List<ACNO> anesteds = getApplicationService()
-	                            .getNestedObjectsByParentIDAndTypoID(cris.getId(),
-	                                    anestedtype.getId(), cris.getClassNested());
-	                    for (ACNO anested : anesteds)
-	                    {
-	                        indexNestedObject(anested, true);
-	                    }
-	                }
-	            }
-	        }
+            if (latch.getCount() == 0)
+            {
+                throw new IllegalStateException(
+                        "No cris indexer worker left, indexing aborted");
+            }
         }
     }
 
@@ -1054,4 +1157,105 @@ public class CrisSearchService extends SolrServiceImpl
             solrQuery.setFields("clearcache-crismetrics");            
             search(solrQuery);
         }
+
+    /**
+     * A cris object to index with its nested objects.
+     */
+    private static class CrisIndexTask
+    {
+        private final ACrisObject cris;
+
+        private final List<? extends ACrisNestedObject> nesteds;
+
+        CrisIndexTask(ACrisObject cris,
+                List<? extends ACrisNestedObject> nesteds)
+        {
+            this.cris = cris;
+            this.nesteds = nesteds;
+        }
+    }
+
+    /**
+     * Cris indexer worker, indexes the chunks of the queue until it gets the
+     * {@link CrisSearchService#END_OF_INDEX} marker and buffers the produced documents in its own
+     * {@link SolrDocumentBatch}.
+     */
+    class CrisIndexerWorker implements Runnable
+    {
+        private final BlockingQueue<List<CrisIndexTask>> queue;
+
+        private final AtomicInteger done;
+
+        private final SolrDocumentBatch batch;
+
+        private final CountDownLatch latch;
+
+        public CrisIndexerWorker(BlockingQueue<List<CrisIndexTask>> queue,
+                AtomicInteger done, SolrDocumentBatch batch,
+                CountDownLatch latch)
+        {
+            this.queue = queue;
+            this.done = done;
+            this.batch = batch;
+            this.latch = latch;
+        }
+
+        @Override
+        public void run()
+        {
+            final String head = Thread.currentThread().getName();
+            int processed = 0;
+            int errors = 0;
+            long start = System.currentTimeMillis();
+            currentBatch.set(batch);
+            try
+            {
+                List<CrisIndexTask> chunk;
+                while ((chunk = queue.take()) != END_OF_INDEX)
+                {
+                    for (CrisIndexTask task : chunk)
+                    {
+                        try
+                        {
+                            if (!indexCrisObject(task.cris, true))
+                            {
+                                errors++;
+                            }
+                            for (ACrisNestedObject nested : task.nesteds)
+                            {
+                                indexNestedObject(nested, true);
+                            }
+                        }
+                        catch (Exception ex)
+                        {
+                            errors++;
+                            log.error("Error indexing cris:" + task.cris.getUuid()
+                                    + " thread:" + head, ex);
+                        }
+                        processed++;
+                    }
+                    done.addAndGet(chunk.size());
+                }
+                batch.flush();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            catch (Exception e)
+            {
+                log.error(e.getMessage(), e);
+            }
+            finally
+            {
+                currentBatch.remove();
+                long elapsed = Math.max(1, System.currentTimeMillis() - start);
+                log.info(head + ": " + processed + " cris objects (" + errors + " errors), "
+                        + batch.getSentDocuments() + " documents (" + batch.getFailedDocuments() + " rejected) in "
+                        + batch.getSentRequests() + " requests, " + (processed * 1000L / elapsed) + " objects/s, "
+                        + batch.getWaitMillis() + " ms throttled by solr");
+                latch.countDown();
+            }
+        }
+    }
 }
@@ -53,6 +53,14 @@ public class CrisItemEnhancerUtility {
 	}
 
 	public static List<Metadatum> getCrisMetadata(Item item, String metadata) {
+		return getCrisMetadata(item, metadata, null);
+	}
+
+	/**
+	 * @param memo
+	 *            the values already computed for the item, or null
+	 */
+	public static List<Metadatum> getCrisMetadata(Item item, String metadata, EnhancedMetadataMemo memo) {
 		StringTokenizer dcf = new StringTokenizer(metadata, ".");
 
 		String[] tokens = { "", "", "" };
@@ -78,7 +86,7 @@ public class CrisItemEnhancerUtility {
 			for (CrisItemEnhancer enh : enhancers) {
 				Set<String> qualifiers = enh.getQualifiers2path().keySet();
 				for (String qual : qualifiers) {
-					List<String[]> vals = getCrisMetadata(item, enh, qual);
+					List<String[]> vals = getCrisMetadata(item, enh, qual, memo);
 					for (String[] e : vals) {
 						Metadatum dc = new Metadatum();
 						dc.schema = "crisitem";
@@ -102,7 +110,7 @@ public class CrisItemEnhancerUtility {
 			return null;
 		} else {
 			for (CrisItemEnhancer enh : enhancers) {
-				List<String[]> vals = getCrisMetadata(item, enh, qualifier);
+				List<String[]> vals = getCrisMetadata(item, enh, qualifier, memo);
 				for (String[] e : vals) {
 					Metadatum dc = new Metadatum();
 					dc.schema = "crisitem";
@@ -120,6 +128,18 @@ public class CrisItemEnhancerUtility {
 		return result;
 	}
 
+	private static List<String[]> getCrisMetadata(Item item, CrisItemEnhancer enh, String qualifier,
+			EnhancedMetadataMemo memo) {
+		List<String[]> result = memo != null ? memo.getCrisValues(enh, qualifier) : null;
+		if (result == null) {
+			result = getCrisMetadata(item, enh, qualifier);
+			if (memo != null) {
+				memo.putCrisValues(enh, qualifier, result);
+			}
+		}
+		return result;
+	}
+
 	private static List<String[]> getCrisMetadata(Item item, CrisItemEnhancer enh, String qualifier) {
 		List<String> mdList = enh.getMetadata();
 		List<String> validAuthorities = new ArrayList<String>();
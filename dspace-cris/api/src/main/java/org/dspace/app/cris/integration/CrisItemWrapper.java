@@ -34,6 +34,9 @@ public final class CrisItemWrapper
 
     private static final Logger log = Logger.getLogger(CrisItemWrapper.class);
 
+    /** the enhanced values of the wrapped item, shared by all the accessors */
+    private final EnhancedMetadataMemo memo = new EnhancedMetadataMemo();
+
     @Override
     public Object invoke(MethodInvocation invocation) throws Throwable
     {
@@ -203,6 +206,7 @@ public final class CrisItemWrapper
             String schema, String element, String qualifier, String lang)
     {
         List<Metadatum> extraMetadata = new ArrayList<Metadatum>();
+        EnhancedMetadataMemo itemMemo = memo.use(item);
         if (schema == Item.ANY)
         {
             List<String> crisMetadata = CrisItemEnhancerUtility
@@ -212,7 +216,7 @@ public final class CrisItemWrapper
                 for (String cM : crisMetadata)
                 {
                     extraMetadata.addAll(
-                            CrisItemEnhancerUtility.getCrisMetadata(item, cM));
+                            CrisItemEnhancerUtility.getCrisMetadata(item, cM, itemMemo));
 
                 }
             }
@@ -220,7 +224,7 @@ public final class CrisItemWrapper
         else if ("crisitem".equals(schema))
         {
             extraMetadata.addAll(CrisItemEnhancerUtility.getCrisMetadata(item,
-                    schema + "." + element + "." + qualifier));
+                    schema + "." + element + "." + qualifier, itemMemo));
 
         }
         if (extraMetadata.size() == 0)
@@ -245,7 +249,7 @@ public final class CrisItemWrapper
         List<Metadatum> extraMetadata = new ArrayList<Metadatum>();
 
         extraMetadata = ItemEnhancerUtility.getMetadata(item, schema + "."
-                + element + (qualifier != null ? "." + qualifier : ""));
+                + element + (qualifier != null ? "." + qualifier : ""), memo.use(item));
 
         if (extraMetadata == null || extraMetadata.size() == 0)
         {
@@ -0,0 +1,106 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.integration;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.dspace.content.Item;
+import org.dspace.content.ItemEnhancer;
+import org.dspace.content.integration.defaultvalues.DefaultValuesBean;
+
+/**
+ * The values computed by the {@link ItemEnhancer}s and the
+ * {@link CrisItemEnhancer}s for one wrapped item, so that the many metadata
+ * reads of the item (display, discovery, OAI) compute them once.
+ *
+ * The memo lives with the wrapper, hence with the item in its Context. It is
+ * dropped when the item is modified (last modified date) and when any CRIS
+ * object is saved or deleted, see {@link #invalidateAll()}; it is bypassed
+ * while the item has metadata changes not yet saved.
+ *
+ * @see CrisItemWrapper
+ */
+public class EnhancedMetadataMemo
+{
+    /** bumped on each change of a CRIS object */
+    private static final AtomicLong generation = new AtomicLong();
+
+    private final Map<ItemEnhancer, List<DefaultValuesBean>> itemValues = new IdentityHashMap<ItemEnhancer, List<DefaultValuesBean>>();
+
+    private final Map<CrisItemEnhancer, Map<String, List<String[]>>> crisValues = new IdentityHashMap<CrisItemEnhancer, Map<String, List<String[]>>>();
+
+    private Date lastModified;
+
+    private long memoGeneration = -1;
+
+    /**
+     * Forget the values memoized for every item, as they may be read from a
+     * CRIS object just changed.
+     */
+    public static void invalidateAll()
+    {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * @param item
+     *            the wrapped item
+     * @return the memo, emptied if out of date, or null if the item has
+     *         unsaved metadata changes
+     */
+    EnhancedMetadataMemo use(Item item)
+    {
+        if (item.isModifiedMetadata())
+        {
+            return null;
+        }
+        long current = generation.get();
+        Date itemLastModified = item.getLastModified();
+        if (current != memoGeneration || !ObjectUtils.equals(itemLastModified, lastModified))
+        {
+            itemValues.clear();
+            crisValues.clear();
+            memoGeneration = current;
+            lastModified = itemLastModified;
+        }
+        return this;
+    }
+
+    List<DefaultValuesBean> getItemValues(ItemEnhancer enhancer)
+    {
+        return itemValues.get(enhancer);
+    }
+
+    void putItemValues(ItemEnhancer enhancer, List<DefaultValuesBean> values)
+    {
+        itemValues.put(enhancer, values);
+    }
+
+    List<String[]> getCrisValues(CrisItemEnhancer enhancer, String qualifier)
+    {
+        Map<String, List<String[]>> byQualifier = crisValues.get(enhancer);
+        return byQualifier != null ? byQualifier.get(qualifier) : null;
+    }
+
+    void putCrisValues(CrisItemEnhancer enhancer, String qualifier, List<String[]> values)
+    {
+        Map<String, List<String[]>> byQualifier = crisValues.get(enhancer);
+        if (byQualifier == null)
+        {
+            byQualifier = new HashMap<String, List<String[]>>();
+            crisValues.put(enhancer, byQualifier);
+        }
+        byQualifier.put(qualifier, values);
+    }
+}
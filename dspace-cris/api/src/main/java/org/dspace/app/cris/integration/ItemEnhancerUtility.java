@@ -19,7 +19,6 @@ import org.dspace.content.ItemEnhancer;
 import org.dspace.content.authority.Choices;
 import org.dspace.content.integration.defaultvalues.DefaultValuesBean;
 import org.dspace.content.integration.defaultvalues.EnhancedValuesGenerator;
-import org.dspace.core.Context;
 import org.dspace.utils.DSpace;
 
 public class ItemEnhancerUtility
@@ -28,6 +27,16 @@ public class ItemEnhancerUtility
             .getLogger(ItemEnhancerUtility.class);
 
     public static List<Metadatum> getMetadata(Item item, String metadata)
+    {
+        return getMetadata(item, metadata, null);
+    }
+
+    /**
+     * @param memo
+     *            the values already computed for the item, or null
+     */
+    public static List<Metadatum> getMetadata(Item item, String metadata,
+            EnhancedMetadataMemo memo)
     {
         StringTokenizer dcf = new StringTokenizer(metadata, ".");
 
@@ -56,7 +65,16 @@ public class ItemEnhancerUtility
 
         for (ItemEnhancer enh : enhancers)
         {
-            List<DefaultValuesBean> vals = getMetadata(item, enh, qualifier);
+            // the values don't depend on the qualifier asked for
+            List<DefaultValuesBean> vals = memo != null ? memo.getItemValues(enh) : null;
+            if (vals == null)
+            {
+                vals = getMetadata(item, enh);
+                if (memo != null)
+                {
+                    memo.putItemValues(enh, vals);
+                }
+            }
             for (DefaultValuesBean e : vals)
             {
 				if (e.getValues() != null) {
@@ -87,15 +105,12 @@ public class ItemEnhancerUtility
     }
 
     private static List<DefaultValuesBean> getMetadata(Item item,
-            ItemEnhancer enh, String qualifier)
+            ItemEnhancer enh)
     {
         List<String> mdList = enh.getMetadata();
         List<DefaultValuesBean> result = new ArrayList<DefaultValuesBean>();
-        Context context = null;
         try
         {
-            context = new Context();
-
             for (String md : mdList)
             {
                 Metadatum[] Metadatums = item.getMetadataByMetadataString(md);
@@ -133,13 +148,6 @@ public class ItemEnhancerUtility
         {
             log.error(ex.getMessage(), ex);
         }
-        finally
-        {
-            if (context != null && context.isValid())
-            {
-                context.abort();
-            }
-        }
 
         return result;
     }
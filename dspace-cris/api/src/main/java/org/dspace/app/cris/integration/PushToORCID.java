@@ -23,7 +23,6 @@ import java.util.ArrayList;
 import java.util.Currency;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -36,9 +35,7 @@ import javax.ws.rs.core.Response.StatusType;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
-import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrDocumentList;
 import org.dspace.app.cris.configuration.RelationPreferenceConfiguration;
 import org.dspace.app.cris.integration.orcid.WrapperEducation;
 import org.dspace.app.cris.integration.orcid.WrapperEmployment;
@@ -69,6 +66,7 @@ import org.dspace.core.Context;
 import org.dspace.core.I18nUtil;
 import org.dspace.discovery.SearchService;
 import org.dspace.discovery.SearchServiceException;
+import org.dspace.discovery.SolrDocumentCursor;
 import org.dspace.handle.HandleManager;
 import org.dspace.util.SimpleMapConverter;
 import org.dspace.utils.DSpace;
@@ -3067,12 +3065,9 @@ public class PushToORCID
                             "crisproject.principalinvestigator_authority:" + crisID);
                     query.addFilterQuery("-withdrawn:true");
                     query.setFields("search.resourceid", "search.resourcetype");
-                    query.setRows(Integer.MAX_VALUE);
                     try
                     {
-                        QueryResponse response = searchService.search(query);
-                        SolrDocumentList docList = response.getResults();
-                        Iterator<SolrDocument> solrDoc = docList.iterator();
+                        SolrDocumentCursor solrDoc = searchService.iterate(query);
                         while (solrDoc.hasNext())
                         {
                             SolrDocument doc = solrDoc.next();
@@ -3150,12 +3145,9 @@ public class PushToORCID
                     query.addFilterQuery("author_authority:" + crisID);
                     query.addFilterQuery("-withdrawn:true");
                     query.setFields("search.resourceid", "search.resourcetype");
-                    query.setRows(Integer.MAX_VALUE);
                     try
                     {
-                        QueryResponse response = searchService.search(query);
-                        SolrDocumentList docList = response.getResults();
-                        Iterator<SolrDocument> solrDoc = docList.iterator();
+                        SolrDocumentCursor solrDoc = searchService.iterate(query);
                         while (solrDoc.hasNext())
                         {
                             SolrDocument doc = solrDoc.next();
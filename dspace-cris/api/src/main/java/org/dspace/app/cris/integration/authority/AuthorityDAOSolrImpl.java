@@ -8,13 +8,12 @@
 package org.dspace.app.cris.integration.authority;
 
 import org.apache.solr.client.solrj.SolrQuery;
-import org.apache.solr.client.solrj.response.QueryResponse;
-import org.apache.solr.common.SolrDocumentList;
 import org.dspace.app.cris.integration.RPAuthority;
 import org.dspace.content.authority.IAuthorityDAOSolr;
 import org.dspace.core.Constants;
 import org.dspace.discovery.SearchService;
 import org.dspace.discovery.SearchServiceException;
+import org.dspace.discovery.SolrDocumentCursor;
 
 public class AuthorityDAOSolrImpl implements IAuthorityDAOSolr
 {
@@ -22,7 +21,7 @@ public class AuthorityDAOSolrImpl implements IAuthorityDAOSolr
     private SearchService searchService;
 
     @Override
-    public SolrDocumentList getPendingMatch(String metadata, String authority)
+    public SolrDocumentCursor getPendingMatch(String metadata, String authority)
             throws SearchServiceException
     {
         SolrQuery query = new SolrQuery("*:*");
@@ -31,11 +30,8 @@ public class AuthorityDAOSolrImpl implements IAuthorityDAOSolr
                         + metadata + ".pending}" + authority,
                 "NOT(withdrawn:true)");
         query.setFields("search.resourceid", "search.resourcetype");
-        query.setRows(Integer.MAX_VALUE);
 
-        QueryResponse response = searchService.search(query);
-
-        return response.getResults();
+        return searchService.iterate(query);
     }
 
     public void setSearchService(SearchService searchService)
@@ -0,0 +1,101 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.model.listener;
+
+import org.apache.log4j.Logger;
+import org.dspace.app.cris.model.ACrisObject;
+import org.dspace.app.cris.service.ApplicationService;
+import org.dspace.app.cris.util.Researcher;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import it.cilea.osd.common.listener.NativePostDeleteEventListener;
+import it.cilea.osd.common.listener.NativePostUpdateEventListener;
+import it.cilea.osd.common.model.Identifiable;
+
+/**
+ * Drops a saved or deleted CRIS object from the ApplicationService cache of
+ * every node, see {@link ApplicationService#clearCacheByUUID(String)}. This is
+ * done once the transaction is committed, otherwise another node could load
+ * and cache the object again before the change is visible.
+ */
+public class CacheInvalidationListener implements NativePostUpdateEventListener, NativePostDeleteEventListener
+{
+    private static Logger log = Logger.getLogger(CacheInvalidationListener.class);
+
+    private ApplicationService applicationService;
+
+    @Override
+    public <T extends Identifiable> void onPostUpdate(T entity)
+    {
+        Object object = entity;
+        if (object instanceof ACrisObject)
+        {
+            invalidate(((ACrisObject) object).getUuid());
+        }
+    }
+
+    @Override
+    public <T> void onPostDelete(T entity)
+    {
+        Object object = entity;
+        if (object instanceof ACrisObject)
+        {
+            invalidate(((ACrisObject) object).getUuid());
+        }
+    }
+
+    private void invalidate(final String uuid)
+    {
+        if (uuid == null)
+        {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+        {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter()
+            {
+                @Override
+                public void afterCommit()
+                {
+                    clearCache(uuid);
+                }
+            });
+        }
+        else
+        {
+            clearCache(uuid);
+        }
+    }
+
+    private void clearCache(String uuid)
+    {
+        try
+        {
+            getApplicationService().clearCacheByUUID(uuid);
+        }
+        catch (Exception e)
+        {
+            log.error("Cache invalidation of " + uuid + " failed", e);
+        }
+    }
+
+    public ApplicationService getApplicationService()
+    {
+        if (applicationService == null)
+        {
+            applicationService = new Researcher().getApplicationService();
+        }
+        return applicationService;
+    }
+
+    public void setApplicationService(ApplicationService applicationService)
+    {
+        this.applicationService = applicationService;
+    }
+}
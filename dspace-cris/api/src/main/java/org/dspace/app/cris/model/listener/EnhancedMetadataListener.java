@@ -0,0 +1,43 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.model.listener;
+
+import org.dspace.app.cris.integration.EnhancedMetadataMemo;
+import org.dspace.app.cris.model.ACrisObject;
+
+import it.cilea.osd.common.listener.NativePostDeleteEventListener;
+import it.cilea.osd.common.listener.NativePostUpdateEventListener;
+import it.cilea.osd.common.model.Identifiable;
+
+/**
+ * Drops the crisitem values memoized by the wrapped items when a CRIS object
+ * they may be read from is saved or deleted, including the objects created
+ * and updated by the CrisConsumer.
+ */
+public class EnhancedMetadataListener implements NativePostUpdateEventListener, NativePostDeleteEventListener
+{
+    @Override
+    public <T extends Identifiable> void onPostUpdate(T entity)
+    {
+        Object object = entity;
+        if (object instanceof ACrisObject)
+        {
+            EnhancedMetadataMemo.invalidateAll();
+        }
+    }
+
+    @Override
+    public <T> void onPostDelete(T entity)
+    {
+        Object object = entity;
+        if (object instanceof ACrisObject)
+        {
+            EnhancedMetadataMemo.invalidateAll();
+        }
+    }
+}
@@ -14,7 +14,6 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -60,6 +59,7 @@ import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.discovery.SearchServiceException;
+import org.dspace.discovery.SolrDocumentCursor;
 import org.dspace.eperson.EPerson;
 import org.dspace.util.MultiFormatDateParser;
 import org.dspace.utils.DSpace;
@@ -314,13 +314,10 @@ public class OrcidPreferencesUtils
                         query.addFilterQuery("author_authority:" + crisID);
                         query.setFields("search.resourceid",
                                 "search.resourcetype");
-                        query.setRows(Integer.MAX_VALUE);
                         try
                         {
-                            QueryResponse response = getSearchService()
-                                    .search(query);
-                            SolrDocumentList docList = response.getResults();
-                            Iterator<SolrDocument> solrDoc = docList.iterator();
+                            SolrDocumentCursor solrDoc = getSearchService()
+                                    .iterate(query);
                             while (solrDoc.hasNext())
                             {
                                 SolrDocument doc = solrDoc.next();
@@ -377,15 +374,10 @@ public class OrcidPreferencesUtils
                                         "author_authority:" + crisID);
                                 query.setFields("search.resourceid",
                                         "search.resourcetype");
-                                query.setRows(Integer.MAX_VALUE);
                                 try
                                 {
-                                    QueryResponse response = getSearchService()
-                                            .search(query);
-                                    SolrDocumentList docList = response
-                                            .getResults();
-                                    Iterator<SolrDocument> solrDoc = docList
-                                            .iterator();
+                                    SolrDocumentCursor solrDoc = getSearchService()
+                                            .iterate(query);
                                     while (solrDoc.hasNext())
                                     {
                                         SolrDocument doc = solrDoc.next();
@@ -640,13 +632,10 @@ public class OrcidPreferencesUtils
                                 "projectinvestigators_authority:" + crisID);
                         query.setFields("search.resourceid",
                                 "search.resourcetype", "cris-uuid");
-                        query.setRows(Integer.MAX_VALUE);
                         try
                         {
-                            QueryResponse response = getSearchService()
-                                    .search(query);
-                            SolrDocumentList docList = response.getResults();
-                            Iterator<SolrDocument> solrDoc = docList.iterator();
+                            SolrDocumentCursor solrDoc = getSearchService()
+                                    .iterate(query);
                             while (solrDoc.hasNext())
                             {
                                 SolrDocument doc = solrDoc.next();
@@ -705,15 +694,10 @@ public class OrcidPreferencesUtils
                                                 + crisID);
                                 query.setFields("search.resourceid",
                                         "search.resourcetype", "cris-uuid");
-                                query.setRows(Integer.MAX_VALUE);
                                 try
                                 {
-                                    QueryResponse response = getSearchService()
-                                            .search(query);
-                                    SolrDocumentList docList = response
-                                            .getResults();
-                                    Iterator<SolrDocument> solrDoc = docList
-                                            .iterator();
+                                    SolrDocumentCursor solrDoc = getSearchService()
+                                            .iterate(query);
                                     while (solrDoc.hasNext())
                                     {
                                         SolrDocument doc = solrDoc.next();
@@ -117,32 +117,8 @@ public abstract class AVisualizationGraph implements NetworkPlugin
             Integer modeEntity) throws Exception
     {
 
-        SolrQuery solrQuery = new SolrQuery();
-
-        String query = buildQuery(authority, name, showSameDept, dept,
-                modeEntity, level);
-        String[] fqs = {"type:" + getConnectionName(), "entity:" + modeEntity};
-        solrQuery.setQuery(query);
-        solrQuery.addFilterQuery(fqs);
-	if (!showExternal && authority != null && !authority.isEmpty()) {
-		solrQuery.addFilterQuery(new String[] {"a_auth:rp*", "b_auth:rp*" });
-	}
-        solrQuery.setFacet(true);
-        solrQuery.addFacetField(FACET_SEARCH);
-        if (modeEntity == ConstantNetwork.ENTITY_RP)
-        {
-            solrQuery.setFacetLimit(getLimitLevel(level));
-        }
-        else if (modeEntity == ConstantNetwork.ENTITY_DEPT)
-        {
-            solrQuery.setFacetLimit(Integer.MAX_VALUE);
-        }
-        solrQuery.setFacetMinCount(1);
-        solrQuery.setRows(0);
-
-        QueryResponse rsp = service.search(solrQuery);
-
-        FacetField facets = rsp.getFacetField(FACET_SEARCH);
+        List<NetworkGraph.Facet> facets = getFacets(authority, name, level,
+                showExternal, showSameDept, dept, modeEntity);
 
         JsGraph rsGraph = null;
         String src = null;
@@ -174,14 +150,14 @@ public abstract class AVisualizationGraph implements NetworkPlugin
         }
         if (rsGraph != null)
         {
-            if (facets != null && facets.getValueCount() > 0)
+            if (!facets.isEmpty())
             {
-                for (Count facet : facets.getValues())
+                for (NetworkGraph.Facet facet : facets)
                 {
                     if (facet.getCount() > 0)
                     {
 
-                        String node2 = (String) facet.getName();
+                        String node2 = facet.getLabel();
                         String split[] = node2.split("\\|\\|\\|");
 
                         String srcnode2 = null;
@@ -246,6 +222,78 @@ public abstract class AVisualizationGraph implements NetworkPlugin
         return rsGraph;
     }
 
+    /**
+     * The "focus" facet of the connections of a node, i.e. the connected nodes
+     * and the node itself with their counts. They are read from the graph in
+     * memory, see {@link VisualizationGraphIndexer#getGraph(String, Integer)},
+     * or from the network core if "network.graph.enabled" is false.
+     */
+    protected List<NetworkGraph.Facet> getFacets(String authority,
+            String name, Integer level, boolean showExternal,
+            boolean showSameDept, String dept, Integer modeEntity)
+            throws SearchServiceException
+    {
+        boolean internalOnly = !showExternal && authority != null
+                && !authority.isEmpty();
+        if (isGraphEnabled())
+        {
+            NetworkGraph graph = getIndexer().getGraph(getConnectionName(),
+                    modeEntity);
+            String sameDept = showSameDept
+                    && modeEntity == ConstantNetwork.ENTITY_RP ? dept : null;
+            int limit = modeEntity == ConstantNetwork.ENTITY_RP ? getLimitLevel(level)
+                    : 0;
+            return graph.facet(authority, name, internalOnly, sameDept, limit);
+        }
+
+        SolrQuery solrQuery = new SolrQuery();
+
+        String query = buildQuery(authority, name, showSameDept, dept,
+                modeEntity, level);
+        String[] fqs = {"type:" + getConnectionName(), "entity:" + modeEntity};
+        solrQuery.setQuery(query);
+        solrQuery.addFilterQuery(fqs);
+        if (internalOnly)
+        {
+            solrQuery.addFilterQuery(new String[] {"a_auth:rp*", "b_auth:rp*" });
+        }
+        solrQuery.setFacet(true);
+        solrQuery.addFacetField(FACET_SEARCH);
+        if (modeEntity == ConstantNetwork.ENTITY_RP)
+        {
+            solrQuery.setFacetLimit(getLimitLevel(level));
+        }
+        else if (modeEntity == ConstantNetwork.ENTITY_DEPT)
+        {
+            solrQuery.setFacetLimit(Integer.MAX_VALUE);
+        }
+        solrQuery.setFacetMinCount(1);
+        solrQuery.setRows(0);
+
+        QueryResponse rsp = service.search(solrQuery);
+        return toFacets(rsp.getFacetField(FACET_SEARCH));
+    }
+
+    private List<NetworkGraph.Facet> toFacets(FacetField field)
+    {
+        List<NetworkGraph.Facet> facets = new ArrayList<NetworkGraph.Facet>();
+        if (field != null && field.getValues() != null)
+        {
+            for (Count count : field.getValues())
+            {
+                facets.add(new NetworkGraph.Facet(count.getName(),
+                        (int) count.getCount()));
+            }
+        }
+        return facets;
+    }
+
+    protected boolean isGraphEnabled()
+    {
+        return ConfigurationManager.getBooleanProperty(
+                NetworkPlugin.CFG_MODULE, "network.graph.enabled", true);
+    }
+
     private String buildQuery(String authority, String name,
             boolean showSameDept, String dept, Integer modeEntity, Integer level)
     {
@@ -411,27 +459,39 @@ public abstract class AVisualizationGraph implements NetworkPlugin
             throws SearchServiceException
     {
         // load all publications
-        SolrQuery solrQuery = new SolrQuery();
-        solrQuery.setQuery("type:" + getType() + " AND entity:"
-                + ConstantNetwork.ENTITY_RP);
-        solrQuery.addFacetField(FACET_METRICS);
-        solrQuery.setFacetLimit(Integer.MAX_VALUE);
-        solrQuery.setFacetMinCount(1);
-        solrQuery.setRows(0);
-        QueryResponse rsp = getService().search(solrQuery);
-        FacetField facets = rsp.getFacetField(FACET_METRICS);
+        NetworkGraph graph = null;
+        List<String> facets = new ArrayList<String>();
+        if (isGraphEnabled())
+        {
+            graph = getIndexer().getGraph(getType(), ConstantNetwork.ENTITY_RP);
+            facets.addAll(graph.getAuthorities());
+        }
+        else
+        {
+            SolrQuery solrQuery = new SolrQuery();
+            solrQuery.setQuery("type:" + getType() + " AND entity:"
+                    + ConstantNetwork.ENTITY_RP);
+            solrQuery.addFacetField(FACET_METRICS);
+            solrQuery.setFacetLimit(Integer.MAX_VALUE);
+            solrQuery.setFacetMinCount(1);
+            solrQuery.setRows(0);
+            QueryResponse rsp = getService().search(solrQuery);
+            for (NetworkGraph.Facet facet : toFacets(rsp.getFacetField(FACET_METRICS)))
+            {
+                facets.add(facet.getLabel());
+            }
+        }
 
         // for each interests get authority's authors
         List<ResearcherPage> result = new LinkedList<ResearcherPage>();
         int counter = 0;
-        external: for (Count facetElement : facets.getValues())
+        external: for (String facetValue : facets)
         {
             counter++;
-            log.debug("" + counter + " of " + facets.getValueCount());
+            log.debug("" + counter + " of " + facets.size());
             ResearcherPage researcher = null;
             try
             {
-                String facetValue = facetElement.getName();
 
                 Integer realPersistentIdentifier = ResearcherPageUtils
                         .getRealPersistentIdentifier(facetValue, ResearcherPage.class);
@@ -439,27 +499,34 @@ public abstract class AVisualizationGraph implements NetworkPlugin
                         .get(ResearcherPage.class, realPersistentIdentifier);
                 //researcher.getDynamicField().setAnagraficaLazy(applicationService.getAnagraficaByRP(realPersistentIdentifier));
             
-                solrQuery = new SolrQuery();
-                solrQuery.setQuery("type:" + getType() + " AND entity:" + ConstantNetwork.ENTITY_RP + " AND " + FACET_METRICS + ":\"" + facetValue + "\"");
-                solrQuery.addFacetField(FACET_SEARCH);
-                solrQuery.setFacetMinCount(1);
-                solrQuery.setFacetLimit(Integer.MAX_VALUE);
-                solrQuery.setRows(0);
-
-                rsp = getService().search(solrQuery);
-                FacetField relations = rsp.getFacetField(FACET_SEARCH);
+                List<NetworkGraph.Facet> relations;
+                if (graph != null)
+                {
+                    relations = graph.facet(facetValue, null, false, null, 0);
+                }
+                else
+                {
+                    SolrQuery solrQuery = new SolrQuery();
+                    solrQuery.setQuery("type:" + getType() + " AND entity:" + ConstantNetwork.ENTITY_RP + " AND " + FACET_METRICS + ":\"" + facetValue + "\"");
+                    solrQuery.addFacetField(FACET_SEARCH);
+                    solrQuery.setFacetMinCount(1);
+                    solrQuery.setFacetLimit(Integer.MAX_VALUE);
+                    solrQuery.setRows(0);
+
+                    QueryResponse rsp = getService().search(solrQuery);
+                    relations = toFacets(rsp.getFacetField(FACET_SEARCH));
+                }
                 int i = 0;
                 int nConnections = 0;
                 int maxStrength = 0;
                 int sumStrength = 0;
                 List<Long> quadraticVarianceArrays = new ArrayList<Long>();
-                nConnections = Integer.valueOf(relations
-                        .getValueCount() - 1);
-                internal: for (Count relation : relations.getValues())
+                nConnections = Integer.valueOf(relations.size() - 1);
+                internal: for (NetworkGraph.Facet relation : relations)
                 {
 
                     log.debug("" + counter + " works on " + i + " of "
-                            + relations.getValueCount());
+                            + relations.size());
 
                     if (i == 0)
                     {                     
@@ -478,7 +545,7 @@ public abstract class AVisualizationGraph implements NetworkPlugin
                         sumStrength += Integer.valueOf((int) relation
                                 .getCount());
 
-                        quadraticVarianceArrays.add(relation
+                        quadraticVarianceArrays.add((long) relation
                                 .getCount());
                     }
 
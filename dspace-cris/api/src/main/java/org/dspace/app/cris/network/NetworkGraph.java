@@ -0,0 +1,609 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.network;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The connections of one type and entity of the network core held in memory,
+ * as adjacency arrays (compressed sparse rows): the edges of node
+ * <code>i</code> are <code>targets[offsets[i]..offsets[i+1]]</code>, sorted,
+ * with the number of documents linking the two nodes in <code>weights</code>.
+ * The documents of a single node, connected to itself or without the other
+ * end, are counted apart.
+ * <p/>
+ * The nodes are the values of the a and b fields, the values faceted as
+ * "focus" by the Solr queries this graph replaces, so that
+ * {@link #facet(String, String, boolean, String, int)} returns the same
+ * facets. A graph is immutable, {@link #withNodes(List)} returns an updated
+ * copy.
+ *
+ * @see VisualizationGraphIndexer#getGraph(String, Integer)
+ */
+public class NetworkGraph
+{
+    /** the prefix of the authorities of the researchers */
+    private static final String INTERNAL_PREFIX = "rp";
+
+    private final String[] labels;
+
+    private final String[] authorities;
+
+    private final String[] values;
+
+    private final String[] depts;
+
+    private final int[] offsets;
+
+    private final int[] targets;
+
+    private final int[] weights;
+
+    /** the documents connecting each node to itself */
+    private final int[] loops;
+
+    /** the documents of each node without the other end */
+    private final int[] singles;
+
+    private final int documents;
+
+    private final Map<String, int[]> byAuthority;
+
+    private final Map<String, int[]> byValue;
+
+    /**
+     * A node connected to the searched one, with the number of documents
+     * connecting them, as a facet on the "focus" field.
+     */
+    public static final class Facet
+    {
+        private final String label;
+
+        private final int count;
+
+        public Facet(String label, int count)
+        {
+            this.label = label;
+            this.count = count;
+        }
+
+        public String getLabel()
+        {
+            return label;
+        }
+
+        public int getCount()
+        {
+            return count;
+        }
+    }
+
+    private static final Comparator<Facet> FACET_ORDER = new Comparator<Facet>()
+    {
+        @Override
+        public int compare(Facet f1, Facet f2)
+        {
+            if (f1.count != f2.count)
+            {
+                return f1.count > f2.count ? -1 : 1;
+            }
+            return f1.label.compareTo(f2.label);
+        }
+    };
+
+    private NetworkGraph(Builder builder, int[] offsets, int[] targets, int[] weights)
+    {
+        this.labels = builder.labels.toArray(new String[builder.labels.size()]);
+        this.authorities = builder.authorities.toArray(new String[builder.authorities.size()]);
+        this.values = builder.values.toArray(new String[builder.values.size()]);
+        this.depts = builder.depts.toArray(new String[builder.depts.size()]);
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.loops = Arrays.copyOf(builder.loops, labels.length);
+        this.singles = Arrays.copyOf(builder.singles, labels.length);
+        this.documents = builder.documents;
+        this.byAuthority = index(authorities);
+        this.byValue = index(values);
+    }
+
+    private static Map<String, int[]> index(String[] keys)
+    {
+        Map<String, List<Integer>> lists = new HashMap<String, List<Integer>>();
+        for (int i = 0; i < keys.length; i++)
+        {
+            if (keys[i] != null)
+            {
+                List<Integer> list = lists.get(keys[i]);
+                if (list == null)
+                {
+                    list = new ArrayList<Integer>(1);
+                    lists.put(keys[i], list);
+                }
+                list.add(i);
+            }
+        }
+        Map<String, int[]> index = new HashMap<String, int[]>(lists.size() * 4 / 3 + 1);
+        for (Map.Entry<String, List<Integer>> entry : lists.entrySet())
+        {
+            int[] nodes = new int[entry.getValue().size()];
+            for (int i = 0; i < nodes.length; i++)
+            {
+                nodes[i] = entry.getValue().get(i);
+            }
+            index.put(entry.getKey(), nodes);
+        }
+        return index;
+    }
+
+    /**
+     * @return the number of documents of the index read into this graph
+     */
+    public int getDocuments()
+    {
+        return documents;
+    }
+
+    public int getNodeCount()
+    {
+        return labels.length;
+    }
+
+    /**
+     * @return the number of connected pairs of nodes
+     */
+    public int getEdgeCount()
+    {
+        return targets.length / 2;
+    }
+
+    /**
+     * @return the authorities of the nodes, as the "focus_auth" facet
+     */
+    public Collection<String> getAuthorities()
+    {
+        return Collections.unmodifiableSet(byAuthority.keySet());
+    }
+
+    /**
+     * The nodes connected to a node, as the facet on the "focus" field of the
+     * documents of the node: the nodes themselves come first, with the count
+     * of their documents. As in Solr, each document counts once for each of
+     * its nodes.
+     *
+     * @param authority
+     *            the authority of the node, or null to search the node by name
+     * @param name
+     *            the display value of the node, used without authority
+     * @param internalOnly
+     *            only the documents connecting two researchers
+     * @param sameDept
+     *            only the documents connecting two nodes of this department,
+     *            or null
+     * @param limit
+     *            the maximum number of facets, 0 for all
+     * @return the facets, by decreasing count
+     */
+    public List<Facet> facet(String authority, String name, boolean internalOnly, String sameDept, int limit)
+    {
+        int[] sources = find(authority, name);
+        if (sources == null)
+        {
+            return Collections.emptyList();
+        }
+        Map<Integer, int[]> counts = new HashMap<Integer, int[]>();
+        for (int source : sources)
+        {
+            if (!accept(source, internalOnly, sameDept))
+            {
+                continue;
+            }
+            if (loops[source] > 0)
+            {
+                count(counts, source, loops[source]);
+            }
+            // the other end of these documents is neither a researcher nor
+            // in the department
+            if (singles[source] > 0 && !internalOnly && sameDept == null)
+            {
+                count(counts, source, singles[source]);
+            }
+            for (int e = offsets[source]; e < offsets[source + 1]; e++)
+            {
+                int target = targets[e];
+                if (target < source && Arrays.binarySearch(sources, target) >= 0)
+                {
+                    // both ends are searched, the documents are counted once
+                    // from the first one
+                    continue;
+                }
+                if (accept(target, internalOnly, sameDept))
+                {
+                    count(counts, target, weights[e]);
+                    count(counts, source, weights[e]);
+                }
+            }
+        }
+
+        List<Facet> facets = new ArrayList<Facet>(counts.size());
+        for (Map.Entry<Integer, int[]> entry : counts.entrySet())
+        {
+            facets.add(new Facet(labels[entry.getKey()], entry.getValue()[0]));
+        }
+        Collections.sort(facets, FACET_ORDER);
+        if (limit > 0 && facets.size() > limit)
+        {
+            return new ArrayList<Facet>(facets.subList(0, limit));
+        }
+        return facets;
+    }
+
+    /**
+     * @return the number of nodes connected to the nodes of the authority
+     */
+    public int getDegree(String authority)
+    {
+        int[] sources = find(authority, null);
+        if (sources == null)
+        {
+            return 0;
+        }
+        if (sources.length == 1)
+        {
+            return offsets[sources[0] + 1] - offsets[sources[0]];
+        }
+        Map<Integer, int[]> neighbours = new HashMap<Integer, int[]>();
+        for (int source : sources)
+        {
+            for (int e = offsets[source]; e < offsets[source + 1]; e++)
+            {
+                count(neighbours, targets[e], 1);
+            }
+        }
+        for (int source : sources)
+        {
+            neighbours.remove(source);
+        }
+        return neighbours.size();
+    }
+
+    /**
+     * The nodes reachable from the nodes of the authority in a number of hops.
+     *
+     * @return the labels of the nodes with their distance, the nodes of the
+     *         authority having distance 0, nearest first
+     */
+    public Map<String, Integer> getNeighbourhood(String authority, int hops)
+    {
+        Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+        int[] sources = find(authority, null);
+        if (sources == null)
+        {
+            return result;
+        }
+        int[] distance = new int[labels.length];
+        Arrays.fill(distance, -1);
+        ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        for (int source : sources)
+        {
+            distance[source] = 0;
+            queue.add(source);
+        }
+        while (!queue.isEmpty())
+        {
+            int node = queue.poll();
+            result.put(labels[node], distance[node]);
+            if (distance[node] < hops)
+            {
+                for (int e = offsets[node]; e < offsets[node + 1]; e++)
+                {
+                    if (distance[targets[e]] < 0)
+                    {
+                        distance[targets[e]] = distance[node] + 1;
+                        queue.add(targets[e]);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A shortest chain of connections between two authorities.
+     *
+     * @param maxHops
+     *            the longest chain looked for
+     * @return the labels of the nodes from the first to the second authority,
+     *         empty if they aren't connected within maxHops
+     */
+    public List<String> getPath(String fromAuthority, String toAuthority, int maxHops)
+    {
+        int[] sources = find(fromAuthority, null);
+        int[] destinations = find(toAuthority, null);
+        if (sources == null || destinations == null)
+        {
+            return Collections.emptyList();
+        }
+        boolean[] isDestination = new boolean[labels.length];
+        for (int destination : destinations)
+        {
+            isDestination[destination] = true;
+        }
+        int[] previous = new int[labels.length];
+        int[] distance = new int[labels.length];
+        Arrays.fill(distance, -1);
+        ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        for (int source : sources)
+        {
+            distance[source] = 0;
+            previous[source] = -1;
+            queue.add(source);
+        }
+        while (!queue.isEmpty())
+        {
+            int node = queue.poll();
+            if (isDestination[node])
+            {
+                LinkedList<String> path = new LinkedList<String>();
+                for (int n = node; n >= 0; n = previous[n])
+                {
+                    path.addFirst(labels[n]);
+                }
+                return path;
+            }
+            if (distance[node] < maxHops)
+            {
+                for (int e = offsets[node]; e < offsets[node + 1]; e++)
+                {
+                    if (distance[targets[e]] < 0)
+                    {
+                        distance[targets[e]] = distance[node] + 1;
+                        previous[targets[e]] = node;
+                        queue.add(targets[e]);
+                    }
+                }
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return a copy of this graph with the connections of the nodes added
+     */
+    public NetworkGraph withNodes(List<VisualizationGraphNode> nodes)
+    {
+        Builder builder = new Builder(this);
+        for (VisualizationGraphNode node : nodes)
+        {
+            builder.addDocument(node.getA(), node.getA_auth(), node.getFavalue(), node.getA_dept(),
+                    node.getB(), node.getB_auth(), node.getFbvalue(), node.getB_dept());
+        }
+        return builder.build();
+    }
+
+    private int[] find(String authority, String name)
+    {
+        if (authority != null && !authority.isEmpty())
+        {
+            return byAuthority.get(authority);
+        }
+        return name != null ? byValue.get(name) : null;
+    }
+
+    private boolean accept(int node, boolean internalOnly, String sameDept)
+    {
+        if (internalOnly && (authorities[node] == null || !authorities[node].startsWith(INTERNAL_PREFIX)))
+        {
+            return false;
+        }
+        return sameDept == null || sameDept.equals(depts[node]);
+    }
+
+    private static void count(Map<Integer, int[]> counts, int node, int weight)
+    {
+        int[] count = counts.get(node);
+        if (count == null)
+        {
+            counts.put(node, new int[] { weight });
+        }
+        else
+        {
+            count[0] += weight;
+        }
+    }
+
+    /**
+     * Collects the documents of the network core, i.e. the connections, and
+     * builds the graph.
+     */
+    public static class Builder
+    {
+        private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+        private final List<String> labels = new ArrayList<String>();
+
+        private final List<String> authorities = new ArrayList<String>();
+
+        private final List<String> values = new ArrayList<String>();
+
+        private final List<String> depts = new ArrayList<String>();
+
+        // the connected pairs, each pair once, possibly repeated
+        private int[] from = new int[1024];
+
+        private int[] to = new int[1024];
+
+        private int[] weight = new int[1024];
+
+        private int pairs;
+
+        private int[] loops = new int[1024];
+
+        private int[] singles = new int[1024];
+
+        private int documents;
+
+        public Builder()
+        {
+        }
+
+        private Builder(NetworkGraph graph)
+        {
+            for (int i = 0; i < graph.labels.length; i++)
+            {
+                node(graph.labels[i], graph.authorities[i], graph.values[i], graph.depts[i]);
+                loops[i] = graph.loops[i];
+                singles[i] = graph.singles[i];
+            }
+            for (int i = 0; i < graph.labels.length; i++)
+            {
+                for (int e = graph.offsets[i]; e < graph.offsets[i + 1]; e++)
+                {
+                    if (i < graph.targets[e])
+                    {
+                        pair(i, graph.targets[e], graph.weights[e]);
+                    }
+                }
+            }
+            documents = graph.documents;
+        }
+
+        /**
+         * Add a document of the network core, i.e. a connection between the
+         * nodes a and b. The authority, value and department of a node are
+         * taken from its first document.
+         */
+        public void addDocument(String a, String aAuthority, String aValue, String aDept,
+                String b, String bAuthority, String bValue, String bDept)
+        {
+            documents++;
+            if (a == null && b == null)
+            {
+                return;
+            }
+            if (a == null || b == null)
+            {
+                int u = a != null ? node(a, aAuthority, aValue, aDept) : node(b, bAuthority, bValue, bDept);
+                singles[u]++;
+                return;
+            }
+            int u = node(a, aAuthority, aValue, aDept);
+            int v = node(b, bAuthority, bValue, bDept);
+            if (u != v)
+            {
+                pair(u, v, 1);
+            }
+            else
+            {
+                loops[u]++;
+            }
+        }
+
+        private int node(String label, String authority, String value, String dept)
+        {
+            Integer id = ids.get(label);
+            if (id == null)
+            {
+                id = labels.size();
+                if (id == loops.length)
+                {
+                    loops = Arrays.copyOf(loops, id * 2);
+                    singles = Arrays.copyOf(singles, id * 2);
+                }
+                ids.put(label, id);
+                labels.add(label);
+                authorities.add(authority);
+                values.add(value);
+                depts.add(dept);
+            }
+            return id;
+        }
+
+        private void pair(int u, int v, int w)
+        {
+            if (pairs == from.length)
+            {
+                from = Arrays.copyOf(from, pairs * 2);
+                to = Arrays.copyOf(to, pairs * 2);
+                weight = Arrays.copyOf(weight, pairs * 2);
+            }
+            from[pairs] = u;
+            to[pairs] = v;
+            weight[pairs] = w;
+            pairs++;
+        }
+
+        public NetworkGraph build()
+        {
+            int n = labels.size();
+
+            // both directions of each pair, grouped by source
+            int[] offsets = new int[n + 1];
+            for (int i = 0; i < pairs; i++)
+            {
+                offsets[from[i] + 1]++;
+                offsets[to[i] + 1]++;
+            }
+            for (int i = 0; i < n; i++)
+            {
+                offsets[i + 1] += offsets[i];
+            }
+            long[] edges = new long[pairs * 2];
+            int[] cursor = Arrays.copyOf(offsets, n);
+            for (int i = 0; i < pairs; i++)
+            {
+                edges[cursor[from[i]]++] = edge(to[i], weight[i]);
+                edges[cursor[to[i]]++] = edge(from[i], weight[i]);
+            }
+
+            // sort the edges of each node by target, merging the repeated ones
+            int[] targets = new int[edges.length];
+            int[] weights = new int[edges.length];
+            int size = 0;
+            for (int i = 0; i < n; i++)
+            {
+                int start = offsets[i];
+                int end = offsets[i + 1];
+                offsets[i] = size;
+                Arrays.sort(edges, start, end);
+                for (int e = start; e < end; e++)
+                {
+                    int target = (int) (edges[e] >>> 32);
+                    int w = (int) edges[e];
+                    if (size > offsets[i] && targets[size - 1] == target)
+                    {
+                        weights[size - 1] += w;
+                    }
+                    else
+                    {
+                        targets[size] = target;
+                        weights[size] = w;
+                        size++;
+                    }
+                }
+            }
+            offsets[n] = size;
+            return new NetworkGraph(this, offsets, Arrays.copyOf(targets, size), Arrays.copyOf(weights, size));
+        }
+
+        private static long edge(int target, int weight)
+        {
+            return ((long) target << 32) | (weight & 0xffffffffL);
+        }
+    }
+}
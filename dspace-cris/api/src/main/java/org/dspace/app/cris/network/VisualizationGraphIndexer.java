@@ -11,13 +11,26 @@ package org.dspace.app.cris.network;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.StreamingResponseCallback;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
 import org.dspace.app.cris.discovery.CrisSearchService;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.PluginManager;
@@ -31,6 +44,31 @@ public class VisualizationGraphIndexer {
 	private HttpSolrServer solr;
 
 	private CrisSearchService indexer;
+
+	/** the graphs in memory, by type and entity */
+	private final Map<String, GraphHolder> graphs = new ConcurrentHashMap<String, GraphHolder>();
+
+	/** the graphs being checked or read from the index, by type and entity */
+	private final ConcurrentMap<String, FutureTask<NetworkGraph>> loading = new ConcurrentHashMap<String, FutureTask<NetworkGraph>>();
+
+	/** incremented each time the graphs in memory are updated */
+	private long updates = 0;
+
+	/**
+	 * A graph with the version of the index it was read from, and the last
+	 * time the version was checked.
+	 */
+	private static class GraphHolder {
+		private volatile NetworkGraph graph;
+		private volatile Object version;
+		private volatile long checked;
+
+		GraphHolder(NetworkGraph graph, Object version, long checked) {
+			this.graph = graph;
+			this.version = version;
+			this.checked = checked;
+		}
+	}
 	
 	public HttpSolrServer getSolr() {
 		init();
@@ -112,6 +150,168 @@ public class VisualizationGraphIndexer {
 		catch(Exception e) {
 			log.error(e.getMessage(), e);
 		}
+		updateGraphs(nodes);
+	}
+
+	/**
+	 * Add the new connections to the graphs in memory, they are made current
+	 * by the next {@link #commit()}.
+	 */
+	private synchronized void updateGraphs(List<VisualizationGraphNode> nodes) {
+		if (graphs.isEmpty()) {
+			return;
+		}
+		Map<String, List<VisualizationGraphNode>> byGraph = new HashMap<String, List<VisualizationGraphNode>>();
+		for (VisualizationGraphNode node : nodes) {
+			String key = getGraphKey(node.getType(), node.getEntity());
+			if (graphs.containsKey(key)) {
+				List<VisualizationGraphNode> list = byGraph.get(key);
+				if (list == null) {
+					list = new ArrayList<VisualizationGraphNode>();
+					byGraph.put(key, list);
+				}
+				list.add(node);
+			}
+		}
+		for (Map.Entry<String, List<VisualizationGraphNode>> entry : byGraph.entrySet()) {
+			GraphHolder holder = graphs.get(entry.getKey());
+			holder.graph = holder.graph.withNodes(entry.getValue());
+		}
+		updates++;
+	}
+
+	/**
+	 * The connections of a type, held in memory. The graph is read from the
+	 * index the first time and whenever the index changed, checked at most
+	 * every "network.graph.check-interval" ms (default 10000). Concurrent
+	 * requests for the same graph wait for a single check or read, the other
+	 * graphs are not blocked meanwhile.
+	 * 
+	 * @param type
+	 *            the connection name
+	 * @param entity
+	 *            see {@link ConstantNetwork#ENTITY_RP} and
+	 *            {@link ConstantNetwork#ENTITY_DEPT}
+	 */
+	public NetworkGraph getGraph(final String type, final Integer entity) throws SearchServiceException {
+		final String key = getGraphKey(type, entity);
+		final long checkInterval = ConfigurationManager.getLongProperty(NetworkPlugin.CFG_MODULE,
+				"network.graph.check-interval", 10000);
+		GraphHolder holder = graphs.get(key);
+		if (holder != null && System.currentTimeMillis() - holder.checked < checkInterval) {
+			return holder.graph;
+		}
+		FutureTask<NetworkGraph> task = new FutureTask<NetworkGraph>(new Callable<NetworkGraph>() {
+			@Override
+			public NetworkGraph call() throws Exception {
+				return refreshGraph(key, type, entity, checkInterval);
+			}
+		});
+		FutureTask<NetworkGraph> running = loading.putIfAbsent(key, task);
+		if (running == null) {
+			running = task;
+			try {
+				task.run();
+			}
+			finally {
+				loading.remove(key, task);
+			}
+		}
+		try {
+			return running.get();
+		}
+		catch (ExecutionException e) {
+			throw new SearchServiceException(e.getCause().getMessage(), e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SearchServiceException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Check the version of the index and read the graph again if it changed,
+	 * run by a single thread at a time for each graph.
+	 */
+	private NetworkGraph refreshGraph(String key, String type, Integer entity, long checkInterval)
+			throws SolrServerException, IOException {
+		long now = System.currentTimeMillis();
+		GraphHolder holder = graphs.get(key);
+		if (holder != null && now - holder.checked < checkInterval) {
+			return holder.graph;
+		}
+		long updatesBefore;
+		synchronized (this) {
+			updatesBefore = updates;
+		}
+		Object version = getIndexVersion();
+		if (holder != null && version != null && version.equals(holder.version)) {
+			holder.checked = now;
+			return holder.graph;
+		}
+		NetworkGraph graph = loadGraph(type, entity);
+		synchronized (this) {
+			// connections added while reading are missing from the graph, it
+			// is read again at the next check
+			graphs.put(key, new GraphHolder(graph, updates == updatesBefore ? version : null, now));
+		}
+		log.info("Network graph " + key + " loaded: " + graph.getNodeCount() + " nodes, "
+				+ graph.getEdgeCount() + " edges, " + (System.currentTimeMillis() - now) + " ms");
+		return graph;
+	}
+
+	/**
+	 * Read all the connections of the graph in a single request, streamed
+	 * document by document: a document committed meanwhile changes the index
+	 * version, so the graph is read again at the next check.
+	 */
+	private NetworkGraph loadGraph(String type, Integer entity) throws SolrServerException, IOException {
+		final NetworkGraph.Builder builder = new NetworkGraph.Builder();
+		SolrQuery query = new SolrQuery("type:\"" + type + "\" AND entity:" + entity);
+		query.setRows(0);
+		long numFound = getSolr().query(query).getResults().getNumFound();
+		if (numFound == 0) {
+			return builder.build();
+		}
+		query.setFields("a", "b", "a_auth", "b_auth", "a_val", "b_val", "a_dept", "b_dept");
+		query.setRows((int) Math.min(numFound, Integer.MAX_VALUE));
+		getSolr().queryAndStreamResponse(query, new StreamingResponseCallback() {
+			@Override
+			public void streamSolrDocument(SolrDocument doc) {
+				builder.addDocument(getString(doc, "a"), getString(doc, "a_auth"), getString(doc, "a_val"),
+						getString(doc, "a_dept"), getString(doc, "b"), getString(doc, "b_auth"),
+						getString(doc, "b_val"), getString(doc, "b_dept"));
+			}
+
+			@Override
+			public void streamDocListInfo(long numFound, long start, Float maxScore) {
+				/* NOOP */
+			}
+		});
+		return builder.build();
+	}
+
+	private static String getString(SolrDocument doc, String field) {
+		Object value = doc.getFirstValue(field);
+		return value != null ? value.toString() : null;
+	}
+
+	/**
+	 * @return the version of the index, changed by each commit
+	 */
+	private Object getIndexVersion() throws SolrServerException, IOException {
+		ModifiableSolrParams params = new ModifiableSolrParams();
+		params.set("show", "index");
+		params.set("numTerms", 0);
+		QueryRequest request = new QueryRequest(params);
+		request.setPath("/admin/luke");
+		NamedList<Object> response = getSolr().request(request);
+		NamedList<?> index = (NamedList<?>) response.get("index");
+		return index != null ? index.get("version") : null;
+	}
+
+	private static String getGraphKey(String type, Integer entity) {
+		return type + "/" + entity;
 	}
 
 	public void removeIndex(VisualizationGraphNode node) throws IOException,
@@ -124,6 +324,14 @@ public class VisualizationGraphIndexer {
 		getSolr().deleteByQuery(
 				"node1:" + node1 + " AND node2:" + node2 + " AND type:" + type);
 		getSolr().commit();
+		synchronized (this) {
+			for (String key : graphs.keySet()) {
+				if (key.startsWith(type + "/")) {
+					graphs.remove(key);
+				}
+			}
+			updates++;
+		}
 	}
 
 	/**
@@ -180,12 +388,32 @@ public class VisualizationGraphIndexer {
 
 		getSolr().deleteByQuery("*:*");
 		getSolr().commit();
+		synchronized (this) {
+			graphs.clear();
+			updates++;
+		}
 
 	}
 
 	public void commit() {
 		try {
-			getSolr().commit();
+			synchronized (this) {
+				if (graphs.isEmpty()) {
+					getSolr().commit();
+				}
+				else {
+					// the graphs current before the commit have the added
+					// connections already, they stay current after it
+					Object before = getIndexVersion();
+					getSolr().commit();
+					Object after = getIndexVersion();
+					for (GraphHolder holder : graphs.values()) {
+						if (before != null && before.equals(holder.version)) {
+							holder.version = after;
+						}
+					}
+				}
+			}
 		} catch (Exception e) {
 			throw new RuntimeException(e.getMessage(), e);
 		}
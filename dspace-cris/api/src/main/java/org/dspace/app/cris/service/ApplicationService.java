@@ -12,16 +12,22 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.cli.ParseException;
 import org.apache.log4j.Logger;
 import org.dspace.app.cris.batch.ImportCRISDataModelConfiguration;
+import org.dspace.app.cris.dao.ApplicationDao;
 import org.dspace.app.cris.dao.CrisObjectDao;
 import org.dspace.app.cris.dao.CrisSubscriptionDao;
 import org.dspace.app.cris.dao.DynamicObjectDao;
@@ -43,6 +49,7 @@ import org.dspace.app.cris.model.RelationPreference;
 import org.dspace.app.cris.model.ResearchObject;
 import org.dspace.app.cris.model.ResearcherPage;
 import org.dspace.app.cris.model.StatSubscription;
+import org.dspace.app.cris.model.jdyna.ACrisNestedObject;
 import org.dspace.app.cris.model.jdyna.DynamicObjectType;
 import org.dspace.app.cris.model.jdyna.DynamicTypeNestedObject;
 import org.dspace.app.cris.model.jdyna.RPProperty;
@@ -99,9 +106,15 @@ public class ApplicationService extends ExtendedTabService
 	private Cache cacheByCrisID;
 	private Cache cacheBySource;
 	private Cache cacheByUUID;
-	
+
+	// the usage of each region, by region name
+	private Map<String, CacheRegionStatistics> cacheStatistics = new ConcurrentHashMap<String, CacheRegionStatistics>();
+
     // the key is the UUID of the CRIS object, the set contains the UUIDs of all the CRIS objects that hold a reference to such object
-    private Map<String, Set<String>> cacheDependencies = new HashMap<String, Set<String>>();
+    private ConcurrentMap<String, Set<String>> cacheDependencies = new ConcurrentHashMap<String, Set<String>>();
+
+    // carries the invalidations to and from the other nodes, may be null
+    private CacheInvalidationBus cacheInvalidationBus;
 
     private static Logger log = Logger.getLogger(ApplicationService.class);
 
@@ -125,6 +138,24 @@ public class ApplicationService extends ExtendedTabService
 		if (configurationService.getPropertyAsType("cris.applicationServiceCache.enabled", true, true))
         {
             enableCacheManager();
+            if (cache != null && cacheInvalidationBus != null)
+            {
+                cacheInvalidationBus.start(new CacheInvalidationBus.Listener()
+                {
+                    @Override
+                    public void onInvalidation(String uuid)
+                    {
+                        if (uuid != null)
+                        {
+                            evictFromCache(uuid, new HashSet<String>());
+                        }
+                        else
+                        {
+                            removeAllFromCache();
+                        }
+                    }
+                });
+            }
         }
     }
 
@@ -143,62 +174,25 @@ public class ApplicationService extends ExtendedTabService
                     int timeToIdle = configurationService.getPropertyAsType("cris.applicationServiceCache.time-to-idle", 0);
                     int diskExpireThreadInterval = configurationService.getPropertyAsType("cris.applicationServiceCache.disk-expire-thread-interval", 600);
 
-                    cache = cacheManager.getCache("applicationServiceCache");
-                    if (cache == null)
-                    {
-                        cache = new Cache("applicationServiceCache",
-                                maxInMemoryObjects, overflowToDisk, false,
-                                timeToLive, timeToIdle, false,
-                                diskExpireThreadInterval);
-
-                        cacheManager.addCache(cache);
-                    }
-                    cacheRpByEPerson = cacheManager
-                            .getCache("applicationServiceCacheRpByEPerson");
-                    if (cacheRpByEPerson == null)
-                    {
-                        cacheRpByEPerson = new Cache(
-                                "applicationServiceCacheRpByEPerson",
-                                maxInMemoryObjects, overflowToDisk, false,
-                                timeToLive, timeToIdle, false,
-                                diskExpireThreadInterval);
-                        cacheManager.addCache(cacheRpByEPerson);
-                    }
-
-                    cacheByCrisID = cacheManager
-                            .getCache("applicationServicecacheByCrisID");
-                    if (cacheByCrisID == null)
-                    {
-                        cacheByCrisID = new Cache(
-                                "applicationServicecacheByCrisID",
-                                maxInMemoryObjects, overflowToDisk, false,
-                                timeToLive, timeToIdle, false,
-                                diskExpireThreadInterval);
-                        cacheManager.addCache(cacheByCrisID);
-                    }
-
-                    cacheBySource = cacheManager
-                            .getCache("applicationServiceCacheBySource");
-                    if (cacheBySource == null)
-                    {
-                        cacheBySource = new Cache(
-                                "applicationServiceCacheBySource",
-                                maxInMemoryObjects, overflowToDisk, false,
-                                timeToLive, timeToIdle, false,
-                                diskExpireThreadInterval);
-                        cacheManager.addCache(cacheBySource);
-                    }
-
-                    cacheByUUID = cacheManager
-                            .getCache("applicationServiceCacheBySource");
-                    if (cacheByUUID == null)
-                    {
-                        cacheByUUID = new Cache("applicationServiceCacheByUUID",
-                                maxInMemoryObjects, overflowToDisk, false,
-                                timeToLive, timeToIdle, false,
-                                diskExpireThreadInterval);
-                        cacheManager.addCache(cacheByUUID);
-                    }
+                    cache = getOrCreateCache("applicationServiceCache",
+                            maxInMemoryObjects, overflowToDisk, timeToLive,
+                            timeToIdle, diskExpireThreadInterval);
+                    cacheRpByEPerson = getOrCreateCache(
+                            "applicationServiceCacheRpByEPerson",
+                            maxInMemoryObjects, overflowToDisk, timeToLive,
+                            timeToIdle, diskExpireThreadInterval);
+                    cacheByCrisID = getOrCreateCache(
+                            "applicationServicecacheByCrisID",
+                            maxInMemoryObjects, overflowToDisk, timeToLive,
+                            timeToIdle, diskExpireThreadInterval);
+                    cacheBySource = getOrCreateCache(
+                            "applicationServiceCacheBySource",
+                            maxInMemoryObjects, overflowToDisk, timeToLive,
+                            timeToIdle, diskExpireThreadInterval);
+                    cacheByUUID = getOrCreateCache(
+                            "applicationServiceCacheByUUID",
+                            maxInMemoryObjects, overflowToDisk, timeToLive,
+                            timeToIdle, diskExpireThreadInterval);
                 }
             }
             catch (Exception ex)
@@ -208,8 +202,30 @@ public class ApplicationService extends ExtendedTabService
         }
     }
 
+    private Cache getOrCreateCache(String name, int maxInMemoryObjects,
+            boolean overflowToDisk, int timeToLive, int timeToIdle,
+            int diskExpireThreadInterval)
+    {
+        Cache region = cacheManager.getCache(name);
+        if (region == null)
+        {
+            region = new Cache(name, maxInMemoryObjects, overflowToDisk,
+                    false, timeToLive, timeToIdle, false,
+                    diskExpireThreadInterval);
+            cacheManager.addCache(region);
+        }
+        CacheRegionStatistics statistics = new CacheRegionStatistics(region);
+        region.getCacheEventNotificationService().registerListener(statistics);
+        cacheStatistics.put(name, statistics);
+        return region;
+    }
+
     public void destroy()
     {
+        if (cacheInvalidationBus != null)
+        {
+            cacheInvalidationBus.stop();
+        }
         disableCacheManager();
     }
 
@@ -274,6 +290,11 @@ public class ApplicationService extends ExtendedTabService
 			ConfigurationService configurationService) {
 		this.configurationService = configurationService;
 	}
+
+    public void setCacheInvalidationBus(
+            CacheInvalidationBus cacheInvalidationBus) {
+        this.cacheInvalidationBus = cacheInvalidationBus;
+    }
     
     /**
      * Get all researcher in a specific status. If status is null all the
@@ -598,6 +619,46 @@ public class ApplicationService extends ExtendedTabService
         return applicationDao.getList(model, ids);
     }
 
+    /**
+     * Keyset pagination of the objects with their nested objects: the page of
+     * objects following the given id (0 for the first page), in id order, each
+     * one with its nested objects of any type. The nested objects of the whole
+     * page are read with one query in the session of their parents.
+     */
+    public <T extends ACrisObject, N extends ACrisNestedObject> Map<T, List<N>> getCrisObjectsWithNestedAfterID(
+            Class<T> crisEntityClazz, Integer id, int maxResults)
+    {
+        ApplicationDao dao = (ApplicationDao) applicationDao;
+        List<T> page = dao.findAfterID(crisEntityClazz, id, maxResults);
+        Map<T, List<N>> result = new LinkedHashMap<T, List<N>>();
+        if (page.isEmpty())
+        {
+            return result;
+        }
+
+        Map<Integer, List<N>> nestedByParent = new HashMap<Integer, List<N>>();
+        List<Integer> ids = new ArrayList<Integer>(page.size());
+        for (T cris : page)
+        {
+            List<N> nesteds = new ArrayList<N>();
+            result.put(cris, nesteds);
+            nestedByParent.put(cris.getID(), nesteds);
+            ids.add(cris.getID());
+        }
+        Class<N> nestedClazz = page.get(0).getClassNested();
+        // keep the in list below the limit of Oracle
+        for (int i = 0; i < ids.size(); i += 1000)
+        {
+            for (N nested : dao.findNestedObjectsByParentIDs(nestedClazz,
+                    ids.subList(i, Math.min(i + 1000, ids.size()))))
+            {
+                nestedByParent.get(((ACrisObject) nested.getParent()).getID())
+                        .add(nested);
+            }
+        }
+        return result;
+    }
+
     public <T extends ACrisObject> List<T> getCrisObjectPaginate(Class<T> crisEntityClazz, Integer crisEntityTypeId) {
         List<T> crisObjs = new ArrayList<>();
 
@@ -632,12 +693,15 @@ public class ApplicationService extends ExtendedTabService
 			if (element != null) {
 				ResearcherPage rp = (ResearcherPage) element.getValue();
 				if (!isExpiredCache(ResearcherPage.class, element, rp.getId(), rp)) {
+					countLookup(cacheRpByEPerson, true);
 					return rp;
 				}
 				else if (rp != null) {
+					countLookup(cacheRpByEPerson, false);
 					return get(ResearcherPage.class, rp.getId(), false);
 				}
 			}
+			countLookup(cacheRpByEPerson, false);
 		}    	
         return researcherPageDao.uniqueByEPersonId(id);
     }
@@ -673,9 +737,11 @@ public class ApplicationService extends ExtendedTabService
                 //the element retrieved by cache is consistent with the className passed as parameter? (add safety check)
                 if(className.isAssignableFrom(crisObject.getClass())) {
     				if (!isExpiredCache(className, element, crisObject.getId(), crisObject)) {
+    					countLookup(cacheByCrisID, true);
     					return crisObject;
     				}
     				else if (crisObject != null) {
+    					countLookup(cacheByCrisID, false);
     					return get(className, crisObject.getId(), false);
     				}
                 }
@@ -684,6 +750,7 @@ public class ApplicationService extends ExtendedTabService
                     return null;
                 }
 			}
+			countLookup(cacheByCrisID, false);
 		}
 
         CrisObjectDao<T> dao = (CrisObjectDao<T>) getDaoByModel(className);
@@ -742,10 +809,12 @@ public class ApplicationService extends ExtendedTabService
                     if (!isExpiredCache(className, element, crisObject.getId(),
                             crisObject))
                     {
+                        countLookup(cacheBySource, true);
                         return crisObject;
                     }
                     else if (crisObject != null)
                     {
+                        countLookup(cacheBySource, false);
                         return get(className, crisObject.getId(), false);
                     }
 				}
@@ -754,6 +823,7 @@ public class ApplicationService extends ExtendedTabService
 				    return null;
 				}
 			}
+			countLookup(cacheBySource, false);
 		}
         CrisObjectDao<T> dao = (CrisObjectDao<T>) getDaoByModel(className);
 		T object = dao.uniqueBySourceID(sourceRef, sourceID);
@@ -770,9 +840,11 @@ public class ApplicationService extends ExtendedTabService
 			if (element != null) {
 				ACrisObject crisObject = (ACrisObject) element.getValue();
 				if (!isExpiredCache(crisObject.getClass(), element, crisObject.getId(), crisObject)) {
+					countLookup(cacheByUUID, true);
 					return crisObject;
 				}
 			}
+			countLookup(cacheByUUID, false);
 		}    	
         // return ((ApplicationDao) getApplicationDao()).uniqueByUUID(uuid);
         // HIBERNATE 4 seems not support polymorphic query on mappedsuperclass
@@ -878,7 +950,9 @@ public class ApplicationService extends ExtendedTabService
     {
 		Element element = getFromCache(model, objectId);
 		T rp = element != null ? (T) element.getValue() : null;
-		if (isExpiredCache(model, element, objectId, rp))
+		boolean expired = isExpiredCache(model, element, objectId, rp);
+		countLookup(cache, !expired);
+		if (expired)
         {
             rp = super.get(model, objectId);
             if (rp != null)
@@ -944,56 +1018,98 @@ public class ApplicationService extends ExtendedTabService
         return null;
     }
 
+    /**
+     * Drop the CRIS object, and the objects referencing it, from the cache of
+     * this node and of the other nodes.
+     */
     public void clearCacheByUUID(String uuid)
     {
-        ACrisObject object = getEntityByUUID(uuid);
-        if (object == null) {
-            log.warn("Try to decache unfounded object with UUID: " + uuid);
+        evictFromCache(uuid, new HashSet<String>());
+        if (cacheInvalidationBus != null && cache != null)
+        {
+            cacheInvalidationBus.publish(uuid);
+        }
+    }
+
+    /**
+     * Drop the CRIS object from the local regions, under the keys of the
+     * cached copy, and then the objects holding a reference to it.
+     * 
+     * @param visited
+     *            the UUIDs already dropped, to stop on circular references
+     */
+    private void evictFromCache(String uuid, Set<String> visited)
+    {
+        if (uuid == null || !visited.add(uuid) || cacheByUUID == null)
+        {
             return;
         }
-        if (cache != null)
+        try
         {
-            try
+            Element element = cacheByUUID.getQuiet(uuid);
+            if (element != null)
             {
+                ACrisObject object = (ACrisObject) element.getValue();
                 cache.remove(object.getClass().getName() + "#" + object.getId());
-            }
-            catch (Exception ex)
-            {
-                log.error("clearCacheByUUID", ex);
-            }
-        }
-        if (cacheRpByEPerson != null && object instanceof ResearcherPage) {
-            Integer eid = ((ResearcherPage) object).getEpersonID();
-            if (eid != null) {
-                cacheRpByEPerson.remove(eid);
-            }
-        }
-        if (object instanceof ACrisObject) {
-            if (cacheByCrisID != null) {
-                String key = ((ACrisObject) object).getCrisID();
-                if (key != null) {
-                    cacheByCrisID.remove(key);
+                if (object instanceof ResearcherPage) {
+                    Integer eid = ((ResearcherPage) object).getEpersonID();
+                    if (eid != null) {
+                        cacheRpByEPerson.remove(eid);
+                    }
                 }
-            }
-            if (cacheBySource != null) {
-                String sourceRef = ((ACrisObject) object).getSourceRef();
-                String sourceID = ((ACrisObject) object).getSourceID();
+                String crisID = object.getCrisID();
+                if (crisID != null) {
+                    cacheByCrisID.remove(crisID);
+                }
+                String sourceID = object.getSourceID();
                 if (sourceID != null) {
-                    String key = sourceRef + "-" + sourceID;
+                    String key = object.getSourceRef() + "-" + sourceID;
                     cacheBySource.remove(object.getClass().getName() + "#" + key);
                 }
+                cacheByUUID.remove(uuid);
             }
-            if (cacheByUUID != null) {
-                String key = ((ACrisObject) object).getUuid();
-                if (key != null) {
-                    cacheByUUID.remove(key);
-                }
+        }
+        catch (Exception ex)
+        {
+            log.error("clearCacheByUUID", ex);
+        }
+
+        Set<String> dependencies = cacheDependencies.remove(uuid);
+        if (dependencies != null) {
+            for (String uuidDep : dependencies) {
+                evictFromCache(uuidDep, visited);
             }
         }
     }
 
+    /**
+     * Empty the cache of this node only, to free memory: the cached objects
+     * are still valid, the other nodes keep theirs.
+     */
 	public void clearCache()
     {
+        removeAllFromCache();
+    }
+
+    /**
+     * Empty the cache of this node and of the other nodes, after a change of
+     * the data.
+     */
+    public void invalidateCache()
+    {
+        removeAllFromCache();
+        if (cacheInvalidationBus != null && cache != null)
+        {
+            cacheInvalidationBus.publish(null);
+        }
+    }
+
+    private void removeAllFromCache()
+    {
+        if (cache == null)
+        {
+            return;
+        }
         try
         {
         	cache.removeAll();
@@ -1001,12 +1117,34 @@ public class ApplicationService extends ExtendedTabService
 			cacheBySource.removeAll();
 			cacheByCrisID.removeAll();
 			cacheByUUID.removeAll();
+			cacheDependencies.clear();
         }
         catch (Exception ex)
         {
             log.error("clearCache", ex);
         }	
     }
+
+    /**
+     * @return the usage of each region of the cache, by region name, empty if
+     *         the cache is disabled
+     */
+    public Map<String, CacheRegionStatistics> getCacheStatistics()
+    {
+        return new TreeMap<String, CacheRegionStatistics>(cacheStatistics);
+    }
+
+    private void countLookup(Cache region, boolean hit)
+    {
+        if (region != null)
+        {
+            CacheRegionStatistics statistics = cacheStatistics.get(region.getName());
+            if (statistics != null)
+            {
+                statistics.countLookup(hit);
+            }
+        }
+    }
 	
 	public <T extends Serializable, PK extends Serializable> void putToCache(Class<T> model,
             T object, PK objectId)
@@ -1032,38 +1170,34 @@ public class ApplicationService extends ExtendedTabService
 			}
 		}
 		if (object instanceof ACrisObject) {
-			// get set of the depending objects
+			// remove from the cache all the depending objects, they may show
+			// an older copy of this object
 			String myUuid = ((ACrisObject) object).getUuid();
-			Set<String> dependencies = cacheDependencies.get(myUuid);
-
-			// remove from the cache all the depending objects
+			Set<String> dependencies = cacheDependencies.remove(myUuid);
 			if (dependencies != null) {
+				Set<String> visited = new HashSet<String>();
+				// prevent a stack overflow if the item depends on itself
+				visited.add(myUuid);
 				for (String uuidDep : dependencies) {
-					// prevent a stack overflow if the item depends on itself
-					if (!uuidDep.equals(myUuid)) {
-						clearCacheByUUID(uuidDep);
-					}
+					evictFromCache(uuidDep, visited);
 				}
 			}
-			cacheDependencies.remove(myUuid);
 
 			// add the object for all the CRIS objects mentioned in its direct properties to the dependencies map
 			List<Property> props = ((ACrisObject) object).getAnagrafica();
-			Set<String> myDeps = new HashSet<String>();
 			for (Property prop : props) {
 				Object val = prop.getValue().getReal();
 				if (val instanceof ACrisObject) {
-					myDeps.add(((ACrisObject) val).getUuid());
-				}
-			}
-			if (myDeps.size() > 0) {
-				for (String myDep : myDeps) {
+					String myDep = ((ACrisObject) val).getUuid();
 					Set<String> relatedUuids = cacheDependencies.get(myDep);
 					if (relatedUuids == null) {
-						relatedUuids = new HashSet<String>();
+						Set<String> newUuids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+						relatedUuids = cacheDependencies.putIfAbsent(myDep, newUuids);
+						if (relatedUuids == null) {
+							relatedUuids = newUuids;
+						}
 					}
 					relatedUuids.add(myUuid);
-					cacheDependencies.put(myDep, relatedUuids);
 				}
 			}
 
@@ -1130,7 +1264,7 @@ public class ApplicationService extends ExtendedTabService
     @Override
     public <P, PK extends Serializable> void delete(Class<P> model, PK pkey) {    	
     	super.delete(model, pkey);
-    	clearCache();
+    	invalidateCache();
     }
 
 	public List<OrcidQueue> findOrcidQueueByResearcherId(String crisId) {
@@ -1234,6 +1368,8 @@ public class ApplicationService extends ExtendedTabService
             cacheBySource = null;
             cacheByCrisID = null;
             cacheByUUID = null;            
+            cacheStatistics.clear();
+            cacheDependencies.clear();
             cacheManager.shutdown();
         }   
     }
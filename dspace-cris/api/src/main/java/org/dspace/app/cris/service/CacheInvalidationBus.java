@@ -0,0 +1,50 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.service;
+
+/**
+ * Carries the invalidations of the {@link ApplicationService} cache between the
+ * nodes (webapps and command line tools) sharing the same database, so that
+ * an object changed on one node is not served stale by the others.
+ *
+ * @see JdbcCacheInvalidationBus
+ */
+public interface CacheInvalidationBus
+{
+    /**
+     * Receives the invalidations published by the other nodes.
+     */
+    interface Listener
+    {
+        /**
+         * @param uuid
+         *            the UUID of the CRIS object to drop, or null to drop the
+         *            whole cache
+         */
+        void onInvalidation(String uuid);
+    }
+
+    /**
+     * Start delivering the invalidations of the other nodes to the listener.
+     */
+    void start(Listener listener);
+
+    /**
+     * Stop the delivery, the invalidations published meanwhile are lost.
+     */
+    void stop();
+
+    /**
+     * Announce to the other nodes that a CRIS object changed. The listener of
+     * this node is not notified.
+     *
+     * @param uuid
+     *            the UUID of the CRIS object, or null for all the objects
+     */
+    void publish(String uuid);
+}
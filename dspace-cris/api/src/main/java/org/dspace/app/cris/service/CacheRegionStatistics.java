@@ -0,0 +1,148 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListener;
+
+/**
+ * Usage of a region of the {@link ApplicationService} cache. The hits and the
+ * misses are counted by the service, as it reads the regions without updating
+ * the Ehcache statistics; the evictions (size or time limit) and the
+ * invalidations (objects changed) are counted from the events of the region.
+ *
+ * @see ApplicationService#getCacheStatistics()
+ */
+public class CacheRegionStatistics implements CacheEventListener
+{
+    private final Ehcache region;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    CacheRegionStatistics(Ehcache region)
+    {
+        this.region = region;
+    }
+
+    void countLookup(boolean hit)
+    {
+        (hit ? hits : misses).incrementAndGet();
+    }
+
+    public String getName()
+    {
+        return region.getName();
+    }
+
+    /**
+     * @return the number of objects in the region, or -1 if the cache is shut
+     *         down
+     */
+    public int getSize()
+    {
+        try
+        {
+            return region.getSize();
+        }
+        catch (IllegalStateException e)
+        {
+            return -1;
+        }
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the hits on the lookups, between 0 and 1
+     */
+    public double getHitRatio()
+    {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total > 0 ? (double) h / total : 0;
+    }
+
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    public long getInvalidations()
+    {
+        return invalidations.get();
+    }
+
+    @Override
+    public void notifyElementRemoved(Ehcache cache, Element element) throws CacheException
+    {
+        invalidations.incrementAndGet();
+    }
+
+    @Override
+    public void notifyElementPut(Ehcache cache, Element element) throws CacheException
+    {
+    }
+
+    @Override
+    public void notifyElementUpdated(Ehcache cache, Element element) throws CacheException
+    {
+    }
+
+    @Override
+    public void notifyElementExpired(Ehcache cache, Element element)
+    {
+        evictions.incrementAndGet();
+    }
+
+    @Override
+    public void notifyElementEvicted(Ehcache cache, Element element)
+    {
+        evictions.incrementAndGet();
+    }
+
+    @Override
+    public void notifyRemoveAll(Ehcache cache)
+    {
+    }
+
+    @Override
+    public void dispose()
+    {
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException
+    {
+        throw new CloneNotSupportedException();
+    }
+
+    @Override
+    public String toString()
+    {
+        return getName() + ": size=" + getSize() + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions() + ", invalidations=" + getInvalidations();
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.service;
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.Context;
+import org.dspace.services.ConfigurationService;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Cache invalidation bus needing nothing but the database: the invalidations
+ * are rows of the cris_cache_invalidation table, polled by every node for the
+ * rows written by the others. A plain table is used rather than a vendor
+ * notification channel (e.g. LISTEN/NOTIFY), which would need a connection
+ * kept out of the pool, and doesn't exist on Oracle.
+ * <p/>
+ * The ids of rows inserted concurrently may become visible out of order, so
+ * the ids skipped by a poll are looked for again by the next ones for a while.
+ * <p/>
+ * Configuration (cris.cfg):
+ * <ul>
+ * <li>applicationServiceCache.invalidation.enabled - publish and poll the
+ * invalidations, needed when several webapps or nodes share the database
+ * (default false)</li>
+ * <li>applicationServiceCache.invalidation.poll-interval - ms between two
+ * polls (default 1000)</li>
+ * <li>applicationServiceCache.invalidation.retention - ms after which the
+ * invalidations are deleted (default 3600000)</li>
+ * </ul>
+ */
+public class JdbcCacheInvalidationBus implements CacheInvalidationBus
+{
+    private static final Logger log = Logger.getLogger(JdbcCacheInvalidationBus.class);
+
+    static final String TABLE = "cris_cache_invalidation";
+
+    private static final String ID = "cris_cache_invalidation_id";
+
+    /** maximum number of skipped ids looked for again */
+    private static final int MAX_GAPS = 100;
+
+    /** polls a skipped id is looked for before giving up on it */
+    private static final int GAP_POLLS = 30;
+
+    private ConfigurationService configurationService;
+
+    /** this node, i.e. this webapp or tool, several can run in a JVM */
+    private final String node = ManagementFactory.getRuntimeMXBean().getName() + "-"
+            + UUID.randomUUID().toString().substring(0, 8);
+
+    private ScheduledExecutorService executor;
+
+    private volatile Listener listener;
+
+    /** the highest id seen, accessed by the polling thread only */
+    private int lastId;
+
+    /** the ids skipped, with the number of polls left to look for them */
+    private final Map<Integer, Integer> gaps = new LinkedHashMap<Integer, Integer>();
+
+    private long lastPurge;
+
+    public boolean isEnabled()
+    {
+        return configurationService.getPropertyAsType(
+                "cris.applicationServiceCache.invalidation.enabled", false);
+    }
+
+    @Override
+    public synchronized void start(Listener listener)
+    {
+        if (executor != null || !isEnabled())
+        {
+            return;
+        }
+        long pollInterval = configurationService.getPropertyAsType(
+                "cris.applicationServiceCache.invalidation.poll-interval", 1000L);
+        Context context = null;
+        try
+        {
+            context = new Context();
+            TableRow row = DatabaseManager.querySingle(context, "SELECT MAX(" + ID + ") AS max_id FROM " + TABLE);
+            lastId = row != null ? Math.max(row.getIntColumn("max_id"), 0) : 0;
+        }
+        catch (SQLException e)
+        {
+            log.error("Cache invalidation disabled, the table " + TABLE + " can't be read", e);
+            return;
+        }
+        finally
+        {
+            if (context != null && context.isValid())
+            {
+                context.abort();
+            }
+        }
+
+        this.listener = listener;
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "cris-cache-invalidation");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                poll();
+            }
+        }, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+        log.info("Polling the cache invalidations every " + pollInterval + " ms as " + node);
+    }
+
+    @Override
+    public synchronized void stop()
+    {
+        if (executor != null)
+        {
+            executor.shutdownNow();
+            try
+            {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+            listener = null;
+        }
+    }
+
+    @Override
+    public void publish(String uuid)
+    {
+        if (!isEnabled())
+        {
+            return;
+        }
+        Context context = null;
+        try
+        {
+            context = new Context();
+            TableRow row = DatabaseManager.row(context, TABLE);
+            if (uuid != null)
+            {
+                row.setColumn("uuid", uuid);
+            }
+            else
+            {
+                row.setColumnNull("uuid");
+            }
+            row.setColumn("node", node);
+            row.setColumn("created", new Date());
+            DatabaseManager.insert(context, row);
+            context.complete();
+        }
+        catch (SQLException e)
+        {
+            log.error("Cache invalidation of " + (uuid != null ? uuid : "all the objects")
+                    + " not published", e);
+        }
+        finally
+        {
+            if (context != null && context.isValid())
+            {
+                context.abort();
+            }
+        }
+    }
+
+    void poll()
+    {
+        Context context = null;
+        try
+        {
+            context = new Context();
+            List<Object> params = new ArrayList<Object>();
+            StringBuilder query = new StringBuilder("SELECT * FROM ").append(TABLE)
+                    .append(" WHERE ").append(ID).append(" > ?");
+            params.add(lastId);
+            if (!gaps.isEmpty())
+            {
+                query.append(" OR ").append(ID).append(" IN (");
+                for (Integer gap : gaps.keySet())
+                {
+                    query.append(params.size() == 1 ? "?" : ", ?");
+                    params.add(gap);
+                }
+                query.append(")");
+            }
+            query.append(" ORDER BY ").append(ID);
+
+            // age the gaps first, the ones found below are dropped anyway
+            for (Iterator<Map.Entry<Integer, Integer>> it = gaps.entrySet().iterator(); it.hasNext();)
+            {
+                Map.Entry<Integer, Integer> gap = it.next();
+                if (gap.getValue() <= 1)
+                {
+                    it.remove();
+                }
+                else
+                {
+                    gap.setValue(gap.getValue() - 1);
+                }
+            }
+
+            TableRowIterator tri = DatabaseManager.queryTable(context, TABLE, query.toString(), params.toArray());
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    int id = row.getIntColumn(ID);
+                    gaps.remove(id);
+                    for (int skipped = lastId + 1; skipped < id && gaps.size() < MAX_GAPS; skipped++)
+                    {
+                        gaps.put(skipped, GAP_POLLS);
+                    }
+                    lastId = Math.max(lastId, id);
+                    if (!node.equals(row.getStringColumn("node")))
+                    {
+                        deliver(row.getStringColumn("uuid"));
+                    }
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+
+            purge(context);
+            context.complete();
+        }
+        catch (Exception e)
+        {
+            log.error("Error polling the cache invalidations", e);
+        }
+        finally
+        {
+            if (context != null && context.isValid())
+            {
+                context.abort();
+            }
+        }
+    }
+
+    private void deliver(String uuid)
+    {
+        Listener current = listener;
+        if (current != null)
+        {
+            try
+            {
+                current.onInvalidation(uuid);
+            }
+            catch (Exception e)
+            {
+                log.error("Cache invalidation of " + uuid + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Delete the invalidations older than the retention, at most once per
+     * retention period and node.
+     */
+    private void purge(Context context) throws SQLException
+    {
+        long retention = configurationService.getPropertyAsType(
+                "cris.applicationServiceCache.invalidation.retention", 3600000L);
+        long now = System.currentTimeMillis();
+        if (now - lastPurge > retention)
+        {
+            lastPurge = now;
+            DatabaseManager.updateQuery(context, "DELETE FROM " + TABLE + " WHERE created < ?",
+                    new Timestamp(now - retention));
+        }
+    }
+
+    public void setConfigurationService(ConfigurationService configurationService)
+    {
+        this.configurationService = configurationService;
+    }
+}
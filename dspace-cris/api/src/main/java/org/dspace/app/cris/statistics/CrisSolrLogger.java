@@ -9,10 +9,6 @@ package org.dspace.app.cris.statistics;
 
 
 import org.apache.log4j.Logger;
-import org.apache.solr.client.solrj.SolrQuery;
-import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.response.QueryResponse;
-import org.apache.solr.common.SolrDocumentList;
 import org.dspace.app.cris.model.CrisConstants;
 import org.dspace.statistics.SolrLogger;
 
@@ -32,27 +28,14 @@ public class CrisSolrLogger extends SolrLogger
 	
 	
 	@Override
-	public SolrDocumentList getRawData(int type) throws SolrServerException
+	protected String[] getRawDataFields(int type)
 	{
-
 	    if (type >= CrisConstants.CRIS_TYPE_ID_START)
-        {
-            
-	        SolrQuery query = new SolrQuery();
-	        query.setQuery("*:*");
-	        query.setFilterQueries("type:" + type);
-	        query.setRows(Integer.MAX_VALUE);
-	        query.setFields("ip", "id", "sectionid", "type", "time", "dns", "epersonid",
-	                "isBot", "userAgent");
-	        QueryResponse resp = getSolr().query(query);
-	        return resp.getResults();
-	        
-        }
-        else
-        {
-            return super.getRawData(type);
-        }
-
+	    {
+	        return new String[] { "uid", "ip", "id", "sectionid", "type", "time", "dns",
+	                "epersonid", "isBot", "userAgent" };
+	    }
+	    return super.getRawDataFields(type);
 	}
 	
     
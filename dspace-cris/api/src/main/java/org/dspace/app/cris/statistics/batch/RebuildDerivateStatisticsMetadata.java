@@ -19,7 +19,6 @@ import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
 import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 import org.dspace.app.cris.model.ACrisObject;
 import org.dspace.app.cris.model.OrganizationUnit;
@@ -30,6 +29,8 @@ import org.dspace.app.cris.service.ApplicationService;
 import org.dspace.content.DSpaceObject;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
+import org.dspace.discovery.SearchServiceException;
+import org.dspace.discovery.SolrDocumentCursor;
 import org.dspace.statistics.SolrLogger;
 import org.dspace.statistics.SolrStatsIndexPlugin;
 import org.dspace.utils.DSpace;
@@ -42,9 +43,11 @@ public class RebuildDerivateStatisticsMetadata
      * @throws SolrServerException
      * @throws IOException
      * @throws SQLException
+     * @throws SearchServiceException
      */
     public static void main(String[] args)
-            throws SolrServerException, IOException, SQLException
+            throws SolrServerException, IOException, SQLException,
+            SearchServiceException
     {
 
         String usage = "org.dspace.app.cris.statistics.batch.RebuildDerivateStatisticsMetadata [y <year> | c <crisentity> | o <community_collection_gotocrisentity>]";
@@ -80,7 +83,7 @@ public class RebuildDerivateStatisticsMetadata
         SolrLogger indexer = dspace.getServiceManager()
                 .getServiceByName(SolrLogger.class.getName(), SolrLogger.class);
 
-        SolrDocumentList sdl = null;
+        SolrDocumentCursor sdl = null;
 
         boolean gotoCris = false;
         int dspaceType = Constants.ITEM;
@@ -113,41 +116,29 @@ public class RebuildDerivateStatisticsMetadata
             if (year)
             {
                 System.out.println("YEAR");
-                sdl = indexer.getRawData(dspaceType, yearFound);
+                sdl = indexer.getRawDataCursor(dspaceType, yearFound);
             }
             else if(byQuery)
             {
                 System.out.println("BYQUERY");
-                sdl = indexer.getRawData(dspaceType, query);
+                sdl = indexer.getRawDataCursor(dspaceType, query);
             }
             else
             {
                 System.out.println("ALL");
-                sdl = indexer.getRawData(dspaceType);
+                sdl = indexer.getRawDataCursor(dspaceType);
             }
 
             System.out.println("Found " + sdl.getNumFound()
                     + " access in the statistics core");
+            // the documents keep their uid, they are replaced in place
             HttpSolrServer solr = indexer.getSolr();
-            if (year)
-            {
-                indexer.deleteByTypeAndYear(dspaceType, yearFound);
-            }
-            else if(byQuery)
-            {
-                indexer.deleteByTypeAndQuery(dspaceType, query);
-            }
-            else
-            {
-                indexer.deleteByType(dspaceType);
-            }
-            solr.commit();
-            System.out.println("Remove old data");
             Context context = new Context();
             context.turnOffAuthorisationSystem();
             int i = 0;
-            one: for (SolrDocument sd : sdl)
+            one: while (sdl.hasNext())
             {
+                SolrDocument sd = sdl.next();
                 i++;
                 System.out.println(
                         "Processed access #" + i + " of " + sdl.getNumFound());
@@ -207,44 +198,30 @@ public class RebuildDerivateStatisticsMetadata
             if (year)
             {
                 System.out.println("YEAR CRIS " + crisType);
-                sdl = indexer.getRawData(crisType, yearFound);
+                sdl = indexer.getRawDataCursor(crisType, yearFound);
             }
             else if(byQuery)
             {
                 System.out.println("BYQUERY " + crisType);
-                sdl = indexer.getRawData(crisType, query);
+                sdl = indexer.getRawDataCursor(crisType, query);
             }
             else
             {
                 System.out.println("ALL CRIS " + crisType);
-                sdl = indexer.getRawData(crisType);
+                sdl = indexer.getRawDataCursor(crisType);
             }
 
             System.out.println("Found " + sdl.getNumFound()
                     + " access in the RP statistics core");
+            // the documents keep their uid, they are replaced in place
             HttpSolrServer rpsolr = indexer.getSolr();
-            if (year)
-            {
-                indexer.deleteByTypeAndYear(crisType, yearFound);
-            }
-            else if(byQuery)
-            {
-                indexer.deleteByTypeAndQuery(crisType, query);
-            }
-            else
-            {
-                indexer.deleteByType(crisType);
-            }
-
-            rpsolr.commit();
-
-            System.out.println("Remove old data");
 
             ApplicationService as = dspace.getServiceManager().getServiceByName(
                     "applicationService", ApplicationService.class);
             int i = 0;
-            one: for (SolrDocument sd : sdl)
+            one: while (sdl.hasNext())
             {
+                SolrDocument sd = sdl.next();
                 i++;
                 System.out.println("Processed RP access #" + i + " of "
                         + sdl.getNumFound());
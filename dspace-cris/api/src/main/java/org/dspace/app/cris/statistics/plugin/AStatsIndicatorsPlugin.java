@@ -7,11 +7,13 @@
  */
 package org.dspace.app.cris.statistics.plugin;
 
+import java.sql.SQLException;
 import java.util.Date;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
+import org.dspace.app.cris.metrics.common.dao.CrisMetricsWriter;
 import org.dspace.app.cris.metrics.common.model.CrisMetrics;
 import org.dspace.app.cris.metrics.common.services.MetricsPersistenceService;
 import org.dspace.app.cris.service.ApplicationService;
@@ -45,6 +47,28 @@ public abstract class AStatsIndicatorsPlugin implements StatsIndicatorsPlugin
             String uuid, Integer resourceType, Integer resourceId, Object value,
             String metricsType, Date startDate, Date endDate,
             Map<String, String> maps)
+    {
+        pService.saveOrUpdate(CrisMetrics.class, createIndicator(uuid,
+                resourceType, resourceId, value, metricsType, startDate,
+                endDate, maps));
+    }
+
+    /**
+     * Write the indicator with the batches of the writer.
+     */
+    public static void buildIndicator(CrisMetricsWriter writer, String uuid,
+            Integer resourceType, Integer resourceId, Object value,
+            String metricsType, Date startDate, Date endDate,
+            Map<String, String> maps) throws SQLException
+    {
+        writer.write(createIndicator(uuid, resourceType, resourceId, value,
+                metricsType, startDate, endDate, maps));
+    }
+
+    private static CrisMetrics createIndicator(String uuid,
+            Integer resourceType, Integer resourceId, Object value,
+            String metricsType, Date startDate, Date endDate,
+            Map<String, String> maps)
     {
         CrisMetrics indicator = new CrisMetrics();
 
@@ -73,8 +97,7 @@ public abstract class AStatsIndicatorsPlugin implements StatsIndicatorsPlugin
         indicator.setStartDate(startDate);
         indicator.setEndDate(endDate);
         indicator.setMetricType(metricsType);
-
-        pService.saveOrUpdate(CrisMetrics.class, indicator);
+        return indicator;
     }
 
     public boolean isRenewMetricsCache()
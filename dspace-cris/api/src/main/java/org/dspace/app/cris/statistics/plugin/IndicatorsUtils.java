@@ -1,5 +1,7 @@
 package org.dspace.app.cris.statistics.plugin;
 
+import java.util.Arrays;
+
 public class IndicatorsUtils
 {
 
@@ -20,4 +22,59 @@ public class IndicatorsUtils
         return sum / m.length;
     }
     
+    /**
+     * @param m
+     *            sorted values
+     */
+    public static double median(double[] m, int length) {
+        int middle = length/2;
+        if (length%2 == 1) {
+            return m[middle];
+        } else {
+            return (m[middle-1] + m[middle]) / 2.0;
+        }
+    }
+
+    /**
+     * The rank of each value in descending order, 1 for the highest; equal
+     * values share the rank of the first of them, the missing values (NaN)
+     * come after all the others.
+     */
+    public static int[] rank(double[] values) {
+        double[] sorted = new double[values.length];
+        int present = 0;
+        for (double value : values) {
+            if (!Double.isNaN(value)) {
+                sorted[present++] = value;
+            }
+        }
+        Arrays.sort(sorted, 0, present);
+        int[] ranks = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (Double.isNaN(values[i])) {
+                ranks[i] = present + 1;
+            }
+            else {
+                // the values greater than this one precede it
+                ranks[i] = present - upperBound(sorted, present, values[i]) + 1;
+            }
+        }
+        return ranks;
+    }
+
+    private static int upperBound(double[] sorted, int length, double value) {
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] <= value) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
 }
@@ -7,22 +7,25 @@
  */
 package org.dspace.app.cris.statistics.plugin;
 
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
-import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrDocumentList;
 import org.dspace.app.cris.discovery.CrisSearchService;
 import org.dspace.app.cris.metrics.common.model.ConstantMetrics;
-import org.dspace.app.cris.metrics.common.model.CrisMetrics;
-import org.dspace.app.cris.metrics.common.services.MetricsPersistenceService;
+import org.dspace.app.cris.metrics.common.model.CrisMetricsValues;
 import org.dspace.app.cris.model.ACrisObject;
 import org.dspace.app.cris.model.CrisConstants;
 import org.dspace.app.cris.model.ResearchObject;
@@ -31,11 +34,9 @@ import org.dspace.app.cris.service.ApplicationService;
 import org.dspace.app.cris.statistics.CrisSolrLogger;
 import org.dspace.core.Context;
 import org.dspace.discovery.SearchServiceException;
-import org.dspace.kernel.ServiceManager;
-import org.dspace.utils.DSpace;
 
 public class StatsAggregateIndicatorsPlugin<ACO extends ACrisObject>
-        extends AStatsIndicatorsPlugin
+        extends AStatsIndicatorsPlugin implements StatsIndicatorsStreamPlugin
 {
 
     private static Logger log = Logger
@@ -57,104 +58,204 @@ public class StatsAggregateIndicatorsPlugin<ACO extends ACrisObject>
             CrisSearchService searchService, String filter)
                     throws SearchServiceException
     {
-        ServiceManager serviceManager = new DSpace().getServiceManager();
-        MetricsPersistenceService pService = serviceManager.getServiceByName(
-                MetricsPersistenceService.class.getName(),
-                MetricsPersistenceService.class);
+        StatsIndicatorsEngine engine = new StatsIndicatorsEngine(
+                applicationService, statsService, searchService);
+        try
+        {
+            engine.run(context,
+                    Collections.<StatsIndicatorsPlugin> singletonList(this),
+                    filter);
+        }
+        catch (Exception e)
+        {
+            throw new SearchServiceException(e.getMessage(), e);
+        }
+        if (!engine.getFailed().isEmpty())
+        {
+            throw new SearchServiceException(
+                    "Unable to build the indicators of " + getName());
+        }
+    }
 
-        List<ACO> rs = applicationService.getCrisObjectPaginate(crisEntityClazz, crisEntityTypeId);
+    /**
+     * All the documents linked to an object, read once for all the objects
+     * instead of a query for each one.
+     */
+    @Override
+    public SolrQuery getSourceQuery(String filter)
+    {
+        SolrQuery query = new SolrQuery();
+        query.setQuery(getQueryDefault());
+        if(StringUtils.isNotBlank(filter)) {
+            query.addFilterQuery(filter);
+        }
+        else if(StringUtils.isNotBlank(getFilterDefault())) {
+            query.addFilterQuery(getFilterDefault());    
+        }
+        query.addFilterQuery("NOT(withdrawn:true)");
+        query.setFields("search.resourceid", "search.resourcetype", field);
+        return query;
+    }
 
-        for (ACO rp : rs)
+    @Override
+    public List<StatsIndicatorsPartition> createPartitions(
+            StatsIndicatorsRun run, Context[] contexts)
+    {
+        //TODO manage year (passed by filter)
+        CrisMetricsValues citations = run.getMetricsService()
+                .getLastMetricValues(run.getContext(), type);
+        List<StatsIndicatorsPartition> partitions = new ArrayList<StatsIndicatorsPartition>();
+        for (int p = 0; p < contexts.length; p++)
         {
-            int itemsCited = 0;
-            int citations = 0;
-            List<Double> elements = new ArrayList<Double>();
-            SolrQuery query = new SolrQuery();
-            query.setQuery(getQueryDefault());
-            if(StringUtils.isNotBlank(filter)) {
-                query.addFilterQuery(filter);
-            }
-            else if(StringUtils.isNotBlank(getFilterDefault())) {
-                query.addFilterQuery(getFilterDefault());    
-            }
-            query.addFilterQuery("{!field f=" + field + "}" + rp.getCrisID(),
-                    "NOT(withdrawn:true)");
-            query.setFields("search.resourceid", "search.resourcetype");
+            partitions.add(new AggregatePartition(contexts[p], p,
+                    contexts.length, citations));
+        }
+        return partitions;
+    }
 
-            query.setRows(Integer.MAX_VALUE);
+    @Override
+    public void complete(StatsIndicatorsRun run,
+            List<StatsIndicatorsPartition> partitions) throws SQLException
+    {
+        List<ACO> rs = run.getApplicationService()
+                .getCrisObjectPaginate(crisEntityClazz, crisEntityTypeId);
 
-            QueryResponse response = searchService.search(query);
-            SolrDocumentList results = response.getResults();
-            for (SolrDocument doc : results)
+        Date timestamp = new Date();
+        for (ACO rp : rs)
+        {
+            Aggregate aggregate = null;
+            for (StatsIndicatorsPartition partition : partitions)
             {
-                Integer resourceType = (Integer) doc
-                        .getFirstValue("search.resourcetype");
-                Integer resourceId = (Integer) doc
-                        .getFirstValue("search.resourceid");
-
-                if (resourceId != null)
+                aggregate = ((AggregatePartition) partition).aggregates
+                        .get(rp.getCrisID());
+                if (aggregate != null)
                 {
-                    //TODO manage year (passed by filter)
-                    CrisMetrics citation = pService
-                            .getLastMetricByResourceIDAndResourceTypeAndMetricsType(
-                                    resourceId, resourceType, type);
-                    if (citation != null)
-                    {
-                        itemsCited++;
-                        citations += citation.getMetricCount();
-                        if(buildMath) {
-                            elements.add(citation.getMetricCount());
-                        }
-                    }
+                    break;
                 }
             }
+            if (aggregate == null)
+            {
+                aggregate = new Aggregate();
+            }
 
-            Date timestamp = new Date();
-            buildIndicator(pService, applicationService, rp.getUuid(), rp.getType(),
-                    rp.getId(), citations,
+            buildIndicator(run.getWriter(), rp.getUuid(), rp.getType(),
+                    rp.getId(), aggregate.citations,
                     type + ConstantMetrics.SUFFIX_STATS_INDICATOR_TYPE_AGGREGATE,
                     null, timestamp, null);
-            buildIndicator(pService, applicationService, rp.getUuid(), rp.getType(),
-                    rp.getId(), itemsCited,
+            buildIndicator(run.getWriter(), rp.getUuid(), rp.getType(),
+                    rp.getId(), aggregate.itemsCited,
                     type + ConstantMetrics.SUFFIX_STATS_INDICATOR_TYPE_COUNT,
                     null, timestamp, null);
             
+            if (buildMath && aggregate.itemsCited > 0)
+            {
+                double[] elements = aggregate.elements;
+                int size = aggregate.itemsCited;
+                Arrays.sort(elements, 0, size);
+                Double max = elements[size - 1];
+                Double min = elements[0];
+                Double average = (double) aggregate.citations / (double) size;
+                Double median = IndicatorsUtils.median(elements, size);
+
+                buildIndicator(run.getWriter(), rp.getUuid(),
+                        rp.getType(), rp.getId(), average,
+                        type + ConstantMetrics.SUFFIX_STATS_INDICATOR_TYPE_AVERAGE,
+                        null, timestamp, null);
+                buildIndicator(run.getWriter(), rp.getUuid(),
+                        rp.getType(), rp.getId(), max,
+                        type + ConstantMetrics.SUFFIX_STATS_INDICATOR_TYPE_MAX,
+                        null, timestamp, null);
+                buildIndicator(run.getWriter(), rp.getUuid(),
+                        rp.getType(), rp.getId(), min,
+                        type + ConstantMetrics.SUFFIX_STATS_INDICATOR_TYPE_MIN,
+                        null, timestamp, null);
+                buildIndicator(run.getWriter(), rp.getUuid(),
+                        rp.getType(), rp.getId(), median,
+                        type + ConstantMetrics.SUFFIX_STATS_INDICATOR_TYPE_MEDIAN,
+                        null, timestamp, null);
+            }
+        }
+    }
+
+    /**
+     * The citations of the documents of an object.
+     */
+    private static class Aggregate
+    {
+        private int itemsCited;
+
+        private int citations;
+
+        private double[] elements;
+
+        void add(double citation, boolean buildMath)
+        {
             if (buildMath)
             {
-                if (elements != null && !elements.isEmpty())
+                if (elements == null)
+                {
+                    elements = new double[8];
+                }
+                else if (itemsCited == elements.length)
+                {
+                    elements = Arrays.copyOf(elements, itemsCited * 2);
+                }
+                elements[itemsCited] = citation;
+            }
+            itemsCited++;
+            citations += citation;
+        }
+    }
+
+    /**
+     * The aggregates of the objects owned by the partition, by CRIS id.
+     */
+    private class AggregatePartition extends StatsIndicatorsPartition
+    {
+        private final CrisMetricsValues citations;
+
+        private final Map<String, Aggregate> aggregates = new HashMap<String, Aggregate>();
+
+        AggregatePartition(Context context, int index, int count,
+                CrisMetricsValues citations)
+        {
+            super(context, index, count);
+            this.citations = citations;
+        }
+
+        @Override
+        public void process(SolrDocument doc)
+        {
+            Integer resourceType = (Integer) doc
+                    .getFirstValue("search.resourcetype");
+            Integer resourceId = (Integer) doc
+                    .getFirstValue("search.resourceid");
+            Collection<Object> authorities = doc.getFieldValues(field);
+            if (resourceType == null || resourceId == null || authorities == null)
+            {
+                return;
+            }
+            double citation = citations.get(resourceType, resourceId);
+            if (Double.isNaN(citation))
+            {
+                return;
+            }
+            Set<Object> done = new HashSet<Object>();
+            for (Object authority : authorities)
+            {
+                String crisID = (String) authority;
+                if (owns(crisID) && done.add(crisID))
                 {
-                    Double max = Collections.max(elements);
-                    Double min = Collections.min(elements);
-                    Double average = (double) citations / (double) itemsCited;
-                    Double median = null;
-                    Double[] elementsArray = new Double[elements.size()];
-                    elementsArray = elements.toArray(elementsArray);
-                    Arrays.sort(elementsArray);
-                    median = IndicatorsUtils.median(elementsArray);
-
-                    buildIndicator(pService, applicationService, rp.getUuid(),
-                            rp.getType(), rp.getId(), average,
-                            type + ConstantMetrics.SUFFIX_STATS_INDICATOR_TYPE_AVERAGE,
-                            null, timestamp, null);
-                    buildIndicator(pService, applicationService, rp.getUuid(),
-                            rp.getType(), rp.getId(), max,
-                            type + ConstantMetrics.SUFFIX_STATS_INDICATOR_TYPE_MAX,
-                            null, timestamp, null);
-                    buildIndicator(pService, applicationService, rp.getUuid(),
-                            rp.getType(), rp.getId(), min,
-                            type + ConstantMetrics.SUFFIX_STATS_INDICATOR_TYPE_MIN,
-                            null, timestamp, null);
-                    buildIndicator(pService, applicationService, rp.getUuid(),
-                            rp.getType(), rp.getId(), median,
-                            type + ConstantMetrics.SUFFIX_STATS_INDICATOR_TYPE_MEDIAN,
-                            null, timestamp, null);
+                    Aggregate aggregate = aggregates.get(crisID);
+                    if (aggregate == null)
+                    {
+                        aggregate = new Aggregate();
+                        aggregates.put(crisID, aggregate);
+                    }
+                    aggregate.add(citation, buildMath);
                 }
             }
         }
-        
-        if(isRenewMetricsCache()) {
-            searchService.renewMetricsCache();
-        }   
     }
 
     public String getField()
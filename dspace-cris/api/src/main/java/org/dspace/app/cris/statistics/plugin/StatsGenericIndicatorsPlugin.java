@@ -7,22 +7,25 @@
  */
 package org.dspace.app.cris.statistics.plugin;
 
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
-import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrDocumentList;
 import org.dspace.app.cris.discovery.CrisSearchService;
+import org.dspace.app.cris.metrics.common.dao.CrisMetricsWriter;
 import org.dspace.app.cris.metrics.common.model.ConstantMetrics;
-import org.dspace.app.cris.metrics.common.services.MetricsPersistenceService;
 import org.dspace.app.cris.model.ACrisObject;
 import org.dspace.app.cris.model.CrisConstants;
 import org.dspace.app.cris.service.ApplicationService;
@@ -30,11 +33,9 @@ import org.dspace.app.cris.statistics.CrisSolrLogger;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.discovery.SearchServiceException;
-import org.dspace.kernel.ServiceManager;
-import org.dspace.utils.DSpace;
 
 public class StatsGenericIndicatorsPlugin<ACO extends ACrisObject>
-        extends AStatsIndicatorsPlugin
+        extends AStatsIndicatorsPlugin implements StatsIndicatorsStreamPlugin
 {
 
     private static Logger log = Logger
@@ -54,53 +55,38 @@ public class StatsGenericIndicatorsPlugin<ACO extends ACrisObject>
             CrisSearchService searchService, String filter)
             throws SearchServiceException
     {
-        ServiceManager serviceManager = new DSpace().getServiceManager();
-        MetricsPersistenceService pService = serviceManager.getServiceByName(
-                MetricsPersistenceService.class.getName(),
-                MetricsPersistenceService.class);
-
-        // get all particular entity to get all related object from Solr
-        if (crisEntityTypeId != null || crisEntityClazz != null)
+        StatsIndicatorsEngine engine = new StatsIndicatorsEngine(
+                applicationService, statsService, searchService);
+        try
         {
-            List<ACO> rs = new ArrayList<ACO>();
-
-            if (crisEntityTypeId > 1000)
-            {
-                Integer placeholderTypoID = CrisConstants.CRIS_DYNAMIC_TYPE_ID_START;
-                rs = (List<ACO>) applicationService
-                        .getResearchObjectByIDType(crisEntityTypeId - placeholderTypoID);
-            }
-            else
-            {
-                rs = applicationService.getList(crisEntityClazz);
-            }
-
-            for (ACO rp : rs)
-            {
-                work(context, applicationService, searchService, pService, rp, filter);
-            }
+            engine.run(context,
+                    Collections.<StatsIndicatorsPlugin> singletonList(this),
+                    filter);
+        }
+        catch (Exception e)
+        {
+            throw new SearchServiceException(e.getMessage(), e);
         }
-        else // work direct with the solr query
+        if (!engine.getFailed().isEmpty())
         {
-            work(context, applicationService, searchService, pService, null, filter);
+            throw new SearchServiceException(
+                    "Unable to build the indicators of " + getName());
         }
-        
-        if(isRenewMetricsCache()) {
-            searchService.renewMetricsCache();
-        }        
     }
 
-    private void work(Context context, ApplicationService applicationService,
-            CrisSearchService searchService, MetricsPersistenceService pService,
-            ACO rp, String filter) throws SearchServiceException
+    private boolean isEntityIndicator()
     {
-        // prepare structure to store each computed value from indicator
-        // alghoritm
-        Map<String, Integer> mapNumberOfValueComputed = new HashMap<String, Integer>();
-        Map<String, Double> mapValueComputed = new HashMap<String, Double>();
-        Map<String, Double> mapAdditionalValueComputed = new HashMap<String, Double>();
-        Map<String, List<Double>> mapElementsValueComputed = new HashMap<String, List<Double>>();
+        return crisEntityTypeId != null || crisEntityClazz != null;
+    }
 
+    /**
+     * The indicators of each document, or, for the entities, all the documents
+     * linked to an entity, read once for all the entities instead of a query
+     * for each one.
+     */
+    @Override
+    public SolrQuery getSourceQuery(String filter)
+    {
         SolrQuery query = new SolrQuery();
         query.setQuery(getQueryDefault());
         if(StringUtils.isNotBlank(filter)) {
@@ -109,13 +95,13 @@ public class StatsGenericIndicatorsPlugin<ACO extends ACrisObject>
         else if(StringUtils.isNotBlank(getFilterDefault())) {
             query.addFilterQuery(getFilterDefault());    
         }
-        if (rp != null)
-        {
-            query.addFilterQuery("{!field f=" + field + "}" + rp.getCrisID(),
-                    "NOT(withdrawn:true)");
-        }
         query.setFields("search.resourceid", "search.resourcetype", "cris-uuid",
                 "handle");
+        if (isEntityIndicator())
+        {
+            query.addFilterQuery("NOT(withdrawn:true)");
+            query.addField(field);
+        }
         if (getIndicators() != null)
         {
             for (IIndicatorBuilder<ACO> indicator : indicators)
@@ -130,28 +116,99 @@ public class StatsGenericIndicatorsPlugin<ACO extends ACrisObject>
                 }
             }
         }
+        return query;
+    }
 
-        query.setRows(Integer.MAX_VALUE);
+    @Override
+    public List<StatsIndicatorsPartition> createPartitions(
+            StatsIndicatorsRun run, Context[] contexts)
+    {
+        // get all particular entity to get all related object from Solr
+        Map<String, ACO> entities = null;
+        if (isEntityIndicator())
+        {
+            List<ACO> rs = new ArrayList<ACO>();
 
-        QueryResponse response = searchService.search(query);
-        SolrDocumentList results = response.getResults();
+            if (crisEntityTypeId > 1000)
+            {
+                Integer placeholderTypoID = CrisConstants.CRIS_DYNAMIC_TYPE_ID_START;
+                rs = (List<ACO>) run.getApplicationService()
+                        .getResearchObjectByIDType(crisEntityTypeId - placeholderTypoID);
+            }
+            else
+            {
+                rs = run.getApplicationService().getList(crisEntityClazz);
+            }
 
-        for (SolrDocument doc : results)
-        {
-            if (rp == null)
+            entities = new HashMap<String, ACO>();
+            for (ACO rp : rs)
             {
-                // prepare structure to store each computed value from indicator
-                // alghoritm
-                mapNumberOfValueComputed = new HashMap<String, Integer>();
-                mapValueComputed = new HashMap<String, Double>();
-                mapAdditionalValueComputed = new HashMap<String, Double>();
-                mapElementsValueComputed = new HashMap<String, List<Double>>();
+                entities.put(rp.getCrisID(), rp);
             }
+        }
+        List<StatsIndicatorsPartition> partitions = new ArrayList<StatsIndicatorsPartition>();
+        for (int p = 0; p < contexts.length; p++)
+        {
+            partitions.add(new GenericPartition(run, contexts[p], p,
+                    contexts.length, entities));
+        }
+        return partitions;
+    }
 
+    @Override
+    public void complete(StatsIndicatorsRun run,
+            List<StatsIndicatorsPartition> partitions)
+    {
+        // the partitions write the indicators
+    }
+
+    /**
+     * The structures to store each computed value from indicator alghoritm,
+     * for a document or an entity.
+     */
+    private static class ComputedValues
+    {
+        private final Map<String, Integer> mapNumberOfValueComputed = new HashMap<String, Integer>();
+
+        private final Map<String, Double> mapValueComputed = new HashMap<String, Double>();
+
+        private final Map<String, Double> mapAdditionalValueComputed = new HashMap<String, Double>();
+
+        private final Map<String, List<Double>> mapElementsValueComputed = new HashMap<String, List<Double>>();
+    }
+
+    /**
+     * Computes the indicators of the documents, or of the entities, owned by
+     * the partition: the ones of a document are written at once, the ones of
+     * the entities once all their documents are read.
+     */
+    private class GenericPartition extends StatsIndicatorsPartition
+    {
+        private final StatsIndicatorsRun run;
+
+        private final Map<String, ACO> entities;
+
+        private final Map<String, ComputedValues> entityValues = new LinkedHashMap<String, ComputedValues>();
+
+        GenericPartition(StatsIndicatorsRun run, Context context, int index,
+                int count, Map<String, ACO> entities)
+        {
+            super(context, index, count);
+            this.run = run;
+            this.entities = entities;
+        }
+
+        @Override
+        public void process(SolrDocument doc) throws SQLException
+        {
             Integer resourceType = (Integer) doc
                     .getFirstValue("search.resourcetype");
             Integer resourceId = (Integer) doc
                     .getFirstValue("search.resourceid");
+            if (resourceId == null)
+            {
+                return;
+            }
             String uuid = "";
             if (resourceType != Constants.ITEM)
                 uuid = (String) doc.getFirstValue("cris-uuid");
@@ -160,115 +217,149 @@ public class StatsGenericIndicatorsPlugin<ACO extends ACrisObject>
                 uuid = (String) doc.getFirstValue("handle");
             }
 
-            if (resourceId != null)
+            if (entities == null)
             {
-                for (IIndicatorBuilder<ACO> indicator : indicators)
+                if (owns(resourceType, resourceId))
                 {
-
-                    try
-                    {
-                        indicator.computeMetric(context, applicationService,
-                                pService, mapNumberOfValueComputed,
-                                mapValueComputed, mapElementsValueComputed, rp,
-                                doc, resourceType, resourceId, uuid);
-                        indicator.applyAdditional(context, applicationService,
-                                pService, mapNumberOfValueComputed,
-                                mapValueComputed, mapAdditionalValueComputed,
-                                mapElementsValueComputed, rp, doc, resourceType,
-                                resourceId, uuid);
-                    }
-                    catch (Exception ex)
+                    ComputedValues values = new ComputedValues();
+                    compute(values, null, doc, resourceType, resourceId, uuid);
+                    buildIndicator(run, values, resourceType, resourceId, uuid);
+                }
+                return;
+            }
+            Collection<Object> authorities = doc.getFieldValues(field);
+            if (authorities == null)
+            {
+                return;
+            }
+            Set<Object> done = new HashSet<Object>();
+            for (Object authority : authorities)
+            {
+                String crisID = (String) authority;
+                ACO rp = entities.get(crisID);
+                if (rp != null && owns(crisID) && done.add(crisID))
+                {
+                    ComputedValues values = entityValues.get(crisID);
+                    if (values == null)
                     {
-                        log.error(ex.getMessage(), ex);
+                        values = new ComputedValues();
+                        entityValues.put(crisID, values);
                     }
-
+                    compute(values, rp, doc, resourceType, resourceId, uuid);
                 }
             }
-            if (rp == null)
+        }
+
+        private void compute(ComputedValues values, ACO rp, SolrDocument doc,
+                Integer resourceType, Integer resourceId, String uuid)
+        {
+            for (IIndicatorBuilder<ACO> indicator : indicators)
             {
-                buildIndicator(applicationService, pService,
-                        mapNumberOfValueComputed, mapValueComputed,
-                        mapAdditionalValueComputed, mapElementsValueComputed,
-                        resourceType, resourceId, uuid);
+
+                try
+                {
+                    indicator.computeMetric(getContext(), run.getApplicationService(),
+                            run.getMetricsService(), values.mapNumberOfValueComputed,
+                            values.mapValueComputed, values.mapElementsValueComputed, rp,
+                            doc, resourceType, resourceId, uuid);
+                    indicator.applyAdditional(getContext(), run.getApplicationService(),
+                            run.getMetricsService(), values.mapNumberOfValueComputed,
+                            values.mapValueComputed, values.mapAdditionalValueComputed,
+                            values.mapElementsValueComputed, rp, doc, resourceType,
+                            resourceId, uuid);
+                }
+                catch (Exception ex)
+                {
+                    log.error(ex.getMessage(), ex);
+                }
+
             }
         }
-        if (rp != null)
+
+        @Override
+        public void finish() throws SQLException
         {
-            buildIndicator(applicationService, pService,
-                    mapNumberOfValueComputed, mapValueComputed,
-                    mapAdditionalValueComputed, mapElementsValueComputed,
-                    rp.getType(), rp.getId(), rp.getUuid());
+            for (Map.Entry<String, ComputedValues> entry : entityValues.entrySet())
+            {
+                ACO rp = entities.get(entry.getKey());
+                buildIndicator(run, entry.getValue(), rp.getType(), rp.getId(),
+                        rp.getUuid());
+            }
         }
     }
 
-    private void buildIndicator(ApplicationService applicationService,
-            MetricsPersistenceService pService,
-            Map<String, Integer> mapNumberOfValueComputed,
-            Map<String, Double> mapValueComputed,
-            Map<String, Double> mapAdditionalValueComputed,
-            Map<String, List<Double>> mapElementsValueComputed,
+    private void buildIndicator(StatsIndicatorsRun run, ComputedValues values,
             Integer resourceType, Integer resourceId, String uuid)
+            throws SQLException
     {
+        CrisMetricsWriter writer = run.getWriter();
         for (IIndicatorBuilder<ACO> indicator : indicators)
         {
 
-            if (mapAdditionalValueComputed.containsKey(indicator.getName()))
+            if (values.mapAdditionalValueComputed.containsKey(indicator.getName()))
             {
-                buildIndicator(pService, applicationService, uuid, resourceType,
+                buildIndicator(writer, uuid, resourceType,
                         resourceId,
-                        mapAdditionalValueComputed.get(indicator.getName()),
+                        values.mapAdditionalValueComputed.get(indicator.getName()),
                         indicator.getOutput(), null, null, null);
             }
             else
             {
-                if (mapValueComputed.containsKey(indicator.getName()))
+                if (values.mapValueComputed.containsKey(indicator.getName()))
                 {
-                    buildIndicator(pService, applicationService, uuid,
+                    buildIndicator(writer, uuid,
                             resourceType, resourceId,
-                            mapValueComputed.get(indicator.getName()),
+                            values.mapValueComputed.get(indicator.getName()),
                             indicator.getOutput(), null, null, null);
                 }
-                if (mapNumberOfValueComputed.containsKey(indicator.getName()))
+                if (values.mapNumberOfValueComputed.containsKey(indicator.getName()))
                 {
-                    buildIndicator(pService, applicationService, uuid,
+                    buildIndicator(writer, uuid,
                             resourceType, resourceId,
-                            mapNumberOfValueComputed.get(indicator.getName()),
+                            values.mapNumberOfValueComputed.get(indicator.getName()),
                             indicator.getOutput()
                                     + ConstantMetrics.SUFFIX_STATS_INDICATOR_TYPE_COUNT,
                             null, null, null);
                 }
-                if (mapElementsValueComputed.containsKey(indicator.getName()))
+                if (values.mapElementsValueComputed.containsKey(indicator.getName()))
                 {
-                    List<Double> elementsValueComputed = mapElementsValueComputed.get(indicator.getName());
-
-                    Double max = Collections.max(elementsValueComputed);
-                    Double min = Collections.min(elementsValueComputed);
+                    List<Double> elementsValueComputed = values.mapElementsValueComputed.get(indicator.getName());
+                    if (elementsValueComputed.isEmpty())
+                    {
+                        continue;
+                    }
 
-                    Double median = null;
-                    Double[] elementsArray = new Double[elementsValueComputed
+                    double[] elementsArray = new double[elementsValueComputed
                             .size()];
-                    elementsArray = elementsValueComputed
-                            .toArray(elementsArray);
-                    Double average = IndicatorsUtils.mean(elementsArray);
+                    double sum = 0;
+                    for (int i = 0; i < elementsArray.length; i++)
+                    {
+                        elementsArray[i] = elementsValueComputed.get(i);
+                        sum += elementsArray[i];
+                    }
                     Arrays.sort(elementsArray);
-                    median = IndicatorsUtils.median(elementsArray);
+                    Double max = elementsArray[elementsArray.length - 1];
+                    Double min = elementsArray[0];
+                    Double average = sum / elementsArray.length;
+                    Double median = IndicatorsUtils.median(elementsArray,
+                            elementsArray.length);
 
-                    buildIndicator(pService, applicationService, uuid,
+                    buildIndicator(writer, uuid,
                             resourceType, resourceId, average,
                             indicator.getOutput()
                                     + ConstantMetrics.SUFFIX_STATS_INDICATOR_TYPE_AVERAGE,
                             null, null, null);
-                    buildIndicator(pService, applicationService, uuid,
+                    buildIndicator(writer, uuid,
                             resourceType, resourceId, max,
                             indicator.getOutput()
                                     + ConstantMetrics.SUFFIX_STATS_INDICATOR_TYPE_MAX,
                             null, null, null);
-                    buildIndicator(pService, applicationService, uuid,
+                    buildIndicator(writer, uuid,
                             resourceType, resourceId, min,
                             indicator.getOutput()
                                     + ConstantMetrics.SUFFIX_STATS_INDICATOR_TYPE_MIN,
                             null, null, null);
-                    buildIndicator(pService, applicationService, uuid,
+                    buildIndicator(writer, uuid,
                             resourceType, resourceId, median,
                             indicator.getOutput()
                                     + ConstantMetrics.SUFFIX_STATS_INDICATOR_TYPE_MEDIAN,
@@ -0,0 +1,458 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.statistics.plugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.SolrDocument;
+import org.dspace.app.cris.discovery.CrisSearchService;
+import org.dspace.app.cris.metrics.common.dao.CrisMetricsWriter;
+import org.dspace.app.cris.metrics.common.services.MetricsPersistenceService;
+import org.dspace.app.cris.service.ApplicationService;
+import org.dspace.app.cris.statistics.CrisSolrLogger;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+import org.dspace.discovery.SolrDocumentCursor;
+import org.dspace.utils.DSpace;
+
+/**
+ * Runs the stats indicators plugins. The consecutive
+ * {@link StatsIndicatorsStreamPlugin}s of the same query (the query and the
+ * filter queries) share a single pass over its documents, streamed with a
+ * Solr cursor; the documents are handed to the partitions of the plugins,
+ * each partition run by its own thread (cris.cfg,
+ * stats.indicators.partitions, default 1). The indicators are written with
+ * JDBC batches, in incremental mode only when they change.
+ * <p/>
+ * The other plugins are run one at a time as before. A failing plugin doesn't
+ * stop the others, see {@link #getSucceeded()} and {@link #getFailed()}.
+ */
+public class StatsIndicatorsEngine
+{
+    /** log4j logger */
+    private static Logger log = Logger.getLogger(StatsIndicatorsEngine.class);
+
+    private static final int PAGE_SIZE = 1000;
+
+    /** end of the documents for the partition threads */
+    private static final List<SolrDocument> END = Collections.emptyList();
+
+    private final ApplicationService applicationService;
+
+    private final CrisSolrLogger statsService;
+
+    private final CrisSearchService searchService;
+
+    private int partitions = ConfigurationManager.getIntProperty("cris",
+            "stats.indicators.partitions", 1);
+
+    private boolean incremental = false;
+
+    private final List<String> succeeded = new LinkedList<String>();
+
+    private final List<String> failed = new LinkedList<String>();
+
+    public StatsIndicatorsEngine(ApplicationService applicationService,
+            CrisSolrLogger statsService, CrisSearchService searchService)
+    {
+        this.applicationService = applicationService;
+        this.statsService = statsService;
+        this.searchService = searchService;
+    }
+
+    public void run(Context context, List<StatsIndicatorsPlugin> plugins,
+            String filter) throws Exception
+    {
+        MetricsPersistenceService pService = new DSpace().getServiceManager()
+                .getServiceByName(MetricsPersistenceService.class.getName(),
+                        MetricsPersistenceService.class);
+        CrisMetricsWriter writer = pService.getMetricsWriter(incremental);
+        StatsIndicatorsRun run = new StatsIndicatorsRun(context,
+                applicationService, statsService, searchService, pService,
+                writer, filter);
+        try
+        {
+            int i = 0;
+            while (i < plugins.size())
+            {
+                if (!(plugins.get(i) instanceof StatsIndicatorsStreamPlugin))
+                {
+                    runPlugin(context, plugins.get(i), filter);
+                    i++;
+                    continue;
+                }
+                List<StatsIndicatorsStreamPlugin> group = new ArrayList<StatsIndicatorsStreamPlugin>();
+                String source = null;
+                while (i < plugins.size()
+                        && plugins.get(i) instanceof StatsIndicatorsStreamPlugin)
+                {
+                    StatsIndicatorsStreamPlugin plugin = (StatsIndicatorsStreamPlugin) plugins
+                            .get(i);
+                    String key = getSourceKey(plugin.getSourceQuery(filter));
+                    if (source != null && !source.equals(key))
+                    {
+                        break;
+                    }
+                    source = key;
+                    group.add(plugin);
+                    i++;
+                }
+                runGroup(run, group);
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+        log.info("Indicators written: " + writer.getWritten()
+                + ", unchanged: " + writer.getSkipped());
+    }
+
+    private void runPlugin(Context context, StatsIndicatorsPlugin plugin,
+            String filter)
+    {
+        try
+        {
+            plugin.buildIndicator(context, applicationService, statsService,
+                    searchService, filter);
+            context.commit();
+            succeeded.add(plugin.getName());
+        }
+        catch (Exception e)
+        {
+            log.error(e.getMessage(), e);
+            failed.add(plugin.getName());
+        }
+    }
+
+    private static String getSourceKey(SolrQuery query)
+    {
+        String[] filterQueries = query.getFilterQueries();
+        if (filterQueries == null)
+        {
+            return query.getQuery();
+        }
+        filterQueries = filterQueries.clone();
+        Arrays.sort(filterQueries);
+        return query.getQuery() + "\n" + StringUtils.join(filterQueries, "\n");
+    }
+
+    private void runGroup(StatsIndicatorsRun run,
+            List<StatsIndicatorsStreamPlugin> group)
+    {
+        Set<StatsIndicatorsStreamPlugin> errors = Collections
+                .newSetFromMap(new ConcurrentHashMap<StatsIndicatorsStreamPlugin, Boolean>());
+        Map<StatsIndicatorsStreamPlugin, List<StatsIndicatorsPartition>> partitionsByPlugin = new LinkedHashMap<StatsIndicatorsStreamPlugin, List<StatsIndicatorsPartition>>();
+        Context[] contexts = new Context[Math.max(1, partitions)];
+        try
+        {
+            SolrQuery query = null;
+            for (int p = 0; p < contexts.length; p++)
+            {
+                contexts[p] = new Context();
+            }
+            for (StatsIndicatorsStreamPlugin plugin : group)
+            {
+                SolrQuery source = plugin.getSourceQuery(run.getFilter());
+                if (query == null)
+                {
+                    query = source.getCopy();
+                }
+                else if (source.getFields() != null)
+                {
+                    for (String field : StringUtils.split(source.getFields(), ","))
+                    {
+                        query.addField(field.trim());
+                    }
+                }
+                try
+                {
+                    partitionsByPlugin.put(plugin,
+                            plugin.createPartitions(run, contexts));
+                }
+                catch (Exception e)
+                {
+                    log.error(plugin.getName() + ": " + e.getMessage(), e);
+                    errors.add(plugin);
+                }
+            }
+
+            List<Worker> workers = new ArrayList<Worker>();
+            for (int p = 0; p < contexts.length; p++)
+            {
+                Map<StatsIndicatorsStreamPlugin, StatsIndicatorsPartition> partition = new LinkedHashMap<StatsIndicatorsStreamPlugin, StatsIndicatorsPartition>();
+                for (Map.Entry<StatsIndicatorsStreamPlugin, List<StatsIndicatorsPartition>> entry : partitionsByPlugin
+                        .entrySet())
+                {
+                    partition.put(entry.getKey(), entry.getValue().get(p));
+                }
+                workers.add(new Worker(partition, errors));
+            }
+            try
+            {
+                read(query, workers);
+            }
+            catch (Exception e)
+            {
+                log.error(e.getMessage(), e);
+                errors.addAll(group);
+            }
+
+            boolean renew = false;
+            long written = run.getWriter().getWritten();
+            for (StatsIndicatorsStreamPlugin plugin : group)
+            {
+                if (!errors.contains(plugin))
+                {
+                    try
+                    {
+                        plugin.complete(run, partitionsByPlugin.get(plugin));
+                        run.getWriter().flush();
+                        succeeded.add(plugin.getName());
+                        renew = renew || plugin.isRenewMetricsCache();
+                        continue;
+                    }
+                    catch (Exception e)
+                    {
+                        log.error(plugin.getName() + ": " + e.getMessage(), e);
+                    }
+                }
+                failed.add(plugin.getName());
+            }
+            if (renew && run.getWriter().getWritten() > written)
+            {
+                searchService.renewMetricsCache();
+            }
+        }
+        catch (Exception e)
+        {
+            log.error(e.getMessage(), e);
+            for (StatsIndicatorsStreamPlugin plugin : group)
+            {
+                if (!succeeded.contains(plugin.getName())
+                        && !failed.contains(plugin.getName()))
+                {
+                    failed.add(plugin.getName());
+                }
+            }
+        }
+        finally
+        {
+            for (Context context : contexts)
+            {
+                if (context != null && context.isValid())
+                {
+                    context.abort();
+                }
+            }
+        }
+    }
+
+    /**
+     * Hand the documents of the query to the workers, a page at a time,
+     * running them on the current thread if there is a single one.
+     */
+    private void read(SolrQuery query, List<Worker> workers) throws Exception
+    {
+        SolrDocumentCursor cursor = searchService.iterate(query);
+        if (workers.size() == 1)
+        {
+            Worker worker = workers.get(0);
+            List<SolrDocument> page = new ArrayList<SolrDocument>(PAGE_SIZE);
+            while (cursor.hasNext())
+            {
+                page.add(cursor.next());
+                if (page.size() == PAGE_SIZE)
+                {
+                    worker.process(page);
+                    page.clear();
+                }
+            }
+            worker.process(page);
+            worker.finish();
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers.size());
+        try
+        {
+            for (Worker worker : workers)
+            {
+                executor.execute(worker);
+            }
+            try
+            {
+                List<SolrDocument> page = new ArrayList<SolrDocument>(PAGE_SIZE);
+                while (cursor.hasNext())
+                {
+                    page.add(cursor.next());
+                    if (page.size() == PAGE_SIZE)
+                    {
+                        for (Worker worker : workers)
+                        {
+                            worker.queue.put(page);
+                        }
+                        page = new ArrayList<SolrDocument>(PAGE_SIZE);
+                    }
+                }
+                for (Worker worker : workers)
+                {
+                    worker.queue.put(page);
+                }
+            }
+            finally
+            {
+                for (Worker worker : workers)
+                {
+                    worker.queue.put(END);
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES))
+            {
+                log.info("Waiting for the indicators partitions to complete");
+            }
+        }
+    }
+
+    /**
+     * Feeds the documents to the partitions of an index, for all the plugins.
+     */
+    private static class Worker implements Runnable
+    {
+        private final BlockingQueue<List<SolrDocument>> queue = new ArrayBlockingQueue<List<SolrDocument>>(2);
+
+        private final Map<StatsIndicatorsStreamPlugin, StatsIndicatorsPartition> partitions;
+
+        private final Set<StatsIndicatorsStreamPlugin> errors;
+
+        Worker(Map<StatsIndicatorsStreamPlugin, StatsIndicatorsPartition> partitions,
+                Set<StatsIndicatorsStreamPlugin> errors)
+        {
+            this.partitions = partitions;
+            this.errors = errors;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                List<SolrDocument> page;
+                while ((page = queue.take()) != END)
+                {
+                    process(page);
+                }
+                finish();
+            }
+            catch (InterruptedException e)
+            {
+                errors.addAll(partitions.keySet());
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void process(List<SolrDocument> page)
+        {
+            for (Map.Entry<StatsIndicatorsStreamPlugin, StatsIndicatorsPartition> entry : partitions
+                    .entrySet())
+            {
+                if (errors.contains(entry.getKey()))
+                {
+                    continue;
+                }
+                try
+                {
+                    for (SolrDocument doc : page)
+                    {
+                        entry.getValue().process(doc);
+                    }
+                }
+                catch (Exception e)
+                {
+                    log.error(entry.getKey().getName() + ": " + e.getMessage(), e);
+                    errors.add(entry.getKey());
+                }
+            }
+        }
+
+        void finish()
+        {
+            for (Map.Entry<StatsIndicatorsStreamPlugin, StatsIndicatorsPartition> entry : partitions
+                    .entrySet())
+            {
+                if (errors.contains(entry.getKey()))
+                {
+                    continue;
+                }
+                try
+                {
+                    entry.getValue().finish();
+                }
+                catch (Exception e)
+                {
+                    log.error(entry.getKey().getName() + ": " + e.getMessage(), e);
+                    errors.add(entry.getKey());
+                }
+            }
+        }
+    }
+
+    public int getPartitions()
+    {
+        return partitions;
+    }
+
+    public void setPartitions(int partitions)
+    {
+        this.partitions = partitions;
+    }
+
+    public boolean isIncremental()
+    {
+        return incremental;
+    }
+
+    /**
+     * @param incremental
+     *            true not to write again the indicators equal to the last ones
+     */
+    public void setIncremental(boolean incremental)
+    {
+        this.incremental = incremental;
+    }
+
+    public List<String> getSucceeded()
+    {
+        return succeeded;
+    }
+
+    public List<String> getFailed()
+    {
+        return failed;
+    }
+}
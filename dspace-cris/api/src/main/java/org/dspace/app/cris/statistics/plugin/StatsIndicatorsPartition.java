@@ -0,0 +1,70 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.statistics.plugin;
+
+import org.apache.solr.common.SolrDocument;
+import org.dspace.core.Context;
+
+/**
+ * The state of a {@link StatsIndicatorsStreamPlugin} for a partition of the
+ * indicators. Every partition reads all the documents, but only computes the
+ * indicators of the objects it owns (by hash of their id), so that the
+ * partitions don't share any state and run in parallel without locks.
+ */
+public abstract class StatsIndicatorsPartition
+{
+    private final Context context;
+
+    private final int index;
+
+    private final int count;
+
+    protected StatsIndicatorsPartition(Context context, int index, int count)
+    {
+        this.context = context;
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * @return the context of the partition, not to be shared with other
+     *         threads
+     */
+    public Context getContext()
+    {
+        return context;
+    }
+
+    public boolean owns(Integer resourceTypeId, Integer resourceId)
+    {
+        return resourceTypeId != null && resourceId != null
+                && owns(31 * resourceTypeId + resourceId);
+    }
+
+    public boolean owns(String key)
+    {
+        return key != null && owns(key.hashCode());
+    }
+
+    private boolean owns(int hash)
+    {
+        return count == 1
+                || ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % count == index;
+    }
+
+    public abstract void process(SolrDocument doc) throws Exception;
+
+    /**
+     * Called by the thread of the partition once all the documents are
+     * processed.
+     */
+    public void finish() throws Exception
+    {
+        // nothing to do by default
+    }
+}
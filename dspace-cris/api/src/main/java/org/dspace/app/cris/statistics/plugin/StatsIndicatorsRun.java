@@ -0,0 +1,92 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.statistics.plugin;
+
+import org.dspace.app.cris.discovery.CrisSearchService;
+import org.dspace.app.cris.metrics.common.dao.CrisMetricsWriter;
+import org.dspace.app.cris.metrics.common.services.MetricsPersistenceService;
+import org.dspace.app.cris.service.ApplicationService;
+import org.dspace.app.cris.statistics.CrisSolrLogger;
+import org.dspace.core.Context;
+
+/**
+ * The services and the writer shared by the plugins of a run of the
+ * {@link StatsIndicatorsEngine}.
+ */
+public class StatsIndicatorsRun
+{
+    private final Context context;
+
+    private final ApplicationService applicationService;
+
+    private final CrisSolrLogger statsService;
+
+    private final CrisSearchService searchService;
+
+    private final MetricsPersistenceService metricsService;
+
+    private final CrisMetricsWriter writer;
+
+    private final String filter;
+
+    public StatsIndicatorsRun(Context context,
+            ApplicationService applicationService, CrisSolrLogger statsService,
+            CrisSearchService searchService,
+            MetricsPersistenceService metricsService, CrisMetricsWriter writer,
+            String filter)
+    {
+        this.context = context;
+        this.applicationService = applicationService;
+        this.statsService = statsService;
+        this.searchService = searchService;
+        this.metricsService = metricsService;
+        this.writer = writer;
+        this.filter = filter;
+    }
+
+    /**
+     * @return the context of the run, for the thread running the engine only
+     */
+    public Context getContext()
+    {
+        return context;
+    }
+
+    public ApplicationService getApplicationService()
+    {
+        return applicationService;
+    }
+
+    public CrisSolrLogger getStatsService()
+    {
+        return statsService;
+    }
+
+    public CrisSearchService getSearchService()
+    {
+        return searchService;
+    }
+
+    public MetricsPersistenceService getMetricsService()
+    {
+        return metricsService;
+    }
+
+    /**
+     * @return the writer of the indicators, shared by all the threads
+     */
+    public CrisMetricsWriter getWriter()
+    {
+        return writer;
+    }
+
+    public String getFilter()
+    {
+        return filter;
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.statistics.plugin;
+
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.dspace.core.Context;
+
+/**
+ * Indicators computed from the documents of a Solr query, read once by the
+ * {@link StatsIndicatorsEngine} for all the plugins of the same query. The
+ * documents are split in partitions, each one processed by a single thread.
+ */
+public interface StatsIndicatorsStreamPlugin extends StatsIndicatorsPlugin
+{
+    /**
+     * @return the query of the documents, with the fields read
+     */
+    SolrQuery getSourceQuery(String filter);
+
+    /**
+     * @param contexts
+     *            the context of each partition, used by its thread only
+     * @return a partition for each context
+     */
+    List<StatsIndicatorsPartition> createPartitions(StatsIndicatorsRun run,
+            Context[] contexts) throws Exception;
+
+    /**
+     * Write the indicators computed from all the partitions, once they are
+     * finished.
+     */
+    void complete(StatsIndicatorsRun run,
+            List<StatsIndicatorsPartition> partitions) throws Exception;
+
+    boolean isRenewMetricsCache();
+}
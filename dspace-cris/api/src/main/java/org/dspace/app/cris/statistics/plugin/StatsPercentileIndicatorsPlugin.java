@@ -7,28 +7,28 @@
  */
 package org.dspace.app.cris.statistics.plugin;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
-import org.apache.solr.client.solrj.SolrQuery.ORDER;
-import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrDocumentList;
 import org.dspace.app.cris.discovery.CrisSearchService;
 import org.dspace.app.cris.metrics.common.model.ConstantMetrics;
-import org.dspace.app.cris.metrics.common.services.MetricsPersistenceService;
+import org.dspace.app.cris.metrics.common.model.CrisMetricsValues;
 import org.dspace.app.cris.service.ApplicationService;
 import org.dspace.app.cris.statistics.CrisSolrLogger;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.discovery.SearchServiceException;
-import org.dspace.kernel.ServiceManager;
-import org.dspace.utils.DSpace;
 
 public class StatsPercentileIndicatorsPlugin extends AStatsIndicatorsPlugin
+        implements StatsIndicatorsStreamPlugin
 {
 
     private static Logger log = Logger
@@ -44,14 +44,30 @@ public class StatsPercentileIndicatorsPlugin extends AStatsIndicatorsPlugin
             CrisSearchService searchService, String filter)
                     throws SearchServiceException
     {
-        ServiceManager serviceManager = new DSpace().getServiceManager();
-        MetricsPersistenceService pService = serviceManager.getServiceByName(
-                MetricsPersistenceService.class.getName(),
-                MetricsPersistenceService.class);
+        StatsIndicatorsEngine engine = new StatsIndicatorsEngine(
+                applicationService, statsService, searchService);
+        try
+        {
+            engine.run(context,
+                    Collections.<StatsIndicatorsPlugin> singletonList(this),
+                    filter);
+        }
+        catch (Exception e)
+        {
+            throw new SearchServiceException(e.getMessage(), e);
+        }
+        if (!engine.getFailed().isEmpty())
+        {
+            throw new SearchServiceException(
+                    "Unable to build the indicators of " + getName());
+        }
+    }
 
+    @Override
+    public SolrQuery getSourceQuery(String filter)
+    {
         SolrQuery query = new SolrQuery();
         query.setQuery(getQueryDefault());
-        query.setSort(ConstantMetrics.PREFIX_FIELD + metrics, ORDER.desc);
         if(StringUtils.isNotBlank(filter)) {
             query.addFilterQuery(filter);
         }
@@ -64,36 +80,110 @@ public class StatsPercentileIndicatorsPlugin extends AStatsIndicatorsPlugin
 	        }
         }
         query.setFields("search.resourceid", "search.resourcetype", "handle", "cris-uuid");
+        return query;
+    }
 
-        query.setRows(Integer.MAX_VALUE);
+    @Override
+    public List<StatsIndicatorsPartition> createPartitions(
+            StatsIndicatorsRun run, Context[] contexts)
+    {
+        List<StatsIndicatorsPartition> partitions = new ArrayList<StatsIndicatorsPartition>();
+        for (int p = 0; p < contexts.length; p++)
+        {
+            partitions.add(new PercentilePartition(contexts[p], p, contexts.length));
+        }
+        return partitions;
+    }
+
+    /**
+     * The position of each object in descending order of the metric, taken
+     * from the last metrics in the database: the objects are ranked in memory
+     * instead of being sorted by Solr on its metrics cache.
+     */
+    @Override
+    public void complete(StatsIndicatorsRun run,
+            List<StatsIndicatorsPartition> partitions) throws SQLException
+    {
+        int numFound = 0;
+        for (StatsIndicatorsPartition partition : partitions)
+        {
+            numFound += ((PercentilePartition) partition).size;
+        }
+        CrisMetricsValues values = run.getMetricsService()
+                .getLastMetricValues(run.getContext(), metrics);
+        double[] objectValues = new double[numFound];
+        int i = 0;
+        for (StatsIndicatorsPartition partition : partitions)
+        {
+            PercentilePartition objects = (PercentilePartition) partition;
+            for (int o = 0; o < objects.size; o++)
+            {
+                objectValues[i++] = values.get(objects.resourceTypes[o],
+                        objects.resourceIds[o]);
+            }
+        }
+        int[] positions = IndicatorsUtils.rank(objectValues);
 
-        QueryResponse response = searchService.search(query);
-        SolrDocumentList results = response.getResults();
-        int position = 1;
         Date endDate = new Date();
-        for (SolrDocument doc : results)
+        i = 0;
+        for (StatsIndicatorsPartition partition : partitions)
+        {
+            PercentilePartition objects = (PercentilePartition) partition;
+            for (int o = 0; o < objects.size; o++)
+            {
+                double percentile = ((double) positions[i++])/((double) numFound);
+                buildIndicator(run.getWriter(), objects.uuids[o],
+                        objects.resourceTypes[o], objects.resourceIds[o],
+                        percentile,
+                        metrics + ConstantMetrics.SUFFIX_STATS_INDICATOR_TYPE_RANKING,
+                        null, endDate, null);
+            }
+        }
+    }
+
+    /**
+     * The objects of the partition.
+     */
+    private static class PercentilePartition extends StatsIndicatorsPartition
+    {
+        private int size;
+
+        private int[] resourceTypes = new int[1024];
+
+        private int[] resourceIds = new int[1024];
+
+        private String[] uuids = new String[1024];
+
+        PercentilePartition(Context context, int index, int count)
+        {
+            super(context, index, count);
+        }
+
+        @Override
+        public void process(SolrDocument doc)
         {
             Integer resourceType = (Integer) doc
                     .getFirstValue("search.resourcetype");
             Integer resourceId = (Integer) doc
                     .getFirstValue("search.resourceid");
-
-            String uuid = (String) doc
+            if (!owns(resourceType, resourceId))
+            {
+                return;
+            }
+            if (size == resourceIds.length)
+            {
+                int capacity = size + (size >> 1);
+                resourceTypes = Arrays.copyOf(resourceTypes, capacity);
+                resourceIds = Arrays.copyOf(resourceIds, capacity);
+                uuids = Arrays.copyOf(uuids, capacity);
+            }
+            resourceTypes[size] = resourceType;
+            resourceIds[size] = resourceId;
+            uuids[size] = (String) doc
                     .getFirstValue(resourceType == Constants.ITEM
                             ? "handle" : "cris-uuid");
-            long numFound = results.getNumFound();
-			double percentile = ((double) position)/((double) numFound);
-            
-            buildIndicator(pService, applicationService, uuid, resourceType,
-                    resourceId, percentile,
-                    metrics + ConstantMetrics.SUFFIX_STATS_INDICATOR_TYPE_RANKING,
-                    null, endDate, null);
-            position++;
+            size++;
         }
-
-        if(isRenewMetricsCache()) {
-            searchService.renewMetricsCache();
-        }   
     }
 
     public String getMetrics()
@@ -0,0 +1,80 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.deduplication.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MinHashSignatureTest
+{
+    private final MinHashSignature signature = new MinHashSignature();
+
+    private double similarity(String title, String other)
+    {
+        return signature.getSimilarity(signature.getSketch(title), signature.getSketch(other));
+    }
+
+    private boolean shareBand(String title, String other)
+    {
+        List<String> bands = new ArrayList<String>(signature.getSignature(Arrays.asList(signature
+                .getSketch(title))));
+        bands.retainAll(signature.getSignature(Arrays.asList(signature.getSketch(other))));
+        return !bands.isEmpty();
+    }
+
+    @Test
+    public void testOneWordDifferent()
+    {
+        String[][] pairs = {
+                { "The effects of climate change on the biodiversity of alpine plant communities",
+                        "The effects of climate change on the biodiversity of alpine grassland communities" },
+                { "A randomized controlled trial of early intervention for psychosis in young adults",
+                        "A randomised controlled trial of early intervention for psychosis in young adults" },
+                { "Deep learning methods for the segmentation of medical images: a systematic review",
+                        "Deep learning methods for the segmentation of medical images: a systematic overview" } };
+        for (String[] pair : pairs)
+        {
+            double similarity = similarity(pair[0], pair[1]);
+            assertTrue(pair[1] + ": " + similarity, similarity >= signature.getThreshold());
+            assertTrue(pair[1], shareBand(pair[0], pair[1]));
+        }
+    }
+
+    @Test
+    public void testUnrelated()
+    {
+        String[][] pairs = {
+                { "The effects of climate change on the biodiversity of alpine plant communities",
+                        "A randomized controlled trial of early intervention for psychosis in young adults" },
+                { "Deep learning methods for the segmentation of medical images: a systematic review",
+                        "Medieval trade routes and the economy of the Venetian republic" },
+                { "Climate change and alpine biodiversity",
+                        "The effects of climate change on the biodiversity of alpine plant communities" } };
+        for (String[] pair : pairs)
+        {
+            double similarity = similarity(pair[0], pair[1]);
+            assertTrue(pair[1] + ": " + similarity, similarity < signature.getThreshold());
+        }
+    }
+
+    @Test
+    public void testSameTitle()
+    {
+        String title = "The effects of climate change on the biodiversity of alpine plant communities";
+        assertEquals(1, similarity(title, "THE EFFECTS OF CLIMATE CHANGE on the biodiversity of alpine "
+                + "plant communities."), 0);
+        assertEquals(signature.getSignature(Arrays.asList(signature.getSketch(title))),
+                signature.getSignature(Arrays.asList(signature.getSketch(title.toUpperCase()))));
+        assertNull(signature.getSketch("!!! ---"));
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.deduplication.utils;
+
+import java.util.Locale;
+
+import org.junit.Test;
+
+import com.ibm.icu.text.CharsetDetector;
+import com.ibm.icu.text.CharsetMatch;
+import com.ibm.icu.text.Normalizer;
+
+import static org.junit.Assert.*;
+
+public class TitleNormalizerTest
+{
+    private static final String[] TITLES = { "Über die Änderung der Verhältnisse",
+            "İstanbul'da IŞIK ve ışık", "INTRODUCTION TO THE THEORY OF IDEALS", "ıİIi",
+            "x^2 + y^2 = z^2", "Vol. 3: Part ½, chapter Ⅻ", "Café 2019 — l'été", "日本語のタイトル",
+            "Ελληνικά ΣΟΦΙΑ", "!!! --- ???", "", "123", "^" };
+
+    /**
+     * The normalization of TitleSignature and of the TitleWithDigit*
+     * signatures before TitleNormalizer.
+     */
+    private static String legacy(String value, boolean keepDigits)
+    {
+        String regex = keepDigits ? "[^\\p{L}^\\p{N}]" : "[^\\p{L}]";
+        String norm = Normalizer.normalize(value, Normalizer.NFD);
+        CharsetDetector cd = new CharsetDetector();
+        cd.setText(value.getBytes());
+        CharsetMatch detect = cd.detect();
+        if (detect != null && detect.getLanguage() != null)
+        {
+            return norm.replaceAll(regex, "").toLowerCase(new Locale(detect.getLanguage()));
+        }
+        return norm.replaceAll(regex, "").toLowerCase();
+    }
+
+    @Test
+    public void testSameAsLegacy()
+    {
+        for (String title : TITLES)
+        {
+            assertEquals(title, legacy(title, false), TitleNormalizer.normalize(title, false));
+            assertEquals(title, legacy(title, true), TitleNormalizer.normalize(title, true));
+        }
+    }
+
+    @Test
+    public void testNormalize()
+    {
+        assertEquals("uberdieanderung", TitleNormalizer.normalize("Über die Änderung", false));
+        assertEquals("xy", TitleNormalizer.normalize("x2 + y2", false));
+        // the '^' was kept by the pattern of the signatures with the digits
+        assertEquals("x^2y^2", TitleNormalizer.normalize("x^2 + y^2", true));
+        assertEquals("", TitleNormalizer.normalize("!!! 123 ???", false));
+        assertEquals("123", TitleNormalizer.normalize("!!! 123 ???", true));
+        assertEquals("", TitleNormalizer.normalize("", true));
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.metrics.common.dao;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.dspace.app.cris.metrics.common.model.CrisMetrics;
+import org.dspace.app.cris.metrics.common.model.CrisMetricsValues;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CrisMetricsWriterTest
+{
+    private static final String TYPE = "scopus";
+
+    private static final int RP = 9;
+
+    /** a row of cris_metrics */
+    private static class Row
+    {
+        final int resourceId;
+
+        final double value;
+
+        boolean last = true;
+
+        Row(int resourceId, double value)
+        {
+            this.resourceId = resourceId;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Writes the metrics of TYPE to a table in memory, with the statements
+     * of the JDBC batches.
+     */
+    private static class TableWriter extends CrisMetricsWriter
+    {
+        final List<Row> table = new ArrayList<Row>();
+
+        int batches = 0;
+
+        TableWriter(boolean incremental, int batchSize, Row... rows)
+        {
+            super(incremental, batchSize);
+            for (Row row : rows)
+            {
+                table.add(row);
+            }
+        }
+
+        @Override
+        protected CrisMetricsValues readLastValues(String metricType)
+        {
+            CrisMetricsValues values = new CrisMetricsValues();
+            for (Row row : table)
+            {
+                if (row.last)
+                {
+                    values.put(RP, row.resourceId, row.value);
+                }
+            }
+            return values;
+        }
+
+        @Override
+        protected void writeBatch(List<CrisMetrics> updates, List<CrisMetrics> inserts)
+        {
+            batches++;
+            Set<Integer> inserted = new HashSet<Integer>();
+            for (CrisMetrics metric : inserts)
+            {
+                assertTrue("twice in a batch: " + metric.getResourceId(),
+                        inserted.add(metric.getResourceId()));
+            }
+            // update cris_metrics set last = false ...
+            for (CrisMetrics metric : updates)
+            {
+                for (Row row : table)
+                {
+                    if (row.resourceId == metric.getResourceId())
+                    {
+                        row.last = false;
+                    }
+                }
+            }
+            // insert into cris_metrics ... last = true
+            for (CrisMetrics metric : inserts)
+            {
+                table.add(new Row(metric.getResourceId(), metric.getMetricCount()));
+            }
+        }
+
+        /**
+         * @return the values of the object, the last one marked with a *
+         */
+        String getValues(int resourceId)
+        {
+            List<String> values = new ArrayList<String>();
+            for (Row row : table)
+            {
+                if (row.resourceId == resourceId)
+                {
+                    values.add(row.value + (row.last ? "*" : ""));
+                }
+            }
+            return values.toString();
+        }
+    }
+
+    private static CrisMetrics metric(int resourceId, double value, String remark)
+    {
+        CrisMetrics metric = new CrisMetrics();
+        metric.setResourceTypeId(RP);
+        metric.setResourceId(resourceId);
+        metric.setMetricType(TYPE);
+        metric.setMetricCount(value);
+        metric.setRemark(remark);
+        return metric;
+    }
+
+    @Test
+    public void testUnsetAndInsertInOneBatch() throws SQLException
+    {
+        TableWriter writer = new TableWriter(false, 10, new Row(1, 5));
+        writer.write(metric(1, 7, null));
+        writer.write(metric(2, 3, null));
+        writer.close();
+
+        assertEquals(1, writer.batches);
+        assertEquals("[5.0, 7.0*]", writer.getValues(1));
+        assertEquals("[3.0*]", writer.getValues(2));
+        assertEquals(2, writer.getWritten());
+    }
+
+    @Test
+    public void testSameObjectTwiceInBatch() throws SQLException
+    {
+        TableWriter writer = new TableWriter(false, 10, new Row(1, 5));
+        writer.write(metric(1, 7, null));
+        writer.write(metric(2, 3, null));
+        // the batch is sent before the second metric of the object
+        writer.write(metric(1, 8, null));
+        assertEquals(1, writer.batches);
+        writer.write(metric(2, 4, null));
+        writer.close();
+
+        assertEquals(2, writer.batches);
+        assertEquals("[5.0, 7.0, 8.0*]", writer.getValues(1));
+        assertEquals("[3.0, 4.0*]", writer.getValues(2));
+        assertEquals(4, writer.getWritten());
+    }
+
+    @Test
+    public void testBatchSize() throws SQLException
+    {
+        TableWriter writer = new TableWriter(false, 2);
+        for (int id = 1; id <= 5; id++)
+        {
+            writer.write(metric(id, id, null));
+        }
+        assertEquals(2, writer.batches);
+        writer.close();
+        assertEquals(3, writer.batches);
+        assertEquals(5, writer.getWritten());
+    }
+
+    @Test
+    public void testIncremental() throws SQLException
+    {
+        TableWriter writer = new TableWriter(true, 10, new Row(1, 5));
+        writer.write(metric(1, 5, null));
+        writer.write(metric(2, 0, null));
+        writer.write(metric(1, 6, null));
+        // equal to the one written just before
+        writer.write(metric(1, 6, null));
+        // a remark is always written
+        writer.write(metric(1, 6, "remark"));
+        writer.close();
+
+        assertEquals("[5.0, 6.0, 6.0*]", writer.getValues(1));
+        assertEquals("[0.0*]", writer.getValues(2));
+        assertEquals(3, writer.getWritten());
+        assertEquals(2, writer.getSkipped());
+    }
+
+    @Test
+    public void testNotIncremental() throws SQLException
+    {
+        TableWriter writer = new TableWriter(false, 10, new Row(1, 5));
+        writer.write(metric(1, 5, null));
+        writer.close();
+
+        assertEquals("[5.0, 5.0*]", writer.getValues(1));
+        assertEquals(0, writer.getSkipped());
+    }
+}
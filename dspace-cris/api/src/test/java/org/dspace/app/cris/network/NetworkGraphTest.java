@@ -0,0 +1,266 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NetworkGraphTest
+{
+    /**
+     * A - B - C - D, with A - B in two documents, and A - E where E is not a
+     * researcher: a, a_auth, a_val, a_dept, b, b_auth, b_val, b_dept
+     */
+    private static final String[][] DOCUMENTS = {
+            { "A", "rp00001", "Alpha", "D1", "B", "rp00002", "Beta", "D1" },
+            { "B", "rp00002", "Beta", "D1", "C", "rp00003", "Gamma", "D2" },
+            { "C", "rp00003", "Gamma", "D2", "D", "rp00004", "Delta", "D2" },
+            { "A", "rp00001", "Alpha", "D1", "E", null, "Epsilon", "D1" },
+            { "B", "rp00002", "Beta", "D1", "A", "rp00001", "Alpha", "D1" },
+            // no connection
+            { "A", "rp00001", "Alpha", "D1", null, null, null, null },
+            // a connection to itself
+            { "A", "rp00001", "Alpha", "D1", "A", "rp00001", "Alpha", "D1" } };
+
+    /**
+     * The same researcher under two names, connected to each other: A - A.
+     * - B, A. - C
+     */
+    private static final String[][] VARIANTS = {
+            { "A", "rp00001", "Alpha", "D1", "A.", "rp00001", "Alpha", "D1" },
+            { "A.", "rp00001", "Alpha", "D1", "B", "rp00002", "Beta", "D1" },
+            { "A", "rp00001", "Alpha", "D1", "B", "rp00002", "Beta", "D1" },
+            { "C", "rp00003", "Gamma", "D1", "A.", "rp00001", "Alpha", "D1" },
+            { "A.", "rp00001", "Alpha", "D1", "A.", "rp00001", "Alpha", "D1" } };
+
+    private NetworkGraph graph;
+
+    @Before
+    public void setUp()
+    {
+        graph = build(DOCUMENTS);
+    }
+
+    private static NetworkGraph build(String[][] documents)
+    {
+        NetworkGraph.Builder builder = new NetworkGraph.Builder();
+        for (String[] d : documents)
+        {
+            builder.addDocument(d[0], d[1], d[2], d[3], d[4], d[5], d[6], d[7]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * The "focus" facet of the network core for the same documents, as Solr
+     * computes it for the queries of AVisualizationGraph: each matching
+     * document counts once for each distinct value of its focus field, a
+     * copy of a and b.
+     */
+    private static String solrFacet(String[][] documents, String authority, String name,
+            boolean internalOnly, String sameDept, int limit)
+    {
+        Map<String, Integer> counts = new TreeMap<String, Integer>();
+        for (String[] d : documents)
+        {
+            // focus_auth:authority or focus_val:"name"
+            boolean match = authority != null ? authority.equals(d[1]) || authority.equals(d[5])
+                    : name.equals(d[2]) || name.equals(d[6]);
+            // a_auth:rp* AND b_auth:rp*
+            if (internalOnly)
+            {
+                match &= d[1] != null && d[1].startsWith("rp") && d[5] != null && d[5].startsWith("rp");
+            }
+            // focus_dept:"dept|||dept"
+            if (sameDept != null)
+            {
+                match &= (d[3] + "|||" + d[7]).equals(sameDept + "|||" + sameDept);
+            }
+            if (!match)
+            {
+                continue;
+            }
+            Set<String> focus = new LinkedHashSet<String>();
+            for (String value : new String[] { d[0], d[4] })
+            {
+                if (value != null)
+                {
+                    focus.add(value);
+                }
+            }
+            for (String value : focus)
+            {
+                Integer count = counts.get(value);
+                counts.put(value, count == null ? 1 : count + 1);
+            }
+        }
+        List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(
+                counts.entrySet());
+        // facet.sort=count, ties in index order
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>()
+        {
+            @Override
+            public int compare(Map.Entry<String, Integer> e1, Map.Entry<String, Integer> e2)
+            {
+                int diff = e2.getValue() - e1.getValue();
+                return diff != 0 ? diff : e1.getKey().compareTo(e2.getKey());
+            }
+        });
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<String, Integer> entry : entries)
+        {
+            if (limit > 0 && result.size() == limit)
+            {
+                break;
+            }
+            result.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return result.toString();
+    }
+
+    private static void assertFacetAsSolr(String[][] documents, String authority, String name)
+    {
+        NetworkGraph graph = build(documents);
+        for (boolean internalOnly : new boolean[] { false, true })
+        {
+            for (String sameDept : new String[] { null, "D1", "D2" })
+            {
+                for (int limit : new int[] { 0, 1, 2 })
+                {
+                    String message = authority + "/" + name + ", internalOnly " + internalOnly
+                            + ", sameDept " + sameDept + ", limit " + limit;
+                    assertEquals(message, solrFacet(documents, authority, name, internalOnly, sameDept, limit),
+                            toString(graph.facet(authority, name, internalOnly, sameDept, limit)));
+                }
+            }
+        }
+    }
+
+    private static String toString(List<NetworkGraph.Facet> facets)
+    {
+        List<String> result = new ArrayList<String>();
+        for (NetworkGraph.Facet facet : facets)
+        {
+            result.add(facet.getLabel() + "=" + facet.getCount());
+        }
+        return result.toString();
+    }
+
+    private static VisualizationGraphNode node(String a, String aAuthority, String b, String bAuthority)
+    {
+        VisualizationGraphNode node = new VisualizationGraphNode();
+        node.setA(a);
+        node.setA_auth(aAuthority);
+        node.setB(b);
+        node.setB_auth(bAuthority);
+        return node;
+    }
+
+    @Test
+    public void testBuild()
+    {
+        assertEquals(7, graph.getDocuments());
+        assertEquals(5, graph.getNodeCount());
+        assertEquals(4, graph.getEdgeCount());
+        assertEquals(4, graph.getAuthorities().size());
+        assertTrue(graph.getAuthorities().containsAll(
+                Arrays.asList("rp00001", "rp00002", "rp00003", "rp00004")));
+    }
+
+    @Test
+    public void testFacet()
+    {
+        assertEquals("[A=5, B=2, E=1]", toString(graph.facet("rp00001", null, false, null, 0)));
+        assertEquals("[A=5, B=2, E=1]", toString(graph.facet(null, "Alpha", false, null, 0)));
+        assertEquals("[A=5]", toString(graph.facet("rp00001", null, false, null, 1)));
+        // E is not a researcher
+        assertEquals("[A=3, B=2]", toString(graph.facet("rp00001", null, true, null, 0)));
+        assertEquals("[B=3, A=2, C=1]", toString(graph.facet("rp00002", null, false, null, 0)));
+        assertEquals("[A=2, B=2]", toString(graph.facet("rp00002", null, false, "D1", 0)));
+        assertTrue(graph.facet("rp00009", null, false, null, 0).isEmpty());
+    }
+
+    @Test
+    public void testFacetAsSolr()
+    {
+        for (String authority : new String[] { "rp00001", "rp00002", "rp00003" })
+        {
+            assertFacetAsSolr(DOCUMENTS, authority, null);
+            assertFacetAsSolr(VARIANTS, authority, null);
+        }
+        assertFacetAsSolr(DOCUMENTS, null, "Alpha");
+        assertFacetAsSolr(VARIANTS, null, "Alpha");
+    }
+
+    @Test
+    public void testFacetSameAuthority()
+    {
+        NetworkGraph variants = build(VARIANTS);
+        // A - A. counts once for each of them, A. - A. once for A.
+        assertEquals("[A.=4, A=2, B=2, C=1]", toString(variants.facet("rp00001", null, false, null, 0)));
+        assertEquals("[B=2, A=1, A.=1]", toString(variants.facet("rp00002", null, false, null, 0)));
+    }
+
+    @Test
+    public void testDegree()
+    {
+        assertEquals(2, graph.getDegree("rp00001"));
+        assertEquals(2, graph.getDegree("rp00002"));
+        assertEquals(1, graph.getDegree("rp00004"));
+        assertEquals(0, graph.getDegree("rp00009"));
+    }
+
+    @Test
+    public void testNeighbourhood()
+    {
+        assertEquals("{A=0, B=1, E=1, C=2}", graph.getNeighbourhood("rp00001", 2).toString());
+        assertEquals("{D=0}", graph.getNeighbourhood("rp00004", 0).toString());
+        assertTrue(graph.getNeighbourhood("rp00009", 2).isEmpty());
+    }
+
+    @Test
+    public void testPath()
+    {
+        assertEquals(Arrays.asList("A", "B", "C", "D"), graph.getPath("rp00001", "rp00004", 3));
+        assertEquals(Arrays.asList("D", "C", "B", "A"), graph.getPath("rp00004", "rp00001", 3));
+        assertTrue(graph.getPath("rp00001", "rp00004", 2).isEmpty());
+        assertEquals(Arrays.asList("A"), graph.getPath("rp00001", "rp00001", 0));
+        assertTrue(graph.getPath("rp00001", "rp00009", 3).isEmpty());
+    }
+
+    @Test
+    public void testWithNodes()
+    {
+        NetworkGraph updated = graph.withNodes(Arrays.asList(node("B", "rp00002", "D", "rp00004"),
+                node("A", "rp00001", "B", "rp00002"), node("F", "rp00006", "A", "rp00001")));
+
+        assertEquals(10, updated.getDocuments());
+        assertEquals(6, updated.getNodeCount());
+        assertEquals(6, updated.getEdgeCount());
+        assertEquals(Arrays.asList("A", "B", "D"), updated.getPath("rp00001", "rp00004", 3));
+        assertEquals("[A=7, B=3, E=1, F=1]", toString(updated.facet("rp00001", null, false, null, 0)));
+
+        // the graph is unchanged
+        assertEquals(7, graph.getDocuments());
+        assertEquals(4, graph.getEdgeCount());
+        assertEquals(Arrays.asList("A", "B", "C", "D"), graph.getPath("rp00001", "rp00004", 3));
+        assertEquals(Collections.emptyList(), graph.getPath("rp00001", "rp00006", 3));
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * https://github.com/CILEA/dspace-cris/wiki/License
+ */
+package org.dspace.app.cris.statistics.plugin;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IndicatorsUtilsTest
+{
+    @Test
+    public void testRank()
+    {
+        assertArrayEquals(new int[] { 3, 1, 2 }, IndicatorsUtils.rank(new double[] { 1, 10, 5 }));
+    }
+
+    @Test
+    public void testRankTies()
+    {
+        // the equal values share the rank of the first of them, the next
+        // value skips the ranks they take
+        assertArrayEquals(new int[] { 1, 2, 2, 5, 2 },
+                IndicatorsUtils.rank(new double[] { 9, 5, 5, 1, 5 }));
+        assertArrayEquals(new int[] { 1, 1, 1 }, IndicatorsUtils.rank(new double[] { 0, 0, 0 }));
+    }
+
+    @Test
+    public void testRankMissing()
+    {
+        assertArrayEquals(new int[] { 3, 1, 3, 2 },
+                IndicatorsUtils.rank(new double[] { Double.NaN, 7, Double.NaN, 0 }));
+        assertArrayEquals(new int[] { 1, 1 },
+                IndicatorsUtils.rank(new double[] { Double.NaN, Double.NaN }));
+    }
+
+    @Test
+    public void testRankEmpty()
+    {
+        assertEquals(0, IndicatorsUtils.rank(new double[0]).length);
+    }
+}
@@ -19,9 +19,21 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -29,6 +41,7 @@ import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.PosixParser;
+import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
@@ -36,10 +49,14 @@ import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrQuery.ORDER;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CursorMarkParams;
 import org.dspace.app.cris.model.ACrisObject;
 import org.dspace.app.cris.model.CrisConstants;
+import org.dspace.app.cris.service.ApplicationService;
 import org.dspace.app.cris.util.MetadatumAuthorityDecorator;
 import org.dspace.app.cris.util.UtilsCrisMetadata;
 import org.dspace.authorize.AuthorizeManager;
@@ -51,12 +68,11 @@ import org.dspace.content.DSpaceObject;
 import org.dspace.content.Item;
 import org.dspace.content.MetadataValue;
 import org.dspace.content.Metadatum;
+import org.dspace.content.PrefetchSpec;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.core.Utils;
-import org.dspace.discovery.DiscoverQuery;
-import org.dspace.discovery.DiscoverResult;
 import org.dspace.discovery.SearchServiceException;
 import org.dspace.discovery.SearchUtils;
 import org.dspace.utils.DSpace;
@@ -85,11 +101,19 @@ public class XOAI {
 
     private static Logger log = LogManager.getLogger(XOAI.class);
 
+    private static final String RESOURCE_TYPE_FIELD = "search.resourcetype";
+    private static final String RESOURCE_ID_FIELD = "search.resourceid";
+    private static final String CERIF_TYPE_FIELD = "item.cerifentitytype";
+
     private Context context;
     private boolean optimize;
     private boolean verbose;
     private boolean clean;
 
+    /** the contexts of the import workers, which can't share one */
+    private final ThreadLocal<Context> workerContext = new ThreadLocal<Context>();
+    private final List<Context> workerContexts = Collections.synchronizedList(new ArrayList<Context>());
+
     @Autowired
     private SolrServerResolver solrServerResolver;
     @Autowired
@@ -285,131 +309,275 @@ public class XOAI {
     }
     
     /***
-     * Paged solr query used to retrieve data to index.
-     * The page size can be modified using:
+     * Walk the discovery documents matching the query with a Solr cursor,
+     * rather than with offsets growing with each page, and build the OAI
+     * documents of each page in a pool of workers, each with its own Context.
+     * The pages are sent to the OAI core in the order they were read, one
+     * add per page; the commit is left to the caller.
+     * 
+     * The discovery documents are read in order of modification, so that an
+     * interrupted import is resumed by the next incremental one from the last
+     * item.lastmodified committed.
+     * 
+     * The page size and the number of workers can be modified using:
      * 	oai.discover.pagesize
+     * 	oai.import.threads
      * 
      * @param solrQuery The query
      * @return The number of indexed data.
      * @throws DSpaceSolrIndexerException
      */
     private int indexWithQuery(String solrQuery) throws DSpaceSolrIndexerException {
-    	String discoverPageSize = "";
-		try {
-			int pageSize = -1;
-			int total = 0;
-			int read = -1;
-	    	
-	    	discoverPageSize = ConfigurationManager.getProperty("oai", "oai.discover.pagesize");
-	    	if (discoverPageSize == null || discoverPageSize.trim().length() <= 0)
-	    		pageSize = 100;
-	    	else {
-	    		pageSize = Integer.parseInt(discoverPageSize);
-	    	}
-	    	
-	    	DiscoverResult results = null;
-	    	int page = 0;
-	    	int offset;
-	    	
-	    	do {
-	    		offset = page > 0 ? page * pageSize : 0;
-			
-	    		DiscoverQuery query = new DiscoverQuery();
-	    		query.setQuery(solrQuery);
-	    		query.setMaxResults(pageSize);
-	    		query.setStart(offset);
-	    		query.addSearchField("item.cerifentitytype");
-			 	results = SearchUtils.getSearchService().search(context, query, true);
-			 	read = 0;
-			 	if (!results.getDspaceObjects().isEmpty())
-			 		read = indexResults(results, total);
-			 	page++;
-			 	total += read;
-	    	}
-	    	while (read == pageSize);
-	    	
-	    	System.out.println("Total: " + total + " items");
-			return total;
-		} catch (SearchServiceException e) {
-			String message = "Error while processing solr query results: " + e.getMessage();
-			log.error(message, e);
-			throw new DSpaceSolrIndexerException(message, e);
-		} catch (DSpaceSolrIndexerException e) {
-			String message = "Error while processing solr query results: \" + e.getMessage()";
-			log.error(message, e);
-			throw new DSpaceSolrIndexerException(message, e);
-		} catch (NumberFormatException e) {
-			String message = "Error in option oai.discover.pagesize: \" + discoverPageSize + \". \" + e.getMessage()";
-			log.error(message, e);
-			throw new DSpaceSolrIndexerException(message, e);
-		}
+        String discoverPageSize = ConfigurationManager.getProperty("oai", "oai.discover.pagesize");
+        int pageSize;
+        try {
+            pageSize = StringUtils.isBlank(discoverPageSize) ? 100 : Integer.parseInt(discoverPageSize.trim());
+        } catch (NumberFormatException e) {
+            String message = "Error in option oai.discover.pagesize: " + discoverPageSize + ". " + e.getMessage();
+            log.error(message, e);
+            throw new DSpaceSolrIndexerException(message, e);
+        }
+        int threads = Math.max(1, ConfigurationManager.getIntProperty("oai", "oai.import.threads", 4));
+
+        SolrQuery query = new SolrQuery(solrQuery)
+                .setFields(RESOURCE_TYPE_FIELD, RESOURCE_ID_FIELD, CERIF_TYPE_FIELD)
+                .setRows(pageSize)
+                .addSort("lastModified", ORDER.asc)
+                .addSort("search.uniqueid", ORDER.asc);
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new WorkerFactory());
+        LinkedList<PendingPage> pending = new LinkedList<PendingPage>();
+        int total = 0;
+        try {
+            String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+            while (true) {
+                query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+                QueryResponse response = SearchUtils.getSearchService().search(query);
+                SolrDocumentList page = response.getResults();
+                if (!page.isEmpty()) {
+                    pending.add(new PendingPage(workers.submit(new PageTask(page)), page.size()));
+                    // keep the workers busy without holding every page in memory
+                    while (pending.size() > 2 * threads) {
+                        total += send(pending.removeFirst(), total);
+                    }
+                }
+                String nextCursorMark = response.getNextCursorMark();
+                if (page.size() < pageSize || nextCursorMark == null || nextCursorMark.equals(cursorMark)) {
+                    break;
+                }
+                cursorMark = nextCursorMark;
+            }
+            while (!pending.isEmpty()) {
+                total += send(pending.removeFirst(), total);
+            }
+        } catch (SearchServiceException e) {
+            String message = "Error while processing solr query results: " + e.getMessage();
+            log.error(message, e);
+            throw new DSpaceSolrIndexerException(message, e);
+        } finally {
+            workers.shutdownNow();
+            closeWorkerContexts(workers);
+        }
+
+        System.out.println("Total: " + total + " items");
+        return total;
     }
 
     /***
-     * Read one page of data.
+     * Wait for the documents of a page and send them to the OAI core.
      * 
-     * @param result The paged data
+     * @param page The page submitted to the workers
      * @param subtotal The number of data processed so far.
-     * @return The number of indexed data.
+     * @return The number of data of the page.
      * @throws DSpaceSolrIndexerException
      */
-    @SuppressWarnings("rawtypes")
-	private int indexResults(DiscoverResult result, int subtotal)
-            throws DSpaceSolrIndexerException {
+    private int send(PendingPage page, int subtotal) throws DSpaceSolrIndexerException {
         try {
-            int i = 0;
-            SolrServer server = solrServerResolver.getServer();
-            for (DSpaceObject o : result.getDspaceObjects()) {
-                try {
-                	SolrInputDocument solrDoc = null;
-                	boolean doublingSolrDocument = false;
-                	if (o instanceof Item) {
-                	    Item item = (Item)o;
-                	    String type = (String)item.getExtraInfo().get("item.cerifentitytype");
-                	    solrDoc = this.indexResults(item, false);
-                	    if(StringUtils.isNotBlank(type)) {
-                	        doublingSolrDocument = true;
-                	    }
-                	}
-                	else if (o instanceof ACrisObject) {
-                		solrDoc = this.indexResults((ACrisObject)o);
-                	}
-                	server.add(solrDoc);
-                	
-                	if(doublingSolrDocument) {
-                	    Item item = (Item)o;
-                	    solrDoc = this.indexResults(item, true);
-                	    server.add(solrDoc);
-                	}
-                    context.clearCache();
-                } catch (SQLException ex) {
-                    log.error(ex.getMessage(), ex);
-                } catch (MetadataBindException e) {
-                    log.error(e.getMessage(), e);
-                } catch (ParseException e) {
-                    log.error(e.getMessage(), e);
-                } catch (XMLStreamException e) {
-                    log.error(e.getMessage(), e);
-                } catch (WritingXmlException e) {
-                    log.error(e.getMessage(), e);
-                }
-                i++;
-                if ((i+subtotal) % 100 == 0) System.out.println((i+subtotal) + " items imported so far...");
+            List<SolrInputDocument> docs = page.docs.get();
+            if (!docs.isEmpty()) {
+                solrServerResolver.getServer().add(docs);
             }
-            System.out.println("Partial Total: " + (i+subtotal) + " items");
-            server.commit();
-            return i;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
+        } catch (ExecutionException ex) {
+            throw new DSpaceSolrIndexerException(ex.getCause().getMessage(), ex.getCause());
         } catch (SolrServerException ex) {
             throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
         } catch (IOException ex) {
             throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
         }
+        System.out.println("Partial Total: " + (subtotal + page.size) + " items");
+        return page.size;
+    }
+
+    /***
+     * Build the documents of one page of data. Runs in a worker.
+     * 
+     * @param ctx The context of the worker
+     * @param page The discovery documents
+     * @return The OAI documents
+     */
+    @SuppressWarnings("rawtypes")
+    private List<SolrInputDocument> buildDocuments(Context ctx, SolrDocumentList page) {
+        // load the items of the page at once rather than one by one
+        List<Integer> ids = new ArrayList<Integer>();
+        for (SolrDocument d : page) {
+            if (Integer.valueOf(Constants.ITEM).equals(d.getFirstValue(RESOURCE_TYPE_FIELD))) {
+                ids.add((Integer) d.getFirstValue(RESOURCE_ID_FIELD));
+            }
+        }
+        Map<Integer, Item> items = new HashMap<Integer, Item>();
+        try {
+            for (Item item : Item.prefetch(ctx, ArrayUtils.toPrimitive(ids.toArray(new Integer[ids.size()])),
+                    PrefetchSpec.ALL)) {
+                if (item != null) {
+                    items.put(item.getID(), item);
+                }
+            }
+        } catch (SQLException ex) {
+            // the items are then loaded one by one
+            log.warn("Unable to prefetch the items: " + ex.getMessage(), ex);
+        }
+
+        List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+        for (SolrDocument d : page) {
+            Integer type = (Integer) d.getFirstValue(RESOURCE_TYPE_FIELD);
+            Integer id = (Integer) d.getFirstValue(RESOURCE_ID_FIELD);
+            if (type == null || id == null) {
+                continue;
+            }
+            try {
+                if (type == Constants.ITEM) {
+                    Item item = items.containsKey(id) ? items.get(id) : Item.find(ctx, id);
+                    if (item == null) {
+                        log.warn("Item " + id + " found in discovery no longer exists");
+                        continue;
+                    }
+                    String cerifType = (String) d.getFirstValue(CERIF_TYPE_FIELD);
+                    docs.add(this.indexResults(ctx, item, cerifType, false));
+                    if (StringUtils.isNotBlank(cerifType)) {
+                        docs.add(this.indexResults(ctx, item, cerifType, true));
+                    }
+                }
+                else if (type >= CrisConstants.CRIS_TYPE_ID_START) {
+                    ACrisObject o = getApplicationService().getEntityById(id, type);
+                    if (o == null) {
+                        log.warn("Cris object " + id + " of type " + type + " found in discovery no longer exists");
+                        continue;
+                    }
+                    docs.add(this.indexResults(ctx, o));
+                }
+            } catch (SQLException ex) {
+                log.error(ex.getMessage(), ex);
+            } catch (MetadataBindException e) {
+                log.error(e.getMessage(), e);
+            } catch (ParseException e) {
+                log.error(e.getMessage(), e);
+            } catch (XMLStreamException e) {
+                log.error(e.getMessage(), e);
+            } catch (WritingXmlException e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+        return docs;
+    }
+
+    /***
+     * @return the context of the current worker, opened on first use
+     * @throws SQLException
+     */
+    private Context getWorkerContext() throws SQLException {
+        Context ctx = workerContext.get();
+        if (ctx == null) {
+            ctx = new Context();
+            workerContexts.add(ctx);
+            workerContext.set(ctx);
+        }
+        return ctx;
+    }
+
+    /***
+     * Abort the contexts of the workers once they are stopped.
+     * 
+     * @param workers The stopped workers
+     */
+    private void closeWorkerContexts(ExecutorService workers) {
+        try {
+            if (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("The OAI import workers did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (workerContexts) {
+            for (Context ctx : workerContexts) {
+                if (ctx.isValid()) {
+                    ctx.abort();
+                }
+            }
+            workerContexts.clear();
+        }
+    }
+
+    private static ApplicationService getApplicationService() {
+        return new DSpace().getServiceManager().getServiceByName(
+                "applicationService", ApplicationService.class);
+    }
+
+    /***
+     * One page of data submitted to the workers.
+     */
+    private static final class PendingPage {
+        private final Future<List<SolrInputDocument>> docs;
+        private final int size;
+
+        PendingPage(Future<List<SolrInputDocument>> docs, int size) {
+            this.docs = docs;
+            this.size = size;
+        }
+    }
+
+    /***
+     * Builds the documents of one page of data in a worker.
+     */
+    private final class PageTask implements Callable<List<SolrInputDocument>> {
+        private final SolrDocumentList page;
+
+        PageTask(SolrDocumentList page) {
+            this.page = page;
+        }
+
+        @Override
+        public List<SolrInputDocument> call() throws Exception {
+            Context ctx = getWorkerContext();
+            try {
+                return buildDocuments(ctx, page);
+            } finally {
+                // the page is done, release its objects
+                ctx.clearCache();
+            }
+        }
+    }
+
+    private static final class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "oai-import-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 
     /***
      * Index one item
      * 
+     * @param ctx The context
      * @param item The item
+     * @param type The CERIF entity type of the item, if any
+     * @param specialIdentifier Whether to build the document identified by the CERIF type
      * @return The sorl document
      * @throws SQLException
      * @throws MetadataBindException
@@ -417,17 +585,16 @@ public class XOAI {
      * @throws XMLStreamException
      * @throws WritingXmlException
      */
-    private SolrInputDocument indexResults(Item item, boolean specialIdentifier) throws SQLException, MetadataBindException, ParseException, XMLStreamException, WritingXmlException {
+    private SolrInputDocument indexResults(Context ctx, Item item, String type, boolean specialIdentifier) throws SQLException, MetadataBindException, ParseException, XMLStreamException, WritingXmlException {
         SolrInputDocument doc = new SolrInputDocument();
         doc.addField("item.id", item.getID());
-        boolean pub = this.isPublic(item);
+        boolean pub = this.isPublic(ctx, item);
         doc.addField("item.public", pub);
         String handle = item.getHandle();
         if (verbose) {
             println("Prepare handle " + handle);
         }
         
-        String type = (String)item.getExtraInfo().get("item.cerifentitytype");
         if(StringUtils.isNotBlank(type) && specialIdentifier) {
             doc.addField("item.identifier", type +"/"+ handle);
             doc.addField("item.type", ITEMTYPE_SPECIAL);
@@ -472,17 +639,17 @@ public class XOAI {
         XmlOutputContext xmlContext = XmlOutputContext.emptyContext(out, Second);
         Metadata metadata = null;
         if(StringUtils.isNotBlank(type) && specialIdentifier) {
-            metadata = retrieveMetadata(context, item, true);
+            metadata = retrieveMetadata(ctx, item, true);
         }
         else {
-            metadata = retrieveMetadata(context, item, false);
+            metadata = retrieveMetadata(ctx, item, false);
         }
 
         //Do any additional content on "item.compile" field, depends on the plugins
         List<XOAIItemCompilePlugin> xOAIItemCompilePlugins = new DSpace().getServiceManager().getServicesByType(XOAIItemCompilePlugin.class);
         for (XOAIItemCompilePlugin xOAIItemCompilePlugin : xOAIItemCompilePlugins)
         {
-            metadata = xOAIItemCompilePlugin.additionalMetadata(context, metadata, item);
+            metadata = xOAIItemCompilePlugin.additionalMetadata(ctx, metadata, item);
         }
 
         metadata.write(xmlContext);
@@ -502,6 +669,7 @@ public class XOAI {
     /***
      * Index one cris item
      * 
+     * @param ctx The context
      * @param item The cris item
      * @return The sorl document
      * @throws SQLException
@@ -511,7 +679,7 @@ public class XOAI {
      * @throws WritingXmlException
      */
     @SuppressWarnings("rawtypes")
-    private SolrInputDocument indexResults(ACrisObject item) throws SQLException, MetadataBindException, ParseException, XMLStreamException, WritingXmlException {
+    private SolrInputDocument indexResults(Context ctx, ACrisObject item) throws SQLException, MetadataBindException, ParseException, XMLStreamException, WritingXmlException {
         SolrInputDocument doc = new SolrInputDocument();
         doc.addField("item.id", item.getID());
         boolean pub = item.getStatus();
@@ -556,7 +724,7 @@ public class XOAI {
         }
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         XmlOutputContext xmlContext = XmlOutputContext.emptyContext(out, Second);
-        retrieveMetadata(context, item).write(xmlContext);
+        retrieveMetadata(ctx, item).write(xmlContext);
         xmlContext.getWriter().flush();
         xmlContext.getWriter().close();
         doc.addField("item.compile", out.toString());
@@ -570,11 +738,11 @@ public class XOAI {
     }
 
 
-    private boolean isPublic(Item item) {
+    private boolean isPublic(Context ctx, Item item) {
         boolean pub = false;
         try {
             //Check if READ access allowed on this Item
-            pub = AuthorizeManager.authorizeActionBoolean(context, item, Constants.READ);
+            pub = AuthorizeManager.authorizeActionBoolean(ctx, item, Constants.READ);
         } catch (SQLException ex) {
             log.error(ex.getMessage());
         }
@@ -67,8 +67,6 @@ public class ItemUtils
     private static Logger log = LogManager
             .getLogger(ItemUtils.class);
 
-    private static SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-
     public static Integer MAX_DEEP = 2;
     public static String AUTHORITY = "authority";
 
@@ -672,7 +670,7 @@ public class ItemUtils
             value = OPEN_ACCESS;
         } else if (withEmbargo) {
             // all embargoed
-            value = EMBARGOED_ACCESS + "|||" + sdf.format(embargoEndDate);
+            value = EMBARGOED_ACCESS + "|||" + new SimpleDateFormat("yyyy-MM-dd").format(embargoEndDate);
         } else if (groupRestricted) {
             // all restricted
             value = RESTRICTED_ACCESS;
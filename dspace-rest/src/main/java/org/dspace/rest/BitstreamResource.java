@@ -189,6 +189,10 @@ public class BitstreamResource extends Resource
      *            How many bitstreams will be in the list. Default value is 100.
      * @param offset
      *            On which offset (item) the list starts. Default value is 0.
+     * @param after
+     *            Id of the last bitstream of the previous page, to read the
+     *            next page without skipping offset bitstreams. Bitstreams are
+     *            in id order.
      * @param headers
      *            If you want to access the item as the user logged into the context.
      *            The header "rest-dspace-token" with the token passed
@@ -203,19 +207,18 @@ public class BitstreamResource extends Resource
     @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
     public Bitstream[] getBitstreams(@QueryParam("expand") String expand,
             @QueryParam("limit") @DefaultValue("100") Integer limit, @QueryParam("offset") @DefaultValue("0") Integer offset,
-            @QueryParam("userIP") String user_ip, @QueryParam("userAgent") String user_agent,
+            @QueryParam("after") Integer after, @QueryParam("userIP") String user_ip, @QueryParam("userAgent") String user_agent,
             @QueryParam("xforwardedfor") String xforwardedfor, @Context HttpHeaders headers, @Context HttpServletRequest request)
             throws WebApplicationException
     {
 
-        log.info("Reading bitstreams.(offset=" + offset + ",limit=" + limit + ")");
+        log.info("Reading bitstreams.(offset=" + offset + ",limit=" + limit + ",after=" + after + ")");
         org.dspace.core.Context context = null;
         List<Bitstream> bitstreams = new ArrayList<Bitstream>();
 
         try
         {
             context = createContext(getUser(headers));
-            org.dspace.content.Bitstream[] dspaceBitstreams = org.dspace.content.Bitstream.findAll(context);
 
             if (!((limit != null) && (limit >= 0) && (offset != null) && (offset >= 0)))
             {
@@ -224,16 +227,16 @@ public class BitstreamResource extends Resource
                 offset = 0;
             }
 
-            // TODO If bitstream doesn't exist, throws exception.
-            for (int i = offset; (i < (offset + limit)) && (i < dspaceBitstreams.length); i++)
+            for (org.dspace.content.Bitstream dspaceBitstream : org.dspace.content.Bitstream.findAll(context, after,
+                    offset, limit))
             {
-                if (AuthorizeManager.authorizeActionBoolean(context, dspaceBitstreams[i], org.dspace.core.Constants.READ))
+                if (AuthorizeManager.authorizeActionBoolean(context, dspaceBitstream, org.dspace.core.Constants.READ))
                 {
-                    if (dspaceBitstreams[i].getParentObject() != null)
+                    if (dspaceBitstream.getParentObject() != null)
                     { // To eliminate bitstreams which cause exception, because of
                       // reading under administrator permissions
-                        bitstreams.add(new Bitstream(dspaceBitstreams[i], expand, servletContext));
-                        writeStats(dspaceBitstreams[i], UsageEvent.Action.VIEW, user_ip, user_agent,
+                        bitstreams.add(new Bitstream(dspaceBitstream, expand, servletContext));
+                        writeStats(dspaceBitstream, UsageEvent.Action.VIEW, user_ip, user_agent,
                                 xforwardedfor, headers, request, context);
                     }
                 }
@@ -770,6 +773,7 @@ public class BitstreamResource extends Resource
      */
     private void removePolicyFromBitstream(org.dspace.core.Context context, int policyID, int bitstreamID) throws SQLException {
         DatabaseManager.updateQuery(context, "DELETE FROM resourcepolicy WHERE POLICY_ID = ? AND RESOURCE_ID = ?", policyID,bitstreamID);
+        context.getAuthorizeCache().clear();
     }
 
     /**
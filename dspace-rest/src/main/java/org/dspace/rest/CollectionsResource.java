@@ -29,6 +29,7 @@ import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import org.apache.commons.lang.ArrayUtils;
 import org.apache.log4j.Logger;
 import org.dspace.authorize.AuthorizeException;
 import org.dspace.authorize.AuthorizeManager;
@@ -227,6 +228,9 @@ public class CollectionsResource extends Resource
      * @param offset
      *            Offset of start index in array of items of collection. Default
      *            value is 0.
+     * @param after
+     *            Id of the last item of the previous page, to read the next
+     *            page without skipping offset items. Items are in id order.
      * @param headers
      *            If you want to access to collection under logged user into
      *            context. In headers must be set header "rest-dspace-token"
@@ -246,7 +250,8 @@ public class CollectionsResource extends Resource
     @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
     public org.dspace.rest.common.Item[] getCollectionItems(@PathParam("collection_id") Integer collectionId,
             @QueryParam("expand") String expand, @QueryParam("limit") @DefaultValue("100") Integer limit,
-            @QueryParam("offset") @DefaultValue("0") Integer offset, @QueryParam("userIP") String user_ip,
+            @QueryParam("offset") @DefaultValue("0") Integer offset, @QueryParam("after") Integer after,
+            @QueryParam("userIP") String user_ip,
             @QueryParam("userAgent") String user_agent, @QueryParam("xforwardedfor") String xforwardedfor,
             @Context HttpHeaders headers, @Context HttpServletRequest request) throws WebApplicationException
     {
@@ -263,12 +268,22 @@ public class CollectionsResource extends Resource
             writeStats(dspaceCollection, UsageEvent.Action.VIEW, user_ip, user_agent, xforwardedfor,
                     headers, request, context);
 
+            if (!((limit != null) && (limit >= 0) && (offset != null) && (offset >= 0)))
+            {
+                log.warn("Pagging was badly set, using default values.");
+                limit = 100;
+                offset = 0;
+            }
+
+            // load the items of the page at once, with what expand needs
             items = new ArrayList<Item>();
-            org.dspace.content.ItemIterator dspaceItems = dspaceCollection.getItems(limit, offset);
+            List<Integer> itemIDs = dspaceCollection.getItemIDs(after, offset, limit);
+            org.dspace.content.Item[] dspaceItems = org.dspace.content.Item.prefetch(context,
+                    ArrayUtils.toPrimitive(itemIDs.toArray(new Integer[itemIDs.size()])),
+                    getPrefetchSpec(expand));
 
-            while (dspaceItems.hasNext()) {
-                org.dspace.content.Item dspaceItem = dspaceItems.next();
-                if (ItemService.isItemListedForUser(context, dspaceItem)) {
+            for (org.dspace.content.Item dspaceItem : dspaceItems) {
+                if (dspaceItem != null && ItemService.isItemListedForUser(context, dspaceItem)) {
                     items.add(new Item(dspaceItem, expand, context, servletContext));
                     writeStats(dspaceItem, UsageEvent.Action.VIEW, user_ip, user_agent, xforwardedfor,
                                headers, request, context);
@@ -33,13 +33,13 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
+import org.apache.commons.lang.ArrayUtils;
 import org.apache.log4j.Logger;
 import org.dspace.authorize.AuthorizeException;
 import org.dspace.authorize.AuthorizeManager;
 import org.dspace.content.BitstreamFormat;
 import org.dspace.content.Bundle;
 import org.dspace.content.FormatIdentifier;
-import org.dspace.content.ItemIterator;
 import org.dspace.content.Metadatum;
 import org.dspace.content.service.ItemService;
 import org.dspace.eperson.Group;
@@ -50,7 +50,6 @@ import org.dspace.rest.common.ResourcePolicy;
 import org.dspace.rest.exceptions.ContextException;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
-import org.dspace.storage.rdbms.TableRowIterator;
 import org.dspace.usage.UsageEvent;
 
 /**
@@ -140,6 +139,9 @@ public class ItemsResource extends Resource
      *            How many items in array will be. Default value is 100.
      * @param offset
      *            On which index will array start. Default value is 0.
+     * @param after
+     *            Id of the last item of the previous page, to read the next
+     *            page without skipping offset items. Items are in id order.
      * @param headers
      *            If you want to access to item under logged user into context.
      *            In headers must be set header "rest-dspace-token" with passed
@@ -154,12 +156,13 @@ public class ItemsResource extends Resource
     @GET
     @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
     public Item[] getItems(@QueryParam("expand") String expand, @QueryParam("limit") @DefaultValue("100") Integer limit,
-            @QueryParam("offset") @DefaultValue("0") Integer offset, @QueryParam("userIP") String user_ip,
+            @QueryParam("offset") @DefaultValue("0") Integer offset, @QueryParam("after") Integer after,
+            @QueryParam("userIP") String user_ip,
             @QueryParam("userAgent") String user_agent, @QueryParam("xforwardedfor") String xforwardedfor,
             @Context HttpHeaders headers, @Context HttpServletRequest request) throws WebApplicationException
     {
 
-        log.info("Reading items.(offset=" + offset + ",limit=" + limit + ").");
+        log.info("Reading items.(offset=" + offset + ",limit=" + limit + ",after=" + after + ").");
         org.dspace.core.Context context = null;
         List<Item> items = null;
 
@@ -167,7 +170,6 @@ public class ItemsResource extends Resource
         {
             context = createContext(getUser(headers));
 
-            ItemIterator dspaceItems = org.dspace.content.Item.findAllUnfiltered(context);
             items = new ArrayList<Item>();
 
             if (!((limit != null) && (limit >= 0) && (offset != null) && (offset >= 0)))
@@ -177,17 +179,19 @@ public class ItemsResource extends Resource
                 offset = 0;
             }
 
-            for (int i = 0; (dspaceItems.hasNext()) && (i < (limit + offset)); i++)
+            // load the items of the page at once, with what expand needs
+            List<Integer> itemIDs = org.dspace.content.Item.findItemIDsUnfiltered(context, after, offset, limit);
+            org.dspace.content.Item[] dspaceItems = org.dspace.content.Item.prefetch(context,
+                    ArrayUtils.toPrimitive(itemIDs.toArray(new Integer[itemIDs.size()])),
+                    getPrefetchSpec(expand));
+
+            for (org.dspace.content.Item dspaceItem : dspaceItems)
             {
-                org.dspace.content.Item dspaceItem = dspaceItems.next();
-                if (i >= offset)
+                if (dspaceItem != null && ItemService.isItemListedForUser(context, dspaceItem))
                 {
-                    if (ItemService.isItemListedForUser(context, dspaceItem))
-                    {
-                        items.add(new Item(dspaceItem, expand, context, servletContext));
-                        writeStats(dspaceItem, UsageEvent.Action.VIEW, user_ip, user_agent, xforwardedfor,
-                                headers, request, context);
-                    }
+                    items.add(new Item(dspaceItem, expand, context, servletContext));
+                    writeStats(dspaceItem, UsageEvent.Action.VIEW, user_ip, user_agent, xforwardedfor,
+                            headers, request, context);
                 }
             }
             context.complete();
@@ -275,6 +279,10 @@ public class ItemsResource extends Resource
      *            How many items will be in array.
      * @param offset
      *            On which index will start array.
+     * @param after
+     *            Id of the last bitstream of the previous page, to read the
+     *            next page without skipping offset bitstreams. Bitstreams are
+     *            in id order.
      * @param headers
      *            If you want to access to item under logged user into context.
      *            In headers must be set header "rest-dspace-token" with passed
@@ -290,12 +298,13 @@ public class ItemsResource extends Resource
     @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
     public Bitstream[] getItemBitstreams(@PathParam("item_id") Integer itemId,
             @QueryParam("limit") @DefaultValue("20") Integer limit, @QueryParam("offset") @DefaultValue("0") Integer offset,
-            @QueryParam("userIP") String user_ip, @QueryParam("userAgent") String user_agent,
+            @QueryParam("after") Integer after, @QueryParam("userIP") String user_ip, @QueryParam("userAgent") String user_agent,
             @QueryParam("xforwardedfor") String xforwardedfor, @Context HttpHeaders headers, @Context HttpServletRequest request)
             throws WebApplicationException
     {
 
-        log.info("Reading item(id=" + itemId + ") bitstreams.(offset=" + offset + ",limit=" + limit + ")");
+        log.info("Reading item(id=" + itemId + ") bitstreams.(offset=" + offset + ",limit=" + limit + ",after=" + after
+                + ")");
         org.dspace.core.Context context = null;
         List<Bitstream> bitstreams = null;
         try
@@ -305,15 +314,20 @@ public class ItemsResource extends Resource
 
             writeStats(dspaceItem, UsageEvent.Action.VIEW, user_ip, user_agent, xforwardedfor, headers, request, context);
 
-            List<Bitstream> itemBitstreams = new Item(dspaceItem, "bitstreams", context, servletContext).getBitstreams();
-
-            if ((offset + limit) > (itemBitstreams.size() - offset))
+            if (!((limit != null) && (limit >= 0) && (offset != null) && (offset >= 0)))
             {
-                bitstreams = itemBitstreams.subList(offset, itemBitstreams.size());
+                log.warn("Pagging was badly set, using default values.");
+                limit = 20;
+                offset = 0;
             }
-            else
+
+            bitstreams = new ArrayList<Bitstream>();
+            for (org.dspace.content.Bitstream dspaceBitstream : dspaceItem.getBitstreams(after, offset, limit))
             {
-                bitstreams = itemBitstreams.subList(offset, offset + limit);
+                if (AuthorizeManager.authorizeActionBoolean(context, dspaceBitstream, org.dspace.core.Constants.READ))
+                {
+                    bitstreams.add(new Bitstream(dspaceBitstream, null, servletContext));
+                }
             }
             context.complete();
         }
@@ -1019,10 +1033,16 @@ public class ItemsResource extends Resource
             }
 
             Object[] parameters = parameterList.toArray();
-            TableRowIterator iterator = org.dspace.storage.rdbms.DatabaseManager.query(context, sql, parameters);
-            while (iterator.hasNext())
+            List<TableRow> rows = org.dspace.storage.rdbms.DatabaseManager.query(context, sql, parameters).toList();
+            int[] itemIDs = new int[rows.size()];
+            for (int i = 0; i < itemIDs.length; i++)
+            {
+                itemIDs[i] = rows.get(i).getIntColumn("RESOURCE_ID");
+            }
+            org.dspace.content.Item.prefetch(context, itemIDs, getPrefetchSpec(expand));
+
+            for (TableRow row : rows)
             {
-                TableRow row = iterator.next();
                 org.dspace.content.Item dspaceItem = this.findItem(context, row.getIntColumn("RESOURCE_ID"),
                         org.dspace.core.Constants.READ);
                 Item item = new Item(dspaceItem, expand, context, servletContext);
@@ -1110,7 +1130,7 @@ public class ItemsResource extends Resource
         }
         return item;
     }
-    
+
     /**
      * Return all item resource policies
      *
@@ -1327,6 +1347,7 @@ public class ItemsResource extends Resource
      */
     private void removePolicyFromItem(org.dspace.core.Context context, int policyID, int itemID) throws SQLException {
         DatabaseManager.updateQuery(context, "DELETE FROM resourcepolicy WHERE POLICY_ID = ? AND RESOURCE_ID = ?", policyID,itemID);
+        context.getAuthorizeCache().clear();
     }
 
 }
@@ -9,6 +9,7 @@ package org.dspace.rest;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.servlet.ServletContext;
@@ -19,6 +20,7 @@ import javax.ws.rs.core.Response;
 
 import org.apache.log4j.Logger;
 import org.dspace.content.DSpaceObject;
+import org.dspace.content.PrefetchSpec;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Context;
 import org.dspace.eperson.EPerson;
@@ -167,6 +169,22 @@ public class Resource
         }
     }
 
+    /**
+     * Parts of the items to prefetch for the given expand parameter. The
+     * metadata (for the name) and the policies (for the permission checks)
+     * are always needed, the bitstreams only when expanded.
+     * 
+     * @param expand
+     *            Expand parameter of the request.
+     * @return Spec of the prefetch of the items.
+     */
+    protected PrefetchSpec getPrefetchSpec(String expand)
+    {
+        List<String> expandFields = (expand == null) ? new ArrayList<String>() : Arrays.asList(expand.split(","));
+        boolean bitstreams = expandFields.contains("bitstreams") || expandFields.contains("all");
+        return new PrefetchSpec(true, bitstreams, true);
+    }
+    
     /**
      * Split string with regex ".".
      *
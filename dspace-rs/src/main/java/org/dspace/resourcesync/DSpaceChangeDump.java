@@ -56,7 +56,7 @@ public class DSpaceChangeDump extends DSpaceResourceDocument
 	{
 		DSpaceChangeDumpZip dcl = new DSpaceChangeDumpZip(this.context,os);
 		dcl.serialise(um,rseList); // no output stream required
-		dcl.getZos().close();
+		dcl.close();
 	}
 	private long getDumpSize(String dir)
 	{
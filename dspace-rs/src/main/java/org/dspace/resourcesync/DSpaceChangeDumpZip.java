@@ -18,19 +18,13 @@ import org.dspace.core.Context;
 import org.openarchives.resourcesync.ResourceSyncDocument;
 import org.openarchives.resourcesync.URL;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.sql.SQLException;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 /**
  * @author Richard Jones
  * @author Andrea Bollini (andrea.bollini at 4science.it)
@@ -39,8 +33,7 @@ import java.util.zip.ZipOutputStream;
 public class DSpaceChangeDumpZip  extends DSpaceResourceList
 {
 	private String dumpPathFile;
-	private ZipOutputStream zos;
-	private ZipOutputStream zosOnTheFly;
+	private DumpZipWriter zip;
 	boolean isOnTheFly = false;
 	private OutputStream baos;
     private static Logger log = Logger.getLogger(DSpaceChangeDumpZip.class);
@@ -58,72 +51,54 @@ public class DSpaceChangeDumpZip  extends DSpaceResourceList
 		this.baos = os;
 	}
 
-	public ZipOutputStream getZos() {
-		if (isOnTheFly) {
-			if (this.zosOnTheFly == null) {
-				zosOnTheFly = new ZipOutputStream(baos);
+	public DumpZipWriter getZip() throws IOException {
+		if (this.zip == null) {
+			if (isOnTheFly) {
+				this.zip = new DumpZipWriter(baos);
+			} else {
+				this.zip = new DumpZipWriter(new File(this.dumpPathFile));
 			}
-			return zosOnTheFly;
-		} else {
-			if (this.zos == null) {
-				try {
-					this.zos = new ZipOutputStream(
-							new FileOutputStream(this.dumpPathFile));
-				} catch (FileNotFoundException e) {
-					log.error(e.getMessage(),e);
-				}
-			}
-			return zos;
 		}
+		return zip;
+	}
+
+	public void close() throws IOException {
+		getZip().close();
 	}
-   
 
-    
     public void serialise(UrlManager um,List<ResourceSyncEvent> rseList)
             throws SQLException, IOException
     {
         // first generate the manifest file.  This uses the other overrides in this object
         // to also copy in the bitstreams and metadata serialisations which are relevant
-        // everything will be added to the zip
-    	if(!isOnTheFly) {
-	        String drlFile = FileNames.changeDumpManifest;
-	        FileOutputStream fos = new FileOutputStream(new File(drlFile));
-	        this.serialise(fos,um,rseList);
-	        
-	        
-	        // incorporate the manifest into the zip
-	        File manifest = new File(drlFile);
-	        FileInputStream is = new FileInputStream(manifest);
-	
-	        this.copyToZip(FileNames.changeDumpManifest, is);
-	
-	        getZos().close();
-	
-	        // get rid of the left over manifest file
-	        manifest.delete();
-    	}
-    	else
-    	{
-    		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			this.serialise(baos, um, rseList);
-			ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
-			this.copyToZip(FileNames.resourceDumpManifest, bais);
-    	}
-    }
-
+        // everything will be added to the zip.
+        // The manifest goes through a temporary file, it lists every resource of the dump
+        File manifest = File.createTempFile("changedump", ".xml");
+        try
+        {
+            FileOutputStream fos = new FileOutputStream(manifest);
+            try
+            {
+                this.serialise(fos,um,rseList);
+            }
+            finally
+            {
+                fos.close();
+            }
+
+            // incorporate the manifest into the zip
+            getZip().copy(FileNames.changeDumpManifest, manifest);
+        }
+        finally
+        {
+            // get rid of the left over manifest file
+            manifest.delete();
+        }
 
-    private void copyToZip(String entryName, InputStream is)
-            throws IOException
-    {
-        getZos().putNextEntry(new ZipEntry(entryName));
-        byte[] buffer = new byte[102400]; // 100k chunks
-        int len = is.read(buffer);
-        while (len != -1)
+        if (!isOnTheFly)
         {
-            getZos().write(buffer, 0, len);
-            len = is.read(buffer);
+            close();
         }
-        getZos().closeEntry();
     }
 
     @Override
@@ -138,7 +113,7 @@ public class DSpaceChangeDumpZip  extends DSpaceResourceList
         {
             String entryName = this.getPath(item, bitstream, null, true);
             InputStream is = bitstream.retrieve();
-            this.copyToZip(entryName, is);
+            getZip().copy(entryName, is);
         }
         catch (IOException e)
         {
@@ -192,13 +167,12 @@ public class DSpaceChangeDumpZip  extends DSpaceResourceList
         try
         {
             String entryName = this.getPath(item, null, format, true);
-            ZipEntry e = new ZipEntry(entryName);
-            getZos().putNextEntry(e);
+            getZip().putNextEntry(entryName);
 
             // get the dissemination crosswalk for this prefix and get the element for the object
-            MetadataDisseminator.disseminate(item, format.getPrefix(), getZos());
+            MetadataDisseminator.disseminate(item, format.getPrefix(), getZip().getOutputStream());
 
-            getZos().closeEntry();
+            getZip().closeEntry();
         }
         catch (IOException e)
         {
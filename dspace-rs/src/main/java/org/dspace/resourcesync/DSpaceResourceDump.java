@@ -65,7 +65,7 @@ public class DSpaceResourceDump extends DSpaceResourceDocument
 	{
 		DSpaceResourceDumpZip drl = new DSpaceResourceDumpZip(this.context,os);
 		drl.serialise(handle,um); // no output stream required
-		drl.getZos().close();
+		drl.close();
 	}
 
 	private long getDumpSize(String dir)
@@ -0,0 +1,148 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.resourcesync;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.dspace.core.ConfigurationManager;
+
+/**
+ * Zip of a resource or change dump, written as the resources are added: the
+ * bitstreams are copied straight from the assetstore to the zip, nothing is
+ * held in memory but the copy buffer.
+ * <p/>
+ * A dump written to a file is written to a ".part" file first, renamed when
+ * complete, so that the servlet never serves a partial dump. A dump written
+ * to a response is flushed after each entry, so that the client receives it
+ * as it is generated.
+ * <p/>
+ * The compression level is read from resourcesync.cfg (dump.compression-level,
+ * 0-9, default 6); most bitstreams are compressed already, a low level saves
+ * CPU without making the dumps much larger.
+ */
+public class DumpZipWriter
+{
+    private static final int BUFFER_SIZE = 65536;
+
+    private final ZipOutputStream zos;
+
+    private final boolean flushEntries;
+
+    private File partFile;
+
+    private File file;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * Write the dump to the given stream (e.g. the servlet response), the
+     * stream is closed with the dump.
+     */
+    public DumpZipWriter(OutputStream os)
+    {
+        this.zos = new ZipOutputStream(new BufferedOutputStream(os, BUFFER_SIZE));
+        this.flushEntries = true;
+        setLevel();
+    }
+
+    /**
+     * Write the dump to the given file.
+     */
+    public DumpZipWriter(File file) throws IOException
+    {
+        this.file = file;
+        this.partFile = new File(file.getPath() + ".part");
+        this.zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(partFile), BUFFER_SIZE));
+        this.flushEntries = false;
+        setLevel();
+    }
+
+    private void setLevel()
+    {
+        zos.setLevel(ConfigurationManager.getIntProperty("resourcesync", "dump.compression-level",
+                Deflater.DEFAULT_COMPRESSION));
+    }
+
+    /**
+     * The stream to write the current entry to, opened by
+     * {@link #putNextEntry(String)}.
+     */
+    public OutputStream getOutputStream()
+    {
+        return zos;
+    }
+
+    public void putNextEntry(String entryName) throws IOException
+    {
+        zos.putNextEntry(new ZipEntry(entryName));
+    }
+
+    public void closeEntry() throws IOException
+    {
+        zos.closeEntry();
+        if (flushEntries)
+        {
+            zos.flush();
+        }
+    }
+
+    /**
+     * Copy the stream to a new entry, the stream is closed.
+     */
+    public void copy(String entryName, InputStream is) throws IOException
+    {
+        try
+        {
+            putNextEntry(entryName);
+            int len;
+            while ((len = is.read(buffer)) != -1)
+            {
+                zos.write(buffer, 0, len);
+            }
+            closeEntry();
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    public void copy(String entryName, File file) throws IOException
+    {
+        copy(entryName, new FileInputStream(file));
+    }
+
+    /**
+     * Complete the dump, and move it in place if written to a file.
+     */
+    public void close() throws IOException
+    {
+        zos.close();
+        if (partFile != null)
+        {
+            if (file.exists() && !file.delete())
+            {
+                throw new IOException("Unable to replace " + file);
+            }
+            if (!partFile.renameTo(file))
+            {
+                throw new IOException("Unable to rename " + partFile + " to " + file);
+            }
+            partFile = null;
+        }
+    }
+}
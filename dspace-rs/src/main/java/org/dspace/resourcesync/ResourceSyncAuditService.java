@@ -143,6 +143,26 @@ public class ResourceSyncAuditService {
 		return listResourceSyncEvent;
 	}
 
+	/**
+	 * @return the date of the latest event in the scope, null if none
+	 */
+	public Date getLastEventDate(String scope) {
+		SolrQuery solrQuery = new SolrQuery("*:*");
+		solrQuery.setRows(1);
+		solrQuery.setFields(DATETIME_FIELD);
+		solrQuery.addSort(new SortClause(DATETIME_FIELD, ORDER.desc));
+		solrQuery.addFilterQuery(SCOPES_FIELD + ":" + scope);
+		try {
+			QueryResponse queryResponse = getSolr().query(solrQuery);
+			if (queryResponse.getResults().isEmpty()) {
+				return null;
+			}
+			return (Date) queryResponse.getResults().get(0).getFieldValue(DATETIME_FIELD);
+		} catch (SolrServerException e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+	}
+
 	private String buildTimeQuery(Date from, Date to) {
 		String fromDate;
 		if (from == null) {
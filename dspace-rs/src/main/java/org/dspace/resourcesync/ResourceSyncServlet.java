@@ -81,9 +81,18 @@ public class ResourceSyncServlet extends HttpServlet
         				return;
         			}
             		handle = handle.trim();
+            		// the dump changes with the items of the scope, i.e. with the events
+            		Date lastModified = new ResourceSyncAuditService().getLastEventDate(handle);
+            		if (lastModified != null && isNotModified(req, resp, lastModified.getTime(),
+            				Long.toString(lastModified.getTime(), 36)))
+            		{
+            			return;
+            		}
 	    			UrlManager um = new UrlManager();
 	    			resp.setContentType("application/zip");
 	        		resp.setHeader("Content-Disposition","attachment;filename=\"" +  "resourcedump.zip" + "\"");
+	        		// send the headers now, the dump follows as it is generated
+	        		resp.flushBuffer();
 	        		OutputStream servletOutputStream = resp.getOutputStream();
 	        		DSpaceResourceDump drd = new DSpaceResourceDump(context);
 	        		drd.serialise(handle, um,servletOutputStream);
@@ -114,9 +123,6 @@ public class ResourceSyncServlet extends HttpServlet
         				return;
         			}
             		handle = handle.trim();
-	    			resp.setContentType("application/zip");
-	        		resp.setHeader("Content-Disposition","attachment;filename=\"" +  "changedump.zip" + "\"");
-	        		OutputStream servletOutputStream = resp.getOutputStream();
 	        		String date = req.getParameter("from");
 	        		
 	        		if(StringUtils.isBlank(date)) {
@@ -136,6 +142,19 @@ public class ResourceSyncServlet extends HttpServlet
 	        		List <ResourceSyncEvent> rseList = new ArrayList<ResourceSyncEvent>();
 	        		ResourceSyncGenerator rsg = new ResourceSyncGenerator(context, handles, from);
 	        		rseList = rsg.getChange(handle);
+	        		// the events are sorted by date, the dump changes with the last one
+	        		long lastModified = rseList.isEmpty() ? from.getTime()
+	        				: rseList.get(rseList.size() - 1).getDatetime().getTime();
+	        		if (isNotModified(req, resp, lastModified,
+	        				Long.toString(lastModified, 36) + "-" + rseList.size()))
+	        		{
+	        			return;
+	        		}
+	    			resp.setContentType("application/zip");
+	        		resp.setHeader("Content-Disposition","attachment;filename=\"" +  "changedump.zip" + "\"");
+	        		// send the headers now, the dump follows as it is generated
+	        		resp.flushBuffer();
+	        		OutputStream servletOutputStream = resp.getOutputStream();
 	        		rsg.generateChangeDump(handle, rseList, servletOutputStream);
         		}
         		else
@@ -248,12 +267,18 @@ public class ResourceSyncServlet extends HttpServlet
         String filepath = dir + File.separator + document;
 
         File f = new File(filepath);
-        if (!f.exists() || !f.isFile())
+        if (!f.exists() || !f.isFile() || document.endsWith(".part"))
         {
             resp.sendError(404);
             return;
         }
 
+        if (isNotModified(req, resp, f.lastModified(),
+                Long.toString(f.lastModified(), 36) + "-" + Long.toString(f.length(), 36)))
+        {
+            return;
+        }
+
         if (document.endsWith(".xml"))
         {
             resp.setContentType("application/xml");
@@ -263,18 +288,67 @@ public class ResourceSyncServlet extends HttpServlet
             resp.setContentType("application/zip");
         }
 
+        resp.setHeader("Content-Length", Long.toString(f.length()));
         InputStream is = new FileInputStream(f);
-        OutputStream os = resp.getOutputStream();
+        try
+        {
+            OutputStream os = resp.getOutputStream();
 
-        byte[] buffer = new byte[102400]; // 100k chunks
-        int len = is.read(buffer);
-        while (len != -1)
+            byte[] buffer = new byte[102400]; // 100k chunks
+            int len = is.read(buffer);
+            while (len != -1)
+            {
+                os.write(buffer, 0, len);
+                len = is.read(buffer);
+            }
+        }
+        finally
         {
-            os.write(buffer, 0, len);
-            len = is.read(buffer);
+            is.close();
         }
+    }
+
+    /**
+     * Set the validators of the response (Last-Modified and ETag), and answer
+     * 304 Not Modified if the client holds the current version of the document
+     * already, sparing the generation of a dump.
+     * 
+     * @return true if the response is complete
+     */
+    private boolean isNotModified(HttpServletRequest req, HttpServletResponse resp, long lastModified, String tag)
+    {
+        // the HTTP dates have no milliseconds
+        lastModified = lastModified / 1000 * 1000;
+        String etag = "\"" + tag + "\"";
+        resp.setDateHeader("Last-Modified", lastModified);
+        resp.setHeader("ETag", etag);
 
-        return;
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null)
+        {
+            // If-None-Match takes precedence over If-Modified-Since
+            if ("*".equals(ifNoneMatch.trim()) || ifNoneMatch.contains(etag))
+            {
+                resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return true;
+            }
+            return false;
+        }
+        long ifModifiedSince;
+        try
+        {
+            ifModifiedSince = req.getDateHeader("If-Modified-Since");
+        }
+        catch (IllegalArgumentException e)
+        {
+            return false;
+        }
+        if (ifModifiedSince != -1 && ifModifiedSince >= lastModified)
+        {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        return false;
     }
 
 }
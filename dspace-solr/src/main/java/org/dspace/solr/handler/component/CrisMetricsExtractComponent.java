@@ -21,6 +21,8 @@ import org.apache.lucene.index.IndexableField;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.SolrCore;
 import org.apache.solr.handler.component.ResponseBuilder;
 import org.apache.solr.handler.component.SearchComponent;
 import org.apache.solr.response.ResultContext;
@@ -28,11 +30,14 @@ import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.DocIterator;
 import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.plugin.SolrCoreAware;
+import org.dspace.solr.util.CrisMetricsSnapshot;
 import org.dspace.solr.util.CrisMetricsUpdateListener;
 import org.dspace.solr.util.ExtraInfo;
 
-public class CrisMetricsExtractComponent extends SearchComponent
+public class CrisMetricsExtractComponent extends SearchComponent implements SolrCoreAware
 {
+    private String coreName;
 
     @Override
     public void prepare(ResponseBuilder rb) throws IOException
@@ -45,11 +50,14 @@ public class CrisMetricsExtractComponent extends SearchComponent
     {
         Set<String> returnFields = getReturnFields(rb);
         SolrIndexSearcher searcher = rb.req.getSearcher();
-		if (returnFields.contains("clearcache-crismetrics") 
-				|| CrisMetricsUpdateListener.isCacheInvalid(searcher))
+		if (CrisMetricsUpdateListener.isCacheInvalid(searcher))
         {
             CrisMetricsUpdateListener.renewCache(searcher);
         }
+        else if (returnFields.contains("clearcache-crismetrics"))
+        {
+            CrisMetricsUpdateListener.refreshCache(searcher);
+        }
         else if (!CrisMetricsUpdateListener.isCacheUpdated(searcher))
         {
             CrisMetricsUpdateListener.updateCache(searcher);
@@ -71,7 +79,11 @@ public class CrisMetricsExtractComponent extends SearchComponent
             SolrDocumentList rl = new SolrDocumentList();
             rl.setNumFound(slice.docs.matches());
             rl.setStart(slice.docs.offset());
-            String coreName = searcher.getCore().getName();
+            // the same metrics for all the documents, even if a rebuild
+            // completes meanwhile; none until they are mapped to the docIds
+            // of this searcher
+            CrisMetricsSnapshot snapshot = CrisMetricsUpdateListener
+                    .getSnapshot(searcher);
             for (DocIterator it = slice.docs.iterator(); it.hasNext();)
             {
                 int docId = it.nextDoc();
@@ -97,11 +109,13 @@ public class CrisMetricsExtractComponent extends SearchComponent
                 }
                 for (String metric : metricsField)
                 {
-					Double result = CrisMetricsUpdateListener.getMetric(coreName, metric,
-                            docId);
-                    ExtraInfo extraInfo = CrisMetricsUpdateListener.getRemark(coreName, metric,
-                            docId);
-                    if (result != null)
+                    if (snapshot == null)
+                    {
+                        break;
+                    }
+                    double result = snapshot.getValue(metric, docId);
+                    ExtraInfo extraInfo = snapshot.getExtraInfo(metric, docId);
+                    if (!Double.isNaN(result))
                     {
                         sdoc.addField(metric, result);
                     }
@@ -154,15 +168,8 @@ public class CrisMetricsExtractComponent extends SearchComponent
                     {
                         fields.add(fieldname);
                     }
-                    Map<String, Map<String, Double>> tmp = CrisMetricsUpdateListener
-                            .getMetrics(coreName);
-                    if (tmp != null && !tmp.isEmpty())
-                    {
-                        for (String key : tmp.keySet())
-                        {
-                            fields.add(key);
-                        }
-                    }
+                    fields.addAll(CrisMetricsUpdateListener
+                            .getMetricNames(coreName));
                 }
             }
             else if ("search.uniqueid".equals(fl))
@@ -178,8 +185,24 @@ public class CrisMetricsExtractComponent extends SearchComponent
         return fields;
     }
 
+    @Override
+    public void inform(SolrCore core)
+    {
+        coreName = core.getName();
+    }
+
     ///////////////////// SolrInfoMBean methods ///////////////////
 
+    /**
+     * The state of the metrics cache of the core, see
+     * {@link CrisMetricsUpdateListener#getStatistics(String)}
+     */
+    @Override
+    public NamedList getStatistics()
+    {
+        return coreName != null ? CrisMetricsUpdateListener.getStatistics(coreName) : null;
+    }
+
     @Override
     public String getDescription()
     {
@@ -12,6 +12,9 @@ import java.io.IOException;
 import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.search.FieldComparator;
 import org.apache.lucene.search.FieldComparatorSource;
+import org.apache.solr.request.SolrRequestInfo;
+import org.dspace.solr.util.CrisMetricsSnapshot;
+import org.dspace.solr.util.CrisMetricsSnapshot.MetricColumn;
 import org.dspace.solr.util.CrisMetricsUpdateListener;
 
 public class CrisMetricsFieldComparatorSource extends FieldComparatorSource
@@ -27,112 +30,113 @@ public class CrisMetricsFieldComparatorSource extends FieldComparatorSource
     public FieldComparator newComparator(String fieldname, int numHits,
             int sortPos, boolean reversed) throws IOException
     {
-        return new CrisMetricFieldComparator(coreName, fieldname, numHits);
+        Long searcherOpenTime = getSearcherOpenTime();
+        CrisMetricsSnapshot snapshot = searcherOpenTime != null
+                ? CrisMetricsUpdateListener.getSnapshot(coreName, searcherOpenTime)
+                : null;
+        return new CrisMetricFieldComparator(snapshot, fieldname, numHits);
     }
 
-    // adapted from DocFieldComparator
+    /**
+     * @return the open time of the searcher of the request, null if there is
+     *         no request
+     */
+    protected Long getSearcherOpenTime()
+    {
+        SolrRequestInfo info = SolrRequestInfo.getRequestInfo();
+        if (info == null || info.getReq() == null)
+        {
+            return null;
+        }
+        return info.getReq().getSearcher().getOpenTime();
+    }
+
+    /**
+     * Compares the values of a metric, read from the snapshot of the metrics
+     * taken when the search starts; the documents without the metric come
+     * first. Without a snapshot for the searcher all the values are missing.
+     */
+    // adapted from DoubleComparator
     public static final class CrisMetricFieldComparator
             extends FieldComparator<Double>
     {
-        private final int[] docIDs;
+        private final double[] values;
+
+        private final CrisMetricsSnapshot snapshot;
+
+        private final MetricColumn column;
 
         private int docBase;
 
-        private int bottom;
+        private double bottom;
 
-        private double topValue;
+        private double topValue = Double.NaN;
 
-        private String fieldName;
-        
-        private String coreName;
-        
-        CrisMetricFieldComparator(String coreName, String fieldName, int numHits)
+        CrisMetricFieldComparator(CrisMetricsSnapshot snapshot, String fieldName, int numHits)
         {
-        	this.coreName = coreName;
-            this.fieldName = fieldName;
-            docIDs = new int[numHits];
+            values = new double[numHits];
+            this.snapshot = snapshot;
+            column = snapshot != null ? snapshot.getColumn(fieldName) : null;
+        }
+
+        private static int compareValues(double metric, double metric2)
+        {
+            if (Double.isNaN(metric))
+            {
+                return Double.isNaN(metric2) ? 0 : -1;
+            }
+            if (Double.isNaN(metric2))
+            {
+                return 1;
+            }
+            return Double.compare(metric, metric2);
+        }
+
+        private double getMetric(int doc)
+        {
+            return column != null ? column.getValue(snapshot.getRow(docBase + doc)) : Double.NaN;
         }
 
         @Override
         public int compare(int slot1, int slot2)
         {
-            Double metric = getMetric(coreName, fieldName, docIDs[slot1]);
-            Double metric2 = getMetric(coreName, fieldName, docIDs[slot2]);
-            if(metric!=null && metric2==null) {
-                return 1; 
-            } else {
-                if(metric==null && metric2!=null) {
-                    return -1;
-                }
-                else {
-                    if(metric==null && metric2==null) {
-                        return 0;
-                    }
-                }
-            }
-            
-            Double result = metric - metric2;
-            return result.intValue();
+            return compareValues(values[slot1], values[slot2]);
         }
 
         @Override
         public int compareBottom(int doc)
         {
-            Double metric = getMetric(coreName, fieldName, bottom);
-            Double metric2 = getMetric(coreName, fieldName, docBase + doc);
-            if(metric!=null && metric2==null) {
-                return 1; 
-            } else {
-                if(metric==null && metric2!=null) {
-                    return -1;
-                }
-                else {
-                    if(metric==null && metric2==null) {
-                        return 0;
-                    }
-                }
-            }
-            Double result = metric - metric2;
-            return result.intValue();
+            return compareValues(bottom, getMetric(doc));
         }
 
         @Override
         public void copy(int slot, int doc)
         {
-            docIDs[slot] = docBase + doc;
+            values[slot] = getMetric(doc);
         }
 
         @Override
         public void setBottom(final int bottom)
         {
-            this.bottom = docIDs[bottom];
+            this.bottom = values[bottom];
         }
 
         @Override
         public Double value(int slot)
         {
-            return getMetric(coreName, fieldName, docIDs[slot]);
-        }
-
-        private Double getMetric(String coreName, String metric, int docId)
-        {
-            return CrisMetricsUpdateListener.getMetric(coreName, metric, docId);
+            return Double.isNaN(values[slot]) ? null : values[slot];
         }
 
         @Override
         public int compareTop(int doc) throws IOException
         {
-            int docValue = docBase + doc;
-            return Double.compare(topValue, docValue);
+            return compareValues(topValue, getMetric(doc));
         }
 
         @Override
         public FieldComparator setNextReader(AtomicReaderContext context)
                 throws IOException
         {
-            // TODO: can we "map" our docIDs to the current
-            // reader? saves having to then subtract on every
-            // compare call
             this.docBase = context.docBase;
             return this;
         }
@@ -140,9 +144,8 @@ public class CrisMetricsFieldComparatorSource extends FieldComparatorSource
         @Override
         public void setTopValue(Double value)
         {
-            topValue = value;
-
+            topValue = value != null ? value : Double.NaN;
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,377 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.solr.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, columnar copy of the last CRIS metrics of the documents of a core,
+ * for a given searcher.
+ * <p/>
+ * The objects having at least one metric are the rows, sorted by key (the
+ * resource type and id of search.uniqueid packed in a long, see
+ * {@link #key(String)}); each metric is a set of primitive columns with a row
+ * per object, NaN standing for a missing value. The docId of the searcher
+ * gives the row through an int array, so that reading the metric of a
+ * document is a couple of array reads, without boxing nor hashing.
+ * <p/>
+ * The columns don't depend on the docIds: a searcher opened on the same
+ * metrics only needs a new docId to row mapping, see
+ * {@link #forSearcher(long[], long)}.
+ */
+public class CrisMetricsSnapshot
+{
+    /** key of the documents without a parsable search.uniqueid */
+    public static final long NO_KEY = -1L;
+
+    /** missing date in the date columns */
+    public static final long NO_DATE = Long.MIN_VALUE;
+
+    /** the keys of the rows, sorted */
+    private final long[] rowKeys;
+
+    /** the key of each docId, to map the rows again when they change */
+    private final long[] docKeys;
+
+    /** the row of each docId, -1 if the document has no metric */
+    private final int[] docRows;
+
+    private final Map<String, MetricColumn> columns;
+
+    /** open time of the searcher the docIds come from */
+    private final long searcherOpenTime;
+
+    CrisMetricsSnapshot(long[] rowKeys, Map<String, MetricColumn> columns, long[] docKeys,
+            long searcherOpenTime)
+    {
+        this.rowKeys = rowKeys;
+        this.columns = Collections.unmodifiableMap(columns);
+        this.docKeys = docKeys;
+        this.docRows = mapRows(rowKeys, docKeys);
+        this.searcherOpenTime = searcherOpenTime;
+    }
+
+    /**
+     * @param docKeys
+     *            the key of each docId of the new searcher
+     * @return a snapshot with the same metrics, for the new searcher
+     */
+    public CrisMetricsSnapshot forSearcher(long[] docKeys, long searcherOpenTime)
+    {
+        return new CrisMetricsSnapshot(rowKeys, columns, docKeys, searcherOpenTime);
+    }
+
+    private static int[] mapRows(long[] rowKeys, long[] docKeys)
+    {
+        int[] rows = new int[docKeys.length];
+        for (int doc = 0; doc < docKeys.length; doc++)
+        {
+            int row = docKeys[doc] == NO_KEY ? -1 : Arrays.binarySearch(rowKeys, docKeys[doc]);
+            rows[doc] = row >= 0 ? row : -1;
+        }
+        return rows;
+    }
+
+    /**
+     * @return the key of a search.uniqueid (resource type - resource id), or
+     *         {@link #NO_KEY} if it is not made of two numbers
+     */
+    public static long key(String uniqueId)
+    {
+        int dash = uniqueId != null ? uniqueId.indexOf('-') : -1;
+        if (dash <= 0)
+        {
+            return NO_KEY;
+        }
+        try
+        {
+            return key(Integer.parseInt(uniqueId.substring(0, dash)),
+                    Integer.parseInt(uniqueId.substring(dash + 1)));
+        }
+        catch (NumberFormatException e)
+        {
+            return NO_KEY;
+        }
+    }
+
+    public static long key(int resourceTypeId, int resourceId)
+    {
+        return ((long) resourceTypeId << 32) | (resourceId & 0xffffffffL);
+    }
+
+    long[] getDocKeys()
+    {
+        return docKeys;
+    }
+
+    /**
+     * @return the number of objects having at least one metric
+     */
+    public int getRows()
+    {
+        return rowKeys.length;
+    }
+
+    public long getSearcherOpenTime()
+    {
+        return searcherOpenTime;
+    }
+
+    public Set<String> getMetricNames()
+    {
+        return columns.keySet();
+    }
+
+    /**
+     * @return the column of the metric, null if no object has it
+     */
+    public MetricColumn getColumn(String metric)
+    {
+        return columns.get(metric);
+    }
+
+    /**
+     * @return the row of the document, -1 if it has no metric
+     */
+    public int getRow(int docId)
+    {
+        return docId >= 0 && docId < docRows.length ? docRows[docId] : -1;
+    }
+
+    /**
+     * @return the value of the metric for the document, NaN if missing
+     */
+    public double getValue(String metric, int docId)
+    {
+        MetricColumn column = columns.get(metric);
+        int row = getRow(docId);
+        return column != null && row >= 0 ? column.values[row] : Double.NaN;
+    }
+
+    /**
+     * @return the details of the metric for the document, null if missing
+     */
+    public ExtraInfo getExtraInfo(String metric, int docId)
+    {
+        MetricColumn column = columns.get(metric);
+        int row = getRow(docId);
+        if (column == null || row < 0 || Double.isNaN(column.values[row]))
+        {
+            return null;
+        }
+        return new ExtraInfo(column.remarks[row], toDate(column.acquisitionTimes[row]),
+                toDate(column.startTimes[row]), toDate(column.endTimes[row]));
+    }
+
+    private static Date toDate(long time)
+    {
+        return time != NO_DATE ? new Date(time) : null;
+    }
+
+    /**
+     * The values of a metric, and their details, by row.
+     */
+    public static class MetricColumn
+    {
+        final double[] values;
+
+        final String[] remarks;
+
+        final long[] acquisitionTimes;
+
+        final long[] startTimes;
+
+        final long[] endTimes;
+
+        MetricColumn(int rows)
+        {
+            values = new double[rows];
+            Arrays.fill(values, Double.NaN);
+            remarks = new String[rows];
+            acquisitionTimes = new long[rows];
+            Arrays.fill(acquisitionTimes, NO_DATE);
+            startTimes = new long[rows];
+            Arrays.fill(startTimes, NO_DATE);
+            endTimes = new long[rows];
+            Arrays.fill(endTimes, NO_DATE);
+        }
+
+        void set(int row, double value, String remark, long acquisitionTime, long startTime,
+                long endTime)
+        {
+            values[row] = value;
+            remarks[row] = remark;
+            acquisitionTimes[row] = acquisitionTime;
+            startTimes[row] = startTime;
+            endTimes[row] = endTime;
+        }
+
+        /**
+         * @return the value of the row, NaN if missing or if row is -1
+         */
+        public double getValue(int row)
+        {
+            return row >= 0 ? values[row] : Double.NaN;
+        }
+    }
+
+    /**
+     * Collects the metrics read from the database, in primitive buffers, and
+     * builds the columns once all are read.
+     */
+    public static class Builder
+    {
+        private final long[] docKeys;
+
+        private final long[] sortedDocKeys;
+
+        private final Map<String, Integer> metricIndexes = new HashMap<String, Integer>();
+
+        private final List<String> metricNames = new ArrayList<String>();
+
+        private int size;
+
+        private long[] keys = new long[1024];
+
+        private int[] metrics = new int[1024];
+
+        private double[] values = new double[1024];
+
+        private String[] remarks = new String[1024];
+
+        private long[] acquisitionTimes = new long[1024];
+
+        private long[] startTimes = new long[1024];
+
+        private long[] endTimes = new long[1024];
+
+        /**
+         * @param docKeys
+         *            the key of each docId of the searcher
+         */
+        public Builder(long[] docKeys)
+        {
+            this.docKeys = docKeys;
+            this.sortedDocKeys = docKeys.clone();
+            Arrays.sort(sortedDocKeys);
+        }
+
+        /**
+         * Start from the metrics of a snapshot, to update them with the ones
+         * added next.
+         * 
+         * @param docKeys
+         *            the key of each docId of the searcher
+         */
+        public Builder(CrisMetricsSnapshot base, long[] docKeys)
+        {
+            this(docKeys);
+            for (Map.Entry<String, MetricColumn> entry : base.columns.entrySet())
+            {
+                MetricColumn column = entry.getValue();
+                for (int row = 0; row < base.rowKeys.length; row++)
+                {
+                    if (!Double.isNaN(column.values[row]))
+                    {
+                        add(base.rowKeys[row], entry.getKey(), column.values[row], column.remarks[row],
+                                column.acquisitionTimes[row], column.startTimes[row], column.endTimes[row]);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Add a metric, ignored if the object is not in the index; it
+         * replaces the value of the same metric added before, if any.
+         */
+        public void add(int resourceTypeId, int resourceId, String metric, double value, String remark,
+                Date acquisitionTime, Date startTime, Date endTime)
+        {
+            add(key(resourceTypeId, resourceId), metric, value, remark, time(acquisitionTime),
+                    time(startTime), time(endTime));
+        }
+
+        private void add(long key, String metric, double value, String remark, long acquisitionTime,
+                long startTime, long endTime)
+        {
+            if (Arrays.binarySearch(sortedDocKeys, key) < 0)
+            {
+                return;
+            }
+            Integer metricIndex = metricIndexes.get(metric);
+            if (metricIndex == null)
+            {
+                metricIndex = metricNames.size();
+                metricIndexes.put(metric, metricIndex);
+                metricNames.add(metric);
+            }
+            if (size == keys.length)
+            {
+                int capacity = size + (size >> 1);
+                keys = Arrays.copyOf(keys, capacity);
+                metrics = Arrays.copyOf(metrics, capacity);
+                values = Arrays.copyOf(values, capacity);
+                remarks = Arrays.copyOf(remarks, capacity);
+                acquisitionTimes = Arrays.copyOf(acquisitionTimes, capacity);
+                startTimes = Arrays.copyOf(startTimes, capacity);
+                endTimes = Arrays.copyOf(endTimes, capacity);
+            }
+            keys[size] = key;
+            metrics[size] = metricIndex;
+            values[size] = value;
+            remarks[size] = remark;
+            acquisitionTimes[size] = acquisitionTime;
+            startTimes[size] = startTime;
+            endTimes[size] = endTime;
+            size++;
+        }
+
+        private static long time(Date date)
+        {
+            return date != null ? date.getTime() : NO_DATE;
+        }
+
+        public CrisMetricsSnapshot build(long searcherOpenTime)
+        {
+            // the rows are the distinct keys
+            long[] rowKeys = Arrays.copyOf(keys, size);
+            Arrays.sort(rowKeys);
+            int rows = 0;
+            for (int i = 0; i < rowKeys.length; i++)
+            {
+                if (rows == 0 || rowKeys[i] != rowKeys[rows - 1])
+                {
+                    rowKeys[rows++] = rowKeys[i];
+                }
+            }
+            rowKeys = Arrays.copyOf(rowKeys, rows);
+
+            MetricColumn[] byIndex = new MetricColumn[metricNames.size()];
+            Map<String, MetricColumn> columns = new HashMap<String, MetricColumn>();
+            for (int m = 0; m < byIndex.length; m++)
+            {
+                byIndex[m] = new MetricColumn(rows);
+                columns.put(metricNames.get(m), byIndex[m]);
+            }
+            // in the order they were added, the last one wins
+            for (int i = 0; i < size; i++)
+            {
+                byIndex[metrics[i]].set(Arrays.binarySearch(rowKeys, keys[i]), values[i], remarks[i],
+                        acquisitionTimes[i], startTimes[i], endTimes[i]);
+            }
+            return new CrisMetricsSnapshot(rowKeys, columns, docKeys, searcherOpenTime);
+        }
+    }
+}
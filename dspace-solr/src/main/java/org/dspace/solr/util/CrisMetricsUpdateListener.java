@@ -13,40 +13,102 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
-import org.apache.lucene.search.MatchAllDocsQuery;
-import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.core.SolrEventListener;
 import org.apache.solr.core.SolrResourceLoader;
 import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.RefCounted;
 
+/**
+ * Cache of the last CRIS metrics of the documents of each core, for the
+ * metrics sort and the crismetrics_* fields.
+ * <p/>
+ * The readers get the {@link CrisMetricsSnapshot} of their searcher without
+ * any lock; a rebuild prepares the next snapshot in the background and
+ * publishes it with a single volatile write, the readers keep using the
+ * previous one meanwhile. A rebuild asked while another runs doesn't stop it:
+ * it is queued, and the most expensive of the rebuilds queued runs once the
+ * current one completes.
+ * <p/>
+ * Registered as a newSearcher listener, it maps the docIds of each new
+ * searcher to the rows of the current snapshot while the searcher warms, so
+ * that the searchers serving the requests always have their metrics. The
+ * snapshot of the previous searcher is kept for the requests still using it.
+ * <p/>
+ * The rebuilds, from the cheapest:
+ * <ul>
+ * <li>update: new searcher, same metrics, only the docIds are mapped again</li>
+ * <li>refresh: the metrics created since the last full load (less
+ * {@link #refreshOverlap}, for the transactions committed late) are read and
+ * merged in the current snapshot</li>
+ * <li>renew: all the metrics are read again, at least once every
+ * {@link #cacheValidity}; the metrics no longer last are dropped by the renew
+ * only</li>
+ * </ul>
+ */
 public class CrisMetricsUpdateListener implements SolrEventListener
 {
     private static Logger log = Logger.getLogger(CrisMetricsUpdateListener.class);
 
-    private static Map<String, Date> cacheAcquisition = new HashMap<String, Date>();
-    
-    private static Map<String, Long> cacheVersion = new HashMap<String, Long>();
-    
     private static final int cacheValidity = 24*60*60000;
 
-    private static final Map<String, PopulateRanksThread> underRebuild = new HashMap<String, PopulateRanksThread>();
-    
-    private static final Map<String, Map<String, Map<String, Double>>> metrics = new HashMap<>();
+    private static final int refreshOverlap = 24*60*60000;
 
-    private static final Map<String, Map<String, Map<String, ExtraInfo>>> extraInfo = new HashMap<>();
-    
-    private static Map<String, Map<Integer, String>> docIdToUniqueId = new HashMap<>();
+    private static final ConcurrentMap<String, CoreCache> caches = new ConcurrentHashMap<String, CoreCache>();
+
+    /** the rebuilds, from the cheapest */
+    private enum Rebuild
+    {
+        UPDATE, REFRESH, RENEW
+    }
+
+    /**
+     * The metrics of a core, with the state of their rebuild.
+     */
+    private static class CoreCache
+    {
+        volatile CrisMetricsSnapshot snapshot;
+
+        /** the last snapshot of another searcher, guarded by this */
+        volatile CrisMetricsSnapshot previous;
+
+        /** open time of the last searcher the cache was built or queued for */
+        volatile long version;
+
+        /** start of the last renew, 0 if never */
+        volatile long acquisition;
+
+        /** start of the query of the last full load completed, 0 if never */
+        volatile long lastFullLoad;
+
+        /** start of the query of the last load (full or incremental) completed */
+        volatile long lastLoad;
+
+        volatile long lastRebuildDuration;
+
+        /** guarded by this */
+        PopulateRanksThread running;
+
+        /** guarded by this */
+        Rebuild pending;
+    }
 
     public CrisMetricsUpdateListener()
     {
@@ -60,11 +122,52 @@ public class CrisMetricsUpdateListener implements SolrEventListener
     	/* NOOP */
     }
 
+    /**
+     * Map the docIds of the warming searcher to the current metrics, before
+     * it serves any request.
+     */
     @Override
     public void newSearcher(SolrIndexSearcher newSearcher,
             SolrIndexSearcher currentSearcher)
     {
-    	/* NOOP */ 
+        try
+        {
+            long start = System.currentTimeMillis();
+            if (warm(newSearcher.getCore().getName(), newSearcher.getIndexReader(),
+                    newSearcher.getOpenTime()))
+            {
+                log.debug("WARM CACHE TIME: " + (System.currentTimeMillis() - start));
+            }
+        }
+        catch (IOException e)
+        {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Publish the metrics of the current snapshot of the core for a new
+     * searcher.
+     *
+     * @return false if the core has no metrics yet
+     */
+    static boolean warm(String coreName, IndexReader reader, long searcherOpenTime)
+            throws IOException
+    {
+        CoreCache cache = caches.get(coreName);
+        CrisMetricsSnapshot current = cache != null ? cache.snapshot : null;
+        if (current == null)
+        {
+            // the first searcher, the metrics are loaded on the first request
+            return false;
+        }
+        CrisMetricsSnapshot next = current.forSearcher(readDocKeys(reader), searcherOpenTime);
+        synchronized (cache)
+        {
+            cache.version = searcherOpenTime;
+            publish(cache, next);
+        }
+        return true;
     }
 
     @Override
@@ -81,54 +184,112 @@ public class CrisMetricsUpdateListener implements SolrEventListener
 
     ////////////// Service methods /////////////////////
 
-    public static Double getMetric(String coreName, String metric, int docId)
+    public static Double getMetric(SolrIndexSearcher searcher, String metric, int docId)
     {
-    	synchronized (CrisMetricsUpdateListener.class)
+        CrisMetricsSnapshot snapshot = getSnapshot(searcher);
+        if (snapshot == null)
         {
-    	    final Thread underRebuildThread = underRebuild.get(coreName);
-            if (underRebuildThread != null) {
-                return null;
-            }            
+            return null;
         }
-    	Map<String, Map<String, Double>> m = metrics.get(coreName);
-    	Map<Integer, String> docs = docIdToUniqueId.get(coreName);
-        if (m != null && docs!=null && m.containsKey(metric))
+        double value = snapshot.getValue(metric, docId);
+        return Double.isNaN(value) ? null : value;
+    }
+
+    public static ExtraInfo getRemark(SolrIndexSearcher searcher, String metric, int docId)
+    {
+        CrisMetricsSnapshot snapshot = getSnapshot(searcher);
+        return snapshot != null ? snapshot.getExtraInfo(metric, docId) : null;
+    }
+
+    /**
+     * @return the current metrics of the core, null if not built yet; its
+     *         docIds are the ones of the searcher it was built for, see
+     *         {@link #getSnapshot(String, long)}
+     */
+    public static CrisMetricsSnapshot getSnapshot(String coreName)
+    {
+        CoreCache cache = caches.get(coreName);
+        return cache != null ? cache.snapshot : null;
+    }
+
+    /**
+     * @return the metrics of the core for the docIds of the searcher, null
+     *         until they are mapped to the searcher: after a commit the
+     *         documents may have moved, the docIds of the previous searcher
+     *         would give them the metrics of other documents
+     */
+    public static CrisMetricsSnapshot getSnapshot(String coreName, long searcherOpenTime)
+    {
+        CoreCache cache = caches.get(coreName);
+        if (cache == null)
         {
-            Map<String, Double> values = m.get(metric);
-            if (docs.containsKey(docId)) {
-                String uniqueId = docs.get(docId);
-                if (values.containsKey(uniqueId))
-                {
-                    return values.get(uniqueId);
-                }
+            return null;
+        }
+        CrisMetricsSnapshot snapshot = cache.snapshot;
+        if (snapshot != null && snapshot.getSearcherOpenTime() == searcherOpenTime)
+        {
+            return snapshot;
+        }
+        // a request still on the searcher being replaced
+        snapshot = cache.previous;
+        return snapshot != null && snapshot.getSearcherOpenTime() == searcherOpenTime ? snapshot : null;
+    }
+
+    public static CrisMetricsSnapshot getSnapshot(SolrIndexSearcher searcher)
+    {
+        return getSnapshot(searcher.getCore().getName(), searcher.getOpenTime());
+    }
+
+    /**
+     * Publish the metrics of the core, as a rebuild does.
+     */
+    static void setSnapshot(String coreName, CrisMetricsSnapshot snapshot)
+    {
+        CoreCache cache = getCache(coreName);
+        synchronized (cache)
+        {
+            if (snapshot == null)
+            {
+                cache.previous = null;
             }
+            publish(cache, snapshot);
         }
-        return null;
     }
 
-    public static ExtraInfo getRemark(String coreName, String metric, int docId)
+    /**
+     * Make a snapshot current, keeping the current one as the previous if it
+     * is for another searcher. Guarded by cache.
+     */
+    private static void publish(CoreCache cache, CrisMetricsSnapshot snapshot)
     {
-        synchronized (CrisMetricsUpdateListener.class)
+        CrisMetricsSnapshot current = cache.snapshot;
+        if (current != null && snapshot != null
+                && current.getSearcherOpenTime() != snapshot.getSearcherOpenTime())
         {
-            final Thread underRebuildThread = underRebuild.get(coreName);
-            if (underRebuildThread != null) {
-                return null;
-            }            
+            cache.previous = current;
         }
-    	Map<String, Map<String, ExtraInfo>> ei = extraInfo.get(coreName);
-    	Map<Integer, String> docs = docIdToUniqueId.get(coreName);
-        if (ei != null && docs!=null && ei.containsKey(metric))
+        cache.snapshot = snapshot;
+    }
+
+    /**
+     * @return the key of the search.uniqueid of each docId
+     */
+    static long[] readDocKeys(IndexReader reader) throws IOException
+    {
+        int maxDoc = reader.maxDoc();
+        long[] docKeys = new long[maxDoc];
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        Set<String> fields = Collections.singleton("search.uniqueid");
+        for (int docId = 0; docId < maxDoc; docId++)
         {
-            Map<String, ExtraInfo> values = ei.get(metric);
-            if (docs.containsKey(docId)) {
-                String uniqueId = docs.get(docId);
-                if (values.containsKey(uniqueId))
-                {
-                    return values.get(uniqueId);
-                }
+            if (liveDocs != null && !liveDocs.get(docId))
+            {
+                docKeys[docId] = CrisMetricsSnapshot.NO_KEY;
+                continue;
             }
+            docKeys[docId] = CrisMetricsSnapshot.key(reader.document(docId, fields).get("search.uniqueid"));
         }
-        return null;
+        return docKeys;
     }
     
     private static Map<String, String> getDBProps(SolrCore core) {
@@ -151,212 +312,272 @@ public class CrisMetricsUpdateListener implements SolrEventListener
 		return dbprops;
     }
 
+    /**
+     * Map the docIds of the new searcher to the current metrics.
+     */
     public static void updateCache(SolrIndexSearcher newSearcher) throws IOException
     {
-        renewOrUpdateCache(newSearcher, false);
+        rebuild(newSearcher, Rebuild.UPDATE);
+    }
+
+    /**
+     * Merge the metrics created since the last full load, a full load if
+     * there is none.
+     */
+    public static void refreshCache(SolrIndexSearcher newSearcher) throws IOException
+    {
+        rebuild(newSearcher, Rebuild.REFRESH);
     }
 
+    /**
+     * Load all the metrics again.
+     */
     public static void renewCache(SolrIndexSearcher newSearcher) throws IOException
     {
-        renewOrUpdateCache(newSearcher, true);
+        rebuild(newSearcher, Rebuild.RENEW);
     }
 
-    private static void renewOrUpdateCache(SolrIndexSearcher newSearcher, boolean force) throws IOException
+    private static CoreCache getCache(String coreName)
     {
-		String coreName = newSearcher.getCore().getName();
-		PopulateRanksThread underRebuildThread = null;
-		synchronized (CrisMetricsUpdateListener.class) {
-			underRebuildThread = underRebuild.get(coreName);
-			if (underRebuildThread != null) {
-				log.debug("rank chache already under rebuild... restart");
-				underRebuildThread.stopGraceful();
-			}
-		    underRebuildThread = new PopulateRanksThread(newSearcher, force);
-		    underRebuildThread.start();
-		    underRebuild.put(coreName, underRebuildThread);
-		}
+        CoreCache cache = caches.get(coreName);
+        if (cache == null)
+        {
+            cache = new CoreCache();
+            CoreCache previous = caches.putIfAbsent(coreName, cache);
+            if (previous != null)
+            {
+                cache = previous;
+            }
+        }
+        return cache;
+    }
+
+    private static void rebuild(SolrIndexSearcher newSearcher, Rebuild rebuild)
+    {
+        SolrCore core = newSearcher.getCore();
+        CoreCache cache = getCache(core.getName());
+        synchronized (cache)
+        {
+            cache.version = newSearcher.getOpenTime();
+            if (rebuild == Rebuild.RENEW)
+            {
+                cache.acquisition = System.currentTimeMillis();
+            }
+            if (cache.running != null)
+            {
+                if (cache.pending == null || rebuild.compareTo(cache.pending) > 0)
+                {
+                    cache.pending = rebuild;
+                }
+                log.debug("rank cache already under rebuild... " + cache.pending + " queued");
+                return;
+            }
+            startRebuild(core, cache, rebuild);
+        }
     }
 
-    public static Map<String, Map<String, Double>> getMetrics(String coreName)
+    /** guarded by cache */
+    private static void startRebuild(SolrCore core, CoreCache cache, Rebuild rebuild)
     {
-        return metrics.get(coreName);
+        cache.running = new PopulateRanksThread(core, cache, rebuild);
+        cache.running.start();
     }
 
-    public static Map<String, Map<String, ExtraInfo>> getExtrainfo(String coreName)
+    public static Set<String> getMetricNames(String coreName)
     {
-        return extraInfo.get(coreName);
+        CrisMetricsSnapshot snapshot = getSnapshot(coreName);
+        return snapshot != null ? snapshot.getMetricNames() : Collections.<String> emptySet();
     }
     
     public static boolean isCacheUpdated(SolrIndexSearcher searcher) {
-        String coreName = searcher.getCore().getName();
-        Long cv = cacheVersion.get(coreName);
-        return cv.longValue() == searcher.getOpenTime();
+        CoreCache cache = caches.get(searcher.getCore().getName());
+        return cache != null && cache.version == searcher.getOpenTime();
     }
 
 	public static boolean isCacheInvalid(SolrIndexSearcher searcher) {
-		String coreName = searcher.getCore().getName();
-		Date ca = cacheAcquisition.get(coreName);
-		Date now = new Date();
-		return ca == null || (now.getTime() - ca.getTime() > cacheValidity);
+		CoreCache cache = caches.get(searcher.getCore().getName());
+		return cache == null || cache.acquisition == 0
+		        || (System.currentTimeMillis() - cache.acquisition > cacheValidity);
 	}
 
+    /**
+     * @return the state of the metrics of the core: the size of the current
+     *         snapshot, the time of the last load and how old it is
+     *         (staleness), the duration of the last rebuild, and the rebuild
+     *         running and queued if any
+     */
+    public static NamedList<Object> getStatistics(String coreName)
+    {
+        NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        CoreCache cache = caches.get(coreName);
+        CrisMetricsSnapshot snapshot = cache != null ? cache.snapshot : null;
+        stats.add("metrics", snapshot != null ? snapshot.getMetricNames().size() : 0);
+        stats.add("rows", snapshot != null ? snapshot.getRows() : 0);
+        if (cache == null)
+        {
+            return stats;
+        }
+        long now = System.currentTimeMillis();
+        if (cache.lastLoad != 0)
+        {
+            stats.add("lastLoad", new Date(cache.lastLoad));
+            stats.add("lastFullLoad", new Date(cache.lastFullLoad));
+            stats.add("stalenessMillis", now - cache.lastLoad);
+        }
+        stats.add("lastRebuildMillis", cache.lastRebuildDuration);
+        synchronized (cache)
+        {
+            stats.add("underRebuild", cache.running != null ? cache.running.rebuild.toString() : "");
+            stats.add("queuedRebuild", cache.pending != null ? cache.pending.toString() : "");
+        }
+        return stats;
+    }
+
 	public static class PopulateRanksThread extends Thread {
-		private boolean stop = false;
-		
-		private SolrIndexSearcher newSearcher;
-		private boolean force;
-		
-		public PopulateRanksThread(SolrIndexSearcher newSearcher, boolean force) {
-			this.newSearcher = newSearcher;
-			this.force = force;
-		}
+		private final SolrCore core;
+		private final CoreCache cache;
+		private final Rebuild rebuild;
 		
-		public void stopGraceful() {
-			this.stop = true;
+		private PopulateRanksThread(SolrCore core, CoreCache cache, Rebuild rebuild) {
+			this.core = core;
+			this.cache = cache;
+			this.rebuild = rebuild;
 		}
 
 		@Override
 		public void run() {
-			String coreName = newSearcher.getCore().getName();
+			String coreName = core.getName();
+			long start = System.currentTimeMillis();
+			RefCounted<SolrIndexSearcher> searcher = null;
 			try {
-				log.info("Building the rank cache... [corname:"+coreName+"][force:" + force +"]" );
-                cacheVersion.put(coreName, newSearcher.getOpenTime());                
-	            if (force) {
-	                cacheAcquisition.put(coreName, new Date());
-	                populateRanks(coreName, newSearcher);
+				log.info("Building the rank cache... [corname:"+coreName+"][rebuild:" + rebuild +"]" );
+				// the current searcher, the one of the request may be closed already
+				searcher = core.getSearcher();
+				CrisMetricsSnapshot current = cache.snapshot;
+				CrisMetricsSnapshot next;
+	            if (rebuild == Rebuild.UPDATE) {
+	                next = updateIdsMap(current, searcher.get());
+	            }
+	            else if (rebuild == Rebuild.REFRESH && current != null && cache.lastFullLoad != 0) {
+	                next = populateRanks(current, cache.lastFullLoad - refreshOverlap, searcher.get());
 	            }
 	            else {
-	                docIdToUniqueId = new HashMap<>();
-	                updateIdsMap(coreName, newSearcher);
+	                next = populateRanks(null, 0, searcher.get());
 	            }
-			} catch (IOException e) {
+	            if (next != null) {
+	                synchronized (cache) {
+	                    publish(cache, next);
+	                    if (cache.version != next.getSearcherOpenTime()
+	                            && (cache.pending == null || cache.pending == Rebuild.UPDATE)) {
+	                        // a searcher warmed meanwhile with the metrics before this rebuild
+	                        cache.pending = Rebuild.UPDATE;
+	                    }
+	                }
+	            }
+	            cache.lastRebuildDuration = System.currentTimeMillis() - start;
+			} catch (Exception e) {
 				log.error(e.getMessage(), e);
 			} finally {
-			    synchronized (CrisMetricsUpdateListener.class) {
-			        underRebuild.put(coreName, null);
+			    if (searcher != null) {
+			        searcher.decref();
+			    }
+			    synchronized (cache) {
+			        cache.running = null;
+			        if (cache.pending != null) {
+			            Rebuild pending = cache.pending;
+			            cache.pending = null;
+			            startRebuild(core, cache, pending);
+			        }
 			    }
 			}
 		}
 
-        private void updateIdsMap(String coreName, SolrIndexSearcher searcher)
+        /**
+         * The metrics didn't change, only the docIds: map the docIds of the
+         * searcher to the rows of the current snapshot.
+         * 
+         * @return the new snapshot, null if there is nothing to change
+         */
+        private CrisMetricsSnapshot updateIdsMap(CrisMetricsSnapshot current, SolrIndexSearcher searcher)
                 throws IOException
         {
-            Map<Integer, String> docIdToUniqueIdCopy = new HashMap<>();
-            Date start = new Date();
-            try
+            if (current == null || current.getSearcherOpenTime() == searcher.getOpenTime())
             {
-                ScoreDoc[] hits = searcher.search(
-                        new MatchAllDocsQuery(),
-                        Integer.MAX_VALUE
-                        ).scoreDocs;
-
-                Set<String> fields = new HashSet<String>();
-                fields.add("search.uniqueid");
-                for (ScoreDoc doc : hits) {
-                    if (stop) {
-                        return;
-                    }
-                    docIdToUniqueIdCopy.put(doc.doc, searcher.doc(doc.doc, fields).getValues("search.uniqueid")[0]);
-                }
-
-                docIdToUniqueId.put(coreName, docIdToUniqueIdCopy);
-
-                Date end = new Date();
-                log.debug("UPDATE CACHE TIME: "+(end.getTime()-start.getTime()));
-            }
-            catch (Exception e)
-            {
-                log.debug(e.getMessage(), e);
-                throw new IOException(e);
+                // nothing to map, or mapped already
+                return null;
             }
+            Date start = new Date();
+            CrisMetricsSnapshot next = current.forSearcher(readDocKeys(searcher.getIndexReader()), searcher.getOpenTime());
+            log.debug("UPDATE CACHE TIME: "+(new Date().getTime()-start.getTime()));
+            return next;
         }
 
-		private void populateRanks(String coreName, SolrIndexSearcher searcher)
-		        throws IOException
+        /**
+         * @param base
+         *            the snapshot to merge the metrics created since
+         *            <code>since</code> in, null to load all of them
+         */
+		private CrisMetricsSnapshot populateRanks(CrisMetricsSnapshot base, long since,
+		        SolrIndexSearcher searcher) throws IOException
 		{	
-			Integer numDocs = (Integer) searcher.getStatistics().get("numDocs");
 			Date start = new Date();
-		    Map<String, Map<String, Double>> metricsCopy = new HashMap<>(numDocs);
-		    Map<String, Map<String, ExtraInfo>> metricsRemarksCopy = new HashMap<>(numDocs);
-		    Map<Integer, String> docIdToUniqueIdCopy = new HashMap<>();
 		    Connection conn = null;
 		    PreparedStatement ps = null;
 		    ResultSet rs = null;
 		    
 		    try
 		    {
-		        ScoreDoc[] hits = searcher.search(
-		        		new MatchAllDocsQuery(),
-		        		Integer.MAX_VALUE
-		        		).scoreDocs;
-		
-		        Map<String, Integer> searchIDCache = new HashMap<String, Integer>(hits.length);
-		        Set<String> fields = new HashSet<String>();
-		        fields.add("search.uniqueid");
 		        Date startSearch = new Date();
-		        for (ScoreDoc doc : hits) {
-		        	if (stop) {
-		        		return;
-		        	}
-		            // find Lucene docId for uid
-		        	searchIDCache.put(searcher.doc(doc.doc, fields).getValues("search.uniqueid")[0], doc.doc);
+		        long[] docKeys;
+		        if (base != null && base.getSearcherOpenTime() == searcher.getOpenTime()) {
+		            docKeys = base.getDocKeys();
 		        }
-		        Date endSearch = new Date();            
-		        long searcherTime = endSearch.getTime() - startSearch.getTime();
+		        else {
+		            docKeys = readDocKeys(searcher.getIndexReader());
+		        }
+		        long searcherTime = new Date().getTime() - startSearch.getTime();
+		        CrisMetricsSnapshot.Builder builder = base != null
+		                ? new CrisMetricsSnapshot.Builder(base, docKeys)
+		                : new CrisMetricsSnapshot.Builder(docKeys);
 		        Map<String, String> dbprops = getDBProps(searcher.getCore());
 		        
 		        Date startQuery = new Date();
 		        conn = DriverManager.getConnection(dbprops.get("database.url"),
 		                dbprops.get("database.username"),
 		                dbprops.get("database.password"));
-		        ps = conn.prepareStatement(
-		                "select resourceid, resourcetypeid, metrictype, remark, metriccount, timestampcreated, startdate, enddate from cris_metrics where last = true");
+		        if (base != null) {
+		            ps = conn.prepareStatement(
+		                    "select resourceid, resourcetypeid, metrictype, remark, metriccount, timestampcreated, startdate, enddate from cris_metrics where last = true and timestampcreated >= ?");
+		            ps.setTimestamp(1, new Timestamp(since));
+		        }
+		        else {
+		            ps = conn.prepareStatement(
+		                    "select resourceid, resourcetypeid, metrictype, remark, metriccount, timestampcreated, startdate, enddate from cris_metrics where last = true");
+		        }
 		        rs = ps.executeQuery();
 		        log.debug("QUERY TIME:" + (new Date().getTime()-startQuery.getTime()));
 		        
+		        Map<String, String> keys = new HashMap<String, String>();
 		        while (rs.next())
 		        {
-		        	if (stop) {
-		        		return;
-		        	}
-		            Integer resourceId = (Integer)rs.getObject(1);
-		            int resourceTypeId = rs.getInt(2);
 		            String type = rs.getString(3);
-		            String remark = rs.getString(4);
-		            double count = rs.getDouble(5);
-		            Date acqTime = rs.getDate(6);
-		            Date startTime = rs.getDate(7);
-		            Date endTime = rs.getDate(8);
-		            String searchUniqueId = resourceTypeId+"-"+resourceId;
-                    Integer docId = searchIDCache.get(searchUniqueId);
-		            if (docId != null) {
-		                String key = new StringBuffer("crismetrics_").append(type.toLowerCase()).toString();
-		                Map<String, Double> tmpSubMap;
-		                Map<String, ExtraInfo> tmpSubRemarkMap;
-		                boolean add = false;
-		                if(metricsCopy.containsKey(key)) {
-		                    tmpSubMap = metricsCopy.get(key);
-		                    tmpSubRemarkMap = metricsRemarksCopy.get(key);
-		                }
-		                else {
-		                	add = true;
-		                	tmpSubMap = new HashMap<>();
-			                tmpSubRemarkMap = new HashMap<>();
-		                }
-		            
-		                tmpSubMap.put(searchUniqueId, count);
-		                tmpSubRemarkMap.put(searchUniqueId, new ExtraInfo(remark, acqTime, startTime, endTime));
-		                docIdToUniqueIdCopy.put(docId, searchUniqueId);
-		
-		                if(add) {
-		                    metricsCopy.put(key, tmpSubMap);
-		                    metricsRemarksCopy.put(key, tmpSubRemarkMap);
-		                }
+		            String key = keys.get(type);
+		            if (key == null) {
+		                key = "crismetrics_" + type.toLowerCase();
+		                keys.put(type, key);
 		            }
+		            builder.add(rs.getInt(2), rs.getInt(1), key, rs.getDouble(5), rs.getString(4),
+		                    rs.getDate(6), rs.getDate(7), rs.getDate(8));
+		        }
+		        CrisMetricsSnapshot snapshot = builder.build(searcher.getOpenTime());
+		        cache.lastLoad = startQuery.getTime();
+		        if (base == null) {
+		            cache.lastFullLoad = startQuery.getTime();
 		        }
 		        Date end = new Date();
 		        log.info("SEARCH TIME: "+searcherTime);
-		        log.info("RENEW CACHE TIME: "+(end.getTime()-start.getTime()));
+		        log.info((base != null ? "REFRESH" : "RENEW") + " CACHE TIME: "+(end.getTime()-start.getTime()));
+		        return snapshot;
 		    }
 		    catch (Exception e)
 		    {
@@ -393,25 +614,7 @@ public class CrisMetricsUpdateListener implements SolrEventListener
 		        }
 		    }
 		    
-		    Map<String, Map<String, Double>> m = metrics.get(coreName);
-		    Map<String, Map<String, ExtraInfo>> ei = extraInfo.get(coreName);
-		    
-		    if (ei != null) {
-		    	ei.clear();
-		    }
-		
-		    ei = metricsRemarksCopy;
-		    extraInfo.put(coreName, ei);
-		
-		    if (m != null) {
-		    	m.clear();
-		    }
-		    
-		    m = metricsCopy;
-		    metrics.put(coreName, m);
-
-		    docIdToUniqueId.put(coreName, docIdToUniqueIdCopy);
 	}
 
     }
-}
\ No newline at end of file
+}
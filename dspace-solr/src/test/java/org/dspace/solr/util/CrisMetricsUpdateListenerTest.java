@@ -0,0 +1,150 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.solr.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.dspace.solr.schema.CrisMetricsFieldComparatorSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CrisMetricsUpdateListenerTest
+{
+    private static final String CORE = "test";
+
+    private static final String METRIC = "crismetrics_view";
+
+    private RAMDirectory directory;
+
+    private IndexWriter writer;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = new RAMDirectory();
+        writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_4_10_2,
+                new KeywordAnalyzer()));
+        for (int id = 1; id <= 4; id++)
+        {
+            Document doc = new Document();
+            doc.add(new StringField("search.uniqueid", "2-" + id, Field.Store.YES));
+            writer.addDocument(doc);
+        }
+        writer.commit();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        CrisMetricsUpdateListener.setSnapshot(CORE, null);
+        writer.close();
+        directory.close();
+    }
+
+    /**
+     * @return the search.uniqueid and the metric of the documents, sorted by
+     *         the metric descending, as seen by a searcher opened at the
+     *         given time
+     */
+    private static List<String> sort(IndexReader reader, final long searcherOpenTime)
+            throws Exception
+    {
+        CrisMetricsFieldComparatorSource source = new CrisMetricsFieldComparatorSource(CORE)
+        {
+            @Override
+            protected Long getSearcherOpenTime()
+            {
+                return searcherOpenTime;
+            }
+        };
+        IndexSearcher searcher = new IndexSearcher(reader);
+        List<String> result = new ArrayList<String>();
+        for (ScoreDoc hit : searcher.search(new MatchAllDocsQuery(), 10,
+                new Sort(new SortField(METRIC, source, true))).scoreDocs)
+        {
+            result.add(reader.document(hit.doc).get("search.uniqueid") + "="
+                    + ((FieldDoc) hit).fields[0]);
+        }
+        return result;
+    }
+
+    @Test
+    public void testSortAfterCommit() throws Exception
+    {
+        DirectoryReader before = DirectoryReader.open(directory);
+        CrisMetricsSnapshot.Builder builder = new CrisMetricsSnapshot.Builder(
+                CrisMetricsUpdateListener.readDocKeys(before));
+        builder.add(2, 1, METRIC, 10, null, null, null, null);
+        builder.add(2, 2, METRIC, 20, null, null, null, null);
+        builder.add(2, 3, METRIC, 30, null, null, null, null);
+        CrisMetricsSnapshot snapshot = builder.build(1000);
+        CrisMetricsUpdateListener.setSnapshot(CORE, snapshot);
+        assertEquals("[2-3=30.0, 2-2=20.0, 2-1=10.0, 2-4=null]", sort(before, 1000).toString());
+
+        // a commit moves the documents: 2-2 takes the docId of 2-1
+        writer.deleteDocuments(new Term("search.uniqueid", "2-1"));
+        writer.forceMerge(1);
+        writer.commit();
+        DirectoryReader after = DirectoryReader.open(directory);
+        assertEquals("2-2", after.document(0).get("search.uniqueid"));
+        // the docIds of the previous searcher give the wrong metrics
+        assertEquals(10, snapshot.getValue(METRIC, 0), 0);
+
+        // the new searcher gets its metrics while warming, before serving
+        // any request
+        assertTrue(CrisMetricsUpdateListener.warm(CORE, after, 2000));
+        assertEquals("[2-3=30.0, 2-2=20.0, 2-4=null]", sort(after, 2000).toString());
+        // the requests still on the previous searcher keep theirs
+        assertSame(snapshot, CrisMetricsUpdateListener.getSnapshot(CORE, 1000));
+        assertEquals("[2-3=30.0, 2-2=20.0, 2-1=10.0, 2-4=null]", sort(before, 1000).toString());
+        before.close();
+
+        // another commit, the oldest searcher is closed by then
+        writer.deleteDocuments(new Term("search.uniqueid", "2-2"));
+        writer.forceMerge(1);
+        writer.commit();
+        DirectoryReader last = DirectoryReader.open(directory);
+        assertTrue(CrisMetricsUpdateListener.warm(CORE, last, 3000));
+        assertEquals("[2-3=30.0, 2-4=null]", sort(last, 3000).toString());
+        assertEquals("[2-3=30.0, 2-2=20.0, 2-4=null]", sort(after, 2000).toString());
+        assertNull(CrisMetricsUpdateListener.getSnapshot(CORE, 1000));
+        after.close();
+        last.close();
+    }
+
+    @Test
+    public void testWarmWithoutMetrics() throws Exception
+    {
+        DirectoryReader reader = DirectoryReader.open(directory);
+        // the first searcher, the metrics are loaded by the first request
+        assertFalse(CrisMetricsUpdateListener.warm(CORE, reader, 1000));
+        assertNull(CrisMetricsUpdateListener.getSnapshot(CORE, 1000));
+        reader.close();
+    }
+}